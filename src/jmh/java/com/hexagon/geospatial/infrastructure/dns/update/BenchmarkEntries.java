@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic entry sets for the benchmarks: mostly A records spread over
+ * a few reverse zones, with every tenth entry a CNAME and every tenth an
+ * AAAA record.
+ *
+ * @author Chris
+ */
+public class BenchmarkEntries {
+    
+    public static DnsEntry entry(int index, int variant) {
+        String fqdn = String.format("host%d.example.com", index);
+        if(index % 10 == 9) {
+            return new DnsEntryCname(fqdn, String.format("host%d.example.com", index - 1 + variant % 2));
+        } else if(index % 10 == 4) {
+            return new DnsEntryAAAARecord(fqdn, String.format("fd00::%x:%x:%x", index >> 16, index & 0xffff, variant));
+        }
+        return new DnsEntryARecord(fqdn, String.format("10.%d.%d.%d", (index >> 16) & 0xff, (index >> 8) & 0xff, (index + variant) & 0xff));
+    }
+    
+    public static List<DnsEntry> generate(int count) {
+        List<DnsEntry> dnsEntries = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            dnsEntries.add(entry(i, 0));
+        }
+        return dnsEntries;
+    }
+}
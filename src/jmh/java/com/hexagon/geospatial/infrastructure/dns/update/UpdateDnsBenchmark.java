@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.hexagon.geospatial.infrastructure.dns.update.cluster.LeaderElection;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.StorageBenchmarkFixture;
+import com.hexagon.geospatial.infrastructure.dns.update.sync.StubDnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.sync.SyncBenchmarkFixture;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * {@link DnsUpdateController#reconcileDns()} end to end against real storage
+ * and a {@link StubDnsClient}.
+ * 
+ * <ul>
+ * <li>fullSync: every entry is pushed, as on the first sync after start-up</li>
+ * <li>fullSyncUnchanged: a periodic full sync where the server already has
+ * everything</li>
+ * <li>registerAndSync: a batch of {@code changes} registrations followed by
+ * the incremental sync that pushes them</li>
+ * </ul>
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateDnsBenchmark {
+    
+    @Param({"1000", "10000", "100000"})
+    int entries;
+    
+    @Param({"100"})
+    int changes;
+    
+    @Param({"json", "journal"})
+    String storageType;
+    
+    File directory;
+    DnsEntryStorage storage;
+    StubDnsClient dnsClient;
+    DnsUpdateController pushEverything;
+    DnsUpdateController skipUnchanged;
+    int next;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("dns-update-benchmark").toFile();
+        storage = StorageBenchmarkFixture.newStorage(storageType, directory);
+        storage.addDnsEntries(BenchmarkEntries.generate(entries));
+        dnsClient = new StubDnsClient();
+        pushEverything = newController(0);
+        skipUnchanged = newController(Long.MAX_VALUE / 2);
+        skipUnchanged.reconcileDns();
+    }
+    
+    DnsUpdateController newController(long reassertMillis) {
+        DnsUpdateController controller = new DnsUpdateController();
+        controller.dnsEntriesStorage = storage;
+        controller.dnsSyncService = SyncBenchmarkFixture.newSyncService(storage, dnsClient, reassertMillis);
+        controller.leaderElection = new LeaderElection();
+        return controller;
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyncBenchmarkFixture.close(pushEverything.dnsSyncService);
+        SyncBenchmarkFixture.close(skipUnchanged.dnsSyncService);
+        StorageBenchmarkFixture.close(storage);
+        FileSystemUtils.deleteRecursively(directory);
+    }
+    
+    @Benchmark
+    public void fullSync() throws Exception {
+        SyncBenchmarkFixture.expireFullSync(pushEverything.dnsSyncService);
+        pushEverything.reconcileDns();
+    }
+    
+    @Benchmark
+    public void fullSyncUnchanged() throws Exception {
+        SyncBenchmarkFixture.expireFullSync(skipUnchanged.dnsSyncService);
+        skipUnchanged.reconcileDns();
+    }
+    
+    @Benchmark
+    public void registerAndSync() throws Exception {
+        List<DnsEntry> changed = new ArrayList<>(changes);
+        for(int i = 0; i < changes; i++) {
+            int index = next++;
+            changed.add(BenchmarkEntries.entry(index % entries, index / entries + 1));
+        }
+        storage.addDnsEntries(changed);
+        pushEverything.reconcileDns();
+    }
+}
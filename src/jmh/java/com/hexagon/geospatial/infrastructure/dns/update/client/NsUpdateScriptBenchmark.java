@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.BenchmarkEntries;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the nsupdate script for one zone transaction, without running
+ * nsupdate.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NsUpdateScriptBenchmark {
+    
+    @Param({"1", "50", "500"})
+    int entries;
+    
+    NsUpdateDnsClient client;
+    List<DnsUpdate> updates;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = new NsUpdateDnsClient();
+        client.authServer = "10.0.0.53";
+        client.planner = new DnsUpdatePlanner(new ZoneResolver("example.com"));
+        updates = client.planner.plan(BenchmarkEntries.generate(entries), new DnsBatchResult()).stream()
+                .filter((update) -> update.getZone().equals("example.com"))
+                .collect(Collectors.toList());
+    }
+    
+    @Benchmark
+    public String buildScript() {
+        return client.buildScript("10.0.0.53", "example.com", updates);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.BenchmarkEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and full iterations of each {@link DnsEntryIndex} holding
+ * {@code entries} entries. Setup prints the heap and off-heap memory the
+ * index holds on to once the entries it was given are dropped.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class DnsEntryIndexBenchmark {
+    
+    @Param({"100000", "1000000"})
+    int entries;
+    
+    @Param({"HEAP", "COMPACT"})
+    DnsEntryIndex.Type type;
+    
+    DnsEntryIndex index;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        index = load(type, entries);
+        System.gc();
+        long retained = memory.getHeapMemoryUsage().getUsed() - before;
+        System.out.println(String.format("%n%s index of %d entries: about %d bytes of heap and %d off-heap", 
+                type, index.size(), retained, index.getOffHeapBytes()));
+    }
+    
+    static DnsEntryIndex load(DnsEntryIndex.Type type, int entries) {
+        DnsEntryIndex index = type == DnsEntryIndex.Type.COMPACT ? new CompactDnsEntryIndex() : new HeapDnsEntryIndex();
+        BenchmarkEntries.generate(entries).stream().forEach(index::put);
+        return index;
+    }
+    
+    @Benchmark
+    public DnsEntry get() {
+        return index.get(String.format("host%d.example.com", ThreadLocalRandom.current().nextInt(entries)));
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int iterate() {
+        int count = 0;
+        for(DnsEntry dnsEntry : index.iterateAfter(null)) {
+            count++;
+        }
+        return count;
+    }
+}
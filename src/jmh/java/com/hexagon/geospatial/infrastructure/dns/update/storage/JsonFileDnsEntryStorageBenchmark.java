@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.BenchmarkEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Register and list against a storage file already holding
+ * {@code entries} entries. Each add changes an existing entry so the size
+ * stays fixed.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonFileDnsEntryStorageBenchmark {
+    
+    @Param({"1000", "10000", "100000"})
+    int entries;
+    
+    File directory;
+    JsonFileDnsEntryStorage storage;
+    int next;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("dns-storage-benchmark").toFile();
+        storage = StorageBenchmarkFixture.newJsonStorage(directory);
+        storage.addDnsEntries(BenchmarkEntries.generate(entries));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.preDestroy();
+        storage.jsonStorageFile.delete();
+        directory.delete();
+    }
+    
+    @Benchmark
+    public void addDnsEntry() throws IOException {
+        int index = next++;
+        storage.addDnsEntry(BenchmarkEntries.entry(index % entries, index / entries + 1));
+    }
+    
+    @Benchmark
+    public List<DnsEntry> listAllDnsEntries() throws IOException {
+        return storage.listAllDnsEnrties();
+    }
+}
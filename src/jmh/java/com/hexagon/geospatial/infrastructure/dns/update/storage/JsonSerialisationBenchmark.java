@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hexagon.geospatial.infrastructure.dns.update.BenchmarkEntries;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The storage file format on its own, with no file I/O: the default-typed
+ * mapper {@link JsonFileDnsEntryStorage} uses, applied to the whole entity.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerialisationBenchmark {
+    
+    @Param({"1000", "10000", "100000"})
+    int entries;
+    
+    ObjectMapper mapper;
+    JsonFileDnsEntryEntity entity;
+    byte[] serialised;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mapper = new JsonFileDnsEntryStorage().mapper;
+        entity = new JsonFileDnsEntryEntity();
+        entity.setDnsEntries(BenchmarkEntries.generate(entries));
+        serialised = mapper.writeValueAsBytes(entity);
+    }
+    
+    @Benchmark
+    public byte[] serialise() throws IOException {
+        return mapper.writeValueAsBytes(entity);
+    }
+    
+    @Benchmark
+    public JsonFileDnsEntryEntity deserialise() throws IOException {
+        return mapper.readValue(serialised, JsonFileDnsEntryEntity.class);
+    }
+}
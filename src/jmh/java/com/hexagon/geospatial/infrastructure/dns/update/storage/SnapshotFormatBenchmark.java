@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.BenchmarkEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Cold start of {@link JournalDnsEntryStorage} from a snapshot of
+ * {@code entries} entries in each {@code format}, and reading the snapshot
+ * on its own. Setup prints the file size and the heap the loaded entries
+ * hold on to; run {@code org.openjdk.jmh.Main SnapshotFormat -prof gc} for
+ * the bytes allocated per load.
+ *
+ * @author Chris
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotFormatBenchmark {
+    
+    @Param({"10000", "100000"})
+    int entries;
+    
+    @Param({"JSON", "BINARY"})
+    JournalDnsEntryStorage.SnapshotFormat format;
+    
+    File directory;
+    File snapshot;
+    JournalDnsEntryStorage reader;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot-benchmark").toFile();
+        reader = StorageBenchmarkFixture.newJournalStorage(directory, format);
+        reader.writeSnapshot(BenchmarkEntries.generate(entries));
+        reader.preDestroy();
+        snapshot = reader.snapshotFileFor(format);
+        
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        List<DnsEntry> loaded = readSnapshot();
+        System.gc();
+        long retained = memory.getHeapMemoryUsage().getUsed() - before;
+        System.out.println(String.format("%n%s snapshot of %d entries: %d bytes on disk, about %d bytes of heap once loaded", 
+                format, loaded.size(), snapshot.length(), retained));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+    
+    @Benchmark
+    public List<DnsEntry> readSnapshot() throws IOException {
+        return reader.readSnapshot(snapshot);
+    }
+    
+    @Benchmark
+    public int recover() throws IOException {
+        JournalDnsEntryStorage storage = StorageBenchmarkFixture.newJournalStorage(directory, format);
+        try {
+            return storage.listAllDnsEnrties().size();
+        } finally {
+            storage.preDestroy();
+        }
+    }
+}
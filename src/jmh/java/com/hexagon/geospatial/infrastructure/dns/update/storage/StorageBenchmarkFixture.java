@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates storage in a scratch directory, configured as Spring would with
+ * default properties, for benchmarks outside this package.
+ *
+ * @author Chris
+ */
+public class StorageBenchmarkFixture {
+    
+    public static JsonFileDnsEntryStorage newJsonStorage(File directory) {
+        JsonFileDnsEntryStorage storage = new JsonFileDnsEntryStorage();
+        storage.jsonStorageFile = new File(directory, "dnsEntries.json");
+        storage.watchStorageFile = false;
+        storage.postConstruct();
+        return storage;
+    }
+    
+    public static JournalDnsEntryStorage newJournalStorage(File directory) throws IOException {
+        return newJournalStorage(directory, JournalDnsEntryStorage.SnapshotFormat.JSON);
+    }
+    
+    public static JournalDnsEntryStorage newJournalStorage(File directory, JournalDnsEntryStorage.SnapshotFormat snapshotFormat) throws IOException {
+        JournalDnsEntryStorage storage = new JournalDnsEntryStorage();
+        storage.snapshotFormat = snapshotFormat;
+        storage.snapshotFile = new File(directory, "dnsEntries.snapshot.json");
+        storage.binarySnapshotFile = new File(directory, "dnsEntries.snapshot.bin");
+        storage.logFile = new File(directory, "dnsEntries.journal");
+        storage.legacyJsonFile = new File(directory, "dnsEntries.json");
+        storage.compactAfterRecords = 10000;
+        storage.maxGroupSize = 512;
+        storage.postConstruct();
+        return storage;
+    }
+    
+    public static DnsEntryStorage newStorage(String storageType, File directory) throws IOException {
+        return "journal".equals(storageType) ? newJournalStorage(directory) : newJsonStorage(directory);
+    }
+    
+    public static void close(DnsEntryStorage storage) throws IOException {
+        if(storage instanceof JsonFileDnsEntryStorage) {
+            ((JsonFileDnsEntryStorage)storage).preDestroy();
+        } else if(storage instanceof JournalDnsEntryStorage) {
+            ((JournalDnsEntryStorage)storage).preDestroy();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsBatchResult;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepts every update without sending anything, so a benchmark measures
+ * this service rather than the DNS server.
+ *
+ * @author Chris
+ */
+public class StubDnsClient implements DnsClient {
+    
+    final AtomicLong applied = new AtomicLong();
+    
+    @Override
+    public void UpdateARecordEntry(DnsEntryARecord dnsEntry) {
+        applied.incrementAndGet();
+    }
+
+    @Override
+    public void UpdateAAAARecordEntry(DnsEntryAAAARecord dnsEntry) {
+        applied.incrementAndGet();
+    }
+
+    @Override
+    public void UpdateCnameRecordEntry(DnsEntryCname dnsEntry) {
+        applied.incrementAndGet();
+    }
+
+    @Override
+    public void UpdateTxtRecordEntry(DnsEntryTxt dnsEntry) {
+        applied.incrementAndGet();
+    }
+
+    @Override
+    public List<String> getServers() {
+        return Collections.singletonList("stub");
+    }
+
+    @Override
+    public DnsBatchResult applyBatch(String server, List<DnsEntry> dnsEntries) {
+        DnsBatchResult result = new DnsBatchResult();
+        result.getSucceeded().addAll(dnsEntries);
+        applied.addAndGet(dnsEntries.size());
+        return result;
+    }
+
+    @Override
+    public DnsBatchResult deleteBatch(String server, List<DnsEntry> dnsEntries) {
+        return applyBatch(server, dnsEntries);
+    }
+    
+    public long getApplied() {
+        return applied.get();
+    }
+}
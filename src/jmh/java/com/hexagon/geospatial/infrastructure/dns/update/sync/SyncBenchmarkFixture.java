@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+
+/**
+ * Wires the sync service by hand, the way Spring would with default
+ * properties, for benchmarks outside this package.
+ *
+ * @author Chris
+ */
+public class SyncBenchmarkFixture {
+    
+    public static DnsSyncService newSyncService(DnsEntryStorage dnsEntriesStorage, DnsClient dnsClient, long reassertMillis) {
+        DnsPushPipeline pushPipeline = new DnsPushPipeline();
+        pushPipeline.dnsClient = dnsClient;
+        pushPipeline.threads = 8;
+        pushPipeline.useVirtualThreads = true;
+        pushPipeline.sliceSize = 250;
+        pushPipeline.maxInFlight = 16;
+        pushPipeline.timeoutMillis = 60000;
+        pushPipeline.postConstruct();
+        
+        DnsSyncService dnsSyncService = new DnsSyncService();
+        dnsSyncService.retryInitialDelayMillis = 5000;
+        dnsSyncService.retryMaxDelayMillis = 600000;
+        // sync on the benchmark thread so each invocation measures a whole sync
+        dnsSyncService.syncExecutor = Runnable::run;
+        dnsSyncService.dnsClient = dnsClient;
+        dnsSyncService.dnsEntriesStorage = dnsEntriesStorage;
+        dnsSyncService.pushPipeline = pushPipeline;
+        dnsSyncService.dnsUpdatePeriod = 600000;
+        dnsSyncService.dnsReassertPeriod = reassertMillis;
+        dnsSyncService.postConstruct();
+        return dnsSyncService;
+    }
+    
+    /**
+     * Makes the next sync a full one.
+     */
+    public static void expireFullSync(DnsSyncService dnsSyncService) {
+        dnsSyncService.getServerSyncs().stream().forEach((serverSync) -> serverSync.lastFullSyncTime = 0);
+    }
+    
+    public static void close(DnsSyncService dnsSyncService) {
+        dnsSyncService.pushPipeline.preDestroy();
+    }
+}
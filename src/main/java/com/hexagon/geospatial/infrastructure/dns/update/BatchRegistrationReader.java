@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.BatchRegistrationRequest;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.BatchRegistrationResult;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a batch of registrations one element at a time from either a JSON
+ * array or newline-delimited JSON objects.
+ *
+ * @author Chris
+ */
+public class BatchRegistrationReader {
+    
+    final ObjectReader requestReader;
+    final List<DnsEntry> dnsEntries;
+    final List<BatchRegistrationResult> results;
+    
+    public BatchRegistrationReader(ObjectMapper mapper) {
+        this.requestReader = mapper.readerFor(BatchRegistrationRequest.class);
+        this.dnsEntries = new ArrayList<>();
+        this.results = new ArrayList<>();
+    }
+    
+    public List<DnsEntry> getDnsEntries() {
+        return dnsEntries;
+    }
+    
+    public List<BatchRegistrationResult> getResults() {
+        return results;
+    }
+    
+    public void read(InputStream body) throws IOException {
+        try(JsonParser parser = requestReader.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if(array) {
+                token = parser.nextToken();
+            }
+            while(token != null && token != JsonToken.END_ARRAY) {
+                if(token != JsonToken.START_OBJECT) {
+                    throw new IOException(String.format("Expected a registration object at %s", parser.getCurrentLocation()));
+                }
+                accept(requestReader.readValue(parser));
+                token = parser.nextToken();
+            }
+            if(array && token != JsonToken.END_ARRAY) {
+                throw new IOException("Registration array is not terminated");
+            }
+        }
+    }
+    
+    void accept(BatchRegistrationRequest request) {
+        int index = results.size();
+        String problem = validate(request);
+        if(problem != null) {
+            results.add(new BatchRegistrationResult(index, request.getFqdn(), BatchRegistrationResult.Status.REJECTED, problem));
+            return;
+        }
+        try {
+            dnsEntries.add(toDnsEntry(request));
+        } catch(IllegalArgumentException ex) {
+            results.add(new BatchRegistrationResult(index, request.getFqdn(), BatchRegistrationResult.Status.REJECTED, ex.getMessage()));
+            return;
+        }
+        results.add(new BatchRegistrationResult(index, request.getFqdn(), BatchRegistrationResult.Status.REGISTERED, null));
+    }
+    
+    /**
+     * Rejects entries already accepted, for checks against what is stored.
+     * 
+     * @param problems null or why, for each of {@link #getDnsEntries()}
+     */
+    public void reject(List<String> problems) {
+        int entry = 0;
+        List<DnsEntry> stillAccepted = new ArrayList<>(dnsEntries.size());
+        for(BatchRegistrationResult result : results) {
+            if(result.getStatus() != BatchRegistrationResult.Status.REGISTERED) {
+                continue;
+            }
+            String problem = problems.get(entry);
+            if(problem == null) {
+                stillAccepted.add(dnsEntries.get(entry));
+            } else {
+                result.setStatus(BatchRegistrationResult.Status.REJECTED);
+                result.setMessage(problem);
+            }
+            entry++;
+        }
+        dnsEntries.clear();
+        dnsEntries.addAll(stillAccepted);
+    }
+    
+    static DnsEntry toDnsEntry(BatchRegistrationRequest request) {
+        DnsEntry dnsEntry;
+        switch(request.getType()) {
+            case A:
+                dnsEntry = new DnsEntryARecord(request.getFqdn(), request.getIpAddress(), request.getTtl());
+                break;
+            case AAAA:
+                dnsEntry = new DnsEntryAAAARecord(request.getFqdn(), request.getIpAddress(), request.getTtl());
+                break;
+            case CNAME:
+                dnsEntry = new DnsEntryCname(request.getFqdn(), request.getDestinationFqdn(), request.getTtl());
+                break;
+            case TXT:
+                dnsEntry = new DnsEntryTxt(request.getFqdn(), request.getText(), request.getTtl());
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported type %s", request.getType()));
+        }
+        dnsEntry.setLease(request.getLease());
+        return dnsEntry;
+    }
+    
+    static String validate(BatchRegistrationRequest request) {
+        if(request.getType() == null) {
+            return "type is required";
+        } else if(isEmpty(request.getFqdn())) {
+            return "fqdn is required";
+        } else if(request.getTtl() < 0) {
+            return "ttl must not be negative";
+        } else if(request.getLease() < 0) {
+            return "lease must not be negative";
+        } else if(request.getType() == DnsEntryType.A && isEmpty(request.getIpAddress())) {
+            return "ipAddress is required for an A record";
+        } else if(request.getType() == DnsEntryType.AAAA && isEmpty(request.getIpAddress())) {
+            return "ipAddress is required for an AAAA record";
+        } else if(request.getType() == DnsEntryType.TXT && request.getText() == null) {
+            return "text is required for a TXT record";
+        } else if(request.getType() == DnsEntryType.CNAME && isEmpty(request.getDestinationFqdn())) {
+            return "destinationFqdn is required for a CNAME";
+        }
+        return null;
+    }
+    
+    static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A token bucket per client for the {@code /register} endpoints. A client
+ * may make {@code dns.register.rate.limit.burst} requests at once, then
+ * {@code dns.register.rate.limit.per.second} a second. Rejections are
+ * counted as {@code dns.register.rate.limited}.
+ *
+ * @author Chris
+ */
+@Component
+public class ClientRateLimiter {
+    
+    @Value("${dns.register.rate.limit.enabled:true}")
+    boolean enabled;
+    
+    @Value("${dns.register.rate.limit.per.second:10}")
+    double permitsPerSecond;
+    
+    @Value("${dns.register.rate.limit.burst:20}")
+    double burst;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    static class Bucket {
+        double tokens;
+        long refilledAt;
+        
+        Bucket(double tokens, long refilledAt) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+        }
+    }
+    
+    final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    
+    void refill(Bucket bucket, long nowNanos) {
+        double elapsedSeconds = Math.max(0, nowNanos - bucket.refilledAt) / (double)TimeUnit.SECONDS.toNanos(1);
+        bucket.tokens = Math.min(burst, bucket.tokens + elapsedSeconds * permitsPerSecond);
+        bucket.refilledAt = nowNanos;
+    }
+    
+    /**
+     * @return 0 if the client may go ahead, else how many nanoseconds until
+     * it may
+     */
+    public long tryAcquire(String client, long nowNanos) {
+        if(!enabled) {
+            return 0;
+        }
+        Bucket bucket = buckets.computeIfAbsent(client, (key) -> new Bucket(burst, nowNanos));
+        synchronized(bucket) {
+            refill(bucket, nowNanos);
+            if(bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            meterRegistry.counter("dns.register.rate.limited").increment();
+            return (long)Math.ceil((1 - bucket.tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+    
+    /**
+     * Drops the buckets that have refilled, which behave the same as a new
+     * one.
+     */
+    public void evictIdle(long nowNanos) {
+        buckets.values().removeIf((bucket) -> {
+            synchronized(bucket) {
+                refill(bucket, nowNanos);
+                return bucket.tokens >= burst;
+            }
+        });
+    }
+    
+    public int size() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * One page of the entry list, walked straight off the storage's ordered view
+ * rather than copied. A limited page is collected in one pass, so the next
+ * cursor can go in a header before the body is streamed and the body holds
+ * exactly the entries up to it, whatever is written to the view meanwhile.
+ * An unlimited listing is streamed without being collected.
+ *
+ * @author Chris
+ */
+public class DnsEntryListing {
+    
+    final Iterable<DnsEntry> dnsEntries;
+    final DnsEntryType type;
+    final String suffix;
+    final int limit;
+    List<DnsEntry> page;
+    String nextCursor;
+    
+    /**
+     * @param dnsEntries entries in FQDN order, starting after the cursor
+     * @param type only list entries of this type, or all when null
+     * @param suffix only list entries at or below this domain, or all when null
+     * @param limit the page size, or 0 for everything
+     */
+    public DnsEntryListing(Iterable<DnsEntry> dnsEntries, DnsEntryType type, String suffix, int limit) {
+        this.dnsEntries = dnsEntries;
+        this.type = type;
+        this.suffix = suffix == null || suffix.isEmpty() ? null : normaliseSuffix(suffix);
+        this.limit = limit;
+    }
+    
+    /**
+     * @param dnsEntries entries in FQDN order
+     * @return those after the cursor, or all of them when it is null
+     */
+    public static List<DnsEntry> after(List<DnsEntry> dnsEntries, String cursor) {
+        if(cursor == null) {
+            return dnsEntries;
+        }
+        return dnsEntries.stream()
+                .filter((dnsEntry) -> dnsEntry.getFqdn().compareTo(cursor) > 0)
+                .collect(Collectors.toList());
+    }
+    
+    static String normaliseSuffix(String suffix) {
+        String normalised = suffix;
+        if(normalised.startsWith(".")) {
+            normalised = normalised.substring(1);
+        }
+        if(normalised.endsWith(".")) {
+            normalised = normalised.substring(0, normalised.length() - 1);
+        }
+        return normalised;
+    }
+    
+    boolean matches(DnsEntry dnsEntry) {
+        if(type != null && DnsEntryType.of(dnsEntry) != type) {
+            return false;
+        }
+        if(suffix == null) {
+            return true;
+        }
+        String fqdn = dnsEntry.getFqdn();
+        if(fqdn.length() == suffix.length()) {
+            return fqdn.equalsIgnoreCase(suffix);
+        }
+        int start = fqdn.length() - suffix.length();
+        return start > 0 && fqdn.charAt(start - 1) == '.' && fqdn.regionMatches(true, start, suffix, 0, suffix.length());
+    }
+    
+    /**
+     * Collects at most {@code limit} matching entries, looking one past them
+     * to tell whether another page follows.
+     */
+    void collectPage() {
+        page = new ArrayList<>(limit);
+        for(DnsEntry dnsEntry : dnsEntries) {
+            if(!matches(dnsEntry)) {
+                continue;
+            }
+            if(page.size() == limit) {
+                nextCursor = page.get(limit - 1).getFqdn();
+                return;
+            }
+            page.add(dnsEntry);
+        }
+    }
+    
+    /**
+     * @return the cursor for the following page, or null if this is the last
+     */
+    public String findNextCursor() {
+        if(limit <= 0) {
+            return null;
+        }
+        if(page == null) {
+            collectPage();
+        }
+        return nextCursor;
+    }
+    
+    /**
+     * Streams the page as a JSON array, one entry at a time.
+     */
+    public void writeTo(OutputStream outputStream, ObjectMapper mapper) throws IOException {
+        if(limit > 0 && page == null) {
+            collectPage();
+        }
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try(JsonGenerator generator = mapper.getFactory().createGenerator(outputStream)) {
+            generator.writeStartArray();
+            if(page != null) {
+                for(DnsEntry dnsEntry : page) {
+                    writer.writeValue(generator, dnsEntry);
+                }
+            } else {
+                for(DnsEntry dnsEntry : dnsEntries) {
+                    if(matches(dnsEntry)) {
+                        writer.writeValue(generator, dnsEntry);
+                    }
+                }
+            }
+            generator.writeEndArray();
+        }
+    }
+}
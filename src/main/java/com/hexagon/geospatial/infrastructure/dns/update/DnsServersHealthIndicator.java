@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.client.ServerHealthTracker;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsServerHealth;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Down only when no authoritative server can be reached; with some circuits
+ * open updates still reach the rest and the retry queues catch up the others.
+ *
+ * @author Chris
+ */
+@Component
+public class DnsServersHealthIndicator implements HealthIndicator {
+    
+    @Autowired
+    DnsClient dnsClient;
+    
+    @Autowired
+    ServerHealthTracker serverHealthTracker;
+    
+    @Override
+    public Health health() {
+        List<DnsServerHealth> servers = serverHealthTracker.getHealth(dnsClient.getServers());
+        long open = servers.stream().filter((server) -> server.getState() == DnsServerHealth.State.OPEN).count();
+        Health.Builder builder = open == servers.size() && !servers.isEmpty() ? Health.down() : Health.up();
+        servers.stream().forEach((server) -> builder.withDetail(server.getServer(), server.getState()));
+        return builder.build();
+    }
+}
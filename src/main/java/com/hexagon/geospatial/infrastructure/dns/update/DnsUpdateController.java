@@ -15,30 +15,66 @@
  */
 package com.hexagon.geospatial.infrastructure.dns.update;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
-import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.cluster.ClusterReplica;
+import com.hexagon.geospatial.infrastructure.dns.update.cluster.LeaderElection;
+import com.hexagon.geospatial.infrastructure.dns.update.cluster.LeaderForwardingFilter;
+import com.hexagon.geospatial.infrastructure.dns.update.client.ServerHealthTracker;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.BatchRegistrationResult;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.ClusterStatus;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DeregistrationResult;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
 import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
 import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryStatus;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryType;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsServerHealth;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DomainCount;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DriftReport;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.IpAddresses;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.StorageStatistics;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.SyncStatistics;
 import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.LeaseTracker;
+import com.hexagon.geospatial.infrastructure.dns.update.sync.DnsSyncService;
+import com.hexagon.geospatial.infrastructure.dns.update.sync.SyncCoordinator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
-import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  *
@@ -49,85 +85,560 @@ import org.springframework.web.server.ResponseStatusException;
 public class DnsUpdateController {
     
     public static final Logger LOGGER = LoggerFactory.getLogger(DnsUpdateController.class);
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
     
     @Autowired
     DnsEntryStorage dnsEntriesStorage;
     
+    @Autowired
+    DnsSyncService dnsSyncService;
+    
+    @Autowired
+    SyncCoordinator syncCoordinator;
+    
     @Autowired
     DnsClient dnsClient;
     
-    @Value("${dns.update.millis:600000}")
-    long dnsUpdatePeriod;
+    @Autowired
+    ServerHealthTracker serverHealthTracker;
     
-    AtomicLong lastNewDnsEntryTime;
-    long lastDnsUpdateTime;
+    @Autowired
+    LeaseTracker leaseTracker;
     
-    @PostConstruct
-    public void postConstruct() {
-        lastNewDnsEntryTime = new AtomicLong(Instant.now().toEpochMilli());
-        lastDnsUpdateTime = Instant.now().toEpochMilli() - dnsUpdatePeriod;
-    }
+    @Autowired
+    ClientRateLimiter rateLimiter;
+    
+    @Autowired
+    LeaderElection leaderElection;
+    
+    @Autowired
+    ClusterReplica clusterReplica;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    /**
+     * Where a proxy puts the caller's address, or empty to rate limit by the
+     * connection's remote address.
+     */
+    @Value("${dns.register.rate.limit.client.header:}")
+    String clientHeader;
+    
+    /**
+     * The most CNAMEs a name may have to follow to reach a record, beyond
+     * which a CNAME registration is rejected.
+     */
+    @Value("${dns.cname.max.chain:8}")
+    int maxCnameChain = 8;
+    
+    /**
+     * Held while a CNAME is checked and stored, so two registrations cannot
+     * each pass the check and together close a loop.
+     */
+    final Object cnameRegistrations = new Object();
+    
+    ObjectMapper batchMapper = new ObjectMapper();
+    
+    /**
+     * Generations restart with the process, so the ETag carries when this
+     * instance started as well.
+     */
+    final long eTagEpoch = System.currentTimeMillis();
+    
+    /**
+     * Whether this instance has taken over storage and sync since it last
+     * became the leader.
+     */
+    volatile boolean promoted;
     
     @GetMapping("/register/{fqdn:.+}/{ipAddress:.+}")
     @ResponseBody
-    public ResponseEntity<DnsEntryARecord> register(@PathVariable("fqdn") String fqdn,
-            @PathVariable("ipAddress") String ipAddress) throws ResponseStatusException {
+    public ResponseEntity<DnsEntry> register(@PathVariable("fqdn") String fqdn,
+            @PathVariable("ipAddress") String ipAddress,
+            @RequestParam(value = "ttl", defaultValue = "0") long ttl,
+            @RequestParam(value = "lease", defaultValue = "0") long lease,
+            HttpServletRequest request) throws ResponseStatusException {
         
+        throttle(request);
         LOGGER.info(String.format("Received request to register %s as %s", fqdn, ipAddress));
+        DnsEntry dnsEntry;
         try {
-            DnsEntryARecord dnsEntry = new DnsEntryARecord(fqdn, ipAddress);
-            dnsEntriesStorage.addDnsEntry(dnsEntry);
-            lastNewDnsEntryTime.set(Instant.now().toEpochMilli());
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntry);
-        } catch(IOException ex) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to store DnsEntryARecord(%s, %s)", fqdn, ipAddress), ex);
+            dnsEntry = ipAddress.indexOf(':') >= 0 
+                    ? new DnsEntryAAAARecord(fqdn, ipAddress, ttl) 
+                    : new DnsEntryARecord(fqdn, ipAddress, ttl);
+        } catch(IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
         }
+        return store(dnsEntry, lease);
     }
     
     @GetMapping("/register/cname/{fqdnExisting:.+}/{fqdnNew:.+}")
     @ResponseBody
-    public ResponseEntity<DnsEntryCname> registerCname(@PathVariable("fqdnExisting") String fqdnExisting,
-            @PathVariable("fqdnNew") String fqdnNew) throws ResponseStatusException {
+    public ResponseEntity<DnsEntry> registerCname(@PathVariable("fqdnExisting") String fqdnExisting,
+            @PathVariable("fqdnNew") String fqdnNew,
+            @RequestParam(value = "ttl", defaultValue = "0") long ttl,
+            @RequestParam(value = "lease", defaultValue = "0") long lease,
+            HttpServletRequest request) throws ResponseStatusException {
         
+        throttle(request);
         LOGGER.info(String.format("Received request to CNAME %s as %s", fqdnNew, fqdnExisting));
+        DnsEntryCname cname = new DnsEntryCname(fqdnNew, fqdnExisting, ttl);
+        synchronized(cnameRegistrations) {
+            String problem;
+            try {
+                problem = dnsEntriesStorage.checkCnameChains(Collections.singletonList(cname), maxCnameChain).get(0);
+            } catch(IOException ex) {
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to check %s", cname), ex);
+            }
+            if(problem != null) {
+                meterRegistry.counter("dns.register.cname.rejected").increment();
+                throw new ResponseStatusException(HttpStatus.CONFLICT, problem);
+            }
+            ResponseEntity<DnsEntry> stored = store(cname, lease);
+            warnIfDangling(cname);
+            return stored;
+        }
+    }
+    
+    /**
+     * A CNAME to a name nothing is stored for is accepted, since its
+     * destination may be registered next or live in another zone, but is
+     * logged and counted as {@code dns.register.cname.dangling}.
+     */
+    void warnIfDangling(DnsEntryCname cname) {
         try {
-            DnsEntryCname dnsEntry = new DnsEntryCname(fqdnNew, fqdnExisting);
+            if(dnsEntriesStorage.getDnsEntry(cname.getDestinationFqdn()) == null) {
+                meterRegistry.counter("dns.register.cname.dangling").increment();
+                LOGGER.warn(String.format("%s is a CNAME to %s, which is not registered", cname.getFqdn(), cname.getDestinationFqdn()));
+            }
+        } catch(IOException ex) {
+            LOGGER.warn(String.format("Unable to look up the destination of %s", cname.getFqdn()), ex);
+        }
+    }
+    
+    @GetMapping("/register/txt/{fqdn:.+}")
+    @ResponseBody
+    public ResponseEntity<DnsEntry> registerTxt(@PathVariable("fqdn") String fqdn,
+            @RequestParam("text") String text,
+            @RequestParam(value = "ttl", defaultValue = "0") long ttl,
+            @RequestParam(value = "lease", defaultValue = "0") long lease,
+            HttpServletRequest request) throws ResponseStatusException {
+        
+        throttle(request);
+        LOGGER.info(String.format("Received request to set TXT of %s", fqdn));
+        return store(new DnsEntryTxt(fqdn, text, ttl), lease);
+    }
+    
+    /**
+     * A request a standby forwarded is limited as the client the standby
+     * took it from, unless {@code clientHeader} says where to find it.
+     */
+    String clientOf(HttpServletRequest request) {
+        String forwarded = clientHeader.isEmpty() ? null : request.getHeader(clientHeader);
+        if(forwarded != null && !forwarded.trim().isEmpty()) {
+            return forwarded.split(",")[0].trim();
+        }
+        String forwardedClient = LeaderForwardingFilter.forwardedClient(request, leaderElection);
+        return forwardedClient != null ? forwardedClient : request.getRemoteAddr();
+    }
+    
+    void throttle(HttpServletRequest request) throws RateLimitExceededException {
+        String client = clientOf(request);
+        long waitNanos = rateLimiter.tryAcquire(client, System.nanoTime());
+        if(waitNanos > 0) {
+            throw new RateLimitExceededException(client, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)));
+        }
+    }
+    
+    /**
+     * A registration with a lease is removed once {@code lease} seconds pass
+     * without it being registered again.
+     * 
+     * Registering the value already stored only renews its lease, without a
+     * write or anything to push, and is counted as
+     * {@code dns.register.unchanged}.
+     */
+    ResponseEntity<DnsEntry> store(DnsEntry dnsEntry, long lease) throws ResponseStatusException {
+        if(dnsEntry.getTtl() < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Invalid ttl %d", dnsEntry.getTtl()));
+        } else if(lease < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Invalid lease %d", lease));
+        }
+        dnsEntry.setLease(lease);
+        try {
+            leaseTracker.renew(dnsEntry, Instant.now().toEpochMilli());
+            if(dnsEntry.equals(dnsEntriesStorage.getDnsEntry(dnsEntry.getFqdn()))) {
+                meterRegistry.counter("dns.register.unchanged").increment();
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntry);
+            }
             dnsEntriesStorage.addDnsEntry(dnsEntry);
-            lastNewDnsEntryTime.set(Instant.now().toEpochMilli());
+            syncCoordinator.signal();
             return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntry);
         } catch(IOException ex) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to store DnsEntryCname(%s, %s)", fqdnNew, fqdnExisting), ex);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to store %s", dnsEntry), ex);
+        }
+    }
+    
+    @PostMapping(value = "/register/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    @ResponseBody
+    public ResponseEntity<List<BatchRegistrationResult>> registerBatch(HttpServletRequest request) throws ResponseStatusException {
+        throttle(request);
+        BatchRegistrationReader reader = new BatchRegistrationReader(batchMapper);
+        try {
+            reader.read(request.getInputStream());
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unable to read registration batch", ex);
+        }
+        
+        try {
+            if(reader.getDnsEntries().stream().anyMatch((dnsEntry) -> dnsEntry instanceof DnsEntryCname)) {
+                synchronized(cnameRegistrations) {
+                    reader.reject(dnsEntriesStorage.checkCnameChains(reader.getDnsEntries(), maxCnameChain));
+                    storeBatch(reader);
+                }
+            } else {
+                storeBatch(reader);
+            }
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(reader.getResults());
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to store batch of %d DnsEntries", reader.getDnsEntries().size()), ex);
+        }
+    }
+    
+    void storeBatch(BatchRegistrationReader reader) throws IOException {
+        LOGGER.info(String.format("Received batch of %d registrations, %d accepted", reader.getResults().size(), reader.getDnsEntries().size()));
+        leaseTracker.renew(reader.getDnsEntries(), Instant.now().toEpochMilli());
+        dnsEntriesStorage.addDnsEntries(reader.getDnsEntries());
+        syncCoordinator.signal();
+    }
+    
+    /**
+     * Removes the entry and deletes its records, PTR included, from every
+     * server. CNAMEs pointing at it are reported, or with {@code cascade}
+     * removed too, along with any CNAMEs pointing at those.
+     */
+    @DeleteMapping("/register/{fqdn:.+}")
+    @ResponseBody
+    public ResponseEntity<DeregistrationResult> deregister(@PathVariable("fqdn") String fqdn,
+            @RequestParam(value = "cascade", defaultValue = "false") boolean cascade,
+            HttpServletRequest request) throws ResponseStatusException {
+        
+        throttle(request);
+        LOGGER.info(String.format("Received request to deregister %s", fqdn));
+        try {
+            DnsEntry stored = dnsEntriesStorage.getDnsEntry(fqdn);
+            if(stored == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("No DnsEntry registered for %s", fqdn));
+            }
+            Map<String, DnsEntry> toRemove = new LinkedHashMap<>();
+            toRemove.put(fqdn, stored);
+            List<DnsEntry> dangling = dnsEntriesStorage.listCnamesTo(fqdn);
+            if(cascade) {
+                Deque<DnsEntry> pending = new ArrayDeque<>(dangling);
+                while(!pending.isEmpty()) {
+                    DnsEntry cname = pending.poll();
+                    if(toRemove.putIfAbsent(cname.getFqdn(), cname) == null) {
+                        pending.addAll(dnsEntriesStorage.listCnamesTo(cname.getFqdn()));
+                    }
+                }
+                dangling = Collections.emptyList();
+            }
+            toRemove.keySet().stream().forEach(leaseTracker::cancel);
+            List<DnsEntry> removed = dnsEntriesStorage.removeDnsEntries(new ArrayList<>(toRemove.values()));
+            if(!removed.isEmpty()) {
+                syncCoordinator.signal();
+            }
+            if(!removed.contains(stored)) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, String.format("%s changed while it was being deregistered", fqdn));
+            }
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(new DeregistrationResult(removed, dangling));
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to deregister %s", fqdn), ex);
+        }
+    }
+    
+    @GetMapping("/lookup/address/{ipAddress:.+}")
+    @ResponseBody
+    public ResponseEntity<List<DnsEntry>> lookupAddress(@PathVariable("ipAddress") String ipAddress) throws ResponseStatusException {
+        try {
+            IpAddresses.parse(ipAddress);
+        } catch(IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        }
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntriesStorage.listDnsEntriesWithAddress(ipAddress));
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to look up %s", ipAddress), ex);
+        }
+    }
+    
+    /**
+     * A wildcard such as {@code *.prod.example.com} names the domain it is
+     * in, so it lists the same as {@code prod.example.com}.
+     */
+    static String domainOf(String domain) {
+        return domain.startsWith("*.") ? domain.substring(2) : domain;
+    }
+    
+    /**
+     * The entries at or below a domain, from the domain index rather than a
+     * scan of every entry.
+     */
+    @GetMapping("/lookup/domain/{domain:.+}")
+    @ResponseBody
+    public ResponseEntity<List<DnsEntry>> lookupDomain(@PathVariable("domain") String domain) throws ResponseStatusException {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntriesStorage.listDnsEntriesUnder(domainOf(domain)));
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to look up %s", domain), ex);
+        }
+    }
+    
+    /**
+     * The CNAMEs pointing at a domain or anything below it.
+     */
+    @GetMapping("/lookup/cname/{domain:.+}")
+    @ResponseBody
+    public ResponseEntity<List<DnsEntry>> lookupCnamesInto(@PathVariable("domain") String domain) throws ResponseStatusException {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntriesStorage.listCnamesInto(domainOf(domain)));
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to look up CNAMEs into %s", domain), ex);
+        }
+    }
+    
+    /**
+     * The CNAMEs whose destination is not registered, kept as entries come
+     * and go rather than found by a scan.
+     */
+    @GetMapping("/lookup/dangling")
+    @ResponseBody
+    public ResponseEntity<List<DnsEntry>> lookupDanglingCnames() throws ResponseStatusException {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntriesStorage.listDanglingCnames());
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to look up dangling CNAMEs", ex);
+        }
+    }
+    
+    @GetMapping("/lookup/count/{domain:.+}")
+    @ResponseBody
+    public ResponseEntity<DomainCount> countDomain(@PathVariable("domain") String domain) throws ResponseStatusException {
+        try {
+            DomainCount count = new DomainCount();
+            count.setDomain(domainOf(domain));
+            count.setEntryCount(dnsEntriesStorage.countDnsEntriesUnder(count.getDomain()));
+            count.setCnameTargetCount(dnsEntriesStorage.countCnamesInto(count.getDomain()));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(count);
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to count %s", domain), ex);
         }
     }
     
     @GetMapping("/list")
     @ResponseBody
-    public ResponseEntity<List<DnsEntry>> listAll() throws ResponseStatusException {
+    public ResponseEntity<StreamingResponseBody> listAll(@RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "type", required = false) DnsEntryType type,
+            @RequestParam(value = "suffix", required = false) String suffix,
+            @RequestParam(value = "limit", defaultValue = "0") int limit,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws ResponseStatusException {
         try {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntriesStorage.listAllDnsEnrties());
+            boolean replica = !leaderElection.isLeader();
+            String eTag = replica ? clusterReplica.getETag() : storageETag();
+            if(eTag == null) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Nothing has been replicated from the leader yet");
+            } else if(matchesETag(ifNoneMatch, eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+            
+            Iterable<DnsEntry> dnsEntries;
+            if(replica) {
+                dnsEntries = clusterReplica.iterateDnsEntriesAfter(cursor);
+            } else if(suffix != null && !suffix.isEmpty()) {
+                // the domain index finds the branch without walking every entry
+                dnsEntries = DnsEntryListing.after(dnsEntriesStorage.listDnsEntriesUnder(suffix), cursor);
+            } else {
+                dnsEntries = dnsEntriesStorage.iterateDnsEntriesAfter(cursor);
+            }
+            DnsEntryListing listing = new DnsEntryListing(dnsEntries, type, suffix, limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).eTag(eTag);
+            String nextCursor = listing.findNextCursor();
+            if(nextCursor != null) {
+                response.header(NEXT_CURSOR_HEADER, nextCursor);
+            }
+            return response.body((outputStream) -> listing.writeTo(outputStream, batchMapper));
         } catch(IOException ex) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to store list DnsEntries", ex);
         }
     }
        
-    @Scheduled(fixedRate = 10000)
-    public void updateDns() throws IOException, Exception {
-        long loadedLastNewDnsEntryTime = lastNewDnsEntryTime.get();
-        long now = Instant.now().toEpochMilli();
-        if(loadedLastNewDnsEntryTime > lastDnsUpdateTime || now > lastDnsUpdateTime + dnsUpdatePeriod) {
-            lastDnsUpdateTime = now;
-            List<DnsEntry> currentDnsEntries = dnsEntriesStorage.listAllDnsEnrties();
-            currentDnsEntries.stream().forEach((dnsEntry) -> {
-                try {
-                    if(dnsEntry instanceof DnsEntryARecord) {
-                        dnsClient.UpdateARecordEntry((DnsEntryARecord)dnsEntry);    
-                    } else if(dnsEntry instanceof DnsEntryCname) {
-                        dnsClient.UpdateCnameRecordEntry((DnsEntryCname)dnsEntry);    
-                    }
-                } catch(Exception ex) {
-                    LOGGER.error(String.format("Failed to register %s with %s", dnsEntry.getFqdn(), dnsEntry.toString()), ex);
-                }
-            });
+    String storageETag() throws IOException {
+        return String.format("\"%d-%d\"", eTagEpoch, dnsEntriesStorage.getGeneration());
+    }
+    
+    /**
+     * Every stored entry, for a standby to list from. Tagged like
+     * {@code /list}, so a standby fetches it again only once something
+     * changed.
+     */
+    @GetMapping(ClusterReplica.SNAPSHOT_PATH)
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> clusterSnapshot(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws ResponseStatusException {
+        if(!leaderElection.isLeader()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Only the leader serves snapshots");
         }
-    } 
+        try {
+            String eTag = storageETag();
+            if(matchesETag(ifNoneMatch, eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+            Iterable<DnsEntry> dnsEntries = dnsEntriesStorage.iterateDnsEntriesAfter(null);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).eTag(eTag)
+                    .body((outputStream) -> ClusterReplica.writeSnapshot(dnsEntries, outputStream, batchMapper));
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to list DnsEntries", ex);
+        }
+    }
+    
+    @GetMapping("/cluster/status")
+    @ResponseBody
+    public ResponseEntity<ClusterStatus> clusterStatus() {
+        ClusterStatus status = new ClusterStatus();
+        status.setEnabled(leaderElection.isEnabled());
+        status.setNodeId(leaderElection.getNodeId());
+        status.setNodeUrl(leaderElection.getNodeUrl());
+        status.setLeader(leaderElection.isLeader());
+        status.setLeaderUrl(leaderElection.getLeaderUrl());
+        status.setReplicatedEntryCount(clusterReplica.size());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(status);
+    }
+    
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if(ifNoneMatch == null) {
+            return false;
+        }
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map((tag) -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch((tag) -> tag.equals("*") || tag.equals(eTag));
+    }
+    
+    @GetMapping("/status/{fqdn:.+}")
+    @ResponseBody
+    public ResponseEntity<DnsEntryStatus> status(@PathVariable("fqdn") String fqdn) throws ResponseStatusException {
+        DnsEntry dnsEntry;
+        try {
+            dnsEntry = dnsEntriesStorage.getDnsEntry(fqdn);
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, String.format("Unable to read DnsEntry %s", fqdn), ex);
+        }
+        if(dnsEntry == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("No DnsEntry registered for %s", fqdn));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsSyncService.getStatus(dnsEntry));
+    }
+    
+    @GetMapping("/sync/status")
+    @ResponseBody
+    public ResponseEntity<SyncStatistics> syncStatus() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsSyncService.getStatistics());
+    }
+    
+    /**
+     * Transfers every zone from every server and reports how it differs from
+     * the stored entries, without changing anything. Not available unless
+     * the client can transfer zones.
+     */
+    @GetMapping("/reconcile/report")
+    @ResponseBody
+    public ResponseEntity<List<DriftReport>> reconcileReport() throws ResponseStatusException {
+        if(!dnsClient.supportsZoneTransfer()) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED, 
+                    String.format("%s cannot transfer zones, use dns.client=rfc2136 to reconcile", dnsClient.getClass().getSimpleName()));
+        }
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsSyncService.reportDrift());
+        } catch(IOException ex) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to list DnsEntries", ex);
+        }
+    }
+    
+    @GetMapping("/servers/status")
+    @ResponseBody
+    public ResponseEntity<List<DnsServerHealth>> serversStatus() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(serverHealthTracker.getHealth(dnsClient.getServers()));
+    }
+    
+    @GetMapping("/storage/status")
+    @ResponseBody
+    public ResponseEntity<StorageStatistics> storageStatus() {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(dnsEntriesStorage.getStatistics());
+    }
+       
+    /**
+     * Changes are pushed as the {@link SyncCoordinator} is signalled, this
+     * only catches anything a signal missed and starts the full sync every
+     * {@code dns.update.millis}.
+     */
+    @Scheduled(fixedDelayString = "${dns.reconcile.millis:60000}")
+    public void reconcileDns() {
+        if(!leaderElection.isLeader()) {
+            return;
+        }
+        dnsSyncService.sync();
+    }
+    
+    @Scheduled(fixedDelayString = "${dns.retry.poll.millis:1000}")
+    public void retryDns() throws IOException {
+        if(!leaderElection.isLeader()) {
+            return;
+        }
+        dnsSyncService.retry();
+    }
+    
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleRateLimits() {
+        rateLimiter.evictIdle(System.nanoTime());
+    }
+    
+    @Scheduled(fixedDelayString = "${dns.lease.tick.millis:1000}")
+    public void expireLeases() throws IOException {
+        if(!leaderElection.isLeader()) {
+            return;
+        }
+        if(leaseTracker.expire(Instant.now().toEpochMilli()) > 0) {
+            syncCoordinator.signal();
+        }
+    }
+    
+    /**
+     * Renews or contends for the lease. An instance that becomes the leader
+     * takes over storage, leases and retries as they were left and syncs
+     * everything, as if it had just started; a standby refreshes its copy
+     * of the leader's entries. One that loses the lease stops writing
+     * storage at once, so nothing it still has in flight lands on top of
+     * the new leader's writes.
+     */
+    @Scheduled(fixedDelayString = "${dns.cluster.heartbeat.millis:1000}")
+    public void heartbeat() throws IOException {
+        if(!leaderElection.isEnabled()) {
+            return;
+        }
+        leaderElection.heartbeat(Instant.now().toEpochMilli());
+        if(!leaderElection.isLeader()) {
+            if(promoted) {
+                LOGGER.warn("Lost the lease, detaching storage");
+                dnsEntriesStorage.detach();
+                promoted = false;
+            }
+            clusterReplica.refresh();
+        } else if(!promoted) {
+            dnsEntriesStorage.reload();
+            leaseTracker.reload();
+            dnsSyncService.reload();
+            promoted = true;
+            dnsSyncService.sync();
+        }
+    }
 }
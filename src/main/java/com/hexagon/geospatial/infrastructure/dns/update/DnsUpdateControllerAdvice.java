@@ -16,7 +16,7 @@
 package com.hexagon.geospatial.infrastructure.dns.update;
 
 import com.hexagon.geospatial.infrastructure.dns.update.entity.ServiceError;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -31,6 +31,13 @@ public class DnsUpdateControllerAdvice {
     
     @ExceptionHandler({ResponseStatusException.class})
     public ResponseEntity<ServiceError> handleResponseStatusException(ResponseStatusException ex) {
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new ServiceError(ex.getReason(), ex.getMessage()));
+        return ResponseEntity.status(ex.getStatus()).body(new ServiceError(ex.getReason(), ex.getMessage()));
+    }
+    
+    @ExceptionHandler({RateLimitExceededException.class})
+    public ResponseEntity<ServiceError> handleRateLimitExceededException(RateLimitExceededException ex) {
+        return ResponseEntity.status(ex.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfterSeconds()))
+                .body(new ServiceError(ex.getReason(), ex.getMessage()));
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.ServerHealthTracker;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.LeaseTracker;
+import com.hexagon.geospatial.infrastructure.dns.update.sync.DnsSyncService;
+import com.hexagon.geospatial.infrastructure.dns.update.sync.ServerSync;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.time.Instant;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Publishes the storage and sync statistics as gauges, the sync ones tagged
+ * with the server they describe. Timers are recorded where the work happens;
+ * these are read when the registry is scraped.
+ *
+ * @author Chris
+ */
+@Configuration
+public class MetricsConfig {
+    
+    @Bean
+    public MeterBinder dnsUpdateMetrics(DnsEntryStorage dnsEntriesStorage, DnsSyncService dnsSyncService, 
+            ServerHealthTracker serverHealthTracker, LeaseTracker leaseTracker) {
+        return (registry) -> {
+            Gauge.builder("dns.storage.entries", dnsEntriesStorage, (storage) -> storage.getStatistics().getEntryCount())
+                    .description("Entries held in storage")
+                    .register(registry);
+            Gauge.builder("dns.storage.generation", dnsEntriesStorage, (storage) -> storage.getStatistics().getGeneration())
+                    .register(registry);
+            Gauge.builder("dns.storage.retired", dnsEntriesStorage, (storage) -> storage.getStatistics().getRetiredEntryCount())
+                    .description("Removed or replaced values not yet deleted from every server")
+                    .register(registry);
+            Gauge.builder("dns.cname.dangling", dnsEntriesStorage, (storage) -> storage.getStatistics().getDanglingCnameCount())
+                    .description("CNAMEs whose destination is not registered")
+                    .register(registry);
+            Gauge.builder("dns.lease.active", leaseTracker, LeaseTracker::size)
+                    .description("Entries whose lease is running")
+                    .register(registry);
+            dnsSyncService.getServerSyncs().stream().forEach((serverSync) -> {
+                String server = serverSync.getServer();
+                Gauge.builder("dns.sync.last.success.age", serverSync, MetricsConfig::lastSuccessAgeSeconds)
+                        .description("Seconds since the last sync that left nothing to retry")
+                        .baseUnit("seconds")
+                        .tag("server", server)
+                        .register(registry);
+                Gauge.builder("dns.sync.backlog", serverSync, MetricsConfig::backlog)
+                        .description("Upper bound on entries waiting to be pushed")
+                        .tag("server", server)
+                        .register(registry);
+                Gauge.builder("dns.sync.pending.retries", serverSync, (sync) -> sync.getStatistics().getPendingRetries())
+                        .tag("server", server)
+                        .register(registry);
+                FunctionCounter.builder("dns.sync.entries.pushed", serverSync, (sync) -> sync.getStatistics().getTotalEntriesPushed())
+                        .tag("server", server)
+                        .register(registry);
+                FunctionCounter.builder("dns.sync.entries.deleted", serverSync, (sync) -> sync.getStatistics().getTotalEntriesDeleted())
+                        .description("Removed entries deleted from the server")
+                        .tag("server", server)
+                        .register(registry);
+                FunctionCounter.builder("dns.sync.entries.skipped", serverSync, (sync) -> sync.getStatistics().getTotalEntriesSkipped())
+                        .description("Entries not pushed because the server already had the same value")
+                        .tag("server", server)
+                        .register(registry);
+                FunctionCounter.builder("dns.sync.entries.failed", serverSync, (sync) -> sync.getStatistics().getTotalFailures())
+                        .tag("server", server)
+                        .register(registry);
+                Gauge.builder("dns.server.circuit.state", serverHealthTracker, (tracker) -> tracker.getHealth(server).getState().ordinal())
+                        .description("0 closed, 1 open, 2 half open")
+                        .tag("server", server)
+                        .register(registry);
+                Gauge.builder("dns.server.consecutive.failures", serverHealthTracker, (tracker) -> tracker.getHealth(server).getConsecutiveFailures())
+                        .tag("server", server)
+                        .register(registry);
+            });
+        };
+    }
+    
+    static double lastSuccessAgeSeconds(ServerSync serverSync) {
+        long lastSuccess = serverSync.getLastSuccessfulSyncTime();
+        return lastSuccess == 0 ? Double.NaN : (Instant.now().toEpochMilli() - lastSuccess) / 1000.0;
+    }
+    
+    static double backlog(ServerSync serverSync) {
+        try {
+            return serverSync.getBacklog();
+        } catch(IOException ex) {
+            return Double.NaN;
+        }
+    }
+}
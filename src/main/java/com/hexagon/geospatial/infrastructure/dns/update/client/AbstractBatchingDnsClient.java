@@ -0,0 +1,250 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Groups planned updates by zone and sends each zone's updates in
+ * transactions of at most {@code dns.batch.max.bytes}. A rejected
+ * transaction is split in half and retried until the offending entry is
+ * isolated. A server that cannot be reached fails the rest of the batch
+ * at once and counts against its circuit in {@link ServerHealthTracker}.
+ * 
+ * Each transaction is timed as {@code dns.client.update} and each entry's
+ * outcome counted as {@code dns.client.entries}, both by record type.
+ *
+ * @author Chris
+ */
+public abstract class AbstractBatchingDnsClient implements DnsClient {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(AbstractBatchingDnsClient.class);
+    
+    @Autowired
+    DnsUpdatePlanner planner;
+    
+    @Autowired
+    ServerConcurrencyLimiter concurrencyLimiter;
+    
+    @Autowired
+    ServerHealthTracker healthTracker;
+    
+    @Value("${dns.batch.max.bytes:16384}")
+    int maxBatchBytes;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    /**
+     * Pushes a single entry to each server. Pushes block on a socket or
+     * nsupdate, so they get threads of their own rather than the common
+     * pool, where a slow server would hold up unrelated work.
+     */
+    final ExecutorService fanOutExecutor = newFanOutExecutor();
+    
+    protected abstract void sendZoneUpdate(String server, String zone, List<DnsUpdate> updates) throws Exception;
+    
+    static ExecutorService newFanOutExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, String.format("dns-client-%d", threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * @return the servers in a comma separated list
+     */
+    public static List<String> parseServers(String servers) {
+        List<String> parsed = new ArrayList<>();
+        Arrays.stream(servers.split(","))
+                .map(String::trim)
+                .filter((server) -> !server.isEmpty())
+                .forEach(parsed::add);
+        return Collections.unmodifiableList(parsed);
+    }
+    
+    @Override
+    public void UpdateARecordEntry(DnsEntryARecord dnsEntry) throws Exception {
+        applySingle(dnsEntry);
+    }
+
+    @Override
+    public void UpdateAAAARecordEntry(DnsEntryAAAARecord dnsEntry) throws Exception {
+        applySingle(dnsEntry);
+    }
+
+    @Override
+    public void UpdateCnameRecordEntry(DnsEntryCname dnsEntry) throws Exception {
+        applySingle(dnsEntry);
+    }
+
+    @Override
+    public void UpdateTxtRecordEntry(DnsEntryTxt dnsEntry) throws Exception {
+        applySingle(dnsEntry);
+    }
+    
+    void applySingle(DnsEntry dnsEntry) throws Exception {
+        DnsBatchResult result = applyBatch(Collections.singletonList(dnsEntry));
+        if(!result.isSuccessful()) {
+            throw result.getFailed().get(dnsEntry);
+        }
+    }
+    
+    public DnsBatchResult applyBatch(List<DnsEntry> dnsEntries) {
+        return applyBatch(dnsEntries, fanOutExecutor);
+    }
+
+    @Override
+    public DnsBatchResult applyBatch(String server, List<DnsEntry> dnsEntries) {
+        return send(server, dnsEntries, planner::plan);
+    }
+
+    @Override
+    public DnsBatchResult deleteBatch(String server, List<DnsEntry> dnsEntries) {
+        return send(server, dnsEntries, planner::planDelete);
+    }
+    
+    DnsBatchResult send(String server, List<DnsEntry> dnsEntries, BiFunction<List<DnsEntry>, DnsBatchResult, List<DnsUpdate>> plan) {
+        DnsBatchResult result = new DnsBatchResult();
+        if(healthTracker.allowRequest(server, Instant.now().toEpochMilli())) {
+            applyUpdates(server, plan.apply(dnsEntries, result), result);
+        } else {
+            DnsServerUnavailableException open = new DnsServerUnavailableException(String.format("Circuit for %s is open", server));
+            dnsEntries.stream().forEach((dnsEntry) -> result.getFailed().put(dnsEntry, open));
+        }
+        dnsEntries.stream()
+                .filter((dnsEntry) -> !result.getFailed().containsKey(dnsEntry))
+                .forEach(result.getSucceeded()::add);
+        result.getSucceeded().stream().forEach((dnsEntry) -> countEntry(server, dnsEntry, "success"));
+        result.getFailed().keySet().stream().forEach((dnsEntry) -> countEntry(server, dnsEntry, "failure"));
+        return result;
+    }
+    
+    void countEntry(String server, DnsEntry dnsEntry, String outcome) {
+        meterRegistry.counter("dns.client.entries", "client", getClass().getSimpleName(), "server", server, 
+                "type", DnsEntryType.of(dnsEntry).name(), "outcome", outcome).increment();
+    }
+    
+    static String typeOf(List<DnsUpdate> updates) {
+        DnsEntryType type = DnsEntryType.of(updates.get(0).getDnsEntry());
+        return updates.stream().allMatch((update) -> DnsEntryType.of(update.getDnsEntry()) == type) ? type.name() : "mixed";
+    }
+    
+    void sendTimed(String server, String zone, List<DnsUpdate> updates) throws Exception {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            sendZoneUpdate(server, zone, updates);
+            outcome = "success";
+        } catch(DnsServerUnavailableException ex) {
+            outcome = "unavailable";
+            throw ex;
+        } finally {
+            sample.stop(meterRegistry.timer("dns.client.update", "client", getClass().getSimpleName(), "server", server, 
+                    "type", typeOf(updates), "outcome", outcome));
+        }
+    }
+    
+    public void applyUpdates(String server, List<DnsUpdate> updates, DnsBatchResult result) {
+        Map<String, List<DnsUpdate>> updatesByZone = new LinkedHashMap<>();
+        updates.stream().forEach((update) -> {
+            updatesByZone.computeIfAbsent(update.getZone(), (zone) -> new ArrayList<>()).add(update);
+        });
+        updatesByZone.entrySet().stream().forEach((zoneUpdates) -> {
+            List<DnsUpdate> batch = new ArrayList<>();
+            int batchBytes = 0;
+            for(DnsUpdate update : zoneUpdates.getValue()) {
+                int length = update.encodedLength();
+                if(!batch.isEmpty() && batchBytes + length > maxBatchBytes) {
+                    sendSplittingOnFailure(server, zoneUpdates.getKey(), batch, result);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(update);
+                batchBytes += length;
+            }
+            if(!batch.isEmpty()) {
+                sendSplittingOnFailure(server, zoneUpdates.getKey(), batch, result);
+            }
+        });
+    }
+    
+    void sendSplittingOnFailure(String server, String zone, List<DnsUpdate> updates, DnsBatchResult result) {
+        List<DnsUpdate> pending = new ArrayList<>();
+        updates.stream()
+                .filter((update) -> !result.getFailed().containsKey(update.getDnsEntry()))
+                .forEach(pending::add);
+        if(pending.isEmpty()) {
+            return;
+        }
+        if(result.getUnavailable() != null) {
+            pending.stream().forEach((update) -> result.getFailed().put(update.getDnsEntry(), result.getUnavailable()));
+            return;
+        }
+        try {
+            concurrencyLimiter.call(server, () -> {
+                sendTimed(server, zone, pending);
+                return null;
+            });
+            healthTracker.recordSuccess(server, Instant.now().toEpochMilli());
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            pending.stream().forEach((update) -> result.getFailed().put(update.getDnsEntry(), ex));
+        } catch(DnsServerUnavailableException ex) {
+            LOGGER.error(String.format("%s is unavailable, failing the remaining updates to it: %s", server, ex.getMessage()));
+            healthTracker.recordFailure(server, ex, Instant.now().toEpochMilli());
+            result.setUnavailable(ex);
+            pending.stream().forEach((update) -> result.getFailed().put(update.getDnsEntry(), ex));
+        } catch(Exception ex) {
+            // the server answered, so it is healthy even though it said no
+            healthTracker.recordSuccess(server, Instant.now().toEpochMilli());
+            if(pending.size() == 1) {
+                LOGGER.error(String.format("Update of %s in zone %s on %s failed", pending.get(0).getDnsEntry().getFqdn(), zone, server), ex);
+                result.getFailed().put(pending.get(0).getDnsEntry(), ex);
+                return;
+            }
+            LOGGER.warn(String.format("Batch of %d updates to zone %s on %s failed, splitting: %s", pending.size(), zone, server, ex.getMessage()));
+            int half = pending.size() / 2;
+            sendSplittingOnFailure(server, zone, pending.subList(0, half), result);
+            sendSplittingOnFailure(server, zone, pending.subList(half, pending.size()), result);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class DnsBatchResult {
+    List<DnsEntry> succeeded = new ArrayList<>();
+    Map<DnsEntry, Exception> failed = new LinkedHashMap<>();
+    
+    /**
+     * Set once the server could not be reached, so the rest of the batch
+     * fails without being sent.
+     */
+    DnsServerUnavailableException unavailable;
+    
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+}
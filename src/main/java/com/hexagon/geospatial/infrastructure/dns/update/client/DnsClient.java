@@ -15,8 +15,16 @@
  */
 package com.hexagon.geospatial.infrastructure.dns.update.client;
 
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
 import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
 import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -24,5 +32,66 @@ import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
  */
 public interface DnsClient {
     void UpdateARecordEntry(DnsEntryARecord dnsEntry) throws Exception;
+    void UpdateAAAARecordEntry(DnsEntryAAAARecord dnsEntry) throws Exception;
     void UpdateCnameRecordEntry(DnsEntryCname dnsEntry) throws Exception;
+    void UpdateTxtRecordEntry(DnsEntryTxt dnsEntry) throws Exception;
+    
+    /**
+     * @return the authoritative servers every update is sent to
+     */
+    List<String> getServers();
+    
+    /**
+     * Pushes many entries at once to one server, packing the record changes
+     * for each zone into as few update transactions as possible. Failures
+     * are reported per entry rather than thrown.
+     */
+    DnsBatchResult applyBatch(String server, List<DnsEntry> dnsEntries);
+    
+    /**
+     * Deletes exactly the records of retired values from one server,
+     * reverse records included, batched the same way as
+     * {@link #applyBatch(String, List)}.
+     */
+    DnsBatchResult deleteBatch(String server, List<DnsEntry> dnsEntries);
+    
+    /**
+     * @return true if {@link #transferZone(String, String, ZoneContents)}
+     * can read zones back from the servers
+     */
+    default boolean supportsZoneTransfer() {
+        return false;
+    }
+    
+    /**
+     * Reads what one server holds for a zone, incrementally from
+     * {@code previous} where the server can.
+     * 
+     * @param previous the zone as last transferred from this server, or null
+     * @throws UnsupportedOperationException unless
+     * {@link #supportsZoneTransfer()}
+     */
+    default ZoneTransfer transferZone(String server, String zone, ZoneContents previous) throws IOException {
+        throw new UnsupportedOperationException(String.format("%s cannot transfer zones", getClass().getSimpleName()));
+    }
+    
+    /**
+     * Pushes to every server concurrently, each on a thread of
+     * {@code executor}, which must be free to block on the server. An entry
+     * only succeeds if every server accepted it.
+     */
+    default DnsBatchResult applyBatch(List<DnsEntry> dnsEntries, Executor executor) {
+        List<CompletableFuture<DnsBatchResult>> results = new ArrayList<>();
+        getServers().stream().forEach((server) -> {
+            results.add(CompletableFuture.supplyAsync(() -> applyBatch(server, dnsEntries), executor));
+        });
+        DnsBatchResult result = new DnsBatchResult();
+        results.stream().map(CompletableFuture::join).forEach((serverResult) -> {
+            serverResult.getFailed().entrySet().stream().forEach((failure) -> result.getFailed().putIfAbsent(failure.getKey(), failure.getValue()));
+        });
+        dnsEntries.stream()
+                .filter((dnsEntry) -> !result.getFailed().containsKey(dnsEntry))
+                .forEach(result.getSucceeded()::add);
+        return result;
+    }
 }
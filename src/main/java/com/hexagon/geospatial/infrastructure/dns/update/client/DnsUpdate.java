@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The record changes one entry needs in one zone. These are the smallest
+ * units a batch can be split into.
+ *
+ * @author Chris
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DnsUpdate {
+    DnsEntry dnsEntry;
+    String zone;
+    List<DnsRecord> records;
+    
+    public int encodedLength() {
+        return records.stream().mapToInt(DnsWireFormat::encodedRecordLength).sum();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns stored entries into the per-zone record changes that put them into
+ * DNS.
+ *
+ * @author Chris
+ */
+@Component
+public class DnsUpdatePlanner {
+    
+    public static final long DEFAULT_TTL = 86400;
+    
+    final ZoneResolver zoneResolver;
+    
+    @Autowired
+    public DnsUpdatePlanner(ZoneResolver zoneResolver) {
+        this.zoneResolver = zoneResolver;
+    }
+    
+    public ZoneResolver getZoneResolver() {
+        return zoneResolver;
+    }
+    
+    public List<DnsUpdate> plan(DnsEntry dnsEntry) {
+        if(dnsEntry instanceof DnsEntryARecord) {
+            return planAddress(dnsEntry, DnsType.A, ((DnsEntryARecord)dnsEntry).getAddress());
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            return planAddress(dnsEntry, DnsType.AAAA, ((DnsEntryAAAARecord)dnsEntry).getAddress());
+        } else if(dnsEntry instanceof DnsEntryCname) {
+            return planCname((DnsEntryCname)dnsEntry);
+        } else if(dnsEntry instanceof DnsEntryTxt) {
+            return planTxt((DnsEntryTxt)dnsEntry);
+        }
+        return Collections.emptyList();
+    }
+    
+    public List<DnsUpdate> plan(List<DnsEntry> dnsEntries, DnsBatchResult result) {
+        List<DnsUpdate> updates = new ArrayList<>();
+        dnsEntries.stream().forEach((dnsEntry) -> {
+            try {
+                updates.addAll(plan(dnsEntry));
+            } catch(Exception ex) {
+                result.getFailed().put(dnsEntry, ex);
+            }
+        });
+        return updates;
+    }
+    
+    /**
+     * @return the record changes that take a retired value back out of DNS.
+     * Only records holding exactly this value are deleted, so a newer value
+     * for the name, or another name's PTR for the same address, is left
+     * alone however the deletes and updates are ordered.
+     */
+    public List<DnsUpdate> planDelete(DnsEntry dnsEntry) {
+        String zone = zoneResolver.zoneOf(dnsEntry.getFqdn());
+        if(dnsEntry instanceof DnsEntryARecord) {
+            return planAddressDelete(dnsEntry, zone, DnsType.A, ((DnsEntryARecord)dnsEntry).getAddress());
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            return planAddressDelete(dnsEntry, zone, DnsType.AAAA, ((DnsEntryAAAARecord)dnsEntry).getAddress());
+        } else if(dnsEntry instanceof DnsEntryCname) {
+            return Collections.singletonList(new DnsUpdate(dnsEntry, zone, Collections.singletonList(deleteRecord(dnsEntry.getFqdn(), 
+                    DnsType.CNAME, DnsWireFormat.encodeName(((DnsEntryCname)dnsEntry).getDestinationFqdn())))));
+        } else if(dnsEntry instanceof DnsEntryTxt) {
+            return Collections.singletonList(new DnsUpdate(dnsEntry, zone, Collections.singletonList(deleteRecord(dnsEntry.getFqdn(), 
+                    DnsType.TXT, DnsWireFormat.encodeCharacterStrings(((DnsEntryTxt)dnsEntry).getText())))));
+        }
+        return Collections.emptyList();
+    }
+    
+    public List<DnsUpdate> planDelete(List<DnsEntry> dnsEntries, DnsBatchResult result) {
+        List<DnsUpdate> updates = new ArrayList<>();
+        dnsEntries.stream().forEach((dnsEntry) -> {
+            try {
+                updates.addAll(planDelete(dnsEntry));
+            } catch(Exception ex) {
+                result.getFailed().put(dnsEntry, ex);
+            }
+        });
+        return updates;
+    }
+    
+    List<DnsUpdate> planAddressDelete(DnsEntry dnsEntry, String zone, int type, byte[] address) {
+        if(address == null) {
+            throw new IllegalArgumentException(String.format("%s has no address", dnsEntry.getFqdn()));
+        }
+        String reverseName = reverseName(address);
+        return Arrays.asList(
+                new DnsUpdate(dnsEntry, zone, Collections.singletonList(deleteRecord(dnsEntry.getFqdn(), type, address))),
+                new DnsUpdate(dnsEntry, zoneResolver.zoneOf(reverseName), Collections.singletonList(
+                        deleteRecord(reverseName, DnsType.PTR, DnsWireFormat.encodeName(dnsEntry.getFqdn())))));
+    }
+    
+    static long ttlOf(DnsEntry dnsEntry) {
+        return dnsEntry.getTtl() > 0 ? dnsEntry.getTtl() : DEFAULT_TTL;
+    }
+    
+    static DnsUpdate replace(DnsEntry dnsEntry, String zone, DnsRecord record, int... deleteTypes) {
+        List<DnsRecord> records = new ArrayList<>(deleteTypes.length + 1);
+        for(int type : deleteTypes) {
+            records.add(deleteRrset(dnsEntry.getFqdn(), type));
+        }
+        records.add(record);
+        return new DnsUpdate(dnsEntry, zone, records);
+    }
+    
+    /**
+     * The PTR set at the reverse name is replaced rather than added to, so
+     * an address that moved to this name no longer points back at the name
+     * that held it before.
+     */
+    List<DnsUpdate> planAddress(DnsEntry dnsEntry, int type, byte[] address) {
+        if(address == null) {
+            throw new IllegalArgumentException(String.format("%s has no address", dnsEntry.getFqdn()));
+        }
+        long ttl = ttlOf(dnsEntry);
+        String reverseName = reverseName(address);
+        return Arrays.asList(
+                // the other address family goes too, so A and AAAA entries can replace each other
+                replace(dnsEntry, zoneResolver.zoneOf(dnsEntry.getFqdn()), 
+                        new DnsRecord(dnsEntry.getFqdn(), type, DnsType.CLASS_IN, ttl, address), 
+                        DnsType.A, DnsType.AAAA, DnsType.CNAME),
+                new DnsUpdate(dnsEntry, zoneResolver.zoneOf(reverseName), Arrays.asList(
+                        deleteRrset(reverseName, DnsType.PTR), 
+                        new DnsRecord(reverseName, DnsType.PTR, DnsType.CLASS_IN, ttl, DnsWireFormat.encodeName(dnsEntry.getFqdn())))));
+    }
+    
+    /**
+     * A CNAME cannot share its name with any other record, so everything at
+     * the name is deleted in one go.
+     */
+    List<DnsUpdate> planCname(DnsEntryCname dnsEntry) {
+        return Collections.singletonList(replace(dnsEntry, zoneResolver.zoneOf(dnsEntry.getFqdn()), 
+                new DnsRecord(dnsEntry.getFqdn(), DnsType.CNAME, DnsType.CLASS_IN, ttlOf(dnsEntry), DnsWireFormat.encodeName(dnsEntry.getDestinationFqdn())), 
+                DnsType.ANY));
+    }
+    
+    List<DnsUpdate> planTxt(DnsEntryTxt dnsEntry) {
+        return Collections.singletonList(replace(dnsEntry, zoneResolver.zoneOf(dnsEntry.getFqdn()), 
+                new DnsRecord(dnsEntry.getFqdn(), DnsType.TXT, DnsType.CLASS_IN, ttlOf(dnsEntry), DnsWireFormat.encodeCharacterStrings(dnsEntry.getText())), 
+                DnsType.TXT, DnsType.CNAME));
+    }
+    
+    public static DnsRecord deleteRrset(String name, int type) {
+        return new DnsRecord(name, type, DnsType.CLASS_ANY, 0, null);
+    }
+    
+    /**
+     * @return a delete of the one record with this data, leaving the rest of
+     * its set alone
+     */
+    public static DnsRecord deleteRecord(String name, int type, byte[] rdata) {
+        return new DnsRecord(name, type, DnsType.CLASS_NONE, 0, rdata);
+    }
+    
+    static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    /**
+     * @return the in-addr.arpa name of a 4 byte address or the ip6.arpa name
+     * of a 16 byte one
+     */
+    public static String reverseName(byte[] address) {
+        if(address.length == 16) {
+            char[] name = new char[64 + 8];
+            int position = 0;
+            for(int i = 15; i >= 0; i--) {
+                name[position++] = HEX_DIGITS[address[i] & 0x0F];
+                name[position++] = '.';
+                name[position++] = HEX_DIGITS[(address[i] >> 4) & 0x0F];
+                name[position++] = '.';
+            }
+            "ip6.arpa".getChars(0, 8, name, position);
+            return new String(name);
+        }
+        StringBuilder name = new StringBuilder(29);
+        for(int i = 3; i >= 0; i--) {
+            name.append(address[i] & 0xFF).append('.');
+        }
+        return name.append("in-addr.arpa").toString();
+    }
+}
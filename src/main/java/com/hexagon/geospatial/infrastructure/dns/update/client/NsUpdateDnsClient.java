@@ -15,22 +15,27 @@
  */
 package com.hexagon.geospatial.infrastructure.dns.update.client;
 
-import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
-import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
-import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.IpAddresses;
+import io.micrometer.core.instrument.Timer;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteStreamHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 /**
@@ -38,88 +43,129 @@ import org.springframework.stereotype.Service;
  * @author Chris
  */
 @Service
-public class NsUpdateDnsClient implements DnsClient {
+@ConditionalOnProperty(name = "dns.client", havingValue = "nsupdate", matchIfMissing = true)
+public class NsUpdateDnsClient extends AbstractBatchingDnsClient {
 
     public static final Logger LOGGER = LoggerFactory.getLogger(NsUpdateDnsClient.class);
     
     @Value("${nsupdate.bin:nsupdate}")
     String nsupdateCommand;
     
+    /**
+     * One or more servers, comma separated
+     */
     @Value("${nsupdate.authoritive.server.ip}")
     String authServer;
     
+    @Value("${nsupdate.timeout.millis:30000}")
+    long nsupdateTimeoutMillis;
+    
+    @Override
+    public List<String> getServers() {
+        return parseServers(authServer);
+    }
+    
+    /**
+     * nsupdate exits non-zero both when the server refuses an update and when
+     * it cannot be reached, so the two are told apart by its error output.
+     */
+    static boolean isUnreachable(String error) {
+        String lower = error.toLowerCase(Locale.ROOT);
+        return lower.contains("timed out") 
+                || lower.contains("communication") 
+                || lower.contains("could not reach") 
+                || lower.contains("connection refused")
+                || lower.contains("network is unreachable");
+    }
+    
     public void runCommand(String inputString) throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         ByteArrayOutputStream error = new ByteArrayOutputStream();
         InputStream input = new ByteArrayInputStream(inputString.getBytes(StandardCharsets.UTF_8));
+        ExecuteWatchdog watchdog = new ExecuteWatchdog(nsupdateTimeoutMillis);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
         
         try {
             DefaultExecutor executor = new DefaultExecutor();
             ExecuteStreamHandler streams = new PumpStreamHandler(output, error, input);
             executor.setStreamHandler(streams);
             executor.setExitValue(0);
+            executor.setWatchdog(watchdog);
             CommandLine commandLine = new CommandLine(nsupdateCommand);
             executor.execute(commandLine);
+            outcome = "success";
             LOGGER.debug(String.format("Output '%s'", output.toString()));
         } catch(Exception ex) {
-            throw new IllegalStateException(String.format("Output '%s'. Error: '%s'", output.toString(), error.toString()), ex);
+            String message = String.format("Output '%s'. Error: '%s'", output.toString(), error.toString());
+            if(watchdog.killedProcess()) {
+                outcome = "timeout";
+                throw new DnsServerUnavailableException(String.format("nsupdate did not finish within %d ms. %s", nsupdateTimeoutMillis, message), ex);
+            }
+            if(isUnreachable(error.toString())) {
+                throw new DnsServerUnavailableException(message, ex);
+            }
+            throw new IllegalStateException(message, ex);
+        } finally {
+            sample.stop(meterRegistry.timer("dns.nsupdate.command", "outcome", outcome));
         }
     }
     
     @Override
-    public void UpdateARecordEntry(DnsEntryARecord dnsEntry) throws Exception {
-        
-        LOGGER.info(String.format("Updating %s as %s", dnsEntry.getFqdn(), dnsEntry.getIpAddress()));
+    protected void sendZoneUpdate(String server, String zone, List<DnsUpdate> updates) throws Exception {
+        LOGGER.info(String.format("Updating %d entries in zone %s on %s", updates.size(), zone, server));
         
-        InetAddress ipAddress = InetAddress.getByName(dnsEntry.getIpAddress());
-        byte[] address = ipAddress.getAddress();
+        runCommand(buildScript(server, zone, updates));
         
-        String ptrUpdate = String.format(
-                "server %s\n" + 
-                "update delete %s. A\n" +
-                "update delete %s cname\n" + 
-                "update add %s. 86400 A %d.%d.%d.%d\n" +
-                ";show\n" + 
-                "send",
-        authServer, 
-        dnsEntry.getFqdn(),
-        dnsEntry.getFqdn(),
-        dnsEntry.getFqdn(), Byte.toUnsignedInt(address[0]), Byte.toUnsignedInt(address[1]), Byte.toUnsignedInt(address[2]), Byte.toUnsignedInt(address[3]));
-        
-        runCommand(ptrUpdate);
-        
-        String ptrUpdateRr = String.format(
-                "server %s\n" + 
-                "update add %d.%d.%d.%d.in-addr.arpa 86400 PTR %s.\n" +
-                ";show\n" + 
-                "send",
-        authServer, 
-        Byte.toUnsignedInt(address[3]), Byte.toUnsignedInt(address[2]), Byte.toUnsignedInt(address[1]), Byte.toUnsignedInt(address[0]), dnsEntry.getFqdn());
-        
-        runCommand(ptrUpdateRr);
-        
-        LOGGER.info(String.format("Updated %s as %s successfully", dnsEntry.getFqdn(), dnsEntry.getIpAddress()));
+        LOGGER.info(String.format("Updated %d entries in zone %s on %s successfully", updates.size(), zone, server));
     }
-
-    @Override
-    public void UpdateCnameRecordEntry(DnsEntryCname dnsEntry) throws IOException {
-        LOGGER.info(String.format("Updating %s as cname of %s", dnsEntry.getFqdn(), dnsEntry.getDestinationFqdn()));
-        
-        String ptrUpdate = String.format(
-                "server %s\n" + 
-                "update delete %s A\n" + 
-                "update delete %s cname\n" + 
-                "update add %s 86400 CNAME %s\n" + 
-                ";show\n" + 
-                "send",
-        authServer, 
-        dnsEntry.getFqdn(),
-        dnsEntry.getFqdn(),
-        dnsEntry.getFqdn(),
-        dnsEntry.getDestinationFqdn());
-        
-        runCommand(ptrUpdate);
-        
-        LOGGER.info(String.format("Updated %s as cname of %s successfully", dnsEntry.getFqdn(), dnsEntry.getDestinationFqdn()));
+    
+    String buildScript(String server, String zone, List<DnsUpdate> updates) {
+        StringBuilder script = new StringBuilder();
+        script.append(String.format("server %s\n", server));
+        if(planner.getZoneResolver().configuredZoneOf(zone) != null) {
+            script.append(String.format("zone %s.\n", zone));
+        }
+        for(DnsUpdate update : updates) {
+            for(DnsRecord record : update.getRecords()) {
+                script.append(toNsUpdateCommand(record)).append('\n');
+            }
+        }
+        script.append("send\n");
+        return script.toString();
+    }
+    
+    static String toNsUpdateCommand(DnsRecord record) {
+        if(record.getDnsClass() == DnsType.CLASS_ANY && record.getType() == DnsType.ANY) {
+            return String.format("update delete %s.", record.getName());
+        } else if(record.getDnsClass() == DnsType.CLASS_ANY) {
+            return String.format("update delete %s. %s", record.getName(), DnsType.typeName(record.getType()));
+        } else if(record.getDnsClass() == DnsType.CLASS_NONE) {
+            return String.format("update delete %s. %s %s", record.getName(), DnsType.typeName(record.getType()), toNsUpdateData(record));
+        }
+        return String.format("update add %s. %d %s %s", 
+                record.getName(), record.getTtl(), DnsType.typeName(record.getType()), toNsUpdateData(record));
+    }
+    
+    static String toNsUpdateData(DnsRecord record) {
+        switch(record.getType()) {
+            case DnsType.A:
+            case DnsType.AAAA:
+                return IpAddresses.format(record.getRdata());
+            case DnsType.CNAME:
+            case DnsType.PTR:
+                return DnsWireFormat.decodeName(record.getRdata()) + ".";
+            case DnsType.TXT:
+                StringBuilder text = new StringBuilder();
+                for(String string : DnsWireFormat.decodeCharacterStrings(record.getRdata())) {
+                    if(text.length() > 0) {
+                        text.append(' ');
+                    }
+                    text.append('"').append(string.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                }
+                return text.toString();
+            default:
+                throw new IllegalArgumentException(String.format("nsupdate does not support %s records", DnsType.typeName(record.getType())));
+        }
     }
 }
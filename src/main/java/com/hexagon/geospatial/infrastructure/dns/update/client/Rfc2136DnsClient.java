@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsMessage;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsTransport;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.TsigSigner;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sends RFC 2136 UPDATE messages straight from the JVM instead of forking
+ * nsupdate. Enabled with {@code dns.client=rfc2136}.
+ *
+ * @author Chris
+ */
+@Service
+@ConditionalOnProperty(name = "dns.client", havingValue = "rfc2136")
+public class Rfc2136DnsClient extends AbstractBatchingDnsClient {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(Rfc2136DnsClient.class);
+    
+    /**
+     * One or more servers, comma separated
+     */
+    @Value("${nsupdate.authoritive.server.ip}")
+    String authServer;
+    
+    @Value("${rfc2136.server.port:53}")
+    int authServerPort;
+    
+    @Value("${rfc2136.timeout.millis:5000}")
+    int timeoutMillis;
+    
+    @Value("${rfc2136.socket.pool.size:4}")
+    int socketPoolSize;
+    
+    @Value("${rfc2136.tsig.key.name:}")
+    String tsigKeyName;
+    
+    @Value("${rfc2136.tsig.algorithm:hmac-sha256}")
+    String tsigAlgorithm;
+    
+    @Value("${rfc2136.tsig.secret:}")
+    String tsigSecret;
+    
+    List<String> servers;
+    Map<String, DnsTransport> transports;
+    TsigSigner tsigSigner;
+    
+    @PostConstruct
+    public void postConstruct() {
+        servers = parseServers(authServer);
+        transports = new LinkedHashMap<>();
+        servers.stream().forEach((server) -> {
+            transports.put(server, new DnsTransport(addressOf(server, authServerPort), timeoutMillis, socketPoolSize));
+        });
+        if(!tsigKeyName.isEmpty()) {
+            tsigSigner = new TsigSigner(tsigKeyName, tsigAlgorithm, Base64.getDecoder().decode(tsigSecret));
+        }
+    }
+    
+    /**
+     * A server is a host name or address, optionally followed by :port
+     */
+    static InetSocketAddress addressOf(String server, int defaultPort) {
+        int colon = server.lastIndexOf(':');
+        if(colon > 0 && server.indexOf(':') == colon) {
+            return new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+        }
+        return new InetSocketAddress(server, defaultPort);
+    }
+    
+    @Override
+    public List<String> getServers() {
+        return servers;
+    }
+    
+    @PreDestroy
+    public void preDestroy() throws IOException {
+        for(DnsTransport transport : transports.values()) {
+            transport.close();
+        }
+    }
+    
+    public void send(String server, DnsMessage update) throws IOException {
+        byte[] request = DnsWireFormat.encode(update);
+        if(tsigSigner != null) {
+            request = tsigSigner.sign(request, Instant.now().getEpochSecond());
+        }
+        DnsTransport transport = transports.get(server);
+        DnsMessage response;
+        try {
+            response = transport.exchange(request);
+        } catch(IOException ex) {
+            throw new DnsServerUnavailableException(String.format("No response from %s: %s", transport.getServer(), ex.getMessage()), ex);
+        }
+        if(response.getRcode() != 0) {
+            throw new IllegalStateException(String.format("Update of zone %s was rejected by %s with %s", 
+                    update.getQuestion().get(0).getName(), transport.getServer(), DnsType.rcodeName(response.getRcode())));
+        }
+    }
+    
+    @Override
+    public boolean supportsZoneTransfer() {
+        return true;
+    }
+    
+    @Override
+    public ZoneTransfer transferZone(String server, String zone, ZoneContents previous) throws IOException {
+        ZoneTransfer transfer = new ZoneTransfer(zone, previous);
+        byte[] request = DnsWireFormat.encode(transfer.request(nextId()));
+        if(tsigSigner != null) {
+            request = tsigSigner.sign(request, Instant.now().getEpochSecond());
+        }
+        DnsTransport transport = transports.get(server);
+        try {
+            transport.transfer(request, transfer::accept);
+        } catch(IOException ex) {
+            throw new DnsServerUnavailableException(String.format("Transfer of zone %s from %s failed: %s", zone, transport.getServer(), ex.getMessage()), ex);
+        }
+        LOGGER.info(String.format("Transferred zone %s from %s by %s at serial %d", zone, server, transfer.getKind(), transfer.getContents().getSerial()));
+        return transfer;
+    }
+    
+    static int nextId() {
+        return ThreadLocalRandom.current().nextInt(0x10000);
+    }
+
+    @Override
+    protected void sendZoneUpdate(String server, String zone, List<DnsUpdate> updates) throws Exception {
+        LOGGER.info(String.format("Updating %d entries in zone %s on %s", updates.size(), zone, server));
+        
+        DnsMessage update = DnsMessage.update(nextId(), zone);
+        updates.stream().forEach((dnsUpdate) -> {
+            update.getAuthority().addAll(dnsUpdate.getRecords());
+        });
+        send(server, update);
+        
+        LOGGER.info(String.format("Updated %d entries in zone %s on %s successfully", updates.size(), zone, server));
+    }
+}
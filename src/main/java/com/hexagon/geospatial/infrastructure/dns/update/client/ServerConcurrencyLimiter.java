@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caps how many update transactions may be outstanding against any one
+ * authoritative server at the same time.
+ *
+ * @author Chris
+ */
+@Component
+public class ServerConcurrencyLimiter {
+    
+    final int maxConcurrentPerServer;
+    final ConcurrentMap<String, Semaphore> permits;
+    
+    public ServerConcurrencyLimiter(@Value("${dns.push.max.concurrent.per.server:4}") int maxConcurrentPerServer) {
+        this.maxConcurrentPerServer = maxConcurrentPerServer;
+        this.permits = new ConcurrentHashMap<>();
+    }
+    
+    public <T> T call(String server, Callable<T> callable) throws Exception {
+        Semaphore semaphore = permits.computeIfAbsent(server, (key) -> new Semaphore(maxConcurrentPerServer, true));
+        semaphore.acquire();
+        try {
+            return callable.call();
+        } finally {
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsServerHealth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * A circuit breaker per authoritative server. After
+ * {@code dns.server.failure.threshold} consecutive failures to reach a
+ * server its circuit opens and updates to it fail straight away instead of
+ * each waiting out a timeout. After {@code dns.server.open.millis} a single
+ * probe is let through; if it succeeds the circuit closes again. A probe
+ * whose outcome is never recorded, because nothing was sent or the sender
+ * was interrupted, expires after the same period so another can be sent.
+ *
+ * @author Chris
+ */
+@Component
+public class ServerHealthTracker {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(ServerHealthTracker.class);
+    
+    final int failureThreshold;
+    final long openMillis;
+    final ConcurrentMap<String, DnsServerHealth> healthByServer;
+    
+    public ServerHealthTracker(@Value("${dns.server.failure.threshold:3}") int failureThreshold,
+            @Value("${dns.server.open.millis:30000}") long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.healthByServer = new ConcurrentHashMap<>();
+    }
+    
+    DnsServerHealth healthOf(String server) {
+        return healthByServer.computeIfAbsent(server, (key) -> {
+            DnsServerHealth health = new DnsServerHealth();
+            health.setServer(key);
+            health.setState(DnsServerHealth.State.CLOSED);
+            return health;
+        });
+    }
+    
+    /**
+     * @return false if updates to the server should fail without being sent
+     */
+    public boolean allowRequest(String server, long now) {
+        DnsServerHealth health = healthOf(server);
+        synchronized(health) {
+            switch(health.getState()) {
+                case OPEN:
+                    if(now < health.getOpenedTime() + openMillis) {
+                        return false;
+                    }
+                    LOGGER.info(String.format("Probing %s after %d ms", server, now - health.getOpenedTime()));
+                    health.setState(DnsServerHealth.State.HALF_OPEN);
+                    health.setProbeTime(now);
+                    return true;
+                case HALF_OPEN:
+                    if(now < health.getProbeTime() + openMillis) {
+                        return false;
+                    }
+                    LOGGER.warn(String.format("Probe of %s sent %d ms ago has no outcome, probing again", server, now - health.getProbeTime()));
+                    health.setProbeTime(now);
+                    return true;
+                default:
+                    return true;
+            }
+        }
+    }
+    
+    public void recordSuccess(String server, long now) {
+        DnsServerHealth health = healthOf(server);
+        synchronized(health) {
+            if(health.getState() != DnsServerHealth.State.CLOSED) {
+                LOGGER.info(String.format("%s is reachable again, closing its circuit", server));
+            }
+            health.setState(DnsServerHealth.State.CLOSED);
+            health.setConsecutiveFailures(0);
+            health.setLastSuccessTime(now);
+        }
+    }
+    
+    public void recordFailure(String server, Exception failure, long now) {
+        DnsServerHealth health = healthOf(server);
+        synchronized(health) {
+            health.setConsecutiveFailures(health.getConsecutiveFailures() + 1);
+            health.setTotalFailures(health.getTotalFailures() + 1);
+            health.setLastFailureTime(now);
+            health.setLastError(failure.getMessage());
+            if(health.getState() == DnsServerHealth.State.HALF_OPEN 
+                    || (health.getState() == DnsServerHealth.State.CLOSED && health.getConsecutiveFailures() >= failureThreshold)) {
+                LOGGER.warn(String.format("Opening circuit for %s after %d consecutive failures", server, health.getConsecutiveFailures()));
+                health.setState(DnsServerHealth.State.OPEN);
+                health.setOpenedTime(now);
+            }
+        }
+    }
+    
+    /**
+     * @return a copy of the server's health
+     */
+    public DnsServerHealth getHealth(String server) {
+        DnsServerHealth health = healthOf(server);
+        synchronized(health) {
+            DnsServerHealth copy = new DnsServerHealth();
+            copy.setServer(health.getServer());
+            copy.setState(health.getState());
+            copy.setConsecutiveFailures(health.getConsecutiveFailures());
+            copy.setTotalFailures(health.getTotalFailures());
+            copy.setLastSuccessTime(health.getLastSuccessTime());
+            copy.setLastFailureTime(health.getLastFailureTime());
+            copy.setOpenedTime(health.getOpenedTime());
+            copy.setProbeTime(health.getProbeTime());
+            copy.setLastError(health.getLastError());
+            return copy;
+        }
+    }
+    
+    public List<DnsServerHealth> getHealth(List<String> servers) {
+        List<DnsServerHealth> health = new ArrayList<>();
+        servers.stream().forEach((server) -> health.add(getHealth(server)));
+        return health;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The records a zone held at one serial, as read by a {@link ZoneTransfer}.
+ * Records are keyed by {@link #keyOf(DnsRecord)}, so two records are the
+ * same whatever the case of their names and whatever their TTL.
+ *
+ * @author Chris
+ */
+public class ZoneContents {
+    
+    final String zone;
+    final long serial;
+    final Map<String, Map<DnsRecord, Long>> recordsByName;
+    
+    ZoneContents(String zone, long serial, Map<String, Map<DnsRecord, Long>> recordsByName) {
+        this.zone = zone;
+        this.serial = serial;
+        this.recordsByName = recordsByName;
+    }
+    
+    public String getZone() {
+        return zone;
+    }
+    
+    public long getSerial() {
+        return serial;
+    }
+    
+    /**
+     * @return the TTL of the record, or null if the zone does not hold it
+     */
+    public Long ttlOf(DnsRecord record) {
+        DnsRecord key = keyOf(record);
+        return recordsByName.getOrDefault(key.getName(), Collections.emptyMap()).get(key);
+    }
+    
+    /**
+     * @return every record at the name, keyed as by {@link #keyOf(DnsRecord)}
+     * and mapped to its TTL
+     */
+    public Map<DnsRecord, Long> recordsAt(String name) {
+        return Collections.unmodifiableMap(recordsByName.getOrDefault(ZoneResolver.normalise(name), Collections.emptyMap()));
+    }
+    
+    public Map<String, Map<DnsRecord, Long>> getRecordsByName() {
+        return Collections.unmodifiableMap(recordsByName);
+    }
+    
+    public int size() {
+        return recordsByName.values().stream().mapToInt(Map::size).sum();
+    }
+    
+    /**
+     * @return the record with its name, and any name in its data, in lower
+     * case and its TTL zeroed
+     */
+    public static DnsRecord keyOf(DnsRecord record) {
+        byte[] rdata = record.getRdata();
+        if(rdata != null && (record.getType() == DnsType.CNAME || record.getType() == DnsType.PTR || record.getType() == DnsType.NS)) {
+            // label lengths are at most 63, so only the letters are touched
+            rdata = rdata.clone();
+            for(int i = 0; i < rdata.length; i++) {
+                if(rdata[i] >= 'A' && rdata[i] <= 'Z') {
+                    rdata[i] += 'a' - 'A';
+                }
+            }
+        }
+        return new DnsRecord(ZoneResolver.normalise(record.getName()), record.getType(), DnsType.CLASS_IN, 0, rdata);
+    }
+    
+    static Map<String, Map<DnsRecord, Long>> copyOf(ZoneContents contents) {
+        Map<String, Map<DnsRecord, Long>> copy = new HashMap<>();
+        contents.recordsByName.entrySet().stream().forEach((entry) -> copy.put(entry.getKey(), new HashMap<>(entry.getValue())));
+        return copy;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Works out which zone a name should be updated in. The longest matching
+ * zone from {@code dns.zones} wins; names outside every configured zone are
+ * assumed to live in their parent domain.
+ *
+ * @author Chris
+ */
+@Component
+public class ZoneResolver {
+    
+    List<String> zones;
+    
+    public ZoneResolver(@Value("${dns.zones:}") String zones) {
+        this.zones = Arrays.stream(zones.split(","))
+                .map(String::trim)
+                .filter((zone) -> !zone.isEmpty())
+                .map(ZoneResolver::normalise)
+                .sorted((a, b) -> Integer.compare(b.length(), a.length()))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+    
+    public String zoneOf(String name) {
+        String configured = configuredZoneOf(name);
+        if(configured != null) {
+            return configured;
+        }
+        String normalised = normalise(name);
+        int firstDot = normalised.indexOf('.');
+        return firstDot < 0 ? normalised : normalised.substring(firstDot + 1);
+    }
+    
+    /**
+     * @return the configured zone containing {@code name}, or null when the
+     * zone is only a guess
+     */
+    public String configuredZoneOf(String name) {
+        String normalised = normalise(name);
+        for(String zone : zones) {
+            if(normalised.equals(zone) || normalised.endsWith("." + zone)) {
+                return zone;
+            }
+        }
+        return null;
+    }
+    
+    static String normalise(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower.substring(0, lower.length() - 1) : lower;
+    }
+}
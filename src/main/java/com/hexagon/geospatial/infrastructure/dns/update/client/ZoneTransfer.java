@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsMessage;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One zone transfer: an AXFR (RFC 5936) when there is nothing to start from,
+ * otherwise an IXFR (RFC 1995) from the serial already held. The response
+ * is fed in a message at a time and applied to the previous contents. An
+ * IXFR is answered with a lone SOA when nothing changed, with the
+ * differences since that serial, or with the whole zone when the server no
+ * longer has them. SOA records themselves are not kept.
+ *
+ * @author Chris
+ */
+public class ZoneTransfer {
+    
+    public enum Kind {
+        AXFR,
+        IXFR,
+        UP_TO_DATE
+    }
+    
+    final String zone;
+    final ZoneContents previous;
+    
+    long serial = -1;
+    int recordCount;
+    Kind kind;
+    boolean deleting;
+    long differenceSerial;
+    boolean complete;
+    Map<String, Map<DnsRecord, Long>> records;
+    ZoneContents contents;
+    
+    /**
+     * @param previous what the zone held at the last transfer, or null for an
+     * AXFR
+     */
+    public ZoneTransfer(String zone, ZoneContents previous) {
+        this.zone = ZoneResolver.normalise(zone);
+        this.previous = previous;
+    }
+    
+    public DnsMessage request(int id) {
+        DnsMessage request = new DnsMessage();
+        request.setId(id);
+        request.setFlags(DnsMessage.OPCODE_QUERY << 11);
+        request.getQuestion().add(DnsRecord.question(zone, previous == null ? DnsType.AXFR : DnsType.IXFR, DnsType.CLASS_IN));
+        if(previous != null) {
+            request.getAuthority().add(new DnsRecord(zone, DnsType.SOA, DnsType.CLASS_IN, 0, soa(previous.getSerial())));
+        }
+        return request;
+    }
+    
+    /**
+     * @return true once the response is complete
+     */
+    public boolean accept(DnsMessage message) {
+        if(message.getRcode() != 0) {
+            throw new IllegalStateException(String.format("Transfer of zone %s was refused with %s", zone, DnsType.rcodeName(message.getRcode())));
+        }
+        for(DnsRecord record : message.getAnswer()) {
+            if(complete) {
+                throw new IllegalStateException(String.format("Transfer of zone %s continued after its closing SOA", zone));
+            }
+            accept(record);
+        }
+        if(recordCount == 1 && previous != null && serial == previous.getSerial()) {
+            kind = Kind.UP_TO_DATE;
+            complete = true;
+        }
+        return complete;
+    }
+    
+    void accept(DnsRecord record) {
+        boolean isSoa = record.getType() == DnsType.SOA;
+        if(++recordCount == 1) {
+            if(!isSoa) {
+                throw new IllegalStateException(String.format("Transfer of zone %s did not start with its SOA", zone));
+            }
+            serial = serialOf(record.getRdata());
+        } else if(recordCount == 2) {
+            if(isSoa && previous != null && serialOf(record.getRdata()) != serial) {
+                if(serialOf(record.getRdata()) != previous.getSerial()) {
+                    throw new IllegalStateException(String.format("Transfer of zone %s started from serial %d rather than %d", 
+                            zone, serialOf(record.getRdata()), previous.getSerial()));
+                }
+                kind = Kind.IXFR;
+                records = ZoneContents.copyOf(previous);
+                deleting = true;
+            } else {
+                kind = Kind.AXFR;
+                records = new HashMap<>();
+                acceptWhole(record, isSoa);
+            }
+        } else if(kind == Kind.AXFR) {
+            acceptWhole(record, isSoa);
+        } else if(isSoa) {
+            long soaSerial = serialOf(record.getRdata());
+            if(deleting) {
+                differenceSerial = soaSerial;
+                deleting = false;
+            } else if(differenceSerial == serial && soaSerial == serial) {
+                complete = true;
+            } else {
+                deleting = true;
+            }
+        } else if(deleting) {
+            DnsRecord key = ZoneContents.keyOf(record);
+            Map<DnsRecord, Long> atName = records.get(key.getName());
+            if(atName != null && atName.remove(key) != null && atName.isEmpty()) {
+                records.remove(key.getName());
+            }
+        } else {
+            add(record);
+        }
+    }
+    
+    void acceptWhole(DnsRecord record, boolean isSoa) {
+        if(isSoa) {
+            complete = true;
+        } else {
+            add(record);
+        }
+    }
+    
+    void add(DnsRecord record) {
+        DnsRecord key = ZoneContents.keyOf(record);
+        records.computeIfAbsent(key.getName(), (name) -> new HashMap<>()).put(key, record.getTtl());
+    }
+    
+    public boolean isComplete() {
+        return complete;
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    public ZoneContents getContents() {
+        if(!complete) {
+            throw new IllegalStateException(String.format("Transfer of zone %s is incomplete", zone));
+        }
+        if(contents == null) {
+            contents = kind == Kind.UP_TO_DATE ? previous : new ZoneContents(zone, serial, records);
+        }
+        return contents;
+    }
+    
+    /**
+     * @return the SOA data a client sends to say which serial it has
+     */
+    public static byte[] soa(long serial) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(22);
+        DnsWireFormat.writeName(out, ".");
+        DnsWireFormat.writeName(out, ".");
+        DnsWireFormat.writeU32(out, serial);
+        for(int i = 0; i < 4; i++) {
+            DnsWireFormat.writeU32(out, 0);
+        }
+        return out.toByteArray();
+    }
+    
+    public static long serialOf(byte[] soa) {
+        ByteBuffer buffer = ByteBuffer.wrap(soa);
+        DnsWireFormat.readName(buffer);
+        DnsWireFormat.readName(buffer);
+        return buffer.getInt() & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * RFC 1035 message. For an RFC 2136 UPDATE the four sections are the zone,
+ * prerequisite, update and additional sections respectively.
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class DnsMessage {
+    
+    public static final int OPCODE_QUERY = 0;
+    public static final int OPCODE_UPDATE = 5;
+    
+    public static final int FLAG_QR = 0x8000;
+    public static final int FLAG_AA = 0x0400;
+    public static final int FLAG_TC = 0x0200;
+    public static final int FLAG_RD = 0x0100;
+    
+    int id;
+    int flags;
+    List<DnsRecord> question = new ArrayList<>();
+    List<DnsRecord> answer = new ArrayList<>();
+    List<DnsRecord> authority = new ArrayList<>();
+    List<DnsRecord> additional = new ArrayList<>();
+    
+    public static DnsMessage update(int id, String zone) {
+        DnsMessage message = new DnsMessage();
+        message.setId(id);
+        message.setFlags(OPCODE_UPDATE << 11);
+        message.getQuestion().add(DnsRecord.question(zone, DnsType.SOA, DnsType.CLASS_IN));
+        return message;
+    }
+    
+    public int getOpcode() {
+        return (flags >> 11) & 0xF;
+    }
+    
+    public int getRcode() {
+        return flags & 0xF;
+    }
+    
+    public boolean isResponse() {
+        return (flags & FLAG_QR) != 0;
+    }
+    
+    public boolean isTruncated() {
+        return (flags & FLAG_TC) != 0;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A resource record as it appears on the wire. Names inside {@code rdata} are
+ * always stored uncompressed.
+ *
+ * @author Chris
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DnsRecord {
+    String name;
+    int type;
+    int dnsClass;
+    long ttl;
+    byte[] rdata;
+    
+    public static DnsRecord question(String name, int type, int dnsClass) {
+        return new DnsRecord(name, type, dnsClass, 0, null);
+    }
+}
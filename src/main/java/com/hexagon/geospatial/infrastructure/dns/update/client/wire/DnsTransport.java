@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Predicate;
+
+/**
+ * Sends DNS messages to a single server over a small pool of reusable UDP and
+ * TCP sockets. Messages too large for UDP, and truncated UDP replies, go over
+ * TCP. Zone transfers get a TCP connection of their own.
+ *
+ * @author Chris
+ */
+public class DnsTransport implements Closeable {
+    
+    final InetSocketAddress server;
+    final int timeoutMillis;
+    final BlockingQueue<DatagramSocket> udpSockets;
+    final BlockingQueue<Socket> tcpSockets;
+    
+    public DnsTransport(InetSocketAddress server, int timeoutMillis, int poolSize) {
+        this.server = server;
+        this.timeoutMillis = timeoutMillis;
+        this.udpSockets = new ArrayBlockingQueue<>(poolSize);
+        this.tcpSockets = new ArrayBlockingQueue<>(poolSize);
+    }
+    
+    public InetSocketAddress getServer() {
+        return server;
+    }
+    
+    public DnsMessage exchange(byte[] request) throws IOException {
+        if(request.length > DnsWireFormat.MAX_UDP_MESSAGE_SIZE) {
+            return exchangeTcp(request);
+        }
+        DnsMessage response = exchangeUdp(request);
+        return response.isTruncated() ? exchangeTcp(request) : response;
+    }
+    
+    DnsMessage exchangeUdp(byte[] request) throws IOException {
+        int id = ((request[0] & 0xFF) << 8) | (request[1] & 0xFF);
+        DatagramSocket socket = udpSockets.poll();
+        if(socket == null) {
+            socket = new DatagramSocket();
+            socket.connect(server);
+        }
+        try {
+            socket.setSoTimeout(timeoutMillis);
+            socket.send(new DatagramPacket(request, request.length));
+            byte[] buffer = new byte[65535];
+            while(true) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                DnsMessage response = DnsWireFormat.decode(packet.getData(), packet.getOffset(), packet.getLength());
+                if(response.getId() == id && response.isResponse()) {
+                    release(udpSockets, socket);
+                    return response;
+                }
+            }
+        } catch(IOException | RuntimeException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * The server closed a pooled connection before it could have seen the
+     * request, so sending it again on a fresh connection is safe.
+     */
+    static class StaleConnectionException extends IOException {
+        
+        StaleConnectionException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * A pooled connection the server has already closed is dropped before
+     * the request is written to it. A request is only sent again when a
+     * pooled connection turns out to be closed after all: writing it failed,
+     * or the connection ended before any of the response arrived. Any other
+     * failure, a timeout in particular, may have come after the server
+     * applied the request.
+     */
+    DnsMessage exchangeTcp(byte[] request) throws IOException {
+        Socket socket = tcpSockets.poll();
+        if(socket != null && !isReusable(socket)) {
+            socket.close();
+            socket = null;
+        }
+        if(socket != null) {
+            try {
+                return exchangeTcp(socket, request);
+            } catch(StaleConnectionException ex) {
+                // pooled connection was closed by the server, retry on a fresh one
+            }
+        }
+        return exchangeTcp(openTcp(), request);
+    }
+    
+    /**
+     * @return false if the server closed the connection while it sat in the
+     * pool, or sent something nobody asked for
+     */
+    static boolean isReusable(Socket socket) {
+        try {
+            socket.setSoTimeout(1);
+            socket.getInputStream().read();
+            return false;
+        } catch(SocketTimeoutException ex) {
+            return true;
+        } catch(IOException ex) {
+            return false;
+        }
+    }
+    
+    Socket openTcp() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.connect(server, timeoutMillis);
+        return socket;
+    }
+    
+    DnsMessage exchangeTcp(Socket socket, byte[] request) throws IOException {
+        int id = ((request[0] & 0xFF) << 8) | (request[1] & 0xFF);
+        try {
+            socket.setSoTimeout(timeoutMillis);
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeShort(request.length);
+                out.write(request);
+                out.flush();
+            } catch(IOException ex) {
+                throw new StaleConnectionException(ex);
+            }
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int first = in.read();
+            if(first < 0) {
+                throw new StaleConnectionException(new EOFException(String.format("%s closed the connection", server)));
+            }
+            while(true) {
+                int length = (first << 8) | in.readUnsignedByte();
+                byte[] message = new byte[length];
+                in.readFully(message);
+                DnsMessage response = DnsWireFormat.decode(message);
+                if(response.getId() == id && response.isResponse()) {
+                    release(tcpSockets, socket);
+                    return response;
+                }
+                first = in.readUnsignedByte();
+            }
+        } catch(IOException | RuntimeException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Sends a zone transfer request and hands each message of the response
+     * to {@code complete} until it returns true.
+     */
+    public void transfer(byte[] request, Predicate<DnsMessage> complete) throws IOException {
+        int id = ((request[0] & 0xFF) << 8) | (request[1] & 0xFF);
+        try(Socket socket = openTcp()) {
+            socket.setSoTimeout(timeoutMillis);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeShort(request.length);
+            out.write(request);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while(true) {
+                DnsMessage response = DnsWireFormat.decode(readTcpMessage(in));
+                if(response.getId() == id && response.isResponse() && complete.test(response)) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    public static byte[] readTcpMessage(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        byte[] message = new byte[length];
+        in.readFully(message);
+        return message;
+    }
+    
+    static <T extends Closeable> void release(BlockingQueue<T> pool, T socket) throws IOException {
+        if(!pool.offer(socket)) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for(DatagramSocket socket = udpSockets.poll(); socket != null; socket = udpSockets.poll()) {
+            socket.close();
+        }
+        for(Socket socket = tcpSockets.poll(); socket != null; socket = tcpSockets.poll()) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+/**
+ *
+ * @author Chris
+ */
+public final class DnsType {
+    
+    public static final int A = 1;
+    public static final int NS = 2;
+    public static final int CNAME = 5;
+    public static final int SOA = 6;
+    public static final int PTR = 12;
+    public static final int TXT = 16;
+    public static final int AAAA = 28;
+    public static final int TSIG = 250;
+    public static final int IXFR = 251;
+    public static final int AXFR = 252;
+    public static final int ANY = 255;
+    
+    public static final int CLASS_IN = 1;
+    public static final int CLASS_NONE = 254;
+    public static final int CLASS_ANY = 255;
+    
+    private DnsType() {
+    }
+    
+    public static String typeName(int type) {
+        switch(type) {
+            case A: return "A";
+            case NS: return "NS";
+            case CNAME: return "CNAME";
+            case SOA: return "SOA";
+            case PTR: return "PTR";
+            case TXT: return "TXT";
+            case AAAA: return "AAAA";
+            case ANY: return "ANY";
+            default: return "TYPE" + type;
+        }
+    }
+    
+    public static String rcodeName(int rcode) {
+        switch(rcode) {
+            case 0: return "NOERROR";
+            case 1: return "FORMERR";
+            case 2: return "SERVFAIL";
+            case 3: return "NXDOMAIN";
+            case 4: return "NOTIMP";
+            case 5: return "REFUSED";
+            case 6: return "YXDOMAIN";
+            case 7: return "YXRRSET";
+            case 8: return "NXRRSET";
+            case 9: return "NOTAUTH";
+            case 10: return "NOTZONE";
+            default: return "RCODE" + rcode;
+        }
+    }
+}
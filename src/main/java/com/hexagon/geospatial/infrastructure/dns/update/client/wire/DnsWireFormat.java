@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes DNS messages. Names are written uncompressed and read
+ * with support for compression pointers.
+ *
+ * @author Chris
+ */
+public final class DnsWireFormat {
+    
+    public static final int MAX_UDP_MESSAGE_SIZE = 512;
+    
+    private DnsWireFormat() {
+    }
+    
+    public static byte[] encode(DnsMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_UDP_MESSAGE_SIZE);
+        writeU16(out, message.getId());
+        writeU16(out, message.getFlags());
+        writeU16(out, message.getQuestion().size());
+        writeU16(out, message.getAnswer().size());
+        writeU16(out, message.getAuthority().size());
+        writeU16(out, message.getAdditional().size());
+        message.getQuestion().stream().forEach((record) -> {
+            writeName(out, record.getName());
+            writeU16(out, record.getType());
+            writeU16(out, record.getDnsClass());
+        });
+        writeRecords(out, message.getAnswer());
+        writeRecords(out, message.getAuthority());
+        writeRecords(out, message.getAdditional());
+        return out.toByteArray();
+    }
+    
+    static void writeRecords(ByteArrayOutputStream out, List<DnsRecord> records) {
+        records.stream().forEach((record) -> writeRecord(out, record));
+    }
+    
+    public static void writeRecord(ByteArrayOutputStream out, DnsRecord record) {
+        writeName(out, record.getName());
+        writeU16(out, record.getType());
+        writeU16(out, record.getDnsClass());
+        writeU32(out, record.getTtl());
+        byte[] rdata = record.getRdata() == null ? new byte[0] : record.getRdata();
+        writeU16(out, rdata.length);
+        out.write(rdata, 0, rdata.length);
+    }
+    
+    public static int encodedRecordLength(DnsRecord record) {
+        return nameLength(record.getName()) + 10 + (record.getRdata() == null ? 0 : record.getRdata().length);
+    }
+    
+    public static void writeU16(ByteArrayOutputStream out, int value) {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+    
+    public static void writeU32(ByteArrayOutputStream out, long value) {
+        writeU16(out, (int)(value >> 16));
+        writeU16(out, (int)value);
+    }
+    
+    public static void writeName(ByteArrayOutputStream out, String name) {
+        byte[] encoded = encodeName(name);
+        out.write(encoded, 0, encoded.length);
+    }
+    
+    public static byte[] encodeName(String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        String trimmed = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        if(!trimmed.isEmpty()) {
+            for(String label : trimmed.split("\\.", -1)) {
+                byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                if(bytes.length == 0 || bytes.length > 63) {
+                    throw new IllegalArgumentException(String.format("Invalid label '%s' in name '%s'", label, name));
+                }
+                out.write(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+        out.write(0);
+        if(out.size() > 255) {
+            throw new IllegalArgumentException(String.format("Name '%s' is longer than 255 octets", name));
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * TXT rdata: the text as consecutive character strings of at most 255
+     * bytes, split between UTF-8 characters.
+     */
+    public static byte[] encodeCharacterStrings(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + bytes.length / 255 + 1);
+        int start = 0;
+        do {
+            int end = Math.min(start + 255, bytes.length);
+            while(end < bytes.length && end > start && (bytes[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            out.write(end - start);
+            out.write(bytes, start, end - start);
+            start = end;
+        } while(start < bytes.length);
+        return out.toByteArray();
+    }
+    
+    public static List<String> decodeCharacterStrings(byte[] rdata) {
+        List<String> strings = new ArrayList<>();
+        int position = 0;
+        while(position < rdata.length) {
+            int length = rdata[position] & 0xFF;
+            strings.add(new String(rdata, position + 1, length, StandardCharsets.UTF_8));
+            position += length + 1;
+        }
+        return strings;
+    }
+    
+    static int nameLength(String name) {
+        String trimmed = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        return trimmed.isEmpty() ? 1 : trimmed.length() + 2;
+    }
+    
+    public static DnsMessage decode(byte[] data) {
+        return decode(data, 0, data.length);
+    }
+    
+    public static DnsMessage decode(byte[] data, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).slice();
+        try {
+            DnsMessage message = new DnsMessage();
+            message.setId(buffer.getShort() & 0xFFFF);
+            message.setFlags(buffer.getShort() & 0xFFFF);
+            int questionCount = buffer.getShort() & 0xFFFF;
+            int answerCount = buffer.getShort() & 0xFFFF;
+            int authorityCount = buffer.getShort() & 0xFFFF;
+            int additionalCount = buffer.getShort() & 0xFFFF;
+            for(int i = 0; i < questionCount; i++) {
+                String name = readName(buffer);
+                message.getQuestion().add(DnsRecord.question(name, buffer.getShort() & 0xFFFF, buffer.getShort() & 0xFFFF));
+            }
+            readRecords(buffer, answerCount, message.getAnswer());
+            readRecords(buffer, authorityCount, message.getAuthority());
+            readRecords(buffer, additionalCount, message.getAdditional());
+            return message;
+        } catch(BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Truncated or malformed DNS message", ex);
+        }
+    }
+    
+    static void readRecords(ByteBuffer buffer, int count, List<DnsRecord> records) {
+        for(int i = 0; i < count; i++) {
+            String name = readName(buffer);
+            int type = buffer.getShort() & 0xFFFF;
+            int dnsClass = buffer.getShort() & 0xFFFF;
+            long ttl = buffer.getInt() & 0xFFFFFFFFL;
+            int rdataLength = buffer.getShort() & 0xFFFF;
+            int rdataEnd = buffer.position() + rdataLength;
+            byte[] rdata = readRdata(buffer, type, rdataLength);
+            buffer.position(rdataEnd);
+            records.add(new DnsRecord(name, type, dnsClass, ttl, rdata));
+        }
+    }
+    
+    static byte[] readRdata(ByteBuffer buffer, int type, int rdataLength) {
+        if(rdataLength > 0 && (type == DnsType.CNAME || type == DnsType.PTR || type == DnsType.NS)) {
+            return encodeName(readName(buffer));
+        } else if(rdataLength > 0 && type == DnsType.SOA) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeName(out, readName(buffer));
+            writeName(out, readName(buffer));
+            byte[] counters = new byte[20];
+            buffer.get(counters);
+            out.write(counters, 0, counters.length);
+            return out.toByteArray();
+        }
+        byte[] rdata = new byte[rdataLength];
+        buffer.get(rdata);
+        return rdata;
+    }
+    
+    public static String readName(ByteBuffer buffer) {
+        StringBuilder name = new StringBuilder();
+        int position = buffer.position();
+        int resumeAt = -1;
+        int jumps = 0;
+        while(true) {
+            int length = buffer.get(position) & 0xFF;
+            if((length & 0xC0) == 0xC0) {
+                if(++jumps > 64) {
+                    throw new IllegalArgumentException("Compression pointer loop in DNS name");
+                }
+                if(resumeAt < 0) {
+                    resumeAt = position + 2;
+                }
+                position = ((length & 0x3F) << 8) | (buffer.get(position + 1) & 0xFF);
+            } else if(length == 0) {
+                buffer.position(resumeAt < 0 ? position + 1 : resumeAt);
+                return name.length() == 0 ? "." : name.toString();
+            } else {
+                if(name.length() > 0) {
+                    name.append('.');
+                }
+                for(int i = 1; i <= length; i++) {
+                    name.append((char)(buffer.get(position + i) & 0xFF));
+                }
+                position += length + 1;
+            }
+        }
+    }
+    
+    public static String decodeName(byte[] encoded) {
+        return readName(ByteBuffer.wrap(encoded));
+    }
+}
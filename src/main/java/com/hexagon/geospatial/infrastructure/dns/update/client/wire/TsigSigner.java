@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Appends an RFC 8945 TSIG record to an encoded message.
+ *
+ * @author Chris
+ */
+public class TsigSigner {
+    
+    public static final int DEFAULT_FUDGE_SECONDS = 300;
+    
+    final String keyName;
+    final String algorithmName;
+    final String macAlgorithm;
+    final byte[] secret;
+    
+    public TsigSigner(String keyName, String algorithm, byte[] secret) {
+        this.keyName = keyName.toLowerCase(Locale.ROOT);
+        this.secret = secret.clone();
+        switch(algorithm.toLowerCase(Locale.ROOT)) {
+            case "hmac-md5":
+            case "hmac-md5.sig-alg.reg.int":
+                algorithmName = "hmac-md5.sig-alg.reg.int";
+                macAlgorithm = "HmacMD5";
+                break;
+            case "hmac-sha1":
+                algorithmName = "hmac-sha1";
+                macAlgorithm = "HmacSHA1";
+                break;
+            case "hmac-sha256":
+                algorithmName = "hmac-sha256";
+                macAlgorithm = "HmacSHA256";
+                break;
+            case "hmac-sha512":
+                algorithmName = "hmac-sha512";
+                macAlgorithm = "HmacSHA512";
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unsupported TSIG algorithm '%s'", algorithm));
+        }
+    }
+    
+    public byte[] sign(byte[] message, long timeSigned) {
+        int originalId = ((message[0] & 0xFF) << 8) | (message[1] & 0xFF);
+        byte[] mac = computeMac(message, timeSigned, DEFAULT_FUDGE_SECONDS);
+        
+        ByteArrayOutputStream rdata = new ByteArrayOutputStream();
+        DnsWireFormat.writeName(rdata, algorithmName);
+        writeU48(rdata, timeSigned);
+        DnsWireFormat.writeU16(rdata, DEFAULT_FUDGE_SECONDS);
+        DnsWireFormat.writeU16(rdata, mac.length);
+        rdata.write(mac, 0, mac.length);
+        DnsWireFormat.writeU16(rdata, originalId);
+        DnsWireFormat.writeU16(rdata, 0);
+        DnsWireFormat.writeU16(rdata, 0);
+        
+        ByteArrayOutputStream signed = new ByteArrayOutputStream(message.length + 128);
+        signed.write(message, 0, message.length);
+        DnsWireFormat.writeRecord(signed, new DnsRecord(keyName, DnsType.TSIG, DnsType.CLASS_ANY, 0, rdata.toByteArray()));
+        byte[] result = signed.toByteArray();
+        int additionalCount = ((result[10] & 0xFF) << 8 | (result[11] & 0xFF)) + 1;
+        result[10] = (byte)(additionalCount >> 8);
+        result[11] = (byte)additionalCount;
+        return result;
+    }
+    
+    public byte[] computeMac(byte[] message, long timeSigned, int fudge) {
+        ByteArrayOutputStream variables = new ByteArrayOutputStream();
+        DnsWireFormat.writeName(variables, keyName);
+        DnsWireFormat.writeU16(variables, DnsType.CLASS_ANY);
+        DnsWireFormat.writeU32(variables, 0);
+        DnsWireFormat.writeName(variables, algorithmName);
+        writeU48(variables, timeSigned);
+        DnsWireFormat.writeU16(variables, fudge);
+        DnsWireFormat.writeU16(variables, 0);
+        DnsWireFormat.writeU16(variables, 0);
+        try {
+            Mac hmac = Mac.getInstance(macAlgorithm);
+            hmac.init(new SecretKeySpec(secret, macAlgorithm));
+            hmac.update(message);
+            hmac.update(variables.toByteArray());
+            return hmac.doFinal();
+        } catch(GeneralSecurityException ex) {
+            throw new IllegalStateException(String.format("Unable to compute %s TSIG", macAlgorithm), ex);
+        }
+    }
+    
+    static void writeU48(ByteArrayOutputStream out, long value) {
+        DnsWireFormat.writeU16(out, (int)(value >> 32));
+        DnsWireFormat.writeU32(out, value);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.cluster;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.hexagon.geospatial.infrastructure.dns.update.BatchRegistrationReader;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.BatchRegistrationRequest;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * A follower's copy of the leader's entries, which it lists from. Each
+ * {@link #refresh()} fetches the leader's {@code /cluster/snapshot}, only
+ * when its ETag has moved on, so the copy trails the leader by at most a
+ * heartbeat and costs nothing while nothing changes. The copy keeps the
+ * leader's ETag, so a client can move between instances without seeing
+ * the list as changed.
+ *
+ * @author Chris
+ */
+@Component
+public class ClusterReplica {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(ClusterReplica.class);
+    public static final String SNAPSHOT_PATH = "/cluster/snapshot";
+    
+    @Autowired
+    LeaderElection leaderElection;
+    
+    @Value("${dns.cluster.replica.timeout.millis:5000}")
+    int timeoutMillis;
+    
+    final ObjectMapper mapper = new ObjectMapper();
+    volatile NavigableMap<String, DnsEntry> dnsEntries = Collections.emptyNavigableMap();
+    volatile String eTag;
+    
+    /**
+     * @return true if the copy changed
+     */
+    public boolean refresh() throws IOException {
+        String leaderUrl = leaderElection.getLeaderUrl();
+        if(leaderUrl == null) {
+            return false;
+        }
+        HttpURLConnection connection = (HttpURLConnection)new URL(leaderUrl + SNAPSHOT_PATH).openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            if(eTag != null) {
+                connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, eTag);
+            }
+            int status = connection.getResponseCode();
+            if(status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            } else if(status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("%s answered %d for its snapshot", leaderUrl, status));
+            }
+            BatchRegistrationReader reader = new BatchRegistrationReader(mapper);
+            try(InputStream body = connection.getInputStream()) {
+                reader.read(body);
+            }
+            NavigableMap<String, DnsEntry> replicated = new TreeMap<>();
+            reader.getDnsEntries().stream().forEach((dnsEntry) -> replicated.put(dnsEntry.getFqdn(), dnsEntry));
+            dnsEntries = Collections.unmodifiableNavigableMap(replicated);
+            eTag = connection.getHeaderField(HttpHeaders.ETAG);
+            LOGGER.debug(String.format("Replicated %d entries from %s", replicated.size(), leaderUrl));
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    /**
+     * Entries in FQDN order after {@code afterFqdn}, as for
+     * {@link com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage#iterateDnsEntriesAfter(String)}
+     */
+    public Iterable<DnsEntry> iterateDnsEntriesAfter(String afterFqdn) {
+        NavigableMap<String, DnsEntry> current = dnsEntries;
+        return afterFqdn == null ? current.values() : current.tailMap(afterFqdn, false).values();
+    }
+    
+    /**
+     * Writes the entries in the form {@link #refresh()} reads.
+     */
+    public static void writeSnapshot(Iterable<DnsEntry> dnsEntries, OutputStream outputStream, ObjectMapper mapper) throws IOException {
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try(JsonGenerator generator = mapper.getFactory().createGenerator(outputStream)) {
+            generator.writeStartArray();
+            for(DnsEntry dnsEntry : dnsEntries) {
+                writer.writeValue(generator, BatchRegistrationRequest.of(dnsEntry));
+            }
+            generator.writeEndArray();
+        }
+    }
+    
+    public String getETag() {
+        return eTag;
+    }
+    
+    public int size() {
+        return dnsEntries.size();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which of several instances sharing storage is the leader, the
+ * only one that writes storage and pushes to DNS. Enabled with
+ * {@code dns.cluster.enabled}; otherwise every instance leads.
+ * 
+ * The leader holds a lease recorded in {@code dns.cluster.lease.file} on the
+ * shared storage and renews it on every {@link #heartbeat(long)}. The file is
+ * only read and written under a lock, and any instance may take a lease that
+ * has run out, so a leader that dies or stalls is replaced within
+ * {@code dns.cluster.lease.millis}. A leader stops acting as one
+ * {@code dns.cluster.lease.margin.millis} before its own lease runs out,
+ * whether or not it could renew it, so it has stepped down before another
+ * instance can take over despite a pause or clocks that disagree by less
+ * than the margin.
+ * 
+ * The lease also carries a key made by the first instance to write it and
+ * kept by every leader after, which only instances that can read the lease
+ * file know. Standbys send it with the requests they forward, so the
+ * leader can tell them from clients.
+ *
+ * @author Chris
+ */
+@Component
+public class LeaderElection {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(LeaderElection.class);
+    
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Lease {
+        String nodeId;
+        /** Where the leader takes forwarded requests */
+        String url;
+        long expires;
+        /** Identifies instances of the cluster to one another */
+        String clusterKey;
+    }
+    
+    @Value("${dns.cluster.enabled:false}")
+    boolean enabled;
+    
+    @Value("${dns.cluster.lease.file:dnsUpdate.leader}")
+    File leaseFile;
+    
+    @Value("${dns.cluster.lease.millis:5000}")
+    long leaseMillis;
+    
+    /**
+     * How long before the lease runs out the leader steps down, more than
+     * clocks may disagree or an instance may stall
+     */
+    @Value("${dns.cluster.lease.margin.millis:1000}")
+    long leaseMarginMillis;
+    
+    /**
+     * How other instances reach this one, by default its host name and
+     * {@code server.port}
+     */
+    @Value("${dns.cluster.node.url:}")
+    String nodeUrl;
+    
+    @Value("${server.port:8080}")
+    int serverPort;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    final String nodeId = UUID.randomUUID().toString();
+    final ObjectMapper mapper = new ObjectMapper();
+    volatile Lease lease;
+    volatile long leaderUntil;
+    
+    /**
+     * The lease is first taken by the first heartbeat, once the application
+     * has started and can keep renewing it.
+     */
+    @PostConstruct
+    public void postConstruct() throws IOException {
+        if(enabled && leaseMarginMillis >= leaseMillis) {
+            throw new IllegalArgumentException(String.format("dns.cluster.lease.margin.millis %d must be less than dns.cluster.lease.millis %d", 
+                    leaseMarginMillis, leaseMillis));
+        }
+        if(enabled && nodeUrl.isEmpty()) {
+            nodeUrl = String.format("http://%s:%d", InetAddress.getLocalHost().getHostName(), serverPort);
+        }
+    }
+    
+    /**
+     * Hands the lease over at once rather than letting it run out.
+     */
+    @PreDestroy
+    public synchronized void preDestroy() {
+        if(!enabled || !isLeader()) {
+            return;
+        }
+        leaderUntil = 0;
+        try(FileChannel channel = FileChannel.open(leaseFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE); 
+                FileLock lock = channel.lock()) {
+            Lease held = read(channel);
+            if(held != null && nodeId.equals(held.getNodeId())) {
+                write(channel, new Lease(nodeId, nodeUrl, 0, held.getClusterKey()));
+            }
+        } catch(IOException ex) {
+            LOGGER.warn(String.format("Unable to release the lease in %s, it runs out by itself", leaseFile), ex);
+        }
+    }
+    
+    /**
+     * Renews this instance's lease, or takes the lease if it has run out.
+     * 
+     * @return true if this instance has just become the leader
+     */
+    public synchronized boolean heartbeat(long now) {
+        if(!enabled) {
+            return false;
+        }
+        boolean wasLeader = isLeader(now);
+        try(FileChannel channel = FileChannel.open(leaseFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE); 
+                FileLock lock = channel.lock()) {
+            Lease held = read(channel);
+            if(held == null || nodeId.equals(held.getNodeId()) || held.getExpires() <= now) {
+                String clusterKey = held != null && held.getClusterKey() != null ? held.getClusterKey() : UUID.randomUUID().toString();
+                held = new Lease(nodeId, nodeUrl, now + leaseMillis, clusterKey);
+                write(channel, held);
+                // now was taken before waiting for the lock, so this errs early
+                leaderUntil = held.getExpires() - leaseMarginMillis;
+            } else {
+                leaderUntil = 0;
+            }
+            lease = held;
+        } catch(IOException | RuntimeException ex) {
+            // a leader keeps leading until its lease runs out
+            LOGGER.warn(String.format("Unable to renew the lease in %s: %s", leaseFile, ex.getMessage()));
+        }
+        boolean leader = isLeader(now);
+        if(leader && !wasLeader) {
+            LOGGER.info(String.format("%s is now the leader", nodeUrl));
+            meterRegistry.counter("dns.cluster.elected").increment();
+        } else if(!leader && wasLeader) {
+            LOGGER.warn(String.format("%s is no longer the leader, %s is", nodeUrl, getLeaderUrl()));
+        }
+        return leader && !wasLeader;
+    }
+    
+    Lease read(FileChannel channel) throws IOException {
+        if(channel.size() == 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+        int read = 0;
+        while(buffer.hasRemaining() && read >= 0) {
+            read = channel.read(buffer, buffer.position());
+        }
+        try {
+            return mapper.readValue(buffer.array(), Lease.class);
+        } catch(JsonProcessingException ex) {
+            // left half written by a leader that died, so held by no one
+            LOGGER.warn(String.format("Ignoring unreadable lease in %s", leaseFile));
+            return null;
+        }
+    }
+    
+    void write(FileChannel channel, Lease lease) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(mapper.writeValueAsBytes(lease));
+        channel.truncate(0);
+        while(buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+        channel.force(true);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    public boolean isLeader() {
+        return isLeader(Instant.now().toEpochMilli());
+    }
+    
+    boolean isLeader(long now) {
+        return !enabled || now < leaderUntil;
+    }
+    
+    /**
+     * @return the URL of the current leader, or null if none holds a lease
+     */
+    public String getLeaderUrl() {
+        Lease current = lease;
+        return current != null && current.getExpires() > Instant.now().toEpochMilli() ? current.getUrl() : null;
+    }
+    
+    /**
+     * @return the key of the cluster, or null until a lease has been read
+     */
+    public String getClusterKey() {
+        Lease current = lease;
+        return current != null ? current.getClusterKey() : null;
+    }
+    
+    /**
+     * @return true if {@code key} is this cluster's key, as sent by another
+     * instance forwarding a request
+     */
+    public boolean isClusterKey(String key) {
+        String clusterKey = getClusterKey();
+        return key != null && clusterKey != null 
+                && MessageDigest.isEqual(key.getBytes(StandardCharsets.UTF_8), clusterKey.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    public String getNodeUrl() {
+        return nodeUrl;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.cluster;
+
+import com.hexagon.geospatial.infrastructure.dns.update.DnsUpdateController;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Passes requests that change or report on the leader's state from a
+ * standby to the leader, and the leader's answer back, so clients can be
+ * pointed at any instance. While no leader is known, or it cannot be
+ * reached, the client is told to retry shortly.
+ *
+ * @author Chris
+ */
+@Component
+public class LeaderForwardingFilter extends OncePerRequestFilter {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(LeaderForwardingFilter.class);
+    public static final String FORWARDED_BY_HEADER = "X-Dns-Update-Forwarded-By";
+    public static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+    
+    static final List<String> FORWARDED_PATHS = Arrays.asList("/register/", "/status/", "/lookup/", "/sync/", "/reconcile/");
+    static final List<String> REQUEST_HEADERS = Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT, HttpHeaders.IF_NONE_MATCH);
+    static final List<String> RESPONSE_HEADERS = Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.RETRY_AFTER, 
+            HttpHeaders.ETAG, DnsUpdateController.NEXT_CURSOR_HEADER);
+    
+    @Autowired
+    LeaderElection leaderElection;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    @Value("${dns.cluster.forward.timeout.millis:5000}")
+    int timeoutMillis;
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if(!leaderElection.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return FORWARDED_PATHS.stream().noneMatch(path::startsWith);
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if(leaderElection.isLeader()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        String leaderUrl = leaderElection.getLeaderUrl();
+        if(leaderUrl == null || request.getHeader(FORWARDED_BY_HEADER) != null) {
+            // a request forwarded to us is one the leadership moved under
+            unavailable(response, "No leader is available");
+            return;
+        }
+        try {
+            forward(request, response, leaderUrl);
+            meterRegistry.counter("dns.cluster.forwarded").increment();
+        } catch(IOException ex) {
+            LOGGER.warn(String.format("Unable to forward %s %s to %s", request.getMethod(), request.getRequestURI(), leaderUrl), ex);
+            if(!response.isCommitted()) {
+                unavailable(response, String.format("Leader %s is not reachable", leaderUrl));
+            }
+        }
+    }
+    
+    void forward(HttpServletRequest request, HttpServletResponse response, String leaderUrl) throws IOException {
+        String query = request.getQueryString();
+        URL url = new URL(leaderUrl + request.getRequestURI() + (query == null ? "" : "?" + query));
+        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        try {
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestMethod(request.getMethod());
+            for(String header : REQUEST_HEADERS) {
+                String value = request.getHeader(header);
+                if(value != null) {
+                    connection.setRequestProperty(header, value);
+                }
+            }
+            String forwardedFor = request.getHeader(FORWARDED_FOR_HEADER);
+            connection.setRequestProperty(FORWARDED_FOR_HEADER, 
+                    forwardedFor == null ? request.getRemoteAddr() : forwardedFor + ", " + request.getRemoteAddr());
+            connection.setRequestProperty(FORWARDED_BY_HEADER, leaderElection.getClusterKey());
+            if(request.getContentLength() > 0 || request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null) {
+                connection.setDoOutput(true);
+                try(OutputStream out = connection.getOutputStream()) {
+                    StreamUtils.copy(request.getInputStream(), out);
+                }
+            }
+            
+            int status = connection.getResponseCode();
+            response.setStatus(status);
+            for(String header : RESPONSE_HEADERS) {
+                String value = connection.getHeaderField(header);
+                if(value != null) {
+                    response.setHeader(header, value);
+                }
+            }
+            try(InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                if(body != null) {
+                    StreamUtils.copy(body, response.getOutputStream());
+                }
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+    
+    /**
+     * The client a standby forwarded a request for, which it appended to
+     * {@code X-Forwarded-For}, so the leader can tell clients apart rather
+     * than see them all as the standby.
+     * 
+     * @return null unless the request was forwarded by an instance of the
+     * cluster
+     */
+    public static String forwardedClient(HttpServletRequest request, LeaderElection leaderElection) {
+        String forwardedFor = request.getHeader(FORWARDED_FOR_HEADER);
+        if(forwardedFor == null || !leaderElection.isClusterKey(request.getHeader(FORWARDED_BY_HEADER))) {
+            return null;
+        }
+        String client = forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+        return client.isEmpty() ? null : client;
+    }
+    
+    static void unavailable(HttpServletResponse response, String message) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, message);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One element of a {@code POST /register/batch} body.
+ *
+ * @author Chris
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchRegistrationRequest {
+    DnsEntryType type;
+    String fqdn;
+    String ipAddress;
+    String destinationFqdn;
+    String text;
+    long ttl;
+    long lease;
+    
+    /**
+     * The request that registers this entry as it is.
+     */
+    public static BatchRegistrationRequest of(DnsEntry dnsEntry) {
+        BatchRegistrationRequest request = new BatchRegistrationRequest();
+        request.setType(DnsEntryType.of(dnsEntry));
+        request.setFqdn(dnsEntry.getFqdn());
+        request.setIpAddress(DnsEntries.addressOf(dnsEntry));
+        if(dnsEntry instanceof DnsEntryCname) {
+            request.setDestinationFqdn(((DnsEntryCname)dnsEntry).getDestinationFqdn());
+        } else if(dnsEntry instanceof DnsEntryTxt) {
+            request.setText(((DnsEntryTxt)dnsEntry).getText());
+        }
+        request.setTtl(dnsEntry.getTtl());
+        request.setLease(dnsEntry.getLease());
+        return request;
+    }
+}
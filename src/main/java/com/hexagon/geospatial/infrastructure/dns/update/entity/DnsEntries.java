@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Comparisons of entries by the records they put into DNS.
+ *
+ * @author Chris
+ */
+public final class DnsEntries {
+    
+    private DnsEntries() {
+    }
+    
+    /**
+     * @return the canonical form of the entry's address, or null if it is not
+     * an address entry
+     */
+    public static String addressOf(DnsEntry dnsEntry) {
+        if(dnsEntry instanceof DnsEntryARecord) {
+            return ((DnsEntryARecord)dnsEntry).getIpAddress();
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            return ((DnsEntryAAAARecord)dnsEntry).getIpAddress();
+        }
+        return null;
+    }
+    
+    /**
+     * @return true if both entries put the same record into DNS, whatever
+     * their TTL or lease
+     */
+    public static boolean sameRecord(DnsEntry first, DnsEntry second) {
+        if(first.getClass() != second.getClass() || !first.getFqdn().equals(second.getFqdn())) {
+            return false;
+        } else if(first instanceof DnsEntryARecord) {
+            return Arrays.equals(((DnsEntryARecord)first).getAddress(), ((DnsEntryARecord)second).getAddress());
+        } else if(first instanceof DnsEntryAAAARecord) {
+            return Arrays.equals(((DnsEntryAAAARecord)first).getAddress(), ((DnsEntryAAAARecord)second).getAddress());
+        } else if(first instanceof DnsEntryCname) {
+            return Objects.equals(((DnsEntryCname)first).getDestinationFqdn(), ((DnsEntryCname)second).getDestinationFqdn());
+        } else if(first instanceof DnsEntryTxt) {
+            return Objects.equals(((DnsEntryTxt)first).getText(), ((DnsEntryTxt)second).getText());
+        }
+        return first.equals(second);
+    }
+    
+    /**
+     * @return true if pushing either entry sends the same update: the same
+     * record with the same TTL. The lease only matters to this service, so
+     * renewing it is not a change to push.
+     */
+    public static boolean sameUpdate(DnsEntry first, DnsEntry second) {
+        return sameRecord(first, second) && first.getTtl() == second.getTtl();
+    }
+}
@@ -25,4 +25,8 @@ import lombok.Data;
 @Data
 public class DnsEntry {
     String fqdn;
+    /** Seconds, or 0 for the default */
+    long ttl;
+    /** Seconds the registration lives unless renewed, or 0 for ever */
+    long lease;
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * An IPv6 address, with its PTR in ip6.arpa.
+ *
+ * @author Chris
+ */
+@Data
+@EqualsAndHashCode(callSuper=true)
+@ToString(callSuper=true)
+@NoArgsConstructor
+public class DnsEntryAAAARecord extends DnsEntry {
+    public DnsEntryAAAARecord(String fqdn, String ipAddress) {
+        this(fqdn, ipAddress, 0);
+    }
+    
+    public DnsEntryAAAARecord(String fqdn, String ipAddress, long ttl) {
+        super.fqdn = fqdn;
+        super.ttl = ttl;
+        setIpAddress(ipAddress);
+    }
+    
+    /** The 16 address bytes, parsed once when the entry is created */
+    @JsonIgnore
+    @ToString.Exclude
+    byte[] address;
+    
+    @ToString.Include
+    public String getIpAddress() {
+        return address == null ? null : IpAddresses.format(address);
+    }
+    
+    public void setIpAddress(String ipAddress) {
+        address = ipAddress == null ? null : IpAddresses.parseIpv6(ipAddress);
+    }
+}
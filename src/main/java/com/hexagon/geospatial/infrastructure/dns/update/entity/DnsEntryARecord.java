@@ -15,21 +15,44 @@
  */
 package com.hexagon.geospatial.infrastructure.dns.update.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 /**
+ * The address is kept in binary so pushing it needs no parsing; it is
+ * still read and written as a dotted quad.
  *
  * @author Chris
  */
 @Data
-@EqualsAndHashCode(callSuper=false)
+@EqualsAndHashCode(callSuper=true)
+@ToString(callSuper=true)
 @NoArgsConstructor
 public class DnsEntryARecord extends DnsEntry {
     public DnsEntryARecord(String fqdn, String ipAddress) {
+        this(fqdn, ipAddress, 0);
+    }
+    
+    public DnsEntryARecord(String fqdn, String ipAddress, long ttl) {
         super.fqdn = fqdn;
-        this.ipAddress = ipAddress;
+        super.ttl = ttl;
+        setIpAddress(ipAddress);
+    }
+    
+    /** The 4 address bytes, parsed once when the entry is created */
+    @JsonIgnore
+    @ToString.Exclude
+    byte[] address;
+    
+    @ToString.Include
+    public String getIpAddress() {
+        return address == null ? null : IpAddresses.format(address);
+    }
+    
+    public void setIpAddress(String ipAddress) {
+        address = ipAddress == null ? null : IpAddresses.parseIpv4(ipAddress);
     }
-    String ipAddress;
 }
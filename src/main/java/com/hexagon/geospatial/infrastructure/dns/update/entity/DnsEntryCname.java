@@ -18,17 +18,24 @@ package com.hexagon.geospatial.infrastructure.dns.update.entity;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 /**
  *
  * @author Chris
  */
 @Data
-@EqualsAndHashCode(callSuper=false)
+@EqualsAndHashCode(callSuper=true)
+@ToString(callSuper=true)
 @NoArgsConstructor
 public class DnsEntryCname extends DnsEntry {
     public DnsEntryCname(String fqdn, String destinationFqdn) {
+        this(fqdn, destinationFqdn, 0);
+    }
+    
+    public DnsEntryCname(String fqdn, String destinationFqdn, long ttl) {
         super.fqdn = fqdn;
+        super.ttl = ttl;
         this.destinationFqdn = destinationFqdn;
     }
     
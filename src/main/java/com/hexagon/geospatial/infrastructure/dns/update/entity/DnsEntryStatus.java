@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class DnsEntryStatus {
+    
+    public enum State {
+        /** The server has the stored value */
+        PUSHED,
+        /** Stored but not pushed yet */
+        PENDING,
+        /** The last push failed and is waiting for its next attempt */
+        RETRYING
+    }
+    
+    @Data
+    @NoArgsConstructor
+    public static class ServerStatus {
+        String server;
+        State state;
+        long lastPushedTime;
+        DnsRetryState retry;
+    }
+    
+    String fqdn;
+    DnsEntry dnsEntry;
+    /** RETRYING if any server is, PUSHED once every server has the value */
+    State state;
+    /** When the last server to get the value got it, 0 until all have */
+    long lastPushedTime;
+    /** The retry of the server furthest behind, if any is retrying */
+    DnsRetryState retry;
+    List<ServerStatus> servers;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * A TXT record. Text longer than 255 bytes is split into several strings
+ * of the one record when it is sent.
+ *
+ * @author Chris
+ */
+@Data
+@EqualsAndHashCode(callSuper=true)
+@ToString(callSuper=true)
+@NoArgsConstructor
+public class DnsEntryTxt extends DnsEntry {
+    public DnsEntryTxt(String fqdn, String text) {
+        this(fqdn, text, 0);
+    }
+    
+    public DnsEntryTxt(String fqdn, String text, long ttl) {
+        super.fqdn = fqdn;
+        super.ttl = ttl;
+        this.text = text;
+    }
+    
+    String text;
+}
@@ -21,5 +21,20 @@ package com.hexagon.geospatial.infrastructure.dns.update.entity;
  */
 public enum DnsEntryType {
     A,
-    CNAME;
+    AAAA,
+    CNAME,
+    TXT;
+    
+    public static DnsEntryType of(DnsEntry dnsEntry) {
+        if(dnsEntry instanceof DnsEntryARecord) {
+            return A;
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            return AAAA;
+        } else if(dnsEntry instanceof DnsEntryCname) {
+            return CNAME;
+        } else if(dnsEntry instanceof DnsEntryTxt) {
+            return TXT;
+        }
+        throw new IllegalArgumentException(String.format("Unknown entry type %s", dnsEntry.getClass().getSimpleName()));
+    }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class DnsServerHealth {
+    
+    public enum State {
+        /** Updates are sent normally */
+        CLOSED,
+        /** The server stopped answering; updates fail immediately */
+        OPEN,
+        /** One probe is allowed through to see if the server is back */
+        HALF_OPEN
+    }
+    
+    String server;
+    State state;
+    int consecutiveFailures;
+    long totalFailures;
+    long lastSuccessTime;
+    long lastFailureTime;
+    long openedTime;
+    long probeTime;
+    String lastError;
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * How one server's zones differ from the stored entries.
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class DriftReport {
+    
+    @Data
+    @NoArgsConstructor
+    public static class ZoneDrift {
+        String zone;
+        /** AXFR, IXFR or UP_TO_DATE, null if the transfer failed */
+        String transfer;
+        long serial;
+        int records;
+        /** Records of the types this service manages at names it does not */
+        int unmanagedRecords;
+        String error;
+    }
+    
+    @Data
+    @NoArgsConstructor
+    public static class EntryDrift {
+        DnsEntry dnsEntry;
+        /** Records missing, with the wrong TTL, or in the way */
+        List<String> problems = new ArrayList<>();
+    }
+    
+    String server;
+    long time;
+    List<ZoneDrift> zones = new ArrayList<>();
+    /** Entries the server does not hold as stored */
+    List<EntryDrift> drifted = new ArrayList<>();
+    /** Entries in zones that could not be transferred */
+    @JsonIgnore
+    List<DnsEntry> unverified = new ArrayList<>();
+    
+    public int getUnverifiedCount() {
+        return unverified.size();
+    }
+}
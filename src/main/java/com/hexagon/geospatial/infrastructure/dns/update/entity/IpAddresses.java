@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+/**
+ * Converts between address literals and their 4 or 16 byte binary form.
+ * Only literals are accepted, so parsing never causes a DNS lookup.
+ *
+ * @author Chris
+ */
+public final class IpAddresses {
+    
+    private IpAddresses() {
+    }
+    
+    /**
+     * @return the address of an IPv6 literal if it contains a colon, else of
+     * an IPv4 one
+     */
+    public static byte[] parse(String literal) {
+        return literal.indexOf(':') >= 0 ? parseIpv6(literal) : parseIpv4(literal);
+    }
+    
+    public static byte[] parseIpv4(String literal) {
+        byte[] address = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for(int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if(c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if(value > 255) {
+                    throw invalid("IPv4", literal);
+                }
+            } else if(c == '.' && value >= 0 && octet < 3) {
+                address[octet++] = (byte)value;
+                value = -1;
+            } else {
+                throw invalid("IPv4", literal);
+            }
+        }
+        if(octet != 3 || value < 0) {
+            throw invalid("IPv4", literal);
+        }
+        address[3] = (byte)value;
+        return address;
+    }
+    
+    /**
+     * Accepts the forms of RFC 4291, including a trailing dotted quad, but
+     * no zone or brackets.
+     */
+    public static byte[] parseIpv6(String literal) {
+        int doubleColon = literal.indexOf("::");
+        if(literal.indexOf(':') < 0 || (doubleColon >= 0 && literal.indexOf("::", doubleColon + 1) >= 0)) {
+            throw invalid("IPv6", literal);
+        }
+        byte[] address = new byte[16];
+        if(doubleColon < 0) {
+            if(parseGroups(literal, literal, address) != 16) {
+                throw invalid("IPv6", literal);
+            }
+            return address;
+        }
+        int head = doubleColon == 0 ? 0 : parseGroups(literal.substring(0, doubleColon), literal, address);
+        byte[] tail = new byte[16];
+        int tailLength = doubleColon + 2 == literal.length() ? 0 : parseGroups(literal.substring(doubleColon + 2), literal, tail);
+        // :: stands for at least one zero group
+        if(head + tailLength > 14) {
+            throw invalid("IPv6", literal);
+        }
+        System.arraycopy(tail, 0, address, 16 - tailLength, tailLength);
+        return address;
+    }
+    
+    /**
+     * Parses colon separated groups, the last of which may be a dotted
+     * quad, into the start of {@code address}.
+     * 
+     * @return the number of bytes parsed
+     */
+    static int parseGroups(String groups, String literal, byte[] address) {
+        String[] parts = groups.split(":", -1);
+        int length = 0;
+        for(int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if(i == parts.length - 1 && part.indexOf('.') >= 0) {
+                if(length > 12) {
+                    throw invalid("IPv6", literal);
+                }
+                try {
+                    System.arraycopy(parseIpv4(part), 0, address, length, 4);
+                } catch(IllegalArgumentException ex) {
+                    throw invalid("IPv6", literal);
+                }
+                length += 4;
+                continue;
+            }
+            if(part.isEmpty() || part.length() > 4 || length >= 16) {
+                throw invalid("IPv6", literal);
+            }
+            int value = 0;
+            for(int j = 0; j < part.length(); j++) {
+                int digit = hexDigit(part.charAt(j));
+                if(digit < 0) {
+                    throw invalid("IPv6", literal);
+                }
+                value = (value << 4) | digit;
+            }
+            address[length++] = (byte)(value >> 8);
+            address[length++] = (byte)value;
+        }
+        return length;
+    }
+    
+    static int hexDigit(char c) {
+        if(c >= '0' && c <= '9') {
+            return c - '0';
+        } else if(c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if(c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+    
+    static IllegalArgumentException invalid(String family, String literal) {
+        return new IllegalArgumentException(String.format("%s is not an %s address", literal, family));
+    }
+    
+    /**
+     * @return dotted quad for IPv4, the RFC 5952 compressed form for IPv6
+     */
+    public static String format(byte[] address) {
+        StringBuilder formatted = new StringBuilder(address.length == 4 ? 15 : 39);
+        if(address.length == 4) {
+            for(int i = 0; i < 4; i++) {
+                if(i > 0) {
+                    formatted.append('.');
+                }
+                formatted.append(address[i] & 0xff);
+            }
+            return formatted.toString();
+        }
+        
+        // the longest run of two or more zero groups becomes ::
+        int bestStart = -1;
+        int bestLength = 1;
+        for(int group = 0; group < 8; ) {
+            int length = 0;
+            while(group + length < 8 && address[(group + length) * 2] == 0 && address[(group + length) * 2 + 1] == 0) {
+                length++;
+            }
+            if(length > bestLength) {
+                bestStart = group;
+                bestLength = length;
+            }
+            group += Math.max(length, 1);
+        }
+        for(int group = 0; group < 8; group++) {
+            if(group == bestStart) {
+                formatted.append("::");
+                group += bestLength - 1;
+                continue;
+            }
+            if(formatted.length() > 0 && formatted.charAt(formatted.length() - 1) != ':') {
+                formatted.append(':');
+            }
+            formatted.append(Integer.toHexString(((address[group * 2] & 0xff) << 8) | (address[group * 2 + 1] & 0xff)));
+        }
+        return formatted.toString();
+    }
+}
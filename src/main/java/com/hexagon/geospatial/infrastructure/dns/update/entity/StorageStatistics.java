@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class StorageStatistics {
+    int entryCount;
+    int retiredEntryCount;
+    long generation;
+    long cacheHits;
+    long reloads;
+    long writes;
+    long compactions;
+    /** Memory the entry index holds outside the Java heap */
+    long indexOffHeapBytes;
+    /** CNAMEs whose destination is not stored */
+    int danglingCnameCount;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import java.util.Map;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sync counters for one server, or summed over all of them with the
+ * per-server figures in {@link #servers}.
+ *
+ * @author Chris
+ */
+@Data
+@NoArgsConstructor
+public class SyncStatistics {
+    String server;
+    long lastSyncTime;
+    boolean lastSyncFull;
+    int lastDirtySetSize;
+    int lastFailedCount;
+    int lastSkippedCount;
+    long lastSyncDurationMillis;
+    long lastPushedGeneration;
+    long lastFullSyncTime;
+    long lastSuccessfulSyncTime;
+    long totalSyncs;
+    long totalFullSyncs;
+    long totalRetryRuns;
+    long totalEntriesPushed;
+    long totalEntriesDeleted;
+    long totalEntriesSkipped;
+    long totalFailures;
+    int pendingRetries;
+    int pushedStateCacheSize;
+    Map<String, SyncStatistics> servers;
+}
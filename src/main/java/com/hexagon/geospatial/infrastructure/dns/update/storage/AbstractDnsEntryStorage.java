@@ -0,0 +1,502 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryType;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.IpAddresses;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.StorageStatistics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * The in-memory copy of the entries and their change generations, shared by
+ * the storage implementations. Subclasses decide how it is persisted.
+ * 
+ * Reads never take a lock. Writers hold {@code writeLock} only long enough
+ * to update the map and stamp the change, so the published generation
+ * never runs ahead of the change log.
+ * 
+ * Values that have to be taken back out of DNS are kept as retired entries
+ * under the FQDN's generation: a removed entry, or a replaced value whose
+ * records the new value's update would leave behind, such as the PTR of an
+ * address that moved.
+ * 
+ * The entries themselves are held in a {@link DnsEntryIndex}, as objects on
+ * the heap or with {@code storage.index=compact} encoded off-heap. FQDNs,
+ * and CNAMEs by destination, are also filed in {@link DomainTree}s so a
+ * subdomain is listed or counted without a scan.
+ * 
+ * Adds, lists and (de)serialisation are timed as {@code dns.storage.operation}
+ * and {@code dns.storage.serialisation}.
+ *
+ * @author Chris
+ */
+public abstract class AbstractDnsEntryStorage implements DnsEntryStorage {
+    
+    DnsEntryIndex dnsEntries;
+    final Map<String, Long> dnsEntryGenerations;
+    final NavigableMap<Long, String> changeLog;
+    final Map<String, List<DnsEntry>> retiredEntries;
+    final DomainTree fqdnsByDomain;
+    final DomainTree cnamesByDestinationDomain;
+    final CnameGraph cnameGraph;
+    final ReentrantLock writeLock;
+    volatile long generation;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    public AbstractDnsEntryStorage() {
+        dnsEntries = new HeapDnsEntryIndex();
+        dnsEntryGenerations = new ConcurrentHashMap<>();
+        changeLog = new ConcurrentSkipListMap<>();
+        retiredEntries = new ConcurrentHashMap<>();
+        fqdnsByDomain = new DomainTree();
+        cnamesByDestinationDomain = new DomainTree();
+        cnameGraph = new CnameGraph();
+        writeLock = new ReentrantLock();
+        generation = 0;
+    }
+    
+    /**
+     * Chooses the index before anything is loaded into it.
+     */
+    @Value("${storage.index:heap}")
+    public void setIndex(DnsEntryIndex.Type type) {
+        dnsEntries = type == DnsEntryIndex.Type.COMPACT ? new CompactDnsEntryIndex() : new HeapDnsEntryIndex();
+    }
+    
+    interface StorageOperation<T> {
+        T call() throws IOException;
+    }
+    
+    <T> T timed(String operation, String type, StorageOperation<T> storageOperation) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            T result = storageOperation.call();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(meterRegistry.timer("dns.storage.operation", "operation", operation, "type", type, "outcome", outcome));
+        }
+    }
+    
+    <T> T timedSerialisation(String operation, StorageOperation<T> storageOperation) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return storageOperation.call();
+        } finally {
+            sample.stop(meterRegistry.timer("dns.storage.serialisation", "operation", operation, "storage", getClass().getSimpleName()));
+        }
+    }
+    
+    protected abstract void storeDnsEntry(DnsEntry dnsEntry) throws IOException;
+    
+    protected abstract void storeDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException;
+    
+    protected abstract List<DnsEntry> discardDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException;
+    
+    @Override
+    public void addDnsEntry(DnsEntry dnsEntry) throws IOException {
+        timed("add", DnsEntryType.of(dnsEntry).name(), () -> {
+            storeDnsEntry(dnsEntry);
+            return null;
+        });
+    }
+    
+    @Override
+    public void addDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException {
+        timed("add.batch", "all", () -> {
+            storeDnsEntries(dnsEntries);
+            return null;
+        });
+    }
+    
+    @Override
+    public List<DnsEntry> removeDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException {
+        return timed("remove.batch", "all", () -> discardDnsEntries(dnsEntries));
+    }
+    
+    /**
+     * Called before every read or write so file-backed storage can pick up
+     * changes made elsewhere.
+     */
+    protected void ensureLoaded() throws IOException {
+    }
+    
+    /**
+     * @return true if the stored value changed
+     */
+    boolean putDnsEntry(DnsEntry dnsEntry) {
+        writeLock.lock();
+        try {
+            DnsEntry previous = dnsEntries.put(dnsEntry);
+            if(dnsEntry.equals(previous)) {
+                return false;
+            }
+            replaced(previous, dnsEntry);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the entries removed because they still held the given value
+     */
+    List<DnsEntry> removeUnchangedDnsEntries(Collection<DnsEntry> expected) {
+        writeLock.lock();
+        try {
+            List<DnsEntry> removed = new ArrayList<>();
+            expected.stream()
+                    .filter((dnsEntry) -> dnsEntries.remove(dnsEntry.getFqdn(), dnsEntry))
+                    .forEach((dnsEntry) -> {
+                        reindex(dnsEntry, null);
+                        markChanged(dnsEntry.getFqdn());
+                        retire(dnsEntry);
+                        removed.add(dnsEntry);
+                    });
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Replaces the whole set, only bumping the generation of entries whose
+     * value differs from what was held before. Entries changed or removed in
+     * memory after {@code keepChangedAfter} are kept as they are.
+     * 
+     * @return the number of entries kept from memory
+     */
+    int replaceDnsEntries(Collection<DnsEntry> replacements, long keepChangedAfter) {
+        writeLock.lock();
+        try {
+            Map<String, DnsEntry> replacementsByFqdn = new HashMap<>();
+            replacements.stream().forEach((dnsEntry) -> replacementsByFqdn.put(dnsEntry.getFqdn(), dnsEntry));
+            List<DnsEntry> kept = new ArrayList<>();
+            changeLog.tailMap(keepChangedAfter, false).values().stream()
+                    .map(dnsEntries::get)
+                    .filter((dnsEntry) -> dnsEntry != null)
+                    .forEach(kept::add);
+            kept.stream().forEach((dnsEntry) -> replacementsByFqdn.put(dnsEntry.getFqdn(), dnsEntry));
+            changeLog.tailMap(keepChangedAfter, false).values().stream()
+                    .filter((fqdn) -> !dnsEntries.containsKey(fqdn) && retiredEntries.containsKey(fqdn))
+                    .forEach(replacementsByFqdn::remove);
+            
+            List<String> removed = new ArrayList<>();
+            for(DnsEntry dnsEntry : dnsEntries.iterateAfter(null)) {
+                if(!replacementsByFqdn.containsKey(dnsEntry.getFqdn())) {
+                    removed.add(dnsEntry.getFqdn());
+                }
+            }
+            removed.stream().forEach((fqdn) -> {
+                reindex(dnsEntries.remove(fqdn), null);
+                if(retiredEntries.containsKey(fqdn)) {
+                    markChanged(fqdn);
+                } else {
+                    changeLog.remove(dnsEntryGenerations.remove(fqdn));
+                }
+            });
+            if(!removed.isEmpty()) {
+                // nothing to push for a removal, but readers comparing
+                // generations must still see that the set changed
+                generation = generation + 1;
+            }
+            replacementsByFqdn.values().stream().forEach((dnsEntry) -> {
+                DnsEntry previous = dnsEntries.put(dnsEntry);
+                if(!dnsEntry.equals(previous)) {
+                    replaced(previous, dnsEntry);
+                }
+            });
+            return kept.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    void replaceDnsEntries(Collection<DnsEntry> replacements) {
+        replaceDnsEntries(replacements, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Stamps {@code current} replacing {@code previous}, which may be null.
+     * Must hold {@code writeLock}.
+     */
+    void replaced(DnsEntry previous, DnsEntry current) {
+        reindex(previous, current);
+        markChanged(current.getFqdn());
+        List<DnsEntry> retired = retiredEntries.get(current.getFqdn());
+        if(retired != null) {
+            // deleting a record the current value puts back would remove it
+            List<DnsEntry> stillRetired = new ArrayList<>(retired);
+            stillRetired.removeIf((dnsEntry) -> DnsEntries.sameRecord(dnsEntry, current));
+            setRetired(current.getFqdn(), stillRetired);
+        }
+        // the new value's update clears its own record set, but not the old
+        // PTR or a record set of another type
+        if(previous != null && !DnsEntries.sameRecord(previous, current)
+                && (DnsEntries.addressOf(previous) != null || previous.getClass() != current.getClass())) {
+            retire(previous);
+        }
+    }
+    
+    void retire(DnsEntry dnsEntry) {
+        List<DnsEntry> retired = new ArrayList<>(retiredEntries.getOrDefault(dnsEntry.getFqdn(), Collections.emptyList()));
+        retired.add(dnsEntry);
+        setRetired(dnsEntry.getFqdn(), retired);
+    }
+    
+    void setRetired(String fqdn, List<DnsEntry> retired) {
+        if(retired.isEmpty()) {
+            retiredEntries.remove(fqdn);
+        } else {
+            retiredEntries.put(fqdn, Collections.unmodifiableList(retired));
+        }
+    }
+    
+    /**
+     * Moves an entry in the domain trees and the CNAME graph from
+     * {@code previous} to {@code current}, either of which may be null, once
+     * the index holds the change. Must hold {@code writeLock}.
+     */
+    void reindex(DnsEntry previous, DnsEntry current) {
+        if(previous != null) {
+            if(current == null) {
+                fqdnsByDomain.remove(previous.getFqdn(), previous.getFqdn());
+            }
+            if(previous instanceof DnsEntryCname && ((DnsEntryCname)previous).getDestinationFqdn() != null) {
+                cnamesByDestinationDomain.remove(((DnsEntryCname)previous).getDestinationFqdn(), previous.getFqdn());
+            }
+        }
+        if(current != null) {
+            if(previous == null) {
+                fqdnsByDomain.add(current.getFqdn(), current.getFqdn());
+            }
+            if(current instanceof DnsEntryCname && ((DnsEntryCname)current).getDestinationFqdn() != null) {
+                cnamesByDestinationDomain.add(((DnsEntryCname)current).getDestinationFqdn(), current.getFqdn());
+            }
+        }
+        cnameGraph.changed(dnsEntries, previous, current);
+    }
+    
+    void markChanged(String fqdn) {
+        long next = generation + 1;
+        Long previousGeneration = dnsEntryGenerations.put(fqdn, next);
+        if(previousGeneration != null) {
+            changeLog.remove(previousGeneration);
+        }
+        changeLog.put(next, fqdn);
+        generation = next;
+    }
+    
+    public List<DnsEntry> getDnsEnrtiesAsList() {
+        List<DnsEntry> list = new ArrayList<>(dnsEntries.size());
+        dnsEntries.iterateAfter(null).forEach(list::add);
+        return list;
+    }
+    
+    @Override
+    public List<DnsEntry> listAllDnsEnrties() throws IOException {
+        return timed("list", "all", () -> {
+            ensureLoaded();
+            return getDnsEnrtiesAsList();
+        });
+    }
+
+    @Override
+    public DnsEntry getDnsEntry(String fqdn) throws IOException {
+        ensureLoaded();
+        return dnsEntries.get(fqdn);
+    }
+
+    @Override
+    public long getGeneration() throws IOException {
+        ensureLoaded();
+        return generation;
+    }
+
+    @Override
+    public List<DnsEntry> listDnsEntriesChangedSince(long sinceGeneration) throws IOException {
+        ensureLoaded();
+        List<DnsEntry> changed = new ArrayList<>();
+        changeLog.tailMap(sinceGeneration, false).values().stream().forEach((fqdn) -> {
+            DnsEntry dnsEntry = dnsEntries.get(fqdn);
+            if(dnsEntry != null) {
+                changed.add(dnsEntry);
+            }
+        });
+        return changed;
+    }
+    
+    @Override
+    public List<DnsEntry> listDnsEntriesRetiredSince(long sinceGeneration) throws IOException {
+        ensureLoaded();
+        List<DnsEntry> retired = new ArrayList<>();
+        if(retiredEntries.isEmpty()) {
+            return retired;
+        }
+        changeLog.tailMap(sinceGeneration, false).values().stream().forEach((fqdn) -> {
+            retired.addAll(retiredEntries.getOrDefault(fqdn, Collections.emptyList()));
+        });
+        return retired;
+    }
+    
+    @Override
+    public void pruneRetiredUpTo(long prunedGeneration) {
+        writeLock.lock();
+        try {
+            List<String> pruned = new ArrayList<>();
+            retiredEntries.keySet().stream()
+                    .filter((fqdn) -> dnsEntryGenerations.get(fqdn) <= prunedGeneration)
+                    .forEach(pruned::add);
+            pruned.stream().forEach((fqdn) -> {
+                retiredEntries.remove(fqdn);
+                if(!dnsEntries.containsKey(fqdn)) {
+                    changeLog.remove(dnsEntryGenerations.remove(fqdn));
+                }
+            });
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public List<DnsEntry> listDnsEntriesWithAddress(String ipAddress) throws IOException {
+        ensureLoaded();
+        return dnsEntries.listWithAddress(IpAddresses.parse(ipAddress));
+    }
+    
+    @Override
+    public List<DnsEntry> listCnamesTo(String fqdn) throws IOException {
+        ensureLoaded();
+        return dnsEntries.listCnamesTo(fqdn);
+    }
+    
+    @Override
+    public List<DnsEntry> listDnsEntriesUnder(String domain) throws IOException {
+        ensureLoaded();
+        return lookup(fqdnsByDomain.list(domain));
+    }
+    
+    @Override
+    public int countDnsEntriesUnder(String domain) throws IOException {
+        ensureLoaded();
+        return fqdnsByDomain.count(domain);
+    }
+    
+    @Override
+    public List<DnsEntry> listCnamesInto(String domain) throws IOException {
+        ensureLoaded();
+        return lookup(cnamesByDestinationDomain.list(domain));
+    }
+    
+    @Override
+    public int countCnamesInto(String domain) throws IOException {
+        ensureLoaded();
+        return cnamesByDestinationDomain.count(domain);
+    }
+    
+    @Override
+    public List<DnsEntry> listDanglingCnames() throws IOException {
+        ensureLoaded();
+        return lookup(new ArrayList<>(cnameGraph.getDanglingCnames()));
+    }
+    
+    @Override
+    public List<String> checkCnameChains(List<DnsEntry> pending, int maxChainLength) throws IOException {
+        ensureLoaded();
+        Map<String, DnsEntry> accepted = new HashMap<>();
+        Map<String, List<DnsEntry>> acceptedCnamesTo = new HashMap<>();
+        CnameGraph.View view = new CnameGraph.View() {
+            @Override
+            public DnsEntry get(String fqdn) {
+                return accepted.containsKey(fqdn) ? accepted.get(fqdn) : dnsEntries.get(fqdn);
+            }
+
+            @Override
+            public List<DnsEntry> listCnamesTo(String fqdn) {
+                List<DnsEntry> cnames = new ArrayList<>();
+                dnsEntries.listCnamesTo(fqdn).stream()
+                        .filter((cname) -> !accepted.containsKey(cname.getFqdn()))
+                        .forEach(cnames::add);
+                cnames.addAll(acceptedCnamesTo.getOrDefault(fqdn, Collections.emptyList()));
+                return cnames;
+            }
+        };
+        List<String> problems = new ArrayList<>(pending.size());
+        for(DnsEntry dnsEntry : pending) {
+            String problem = dnsEntry instanceof DnsEntryCname 
+                    ? CnameGraph.checkChain(view, (DnsEntryCname)dnsEntry, maxChainLength) : null;
+            problems.add(problem);
+            if(problem == null) {
+                DnsEntry previous = accepted.put(dnsEntry.getFqdn(), dnsEntry);
+                if(previous instanceof DnsEntryCname) {
+                    acceptedCnamesTo.get(((DnsEntryCname)previous).getDestinationFqdn()).remove(previous);
+                }
+                if(dnsEntry instanceof DnsEntryCname) {
+                    acceptedCnamesTo.computeIfAbsent(((DnsEntryCname)dnsEntry).getDestinationFqdn(), (fqdn) -> new ArrayList<>()).add(dnsEntry);
+                }
+            }
+        }
+        return problems;
+    }
+    
+    List<DnsEntry> lookup(List<String> fqdns) {
+        List<DnsEntry> found = new ArrayList<>(fqdns.size());
+        fqdns.stream()
+                .sorted()
+                .map(dnsEntries::get)
+                .filter((dnsEntry) -> dnsEntry != null)
+                .forEach(found::add);
+        return found;
+    }
+    
+    @Override
+    public Iterable<DnsEntry> iterateDnsEntriesAfter(String afterFqdn) throws IOException {
+        ensureLoaded();
+        return dnsEntries.iterateAfter(afterFqdn);
+    }
+    
+    @Override
+    public StorageStatistics getStatistics() {
+        StorageStatistics statistics = new StorageStatistics();
+        statistics.setEntryCount(dnsEntries.size());
+        statistics.setRetiredEntryCount(retiredEntries.values().stream().mapToInt(List::size).sum());
+        statistics.setGeneration(generation);
+        statistics.setIndexOffHeapBytes(dnsEntries.getOffHeapBytes());
+        statistics.setDanglingCnameCount(cnameGraph.getDanglingCnames().size());
+        return statistics;
+    }
+}
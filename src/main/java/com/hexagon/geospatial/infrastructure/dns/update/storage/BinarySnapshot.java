@@ -0,0 +1,351 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary form of a list of entries, read straight from a
+ * memory-mapped file. Much smaller and quicker to load than the JSON
+ * snapshot, which names every entry's class and address in text.
+ * 
+ * Layout, with every count, length and number an unsigned LEB128 varint:
+ * <pre>
+ * magic "DNSB", version byte
+ * label count, then each distinct FQDN label as length and UTF-8
+ * entry count, then each entry as
+ *     type byte, FQDN, ttl, lease, then by type
+ *     A, AAAA: address length byte (0 for none) and address bytes
+ *     CNAME:   destination FQDN
+ *     TXT:     text length + 1 (0 for none) and UTF-8
+ * CRC32 of everything before it, 4 bytes
+ * </pre>
+ * An FQDN is written as its number of labels (0 for none) followed by the
+ * index of each label, so a domain shared by many entries is stored once.
+ *
+ * @author Chris
+ */
+public class BinarySnapshot {
+    
+    static final byte[] MAGIC = {'D', 'N', 'S', 'B'};
+    static final byte VERSION = 1;
+    
+    static final byte TYPE_A = 1;
+    static final byte TYPE_AAAA = 2;
+    static final byte TYPE_CNAME = 3;
+    static final byte TYPE_TXT = 4;
+    
+    /**
+     * Writes labels and numbers as they are met, assigning each label its
+     * index on first use.
+     */
+    static class Encoder extends ByteArrayOutputStream {
+        final Map<String, Integer> labels = new LinkedHashMap<>();
+        
+        Encoder(int size) {
+            super(size);
+        }
+        
+        void writeVarLong(long value) {
+            while((value & ~0x7FL) != 0) {
+                write((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int)value);
+        }
+        
+        void writeRaw(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+        
+        void writeName(String name) {
+            if(name == null) {
+                writeVarLong(0);
+                return;
+            }
+            String[] nameLabels = name.split("\\.", -1);
+            writeVarLong(nameLabels.length);
+            for(String label : nameLabels) {
+                Integer index = labels.get(label);
+                if(index == null) {
+                    index = labels.size();
+                    labels.put(label, index);
+                }
+                writeVarLong(index);
+            }
+        }
+        
+        void writeAddress(byte[] address) {
+            if(address == null) {
+                write(0);
+                return;
+            }
+            write(address.length);
+            writeRaw(address);
+        }
+        
+        void writeText(String text) {
+            if(text == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            writeRaw(utf8);
+        }
+    }
+    
+    public static byte[] encode(Collection<DnsEntry> dnsEntries) {
+        // labels are only known once the entries are written, but come first
+        Encoder body = new Encoder(dnsEntries.size() * 32);
+        body.writeVarLong(dnsEntries.size());
+        for(DnsEntry dnsEntry : dnsEntries) {
+            writeEntry(body, dnsEntry);
+        }
+        
+        Encoder snapshot = new Encoder(body.size() + body.labels.size() * 8 + 16);
+        snapshot.writeRaw(MAGIC);
+        snapshot.write(VERSION);
+        snapshot.writeVarLong(body.labels.size());
+        body.labels.keySet().stream().forEach(snapshot::writeText);
+        snapshot.write(body.toByteArray(), 0, body.size());
+        CRC32 crc = new CRC32();
+        crc.update(snapshot.toByteArray(), 0, snapshot.size());
+        snapshot.writeRaw(ByteBuffer.allocate(4).putInt((int)crc.getValue()).array());
+        return snapshot.toByteArray();
+    }
+    
+    static void writeEntry(Encoder out, DnsEntry dnsEntry) {
+        if(dnsEntry instanceof DnsEntryARecord) {
+            out.write(TYPE_A);
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            out.write(TYPE_AAAA);
+        } else if(dnsEntry instanceof DnsEntryCname) {
+            out.write(TYPE_CNAME);
+        } else if(dnsEntry instanceof DnsEntryTxt) {
+            out.write(TYPE_TXT);
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown entry type %s", dnsEntry.getClass().getSimpleName()));
+        }
+        out.writeName(dnsEntry.getFqdn());
+        out.writeVarLong(dnsEntry.getTtl());
+        out.writeVarLong(dnsEntry.getLease());
+        if(dnsEntry instanceof DnsEntryARecord) {
+            out.writeAddress(((DnsEntryARecord)dnsEntry).getAddress());
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            out.writeAddress(((DnsEntryAAAARecord)dnsEntry).getAddress());
+        } else if(dnsEntry instanceof DnsEntryCname) {
+            out.writeName(((DnsEntryCname)dnsEntry).getDestinationFqdn());
+        } else {
+            out.writeText(((DnsEntryTxt)dnsEntry).getText());
+        }
+    }
+    
+    /**
+     * Maps the file rather than reading it onto the heap, so only the
+     * entries themselves are allocated.
+     */
+    public static List<DnsEntry> read(File file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return decode(mapped);
+            } catch(IOException ex) {
+                throw new IOException(String.format("Unable to read %s: %s", file, ex.getMessage()), ex);
+            }
+        }
+    }
+    
+    public static List<DnsEntry> decode(ByteBuffer buffer) throws IOException {
+        if(buffer.remaining() < MAGIC.length + 5) {
+            throw new IOException("Too short for a binary snapshot");
+        }
+        int end = buffer.limit() - 4;
+        ByteBuffer content = buffer.duplicate();
+        content.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if((int)crc.getValue() != buffer.getInt(end)) {
+            throw new IOException("Binary snapshot checksum does not match, the file is corrupt");
+        }
+        
+        Decoder in = new Decoder(buffer.duplicate());
+        in.buffer.limit(end);
+        try {
+            for(byte magic : MAGIC) {
+                if(in.buffer.get() != magic) {
+                    throw new IOException("Not a binary snapshot");
+                }
+            }
+            byte version = in.buffer.get();
+            if(version != VERSION) {
+                throw new IOException(String.format("Unsupported binary snapshot version %d", version));
+            }
+            String[] labels = new String[in.readCount()];
+            for(int i = 0; i < labels.length; i++) {
+                labels[i] = in.readText();
+            }
+            in.labels = labels;
+            int count = in.readCount();
+            List<DnsEntry> dnsEntries = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                dnsEntries.add(in.readEntry());
+            }
+            if(in.buffer.hasRemaining()) {
+                throw new IOException(String.format("%d unexpected bytes after the last entry", in.buffer.remaining()));
+            }
+            return dnsEntries;
+        } catch(BufferUnderflowException | IndexOutOfBoundsException ex) {
+            throw new IOException("Binary snapshot ends part way through an entry", ex);
+        }
+    }
+    
+    static class Decoder {
+        final ByteBuffer buffer;
+        String[] labels;
+        byte[] scratch = new byte[256];
+        
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        long readVarLong() throws IOException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                byte next = buffer.get();
+                value |= (long)(next & 0x7F) << shift;
+                if(next >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed number in binary snapshot");
+        }
+        
+        int readCount() throws IOException {
+            long count = readVarLong();
+            if(count < 0 || count > buffer.remaining()) {
+                throw new IOException(String.format("Count %d is larger than the snapshot", count));
+            }
+            return (int)count;
+        }
+        
+        String readLabel() throws IOException {
+            long index = readVarLong();
+            if(index < 0 || index >= labels.length) {
+                throw new IOException(String.format("Label %d is not in the table of %d labels", index, labels.length));
+            }
+            return labels[(int)index];
+        }
+        
+        String readName() throws IOException {
+            int count = readCount();
+            if(count == 0) {
+                return null;
+            }
+            StringBuilder name = new StringBuilder(count * 8);
+            for(int i = 0; i < count; i++) {
+                if(i > 0) {
+                    name.append('.');
+                }
+                name.append(readLabel());
+            }
+            return name.toString();
+        }
+        
+        String readText() throws IOException {
+            int length = readCount();
+            if(length == 0) {
+                return null;
+            }
+            length--;
+            if(scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        
+        byte[] readAddress(int expectedLength) throws IOException {
+            int length = buffer.get() & 0xFF;
+            if(length == 0) {
+                return null;
+            } else if(length != expectedLength) {
+                throw new IOException(String.format("Address of %d bytes where %d were expected", length, expectedLength));
+            }
+            byte[] address = new byte[length];
+            buffer.get(address);
+            return address;
+        }
+        
+        DnsEntry readEntry() throws IOException {
+            byte type = buffer.get();
+            DnsEntry dnsEntry;
+            switch(type) {
+                case TYPE_A:
+                    dnsEntry = new DnsEntryARecord();
+                    break;
+                case TYPE_AAAA:
+                    dnsEntry = new DnsEntryAAAARecord();
+                    break;
+                case TYPE_CNAME:
+                    dnsEntry = new DnsEntryCname();
+                    break;
+                case TYPE_TXT:
+                    dnsEntry = new DnsEntryTxt();
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown entry type %d at offset %d", type, buffer.position() - 1));
+            }
+            dnsEntry.setFqdn(readName());
+            dnsEntry.setTtl(readVarLong());
+            dnsEntry.setLease(readVarLong());
+            switch(type) {
+                case TYPE_A:
+                    ((DnsEntryARecord)dnsEntry).setAddress(readAddress(4));
+                    break;
+                case TYPE_AAAA:
+                    ((DnsEntryAAAARecord)dnsEntry).setAddress(readAddress(16));
+                    break;
+                case TYPE_CNAME:
+                    ((DnsEntryCname)dnsEntry).setDestinationFqdn(readName());
+                    break;
+                default:
+                    ((DnsEntryTxt)dnsEntry).setText(readText());
+                    break;
+            }
+            return dnsEntry;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The stored CNAMEs as a graph, each an edge to its destination. A CNAME has
+ * only the one destination, so following it is a path which ends at an
+ * entry that is not a CNAME, at a name nothing is stored for, or in a loop.
+ * 
+ * The edges themselves are the entries and the destination index, so the
+ * graph changes with them. This keeps track of the CNAMEs whose destination
+ * is not stored as entries come and go, checks new CNAMEs for loops and
+ * long chains, and orders entries so each goes after the one it points at.
+ *
+ * @author Chris
+ */
+public class CnameGraph {
+    
+    /**
+     * The graph as it would be with some changes, for checking them.
+     */
+    public interface View {
+        DnsEntry get(String fqdn);
+        
+        List<DnsEntry> listCnamesTo(String fqdn);
+    }
+    
+    final Set<String> danglingCnames = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * Updates the dangling CNAMEs for an entry that replaced
+     * {@code previous}, either of which may be null, once {@code index}
+     * holds the change. Must hold the storage's write lock.
+     */
+    void changed(DnsEntryIndex index, DnsEntry previous, DnsEntry current) {
+        String fqdn = current != null ? current.getFqdn() : previous.getFqdn();
+        if(current == null) {
+            danglingCnames.remove(fqdn);
+            index.listCnamesTo(fqdn).stream().forEach((cname) -> danglingCnames.add(cname.getFqdn()));
+            return;
+        }
+        if(previous == null) {
+            index.listCnamesTo(fqdn).stream().forEach((cname) -> danglingCnames.remove(cname.getFqdn()));
+        }
+        if(current instanceof DnsEntryCname && !isStored(index, ((DnsEntryCname)current).getDestinationFqdn())) {
+            danglingCnames.add(fqdn);
+        } else {
+            danglingCnames.remove(fqdn);
+        }
+    }
+    
+    static boolean isStored(DnsEntryIndex index, String fqdn) {
+        return fqdn != null && index.containsKey(fqdn);
+    }
+    
+    public Set<String> getDanglingCnames() {
+        return Collections.unmodifiableSet(danglingCnames);
+    }
+    
+    /**
+     * Follows the CNAMEs from {@code cname}'s destination, and back through
+     * those pointing at it, as they would be once it was stored.
+     * 
+     * @return why storing it would close a loop or make a chain of more than
+     * {@code maxChainLength} CNAMEs, or null if it would not
+     */
+    public static String checkChain(View view, DnsEntryCname cname, int maxChainLength) {
+        String fqdn = cname.getFqdn();
+        int downstream = 1;
+        Set<String> followed = new HashSet<>();
+        followed.add(fqdn);
+        String next = cname.getDestinationFqdn();
+        while(next != null) {
+            if(!followed.add(next)) {
+                return next.equals(fqdn) 
+                        ? String.format("CNAME %s to %s would make a loop", fqdn, cname.getDestinationFqdn())
+                        : String.format("CNAME %s to %s would lead into the loop through %s", fqdn, cname.getDestinationFqdn(), next);
+            }
+            DnsEntry target = view.get(next);
+            if(!(target instanceof DnsEntryCname)) {
+                break;
+            }
+            downstream++;
+            next = ((DnsEntryCname)target).getDestinationFqdn();
+        }
+        
+        // the longest chain of CNAMEs already leading to this one
+        int upstream = 0;
+        Deque<String> level = new ArrayDeque<>(Collections.singleton(fqdn));
+        Set<String> reached = new HashSet<>(level);
+        while(!level.isEmpty() && upstream + downstream <= maxChainLength) {
+            Deque<String> previousLevel = new ArrayDeque<>();
+            for(String name : level) {
+                view.listCnamesTo(name).stream()
+                        .map(DnsEntry::getFqdn)
+                        .filter(reached::add)
+                        .forEach(previousLevel::add);
+            }
+            if(!previousLevel.isEmpty()) {
+                upstream++;
+            }
+            level = previousLevel;
+        }
+        if(upstream + downstream > maxChainLength) {
+            return String.format("CNAME %s to %s would make a chain of %s%d CNAMEs, more than the limit of %d", 
+                    fqdn, cname.getDestinationFqdn(), level.isEmpty() ? "" : "at least ", upstream + downstream, maxChainLength);
+        }
+        return null;
+    }
+    
+    /**
+     * Splits entries into levels which can each be applied at once: the
+     * first holds those not pointing at another of the entries, and each
+     * following level the CNAMEs pointing into the one before. Entries keep
+     * their order within a level. A loop is cut where it was found.
+     */
+    public static List<List<DnsEntry>> dependencyLevels(List<DnsEntry> dnsEntries) {
+        Map<String, DnsEntry> byFqdn = new HashMap<>();
+        dnsEntries.stream().forEach((dnsEntry) -> byFqdn.put(dnsEntry.getFqdn(), dnsEntry));
+        Map<String, Integer> depths = new HashMap<>();
+        int maxDepth = 0;
+        for(DnsEntry dnsEntry : dnsEntries) {
+            List<DnsEntry> path = new ArrayList<>();
+            Set<String> onPath = new HashSet<>();
+            DnsEntry next = dnsEntry;
+            while(next != null && !depths.containsKey(next.getFqdn()) && onPath.add(next.getFqdn())) {
+                path.add(next);
+                next = next instanceof DnsEntryCname ? byFqdn.get(((DnsEntryCname)next).getDestinationFqdn()) : null;
+            }
+            int depth = next != null && depths.containsKey(next.getFqdn()) ? depths.get(next.getFqdn()) : -1;
+            for(int i = path.size() - 1; i >= 0; i--) {
+                depths.put(path.get(i).getFqdn(), ++depth);
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        if(maxDepth == 0) {
+            return Collections.singletonList(dnsEntries);
+        }
+        List<List<DnsEntry>> levels = new ArrayList<>();
+        for(int i = 0; i <= maxDepth; i++) {
+            levels.add(new ArrayList<>());
+        }
+        dnsEntries.stream().forEach((dnsEntry) -> levels.get(depths.get(dnsEntry.getFqdn())).add(dnsEntry));
+        return levels;
+    }
+}
@@ -0,0 +1,936 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import static com.hexagon.geospatial.infrastructure.dns.update.storage.BinarySnapshot.TYPE_A;
+import static com.hexagon.geospatial.infrastructure.dns.update.storage.BinarySnapshot.TYPE_AAAA;
+import static com.hexagon.geospatial.infrastructure.dns.update.storage.BinarySnapshot.TYPE_CNAME;
+import static com.hexagon.geospatial.infrastructure.dns.update.storage.BinarySnapshot.TYPE_TXT;
+
+/**
+ * Entries encoded into one direct buffer outside the Java heap, with only
+ * primitive arrays on the heap to find them. An A record takes around 50
+ * bytes in all rather than the few hundred of its objects in a skip list,
+ * so millions of entries fit in a small heap. Enabled with
+ * {@code storage.index=compact}.
+ * 
+ * A FQDN is stored as its leftmost label followed by the index of its
+ * parent domain in a dictionary, so a domain shared by many entries is
+ * held once. Each record is
+ * <pre>
+ * type byte as in {@link BinarySnapshot}, FQDN, ttl and lease as LEB128 varints, then by type
+ *     A, AAAA: address length byte (0 for none) and address bytes
+ *     CNAME:   0 for no destination, or 1 and the destination FQDN
+ *     TXT:     text length + 1 as a varint (0 for none) and UTF-8
+ * </pre>
+ * where a FQDN is the label's length as 16 bits, with the top bit set when
+ * its characters take two bytes rather than one, the characters, and the
+ * domain's index as 32 bits, -1 when there is none.
+ * 
+ * A record is never changed once written. A new value is appended and the
+ * old one left as garbage until the buffer fills, when the live records are
+ * copied into a new buffer in FQDN order. Records are found through open
+ * addressing tables of slot numbers by FQDN, address and CNAME destination,
+ * and listed from an array of slots in FQDN order. New slots wait in a short
+ * unsorted list which is merged in when it fills or an iteration starts.
+ * 
+ * Writers take a {@link StampedLock}. Readers read optimistically and only
+ * take the read lock when a write ran at the same time, so they neither
+ * block nor see a half written change. Every read decodes a new entry, and
+ * iterating walks the ordered slots without copying them.
+ *
+ * @author Chris
+ */
+public class CompactDnsEntryIndex implements DnsEntryIndex {
+    
+    static final int EMPTY = 0;
+    static final int REMOVED = -1;
+    static final int FREE = -1;
+    static final int NO_DOMAIN = -1;
+    static final int WIDE = 0x8000;
+    static final int MAX_LABEL_LENGTH = 0x7FFF;
+    static final int MAX_UNORDERED = 1024;
+    static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    
+    /**
+     * Open addressing from the hash of a key to slots, where a key may be
+     * held by several slots. A cell is EMPTY, REMOVED or the slot + 1.
+     */
+    static final class SlotTable {
+        int[] cells = new int[16];
+        int[] hashes = new int[16];
+        int count;
+        int used;
+        
+        static int spread(int hash) {
+            int spread = hash * 0x9E3779B9;
+            return spread ^ (spread >>> 16);
+        }
+        
+        void add(int slot, int hash) {
+            if(slot >= hashes.length) {
+                hashes = Arrays.copyOf(hashes, Math.max(slot + 1, hashes.length * 2));
+            }
+            hashes[slot] = hash;
+            if((used + 1) * 2 > cells.length) {
+                rehash();
+            }
+            int mask = cells.length - 1;
+            int cell = spread(hash) & mask;
+            while(cells[cell] > 0) {
+                cell = (cell + 1) & mask;
+            }
+            if(cells[cell] == EMPTY) {
+                used++;
+            }
+            cells[cell] = slot + 1;
+            count++;
+        }
+        
+        void remove(int slot) {
+            int mask = cells.length - 1;
+            int cell = spread(hashes[slot]) & mask;
+            for(int probes = 0; probes < cells.length; probes++) {
+                if(cells[cell] == slot + 1) {
+                    cells[cell] = REMOVED;
+                    count--;
+                    return;
+                }
+                cell = (cell + 1) & mask;
+            }
+            throw new IllegalStateException(String.format("Slot %d is not in the table", slot));
+        }
+        
+        /**
+         * Builds a new array rather than changing the one readers may be
+         * probing, dropping the removed cells.
+         */
+        void rehash() {
+            int capacity = 16;
+            while(capacity < (count + 1) * 4) {
+                capacity <<= 1;
+            }
+            int[] rehashed = new int[capacity];
+            int mask = capacity - 1;
+            for(int value : cells) {
+                if(value > 0) {
+                    int cell = spread(hashes[value - 1]) & mask;
+                    while(rehashed[cell] != EMPTY) {
+                        cell = (cell + 1) & mask;
+                    }
+                    rehashed[cell] = value;
+                }
+            }
+            cells = rehashed;
+            used = count;
+        }
+    }
+    
+    final StampedLock lock = new StampedLock();
+    final SlotTable byName = new SlotTable();
+    final SlotTable byAddress = new SlotTable();
+    final SlotTable byDestination = new SlotTable();
+    final Map<String, Integer> domainIds = new HashMap<>();
+    String[] domains = new String[16];
+    
+    /** Record offset of each slot, or FREE */
+    int[] offsets = new int[16];
+    int[] lengths = new int[16];
+    int slotCount;
+    int[] freeSlots = new int[16];
+    int freeCount;
+    int size;
+    
+    int[] ordered = new int[16];
+    int orderedCount;
+    final int[] unordered = new int[MAX_UNORDERED];
+    int unorderedCount;
+    /** Changed whenever slots move in {@code ordered} */
+    int version;
+    
+    ByteBuffer arena;
+    int arenaEnd;
+    int garbage;
+    ByteBuffer scratch = ByteBuffer.allocate(256);
+    
+    public CompactDnsEntryIndex() {
+        this(64 * 1024);
+    }
+    
+    CompactDnsEntryIndex(int initialCapacity) {
+        arena = ByteBuffer.allocateDirect(initialCapacity);
+    }
+    
+    /**
+     * Runs {@code reader} without a lock, and again under the read lock if a
+     * write ran meanwhile. A read racing a write may see arrays and records
+     * that do not belong together, so anything it throws is only passed on
+     * when no write got in the way.
+     */
+    <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            try {
+                T result = reader.get();
+                if(lock.validate(stamp)) {
+                    return result;
+                }
+            } catch(RuntimeException ex) {
+                if(lock.validate(stamp)) {
+                    throw ex;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    @Override
+    public DnsEntry get(String fqdn) {
+        int hash = fqdn.hashCode();
+        return read(() -> {
+            int slot = findSlot(fqdn, hash);
+            return slot == FREE ? null : decode(offsets[slot]);
+        });
+    }
+    
+    @Override
+    public boolean containsKey(String fqdn) {
+        int hash = fqdn.hashCode();
+        return read(() -> findSlot(fqdn, hash) != FREE);
+    }
+    
+    @Override
+    public int size() {
+        return read(() -> size);
+    }
+    
+    @Override
+    public List<DnsEntry> listWithAddress(byte[] address) {
+        if(address == null) {
+            return new ArrayList<>();
+        }
+        return read(() -> lookup(byAddress, Arrays.hashCode(address), (slot) -> {
+            int payload = payloadOffset(offsets[slot]);
+            if((arena.get(payload) & 0xFF) != address.length) {
+                return false;
+            }
+            for(int i = 0; i < address.length; i++) {
+                if(arena.get(payload + 1 + i) != address[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }));
+    }
+    
+    @Override
+    public List<DnsEntry> listCnamesTo(String fqdn) {
+        return read(() -> lookup(byDestination, fqdn.hashCode(), 
+                (slot) -> compareName(payloadOffset(offsets[slot]) + 1, fqdn) == 0));
+    }
+    
+    List<DnsEntry> lookup(SlotTable table, int hash, IntPredicate matches) {
+        List<DnsEntry> found = new ArrayList<>();
+        int[] cells = table.cells;
+        int[] hashes = table.hashes;
+        int mask = cells.length - 1;
+        int cell = SlotTable.spread(hash) & mask;
+        for(int probes = 0; probes < cells.length && cells[cell] != EMPTY; probes++) {
+            int slot = cells[cell] - 1;
+            if(slot >= 0 && hashes[slot] == hash && matches.test(slot)) {
+                found.add(decode(offsets[slot]));
+            }
+            cell = (cell + 1) & mask;
+        }
+        return found;
+    }
+    
+    int findSlot(String fqdn, int hash) {
+        int[] cells = byName.cells;
+        int[] hashes = byName.hashes;
+        int mask = cells.length - 1;
+        int cell = SlotTable.spread(hash) & mask;
+        for(int probes = 0; probes < cells.length && cells[cell] != EMPTY; probes++) {
+            int slot = cells[cell] - 1;
+            if(slot >= 0 && hashes[slot] == hash && compareName(offsets[slot] + 1, fqdn) == 0) {
+                return slot;
+            }
+            cell = (cell + 1) & mask;
+        }
+        return FREE;
+    }
+    
+    @Override
+    public DnsEntry put(DnsEntry dnsEntry) {
+        String fqdn = dnsEntry.getFqdn();
+        int hash = fqdn.hashCode();
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(fqdn, hash);
+            DnsEntry previous = slot == FREE ? null : decode(offsets[slot]);
+            if(dnsEntry.equals(previous)) {
+                return previous;
+            }
+            ByteBuffer record = encode(dnsEntry);
+            int length = record.remaining();
+            int offset = append(record);
+            if(slot == FREE) {
+                slot = allocateSlot();
+                offsets[slot] = offset;
+                lengths[slot] = length;
+                byName.add(slot, hash);
+                index(slot, true);
+                addUnordered(slot);
+                size++;
+            } else {
+                index(slot, false);
+                garbage += lengths[slot];
+                offsets[slot] = offset;
+                lengths[slot] = length;
+                index(slot, true);
+            }
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public DnsEntry remove(String fqdn) {
+        int hash = fqdn.hashCode();
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(fqdn, hash);
+            if(slot == FREE) {
+                return null;
+            }
+            DnsEntry removed = decode(offsets[slot]);
+            removeSlot(slot);
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    @Override
+    public boolean remove(String fqdn, DnsEntry expected) {
+        int hash = fqdn.hashCode();
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(fqdn, hash);
+            if(slot == FREE || !decode(offsets[slot]).equals(expected)) {
+                return false;
+            }
+            removeSlot(slot);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    void removeSlot(int slot) {
+        index(slot, false);
+        byName.remove(slot);
+        removeFromOrder(slot);
+        garbage += lengths[slot];
+        offsets[slot] = FREE;
+        if(freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+    
+    int allocateSlot() {
+        if(freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if(slotCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, slotCount * 2);
+            lengths = Arrays.copyOf(lengths, slotCount * 2);
+        }
+        return slotCount++;
+    }
+    
+    /**
+     * Adds the slot to, or removes it from, the address or destination table
+     * its record belongs in.
+     */
+    void index(int slot, boolean add) {
+        int offset = offsets[slot];
+        byte type = arena.get(offset);
+        int payload = payloadOffset(offset);
+        SlotTable table;
+        int hash;
+        if(type == TYPE_A || type == TYPE_AAAA) {
+            int length = arena.get(payload) & 0xFF;
+            if(length == 0) {
+                return;
+            }
+            table = byAddress;
+            hash = 1;
+            for(int i = 0; i < length; i++) {
+                hash = 31 * hash + arena.get(payload + 1 + i);
+            }
+        } else if(type == TYPE_CNAME && arena.get(payload) != 0) {
+            table = byDestination;
+            hash = 0;
+            for(int i = 0, length = nameLength(payload + 1); i < length; i++) {
+                hash = 31 * hash + nameChar(payload + 1, i);
+            }
+        } else {
+            return;
+        }
+        if(add) {
+            table.add(slot, hash);
+        } else {
+            table.remove(slot);
+        }
+    }
+    
+    void addUnordered(int slot) {
+        if(unorderedCount == MAX_UNORDERED) {
+            merge();
+        }
+        unordered[unorderedCount++] = slot;
+    }
+    
+    void removeFromOrder(int slot) {
+        for(int i = 0; i < unorderedCount; i++) {
+            if(unordered[i] == slot) {
+                unordered[i] = unordered[--unorderedCount];
+                return;
+            }
+        }
+        int position = orderedPosition(offsets[slot] + 1);
+        if(position == orderedCount || ordered[position] != slot) {
+            throw new IllegalStateException(String.format("Slot %d is not in the order", slot));
+        }
+        System.arraycopy(ordered, position + 1, ordered, position, orderedCount - position - 1);
+        orderedCount--;
+        version++;
+    }
+    
+    /**
+     * Sorts the unordered slots and moves each run of ordered slots once to
+     * make room for them.
+     */
+    void merge() {
+        if(unorderedCount == 0) {
+            return;
+        }
+        Integer[] pending = new Integer[unorderedCount];
+        for(int i = 0; i < unorderedCount; i++) {
+            pending[i] = unordered[i];
+        }
+        Arrays.sort(pending, (first, second) -> compareNames(offsets[first] + 1, offsets[second] + 1));
+        int[] positions = new int[pending.length];
+        for(int i = 0; i < pending.length; i++) {
+            positions[i] = orderedPosition(offsets[pending[i]] + 1);
+        }
+        if(orderedCount + pending.length > ordered.length) {
+            ordered = Arrays.copyOf(ordered, Math.max(ordered.length * 2, orderedCount + pending.length));
+        }
+        int read = orderedCount;
+        int write = orderedCount + pending.length;
+        for(int i = pending.length - 1; i >= 0; i--) {
+            int moved = read - positions[i];
+            write -= moved;
+            System.arraycopy(ordered, positions[i], ordered, write, moved);
+            read = positions[i];
+            ordered[--write] = pending[i];
+        }
+        orderedCount += pending.length;
+        unorderedCount = 0;
+        version++;
+    }
+    
+    void ensureOrdered() {
+        long stamp = lock.readLock();
+        boolean pending;
+        try {
+            pending = unorderedCount > 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        if(pending) {
+            stamp = lock.writeLock();
+            try {
+                merge();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+    
+    /**
+     * @return the position in {@code ordered} of the first name not before
+     * the name at {@code nameOffset}
+     */
+    int orderedPosition(int nameOffset) {
+        int low = 0;
+        int high = orderedCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(compareNames(offsets[ordered[middle]] + 1, nameOffset) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * @return the position in {@code ordered} of the first name after
+     * {@code fqdn}
+     */
+    int orderedPositionAfter(String fqdn) {
+        int low = 0;
+        int high = orderedCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(compareName(offsets[ordered[middle]] + 1, fqdn) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Appends the record, first moving the live records to a new buffer
+     * with room for it if this one is full.
+     */
+    int append(ByteBuffer record) {
+        int length = record.remaining();
+        if(arena.capacity() - arenaEnd < length) {
+            grow(length);
+        }
+        ByteBuffer target = arena.duplicate();
+        target.position(arenaEnd);
+        target.put(record);
+        int offset = arenaEnd;
+        arenaEnd += length;
+        return offset;
+    }
+    
+    void grow(int needed) {
+        long live = (long)arenaEnd - garbage;
+        if(live + needed > MAX_CAPACITY) {
+            throw new IllegalStateException(String.format("Index is full with %d bytes of entries", live));
+        }
+        int capacity = (int)Math.min(MAX_CAPACITY, Math.max(arena.capacity(), (live + needed) * 2));
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        ByteBuffer source = arena.duplicate();
+        // in FQDN order, so iterating reads the buffer from front to back
+        for(int i = 0; i < orderedCount; i++) {
+            move(source, grown, ordered[i]);
+        }
+        for(int i = 0; i < unorderedCount; i++) {
+            move(source, grown, unordered[i]);
+        }
+        arena = grown;
+        arenaEnd = grown.position();
+        garbage = 0;
+    }
+    
+    void move(ByteBuffer source, ByteBuffer target, int slot) {
+        source.clear();
+        source.position(offsets[slot]);
+        source.limit(offsets[slot] + lengths[slot]);
+        offsets[slot] = target.position();
+        target.put(source);
+    }
+    
+    ByteBuffer encode(DnsEntry dnsEntry) {
+        byte type;
+        if(dnsEntry instanceof DnsEntryARecord) {
+            type = TYPE_A;
+        } else if(dnsEntry instanceof DnsEntryAAAARecord) {
+            type = TYPE_AAAA;
+        } else if(dnsEntry instanceof DnsEntryCname) {
+            type = TYPE_CNAME;
+        } else if(dnsEntry instanceof DnsEntryTxt) {
+            type = TYPE_TXT;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown entry type %s", dnsEntry.getClass().getSimpleName()));
+        }
+        scratch.clear();
+        ensureScratch(1);
+        scratch.put(type);
+        writeName(dnsEntry.getFqdn());
+        writeVarLong(dnsEntry.getTtl());
+        writeVarLong(dnsEntry.getLease());
+        switch(type) {
+            case TYPE_A:
+                writeAddress(((DnsEntryARecord)dnsEntry).getAddress());
+                break;
+            case TYPE_AAAA:
+                writeAddress(((DnsEntryAAAARecord)dnsEntry).getAddress());
+                break;
+            case TYPE_CNAME:
+                String destination = ((DnsEntryCname)dnsEntry).getDestinationFqdn();
+                ensureScratch(1);
+                scratch.put((byte)(destination == null ? 0 : 1));
+                if(destination != null) {
+                    writeName(destination);
+                }
+                break;
+            default:
+                writeText(((DnsEntryTxt)dnsEntry).getText());
+                break;
+        }
+        scratch.flip();
+        return scratch;
+    }
+    
+    void ensureScratch(int needed) {
+        if(scratch.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, scratch.position() + needed));
+            scratch.flip();
+            larger.put(scratch);
+            scratch = larger;
+        }
+    }
+    
+    void writeName(String name) {
+        int dot = name.indexOf('.');
+        int labelLength = dot < 0 ? name.length() : dot;
+        if(labelLength > MAX_LABEL_LENGTH) {
+            throw new IllegalArgumentException(String.format("Label of %d characters is too long to index", labelLength));
+        }
+        boolean wide = false;
+        for(int i = 0; i < labelLength && !wide; i++) {
+            wide = name.charAt(i) > 0xFF;
+        }
+        ensureScratch(2 + labelLength * 2 + 4);
+        scratch.putShort((short)(wide ? labelLength | WIDE : labelLength));
+        for(int i = 0; i < labelLength; i++) {
+            if(wide) {
+                scratch.putChar(name.charAt(i));
+            } else {
+                scratch.put((byte)name.charAt(i));
+            }
+        }
+        scratch.putInt(dot < 0 ? NO_DOMAIN : domainId(name.substring(dot + 1)));
+    }
+    
+    /**
+     * Domains are only ever added, as records still referring to one may be
+     * read at any time.
+     */
+    int domainId(String domain) {
+        Integer id = domainIds.get(domain);
+        if(id == null) {
+            id = domainIds.size();
+            if(id == domains.length) {
+                domains = Arrays.copyOf(domains, id * 2);
+            }
+            domains[id] = domain;
+            domainIds.put(domain, id);
+        }
+        return id;
+    }
+    
+    void writeVarLong(long value) {
+        ensureScratch(10);
+        while((value & ~0x7FL) != 0) {
+            scratch.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        scratch.put((byte)value);
+    }
+    
+    void writeAddress(byte[] address) {
+        int length = address == null ? 0 : address.length;
+        ensureScratch(1 + length);
+        scratch.put((byte)length);
+        if(address != null) {
+            scratch.put(address);
+        }
+    }
+    
+    void writeText(String text) {
+        if(text == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(utf8.length + 1L);
+        ensureScratch(utf8.length);
+        scratch.put(utf8);
+    }
+    
+    DnsEntry decode(int offset) {
+        byte type = arena.get(offset);
+        DnsEntry dnsEntry;
+        switch(type) {
+            case TYPE_A:
+                dnsEntry = new DnsEntryARecord();
+                break;
+            case TYPE_AAAA:
+                dnsEntry = new DnsEntryAAAARecord();
+                break;
+            case TYPE_CNAME:
+                dnsEntry = new DnsEntryCname();
+                break;
+            case TYPE_TXT:
+                dnsEntry = new DnsEntryTxt();
+                break;
+            default:
+                throw new IllegalStateException(String.format("Unknown entry type %d at offset %d", type, offset));
+        }
+        int position = offset + 1;
+        dnsEntry.setFqdn(readName(position));
+        position += nameBytes(position);
+        dnsEntry.setTtl(readVarLong(position));
+        position += varLongBytes(position);
+        dnsEntry.setLease(readVarLong(position));
+        position += varLongBytes(position);
+        switch(type) {
+            case TYPE_A:
+                ((DnsEntryARecord)dnsEntry).setAddress(readAddress(position));
+                break;
+            case TYPE_AAAA:
+                ((DnsEntryAAAARecord)dnsEntry).setAddress(readAddress(position));
+                break;
+            case TYPE_CNAME:
+                ((DnsEntryCname)dnsEntry).setDestinationFqdn(arena.get(position) == 0 ? null : readName(position + 1));
+                break;
+            default:
+                ((DnsEntryTxt)dnsEntry).setText(readText(position));
+                break;
+        }
+        return dnsEntry;
+    }
+    
+    int payloadOffset(int offset) {
+        int position = offset + 1;
+        position += nameBytes(position);
+        position += varLongBytes(position);
+        return position + varLongBytes(position);
+    }
+    
+    int nameBytes(int offset) {
+        int header = arena.getShort(offset) & 0xFFFF;
+        int labelLength = header & MAX_LABEL_LENGTH;
+        return 2 + ((header & WIDE) != 0 ? labelLength * 2 : labelLength) + 4;
+    }
+    
+    int nameLength(int offset) {
+        int header = arena.getShort(offset) & 0xFFFF;
+        int labelLength = header & MAX_LABEL_LENGTH;
+        int domain = arena.getInt(offset + nameBytes(offset) - 4);
+        return domain == NO_DOMAIN ? labelLength : labelLength + 1 + domains[domain].length();
+    }
+    
+    char nameChar(int offset, int index) {
+        int header = arena.getShort(offset) & 0xFFFF;
+        int labelLength = header & MAX_LABEL_LENGTH;
+        if(index < labelLength) {
+            return (header & WIDE) != 0 ? arena.getChar(offset + 2 + index * 2) : (char)(arena.get(offset + 2 + index) & 0xFF);
+        } else if(index == labelLength) {
+            return '.';
+        }
+        return domains[arena.getInt(offset + nameBytes(offset) - 4)].charAt(index - labelLength - 1);
+    }
+    
+    /**
+     * Compares the FQDN at {@code offset} with {@code name} the way
+     * {@link String#compareTo} would, without building it.
+     */
+    int compareName(int offset, String name) {
+        int length = nameLength(offset);
+        int common = Math.min(length, name.length());
+        for(int i = 0; i < common; i++) {
+            char next = nameChar(offset, i);
+            if(next != name.charAt(i)) {
+                return next - name.charAt(i);
+            }
+        }
+        return length - name.length();
+    }
+    
+    int compareNames(int first, int second) {
+        int firstLength = nameLength(first);
+        int secondLength = nameLength(second);
+        int common = Math.min(firstLength, secondLength);
+        for(int i = 0; i < common; i++) {
+            char firstChar = nameChar(first, i);
+            char secondChar = nameChar(second, i);
+            if(firstChar != secondChar) {
+                return firstChar - secondChar;
+            }
+        }
+        return firstLength - secondLength;
+    }
+    
+    String readName(int offset) {
+        int header = arena.getShort(offset) & 0xFFFF;
+        int labelLength = header & MAX_LABEL_LENGTH;
+        int domain = arena.getInt(offset + nameBytes(offset) - 4);
+        String parent = domain == NO_DOMAIN ? null : domains[domain];
+        char[] name = new char[parent == null ? labelLength : labelLength + 1 + parent.length()];
+        for(int i = 0; i < labelLength; i++) {
+            name[i] = (header & WIDE) != 0 ? arena.getChar(offset + 2 + i * 2) : (char)(arena.get(offset + 2 + i) & 0xFF);
+        }
+        if(parent != null) {
+            name[labelLength] = '.';
+            parent.getChars(0, parent.length(), name, labelLength + 1);
+        }
+        return new String(name);
+    }
+    
+    long readVarLong(int offset) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte next = arena.get(offset++);
+            value |= (long)(next & 0x7F) << shift;
+            if(next >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed number in index record");
+    }
+    
+    int varLongBytes(int offset) {
+        int length = 1;
+        while(arena.get(offset + length - 1) < 0) {
+            length++;
+        }
+        return length;
+    }
+    
+    byte[] readAddress(int offset) {
+        int length = arena.get(offset) & 0xFF;
+        if(length == 0) {
+            return null;
+        }
+        byte[] address = new byte[length];
+        for(int i = 0; i < length; i++) {
+            address[i] = arena.get(offset + 1 + i);
+        }
+        return address;
+    }
+    
+    String readText(int offset) {
+        long length = readVarLong(offset) - 1;
+        if(length < 0) {
+            return null;
+        }
+        int start = offset + varLongBytes(offset);
+        if(length > arenaEnd - start) {
+            // only seen by a read racing a write, which is then retried
+            throw new IllegalStateException(String.format("Text of %d bytes runs past the end of the index", length));
+        }
+        byte[] utf8 = new byte[(int)length];
+        for(int i = 0; i < utf8.length; i++) {
+            utf8[i] = arena.get(start + i);
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public Iterable<DnsEntry> iterateAfter(String afterFqdn) {
+        return () -> new EntryIterator(afterFqdn);
+    }
+    
+    /**
+     * Walks {@code ordered} by position for as long as no slot moves in it,
+     * and otherwise finds its place again after the last FQDN it returned.
+     * So it never returns an FQDN twice or out of order, and sees changes
+     * made after the point it has reached.
+     */
+    class EntryIterator implements Iterator<DnsEntry> {
+        String last;
+        int position = -1;
+        int positionVersion;
+        DnsEntry next;
+        final Supplier<DnsEntry> reader = this::readNext;
+        int readPosition;
+        int readVersion;
+        
+        EntryIterator(String afterFqdn) {
+            last = afterFqdn;
+            ensureOrdered();
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if(next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+        
+        @Override
+        public DnsEntry next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DnsEntry found = next;
+            next = null;
+            last = found.getFqdn();
+            return found;
+        }
+        
+        DnsEntry advance() {
+            DnsEntry found = read(reader);
+            position = readPosition + 1;
+            positionVersion = readVersion;
+            return found;
+        }
+        
+        DnsEntry readNext() {
+            readVersion = version;
+            if(position >= 0 && positionVersion == readVersion) {
+                readPosition = position;
+            } else {
+                readPosition = last == null ? 0 : orderedPositionAfter(last);
+            }
+            return readPosition < orderedCount ? decode(offsets[ordered[readPosition]]) : null;
+        }
+    }
+    
+    @Override
+    public long getOffHeapBytes() {
+        return read(() -> (long)arena.capacity());
+    }
+}
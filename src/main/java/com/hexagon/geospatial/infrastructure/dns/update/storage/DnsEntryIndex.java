@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.util.List;
+
+/**
+ * The in-memory map of entries by FQDN behind {@link AbstractDnsEntryStorage},
+ * which also finds address entries by address and CNAMEs by destination.
+ * Writes come from one thread at a time, under the storage's write lock;
+ * reads may run alongside them from any thread.
+ *
+ * @author Chris
+ */
+public interface DnsEntryIndex {
+    
+    public enum Type {
+        /** Entry objects in a skip list */
+        HEAP,
+        /** Encoded off-heap, see {@link CompactDnsEntryIndex} */
+        COMPACT
+    }
+    
+    /**
+     * @return the entry stored for this FQDN, or null if there is none
+     */
+    DnsEntry get(String fqdn);
+    
+    boolean containsKey(String fqdn);
+    
+    /**
+     * @return the value this replaced, or null
+     */
+    DnsEntry put(DnsEntry dnsEntry);
+    
+    /**
+     * @return the value removed, or null
+     */
+    DnsEntry remove(String fqdn);
+    
+    /**
+     * Removes the entry only if it still holds {@code expected}.
+     */
+    boolean remove(String fqdn, DnsEntry expected);
+    
+    int size();
+    
+    /**
+     * @return the A and AAAA entries holding this address
+     */
+    List<DnsEntry> listWithAddress(byte[] address);
+    
+    /**
+     * @return the CNAMEs pointing at this FQDN
+     */
+    List<DnsEntry> listCnamesTo(String fqdn);
+    
+    /**
+     * A live view in FQDN order, starting after {@code afterFqdn} or at the
+     * beginning when it is null. Iterating copies nothing and sees
+     * concurrent changes.
+     */
+    Iterable<DnsEntry> iterateAfter(String afterFqdn);
+    
+    /**
+     * @return memory held outside the Java heap
+     */
+    long getOffHeapBytes();
+}
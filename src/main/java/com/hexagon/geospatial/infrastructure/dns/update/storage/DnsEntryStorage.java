@@ -16,7 +16,9 @@
 package com.hexagon.geospatial.infrastructure.dns.update.storage;
 
 import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.StorageStatistics;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -25,5 +27,110 @@ import java.util.List;
  */
 public interface DnsEntryStorage {
     List<DnsEntry> listAllDnsEnrties() throws IOException;
+    
+    /**
+     * @return the entry stored for this FQDN, or null if there is none
+     */
+    DnsEntry getDnsEntry(String fqdn) throws IOException;
+    
     void addDnsEntry(DnsEntry dnsEntry) throws IOException;
+    
+    /**
+     * Stores all of the entries with a single write.
+     */
+    void addDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException;
+    
+    /**
+     * Every change to a stored entry is stamped with a new, strictly increasing
+     * generation. Readers remember the generation they last consumed and ask
+     * only for what changed after it.
+     */
+    long getGeneration() throws IOException;
+    List<DnsEntry> listDnsEntriesChangedSince(long generation) throws IOException;
+    
+    /**
+     * A live view of the entries in FQDN order, starting after
+     * {@code afterFqdn} or at the beginning when it is null. Iterating it
+     * copies nothing and sees concurrent changes.
+     */
+    Iterable<DnsEntry> iterateDnsEntriesAfter(String afterFqdn) throws IOException;
+    
+    /**
+     * Removes each entry whose stored value is still the one given, with a
+     * single write.
+     * 
+     * @return the entries that were removed
+     */
+    List<DnsEntry> removeDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException;
+    
+    /**
+     * Values whose records must be deleted from DNS: removed entries, and
+     * replaced values whose records the new value would leave behind, such
+     * as the PTR of an address that moved. They
+     * are stamped with the FQDN's generation and remembered until
+     * {@link #pruneRetiredUpTo(long)}, so every reader gets the chance to
+     * delete them.
+     */
+    List<DnsEntry> listDnsEntriesRetiredSince(long generation) throws IOException;
+    
+    /**
+     * Forgets retired values every reader has consumed.
+     */
+    void pruneRetiredUpTo(long generation);
+    
+    /**
+     * @return the address entries holding this address, found from an index
+     */
+    List<DnsEntry> listDnsEntriesWithAddress(String ipAddress) throws IOException;
+    
+    /**
+     * @return the CNAMEs whose destination is this FQDN, found from an index
+     */
+    List<DnsEntry> listCnamesTo(String fqdn) throws IOException;
+    
+    /**
+     * @return the entries at or below {@code domain} in FQDN order, found
+     * from an index
+     */
+    List<DnsEntry> listDnsEntriesUnder(String domain) throws IOException;
+    
+    int countDnsEntriesUnder(String domain) throws IOException;
+    
+    /**
+     * @return the CNAMEs whose destination is at or below {@code domain} in
+     * FQDN order, found from an index
+     */
+    List<DnsEntry> listCnamesInto(String domain) throws IOException;
+    
+    int countCnamesInto(String domain) throws IOException;
+    
+    /**
+     * @return the CNAMEs whose destination is not stored, in FQDN order
+     */
+    List<DnsEntry> listDanglingCnames() throws IOException;
+    
+    /**
+     * Checks entries about to be stored, each as though those before it in
+     * the list that passed were stored already.
+     * 
+     * @return for each entry, why storing it would close a CNAME loop or make
+     * a chain of more than {@code maxChainLength} CNAMEs, or null
+     */
+    List<String> checkCnameChains(List<DnsEntry> pending, int maxChainLength) throws IOException;
+    
+    /**
+     * Reads the entries again from where they are persisted, for an instance
+     * taking over storage another instance has been writing. Entries that
+     * differ from those in memory are stamped as changes.
+     */
+    void reload() throws IOException;
+    
+    /**
+     * Stops writing to where the entries are persisted, for an instance
+     * that lost leadership while another takes over. Writes fail until
+     * {@link #reload()}.
+     */
+    void detach() throws IOException;
+    
+    StorageStatistics getStatistics();
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Values filed under a name's labels from the top down, so everything at
+ * or below a domain is found by walking the domain's labels and then only
+ * the branch beneath it. Each node counts the values in its branch, so a
+ * count costs just the walk. Labels compare without case, as in DNS.
+ * 
+ * Changed from one thread at a time, under the storage's write lock, while
+ * readers walk it. A reader sees each node either before or after a change.
+ *
+ * @author Chris
+ */
+public class DomainTree {
+    
+    static final class Node {
+        volatile Map<String, Node> children;
+        /** null, a single value, or an unmodifiable set of them */
+        volatile Object values;
+        volatile int count;
+        
+        Node child(String label) {
+            Map<String, Node> current = children;
+            return current == null ? null : current.get(label);
+        }
+    }
+    
+    final Node root = new Node();
+    
+    /**
+     * @return the labels of {@code name} from the top down, lower case and
+     * without the empty labels of a leading or trailing dot
+     */
+    static List<String> labels(String name) {
+        List<String> labels = new ArrayList<>();
+        int end = name.length();
+        for(int start = name.length() - 1; start >= -1; start--) {
+            if(start == -1 || name.charAt(start) == '.') {
+                if(end > start + 1) {
+                    labels.add(name.substring(start + 1, end).toLowerCase(Locale.ROOT));
+                }
+                end = start;
+            }
+        }
+        return labels;
+    }
+    
+    Node find(String name) {
+        Node node = root;
+        for(String label : labels(name)) {
+            node = node.child(label);
+            if(node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+    
+    /**
+     * @return false if the value was already held under this name
+     */
+    public boolean add(String name, String value) {
+        List<String> labels = labels(name);
+        Node[] path = new Node[labels.size() + 1];
+        path[0] = root;
+        for(int i = 0; i < labels.size(); i++) {
+            if(path[i].children == null) {
+                path[i].children = new ConcurrentHashMap<>();
+            }
+            path[i + 1] = path[i].children.computeIfAbsent(labels.get(i), (label) -> new Node());
+        }
+        Node node = path[labels.size()];
+        Object values = node.values;
+        if(values == null) {
+            node.values = value;
+        } else if(values.equals(value) || (values instanceof Set && ((Set<?>)values).contains(value))) {
+            return false;
+        } else {
+            Set<Object> added = values instanceof Set ? new HashSet<>((Set<?>)values) : new HashSet<>(Collections.singleton(values));
+            added.add(value);
+            node.values = Collections.unmodifiableSet(added);
+        }
+        for(Node each : path) {
+            each.count++;
+        }
+        return true;
+    }
+    
+    /**
+     * Removes the value, and the nodes it leaves empty.
+     * 
+     * @return false if the value was not held under this name
+     */
+    public boolean remove(String name, String value) {
+        List<String> labels = labels(name);
+        Node[] path = new Node[labels.size() + 1];
+        path[0] = root;
+        for(int i = 0; i < labels.size(); i++) {
+            path[i + 1] = path[i].child(labels.get(i));
+            if(path[i + 1] == null) {
+                return false;
+            }
+        }
+        Node node = path[labels.size()];
+        Object values = node.values;
+        if(value.equals(values)) {
+            node.values = null;
+        } else if(values instanceof Set && ((Set<?>)values).contains(value)) {
+            Set<Object> remaining = new HashSet<>((Set<?>)values);
+            remaining.remove(value);
+            node.values = remaining.size() == 1 ? remaining.iterator().next() : Collections.unmodifiableSet(remaining);
+        } else {
+            return false;
+        }
+        for(Node each : path) {
+            each.count--;
+        }
+        for(int i = labels.size(); i > 0 && path[i].count == 0; i--) {
+            path[i - 1].children.remove(labels.get(i - 1));
+        }
+        return true;
+    }
+    
+    /**
+     * @return the number of values at or below {@code domain}
+     */
+    public int count(String domain) {
+        Node node = find(domain);
+        return node == null ? 0 : node.count;
+    }
+    
+    /**
+     * @return the values at or below {@code domain}, in no particular order
+     */
+    public List<String> list(String domain) {
+        List<String> found = new ArrayList<>();
+        Node start = find(domain);
+        if(start == null) {
+            return found;
+        }
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(start);
+        while(!pending.isEmpty()) {
+            Node node = pending.pop();
+            Object values = node.values;
+            if(values instanceof Set) {
+                ((Set<?>)values).stream().forEach((value) -> found.add((String)value));
+            } else if(values != null) {
+                found.add((String)values);
+            }
+            Map<String, Node> children = node.children;
+            if(children != null) {
+                children.values().stream().forEach(pending::push);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.IpAddresses;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Entries as objects in a {@link ConcurrentSkipListMap}, so reads never
+ * wait and return the stored instances themselves.
+ *
+ * @author Chris
+ */
+public class HeapDnsEntryIndex implements DnsEntryIndex {
+    
+    final ConcurrentSkipListMap<String, DnsEntry> dnsEntries = new ConcurrentSkipListMap<>();
+    final Map<String, Set<String>> fqdnsByAddress = new ConcurrentHashMap<>();
+    final Map<String, Set<String>> cnamesByDestination = new ConcurrentHashMap<>();
+    
+    @Override
+    public DnsEntry get(String fqdn) {
+        return dnsEntries.get(fqdn);
+    }
+    
+    @Override
+    public boolean containsKey(String fqdn) {
+        return dnsEntries.containsKey(fqdn);
+    }
+    
+    @Override
+    public DnsEntry put(DnsEntry dnsEntry) {
+        DnsEntry previous = dnsEntries.put(dnsEntry.getFqdn(), dnsEntry);
+        unindex(previous);
+        index(dnsEntry);
+        return previous;
+    }
+    
+    @Override
+    public DnsEntry remove(String fqdn) {
+        DnsEntry removed = dnsEntries.remove(fqdn);
+        unindex(removed);
+        return removed;
+    }
+    
+    @Override
+    public boolean remove(String fqdn, DnsEntry expected) {
+        if(!dnsEntries.remove(fqdn, expected)) {
+            return false;
+        }
+        unindex(expected);
+        return true;
+    }
+    
+    @Override
+    public int size() {
+        return dnsEntries.size();
+    }
+    
+    @Override
+    public List<DnsEntry> listWithAddress(byte[] address) {
+        return lookup(fqdnsByAddress.get(IpAddresses.format(address)));
+    }
+    
+    @Override
+    public List<DnsEntry> listCnamesTo(String fqdn) {
+        return lookup(cnamesByDestination.get(fqdn));
+    }
+    
+    List<DnsEntry> lookup(Set<String> fqdns) {
+        List<DnsEntry> found = new ArrayList<>();
+        if(fqdns != null) {
+            fqdns.stream()
+                    .map(dnsEntries::get)
+                    .filter((dnsEntry) -> dnsEntry != null)
+                    .forEach(found::add);
+        }
+        return found;
+    }
+    
+    void index(DnsEntry dnsEntry) {
+        String address = DnsEntries.addressOf(dnsEntry);
+        if(address != null) {
+            fqdnsByAddress.computeIfAbsent(address, (key) -> ConcurrentHashMap.newKeySet()).add(dnsEntry.getFqdn());
+        } else if(dnsEntry instanceof DnsEntryCname && ((DnsEntryCname)dnsEntry).getDestinationFqdn() != null) {
+            cnamesByDestination.computeIfAbsent(((DnsEntryCname)dnsEntry).getDestinationFqdn(), (key) -> ConcurrentHashMap.newKeySet()).add(dnsEntry.getFqdn());
+        }
+    }
+    
+    void unindex(DnsEntry dnsEntry) {
+        if(dnsEntry == null) {
+            return;
+        }
+        String address = DnsEntries.addressOf(dnsEntry);
+        if(address != null) {
+            unindex(fqdnsByAddress, address, dnsEntry.getFqdn());
+        } else if(dnsEntry instanceof DnsEntryCname && ((DnsEntryCname)dnsEntry).getDestinationFqdn() != null) {
+            unindex(cnamesByDestination, ((DnsEntryCname)dnsEntry).getDestinationFqdn(), dnsEntry.getFqdn());
+        }
+    }
+    
+    static void unindex(Map<String, Set<String>> index, String key, String fqdn) {
+        index.computeIfPresent(key, (ignored, fqdns) -> {
+            fqdns.remove(fqdn);
+            return fqdns.isEmpty() ? null : fqdns;
+        });
+    }
+    
+    @Override
+    public Iterable<DnsEntry> iterateAfter(String afterFqdn) {
+        return afterFqdn == null ? dnsEntries.values() : dnsEntries.tailMap(afterFqdn, false).values();
+    }
+    
+    @Override
+    public long getOffHeapBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.StorageStatistics;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Persists each change as a line in an append-only log and periodically
+ * folds the log into a snapshot, in the {@link JsonFileDnsEntryEntity}
+ * format or with {@code journal.storage.snapshot.format=binary} as a
+ * {@link BinarySnapshot}. On startup the snapshot is loaded and the log
+ * replayed on top of it. Enabled with {@code storage.type=journal}.
+ *
+ * @author Chris
+ */
+@Service
+@ConditionalOnProperty(name = "storage.type", havingValue = "journal")
+public class JournalDnsEntryStorage extends AbstractDnsEntryStorage {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(JournalDnsEntryStorage.class);
+    
+    public enum SnapshotFormat {
+        JSON,
+        BINARY
+    }
+    
+    @Value("${journal.storage.snapshot:dnsEntries.snapshot.json}")
+    File snapshotFile;
+    
+    @Value("${journal.storage.snapshot.binary:dnsEntries.snapshot.bin}")
+    File binarySnapshotFile;
+    
+    /**
+     * The format snapshots are written in. A snapshot found only in the
+     * other format is converted on startup, so the format can be changed
+     * either way at a restart.
+     */
+    @Value("${journal.storage.snapshot.format:json}")
+    SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+    
+    @Value("${journal.storage.log:dnsEntries.journal}")
+    File logFile;
+    
+    @Value("${json.storage.file:dnsEntries.json}")
+    File legacyJsonFile;
+    
+    @Value("${journal.storage.compact.records:10000}")
+    long compactAfterRecords;
+    
+    @Value("${journal.storage.group.size:512}")
+    int maxGroupSize;
+    
+    /**
+     * In a cluster only the leader writes the log, so a standby reads it
+     * without opening it for writing, and leaves alone a last record the
+     * leader may still be writing.
+     */
+    @Value("${dns.cluster.enabled:false}")
+    boolean clustered;
+    
+    ObjectMapper mapper;
+    volatile WriteAheadLog log;
+    long recoveredRecords;
+    AtomicLong reloads;
+    AtomicLong writes;
+    AtomicLong compactions;
+    
+    public JournalDnsEntryStorage() {
+        reloads = new AtomicLong();
+        writes = new AtomicLong();
+        compactions = new AtomicLong();
+        mapper = new ObjectMapper();
+        mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+    }
+    
+    @PostConstruct
+    public void postConstruct() throws IOException {
+        recover(!clustered);
+        if(!clustered) {
+            log = new WriteAheadLog(logFile.toPath(), recoveredRecords, maxGroupSize, this::compact);
+        }
+    }
+    
+    @PreDestroy
+    public void preDestroy() throws IOException {
+        if(log != null) {
+            log.close();
+        }
+    }
+    
+    /**
+     * Recovers again from the snapshot and log, which this instance writes
+     * from now on.
+     */
+    @Override
+    public synchronized void reload() throws IOException {
+        if(log != null) {
+            log.close();
+            log = null;
+        }
+        recover(true);
+        log = new WriteAheadLog(logFile.toPath(), recoveredRecords, maxGroupSize, this::compact);
+    }
+    
+    /**
+     * Closes the log once what is queued is committed. A compaction the log
+     * would run meanwhile is skipped, since the snapshot now belongs to
+     * whichever instance writes the log next.
+     */
+    @Override
+    public synchronized void detach() throws IOException {
+        WriteAheadLog detached = log;
+        if(detached != null) {
+            log = null;
+            detached.close();
+            LOGGER.info(String.format("Stopped writing %s", logFile));
+        }
+    }
+    
+    WriteAheadLog writer() throws IOException {
+        if(log == null) {
+            throw new IOException(String.format("%s is only read by a standby instance", logFile));
+        }
+        return log;
+    }
+    
+    void recover() throws IOException {
+        recover(true);
+    }
+    
+    /**
+     * @param writer whether this instance writes the log, and so may import
+     *      the legacy file and discard an incomplete last record
+     */
+    void recover(boolean writer) throws IOException {
+        List<DnsEntry> snapshot = Collections.emptyList();
+        File current = snapshotFileFor(snapshotFormat);
+        File other = snapshotFileFor(snapshotFormat == SnapshotFormat.BINARY ? SnapshotFormat.JSON : SnapshotFormat.BINARY);
+        if(current.exists()) {
+            snapshot = readSnapshot(current);
+        } else if(other != null && other.exists()) {
+            snapshot = readSnapshot(other);
+            if(writer) {
+                writeSnapshot(snapshot);
+                Files.delete(other.toPath());
+                LOGGER.info(String.format("Converted %d entries from %s to %s", snapshot.size(), other, current));
+            }
+        } else if(writer && legacyJsonFile.exists() && (!logFile.exists() || logFile.length() == 0)) {
+            snapshot = mapper.readValue(legacyJsonFile, JsonFileDnsEntryEntity.class).getDnsEntries();
+            writeSnapshot(snapshot);
+            LOGGER.info(String.format("Imported %d entries from %s", snapshot.size(), legacyJsonFile));
+        }
+        
+        Map<String, DnsEntry> recovered = new LinkedHashMap<>();
+        snapshot.stream().forEach((dnsEntry) -> recovered.put(dnsEntry.getFqdn(), dnsEntry));
+        recoveredRecords = logFile.exists() ? replay(recovered, writer) : 0;
+        replaceDnsEntries(recovered.values());
+        reloads.incrementAndGet();
+        LOGGER.info(String.format("Recovered %d entries from %d snapshot entries and %d log records", 
+                recovered.size(), snapshot.size(), recoveredRecords));
+    }
+    
+    long replay(Map<String, DnsEntry> recovered) throws IOException {
+        return replay(recovered, true);
+    }
+    
+    long replay(Map<String, DnsEntry> recovered, boolean truncate) throws IOException {
+        byte[] data = Files.readAllBytes(logFile.toPath());
+        long records = 0;
+        int start = 0;
+        while(start < data.length) {
+            int end = start;
+            while(end < data.length && data[end] != '\n') {
+                end++;
+            }
+            JournalRecord record;
+            try {
+                record = end < data.length ? mapper.readValue(Arrays.copyOfRange(data, start, end), JournalRecord.class) : null;
+            } catch(IOException ex) {
+                if(end + 1 < data.length) {
+                    throw new IOException(String.format("Corrupt record at offset %d of %s", start, logFile), ex);
+                }
+                record = null;
+            }
+            if(record == null) {
+                if(truncate) {
+                    LOGGER.warn(String.format("Discarding incomplete record at the end of %s", logFile));
+                    try(RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+                        file.setLength(start);
+                    }
+                }
+                break;
+            }
+            apply(record, recovered);
+            records++;
+            start = end + 1;
+        }
+        return records;
+    }
+    
+    static void apply(JournalRecord record, Map<String, DnsEntry> dnsEntries) {
+        switch(record.getOperation()) {
+            case PUT:
+                dnsEntries.put(record.getDnsEntry().getFqdn(), record.getDnsEntry());
+                break;
+            case PUT_ALL:
+                record.getDnsEntries().stream().forEach((dnsEntry) -> dnsEntries.put(dnsEntry.getFqdn(), dnsEntry));
+                break;
+            case REMOVE_ALL:
+                record.getDnsEntries().stream().forEach((dnsEntry) -> dnsEntries.remove(dnsEntry.getFqdn()));
+                break;
+        }
+    }
+    
+    boolean compact(long logRecords) throws IOException {
+        if(logRecords < compactAfterRecords || log == null) {
+            return false;
+        }
+        writeSnapshot(getDnsEnrtiesAsList());
+        compactions.incrementAndGet();
+        return true;
+    }
+    
+    File snapshotFileFor(SnapshotFormat format) {
+        return format == SnapshotFormat.BINARY ? binarySnapshotFile : snapshotFile;
+    }
+    
+    List<DnsEntry> readSnapshot(File file) throws IOException {
+        if(file.equals(binarySnapshotFile)) {
+            return timedSerialisation("deserialise", () -> BinarySnapshot.read(file));
+        }
+        return timedSerialisation("deserialise", () -> mapper.readValue(file, JsonFileDnsEntryEntity.class)).getDnsEntries();
+    }
+    
+    void writeSnapshot(List<DnsEntry> dnsEntries) throws IOException {
+        byte[] serialised;
+        if(snapshotFormat == SnapshotFormat.BINARY) {
+            serialised = timedSerialisation("serialise", () -> BinarySnapshot.encode(dnsEntries));
+        } else {
+            JsonFileDnsEntryEntity entity = new JsonFileDnsEntryEntity();
+            entity.setDnsEntries(dnsEntries);
+            serialised = timedSerialisation("serialise", () -> mapper.writeValueAsBytes(entity));
+        }
+        File file = snapshotFileFor(snapshotFormat);
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try(FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(serialised);
+            out.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    byte[] encode(JournalRecord record) throws IOException {
+        byte[] json = timedSerialisation("serialise", () -> mapper.writeValueAsBytes(record));
+        byte[] line = Arrays.copyOf(json, json.length + 1);
+        line[json.length] = '\n';
+        return line;
+    }
+    
+    static void await(CompletableFuture<Void> committed) throws IOException {
+        try {
+            committed.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the log to be written");
+        } catch(ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException)ex.getCause() : new IOException(ex.getCause());
+        }
+    }
+
+    @Override
+    protected void storeDnsEntry(DnsEntry dnsEntry) throws IOException {
+        CompletableFuture<Void> committed;
+        synchronized(this) {
+            WriteAheadLog writer = writer();
+            if(!putDnsEntry(dnsEntry)) {
+                return;
+            }
+            committed = writer.append(encode(new JournalRecord(JournalRecord.Operation.PUT, dnsEntry)));
+        }
+        await(committed);
+        writes.incrementAndGet();
+    }
+    
+    /**
+     * Written as one log record so a crash never leaves half a batch.
+     */
+    @Override
+    protected void storeDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException {
+        CompletableFuture<Void> committed;
+        synchronized(this) {
+            WriteAheadLog writer = writer();
+            List<DnsEntry> changed = new ArrayList<>();
+            dnsEntries.stream().filter(this::putDnsEntry).forEach(changed::add);
+            if(changed.isEmpty()) {
+                return;
+            }
+            committed = writer.append(encode(new JournalRecord(JournalRecord.Operation.PUT_ALL, null, changed)));
+        }
+        await(committed);
+        writes.incrementAndGet();
+    }
+    
+    @Override
+    protected List<DnsEntry> discardDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException {
+        CompletableFuture<Void> committed;
+        List<DnsEntry> removed;
+        synchronized(this) {
+            WriteAheadLog writer = writer();
+            removed = removeUnchangedDnsEntries(dnsEntries);
+            if(removed.isEmpty()) {
+                return removed;
+            }
+            committed = writer.append(encode(new JournalRecord(JournalRecord.Operation.REMOVE_ALL, null, removed)));
+        }
+        await(committed);
+        writes.incrementAndGet();
+        return removed;
+    }
+
+    @Override
+    public StorageStatistics getStatistics() {
+        StorageStatistics statistics = super.getStatistics();
+        statistics.setReloads(reloads.get());
+        statistics.setWrites(writes.get());
+        statistics.setCompactions(compactions.get());
+        return statistics;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of the write-ahead log.
+ *
+ * @author Chris
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class JournalRecord {
+    
+    public enum Operation {
+        PUT,
+        PUT_ALL,
+        REMOVE_ALL
+    }
+    
+    Operation operation;
+    DnsEntry dnsEntry;
+    List<DnsEntry> dnsEntries;
+    
+    public JournalRecord(Operation operation, DnsEntry dnsEntry) {
+        this(operation, dnsEntry, null);
+    }
+}
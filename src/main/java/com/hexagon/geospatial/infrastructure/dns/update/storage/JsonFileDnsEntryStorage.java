@@ -18,76 +18,295 @@ package com.hexagon.geospatial.infrastructure.dns.update.storage;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.StorageStatistics;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 /**
+ * Keeps the parsed file in memory. The file is only re-read when it is
+ * changed by someone else, detected either by a WatchService on its
+ * directory or, with {@code json.storage.watch=false}, by comparing its
+ * modification time and size on each access.
+ * 
+ * The file is written by a single persistence thread. Registrations that
+ * arrive while a write is in progress all wait on the next write, so a
+ * burst costs two file writes rather than one per registration.
  *
  * @author Chris
  */
 @Service
-public class JsonFileDnsEntryStorage implements DnsEntryStorage {
+@ConditionalOnProperty(name = "storage.type", havingValue = "json", matchIfMissing = true)
+public class JsonFileDnsEntryStorage extends AbstractDnsEntryStorage {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(JsonFileDnsEntryStorage.class);
 
     @Value("${json.storage.file:dnsEntries.json}")
     File jsonStorageFile;
     
-    long jsonStorageFileLastModified;
-    Map<String, DnsEntry> dnsEntries;
+    @Value("${json.storage.watch:true}")
+    boolean watchStorageFile;
+    
+    volatile long jsonStorageFileLastModified;
+    volatile long jsonStorageFileLength;
+    volatile boolean loaded;
+    volatile boolean externallyModified;
+    volatile long flushedGeneration;
+    volatile boolean detached;
+    final Object flushLock;
+    CompletableFuture<Void> pendingFlush;
+    ExecutorService persistenceWriter;
+    WatchService watchService;
+    AtomicLong cacheHits;
+    AtomicLong reloads;
+    AtomicLong writes;
+    
     ObjectMapper mapper;
   
     public JsonFileDnsEntryStorage() {
         jsonStorageFileLastModified = -1;
-        dnsEntries = new HashMap<>();
+        jsonStorageFileLength = -1;
+        cacheHits = new AtomicLong();
+        reloads = new AtomicLong();
+        writes = new AtomicLong();
+        flushLock = new Object();
+        persistenceWriter = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "json-storage-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
         mapper = new ObjectMapper();
         mapper.enable(SerializationFeature.INDENT_OUTPUT);
         mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
     }
     
-    public void readDnsEntriesFromFile() throws IOException {
-        dnsEntries.clear();
-        if(jsonStorageFile.exists()) {
-            JsonFileDnsEntryEntity entity = mapper.readValue(jsonStorageFile, JsonFileDnsEntryEntity.class);
-            entity.getDnsEntries().stream().forEach((dnsEntry) -> {
-                dnsEntries.put(dnsEntry.getFqdn(), dnsEntry);
-            });
+    @PostConstruct
+    public void postConstruct() {
+        if(!watchStorageFile) {
+            return;
         }
+        Path directory = jsonStorageFile.getAbsoluteFile().getParentFile().toPath();
+        Path fileName = jsonStorageFile.toPath().getFileName();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, 
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch(IOException ex) {
+            LOGGER.warn(String.format("Unable to watch %s, falling back to checking it on every access", directory), ex);
+            watchService = null;
+            return;
+        }
+        Thread watcher = new Thread(() -> watchStorageFile(fileName), "json-storage-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
     }
     
-    public List<DnsEntry> getDnsEnrtiesAsList() {
-        List<DnsEntry> dnsEntriesList = new ArrayList<>();
-        dnsEntries.entrySet().stream().forEach((entry) -> {
-            dnsEntriesList.add(entry.getValue());
-        });
-        return dnsEntriesList;
+    void watchStorageFile(Path fileName) {
+        try {
+            while(true) {
+                WatchKey key = watchService.take();
+                boolean ours = key.pollEvents().stream()
+                        .anyMatch((event) -> event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()));
+                if(ours) {
+                    synchronized(this) {
+                        externallyModified = externallyModified || storageFileChanged();
+                    }
+                }
+                key.reset();
+            }
+        } catch(InterruptedException | ClosedWatchServiceException ex) {
+            // shutting down
+        }
+    }
+    
+    @PreDestroy
+    public void preDestroy() throws IOException {
+        persistenceWriter.shutdown();
+        if(watchService != null) {
+            watchService.close();
+        }
+    }
+    
+    boolean storageFileChanged() {
+        return jsonStorageFileLastModified != jsonStorageFile.lastModified() 
+                || jsonStorageFileLength != jsonStorageFile.length();
+    }
+    
+    void recordStorageFileState() {
+        jsonStorageFileLastModified = jsonStorageFile.lastModified();
+        jsonStorageFileLength = jsonStorageFile.length();
+    }
+    
+    boolean stale() {
+        return !loaded || (watchService != null ? externallyModified : storageFileChanged());
     }
     
-    public void writeDnsEntriesToFile() throws IOException {
+    @Override
+    protected void ensureLoaded() throws IOException {
+        if(!stale()) {
+            cacheHits.incrementAndGet();
+            return;
+        }
+        synchronized(this) {
+            if(stale()) {
+                readDnsEntriesFromFile();
+            }
+        }
+    }
+    
+    /**
+     * Entries changed in memory but not yet written are kept over what is
+     * in the file, and written back out on top of it.
+     */
+    public synchronized void readDnsEntriesFromFile() throws IOException {
+        externallyModified = false;
+        reloads.incrementAndGet();
+        List<DnsEntry> fromFile = jsonStorageFile.exists() 
+                ? timedSerialisation("deserialise", () -> mapper.readValue(jsonStorageFile, JsonFileDnsEntryEntity.class)).getDnsEntries() 
+                : Collections.emptyList();
+        int unflushed = replaceDnsEntries(fromFile, flushedGeneration);
+        recordStorageFileState();
+        loaded = true;
+        if(unflushed == 0) {
+            flushedGeneration = generation;
+        } else {
+            requestFlush();
+        }
+    }
+    
+    @Override
+    public void reload() throws IOException {
+        detached = false;
+        readDnsEntriesFromFile();
+    }
+    
+    /**
+     * Waits for a write in progress, then fails every later one. Changes not
+     * yet written are given up rather than kept over the file when it is
+     * next read.
+     */
+    @Override
+    public synchronized void detach() {
+        detached = true;
+        flushedGeneration = generation;
+        LOGGER.info(String.format("Stopped writing %s", jsonStorageFile));
+    }
+    
+    void ensureWritable() throws IOException {
+        if(detached) {
+            throw new IOException(String.format("%s is only read by a standby instance", jsonStorageFile));
+        }
+    }
+    
+    public synchronized void writeDnsEntriesToFile() throws IOException {
+        ensureWritable();
+        long writtenGeneration = generation;
         JsonFileDnsEntryEntity entity = new JsonFileDnsEntryEntity();
         entity.setDnsEntries(getDnsEnrtiesAsList());
-        mapper.writeValue(jsonStorageFile, entity);
+        timedSerialisation("serialise", () -> {
+            mapper.writeValue(jsonStorageFile, entity);
+            return null;
+        });
+        writes.incrementAndGet();
+        recordStorageFileState();
+        flushedGeneration = writtenGeneration;
+    }
+    
+    /**
+     * @return completes once a write that started after this call has
+     * finished
+     */
+    CompletableFuture<Void> requestFlush() {
+        synchronized(flushLock) {
+            if(pendingFlush == null) {
+                pendingFlush = new CompletableFuture<>();
+                persistenceWriter.execute(this::flush);
+            }
+            return pendingFlush;
+        }
+    }
+    
+    void flush() {
+        CompletableFuture<Void> flushing;
+        synchronized(flushLock) {
+            flushing = pendingFlush;
+            pendingFlush = null;
+        }
+        try {
+            writeDnsEntriesToFile();
+            flushing.complete(null);
+        } catch(IOException | RuntimeException ex) {
+            flushing.completeExceptionally(ex);
+        }
+    }
+    
+    static void await(CompletableFuture<Void> flushed) throws IOException {
+        try {
+            flushed.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the storage file to be written");
+        } catch(ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException)ex.getCause() : new IOException(ex.getCause());
+        }
+    }
+    
+    @Override
+    protected void storeDnsEntry(DnsEntry dnsEntry) throws IOException {
+        ensureWritable();
+        ensureLoaded();
+        if(putDnsEntry(dnsEntry)) {
+            await(requestFlush());
+        }
     }
     
     @Override
-    public List<DnsEntry> listAllDnsEnrties() throws IOException {
-        if(jsonStorageFileLastModified != jsonStorageFile.lastModified()) {
-            readDnsEntriesFromFile();
+    protected void storeDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException {
+        ensureWritable();
+        ensureLoaded();
+        if(dnsEntries.stream().filter(this::putDnsEntry).count() > 0) {
+            await(requestFlush());
         }
-        return getDnsEnrtiesAsList();
     }
 
     @Override
-    public void addDnsEntry(DnsEntry dnsEntry) throws IOException {
-        if(jsonStorageFileLastModified != jsonStorageFile.lastModified()) {
-            readDnsEntriesFromFile();
+    protected List<DnsEntry> discardDnsEntries(Collection<DnsEntry> dnsEntries) throws IOException {
+        ensureWritable();
+        ensureLoaded();
+        List<DnsEntry> removed = removeUnchangedDnsEntries(dnsEntries);
+        if(!removed.isEmpty()) {
+            await(requestFlush());
         }
-        dnsEntries.put(dnsEntry.getFqdn(), dnsEntry);
-        writeDnsEntriesToFile();
+        return removed;
+    }
+
+    @Override
+    public StorageStatistics getStatistics() {
+        StorageStatistics statistics = super.getStatistics();
+        statistics.setCacheHits(cacheHits.get());
+        statistics.setReloads(reloads.get());
+        statistics.setWrites(writes.get());
+        return statistics;
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Expires leased registrations. An entry registered with a lease is removed
+ * from storage once that many seconds pass without it being registered
+ * again, and the removal reaches DNS like any other change.
+ * 
+ * Deadlines are kept in a {@link TimerWheel} rather than found by scanning,
+ * and only in memory: after a restart every leased entry starts a fresh
+ * lease, so a restart can lengthen a lease but never cut one short.
+ *
+ * @author Chris
+ */
+@Component
+public class LeaseTracker {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(LeaseTracker.class);
+    
+    @Autowired
+    DnsEntryStorage dnsEntriesStorage;
+    
+    @Value("${dns.lease.tick.millis:1000}")
+    long tickMillis;
+    
+    @Value("${dns.lease.expiry.batch.size:500}")
+    int batchSize;
+    
+    @Value("${dns.lease.expiry.retry.millis:30000}")
+    long retryMillis;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    TimerWheel<String> wheel;
+    
+    @PostConstruct
+    public void postConstruct() throws IOException {
+        reload();
+    }
+    
+    /**
+     * Forgets every deadline and starts a fresh lease for each leased entry
+     * in storage, as after a restart.
+     */
+    public synchronized void reload() throws IOException {
+        long now = Instant.now().toEpochMilli();
+        wheel = new TimerWheel<>(tickMillis, now);
+        renew(dnsEntriesStorage.listAllDnsEnrties(), now);
+        if(size() > 0) {
+            LOGGER.info(String.format("Started a fresh lease for %d leased entries", size()));
+        }
+    }
+    
+    /**
+     * Starts the entry's lease again from {@code now}, or stops tracking it
+     * if it no longer has one. Called before the entry is stored, so an
+     * expiry running at the same time either sees the renewal or removes
+     * the old value before the new one is written.
+     */
+    public synchronized void renew(DnsEntry dnsEntry, long now) {
+        if(dnsEntry.getLease() > 0) {
+            wheel.schedule(dnsEntry.getFqdn(), now + dnsEntry.getLease() * 1000);
+        } else {
+            wheel.cancel(dnsEntry.getFqdn());
+        }
+    }
+    
+    /**
+     * Stops tracking an entry that is about to be removed.
+     */
+    public synchronized void cancel(String fqdn) {
+        wheel.cancel(fqdn);
+    }
+    
+    public synchronized void renew(Collection<DnsEntry> dnsEntries, long now) {
+        dnsEntries.stream().forEach((dnsEntry) -> renew(dnsEntry, now));
+    }
+    
+    public synchronized int size() {
+        return wheel.size();
+    }
+    
+    /**
+     * Removes the entries whose lease ran out by {@code now}, with one
+     * storage write per batch of {@code dns.lease.expiry.batch.size}. A batch
+     * that cannot be written is tried again after
+     * {@code dns.lease.expiry.retry.millis}.
+     * 
+     * @return the number of entries removed
+     */
+    public synchronized int expire(long now) throws IOException {
+        List<String> due = wheel.advance(now);
+        if(due.isEmpty()) {
+            return 0;
+        }
+        List<DnsEntry> leased = new ArrayList<>();
+        for(String fqdn : due) {
+            DnsEntry dnsEntry = dnsEntriesStorage.getDnsEntry(fqdn);
+            if(dnsEntry != null && dnsEntry.getLease() > 0) {
+                leased.add(dnsEntry);
+            }
+        }
+        
+        int removed = 0;
+        for(int start = 0; start < leased.size(); start += batchSize) {
+            List<DnsEntry> batch = leased.subList(start, Math.min(start + batchSize, leased.size()));
+            try {
+                removed += dnsEntriesStorage.removeDnsEntries(batch).size();
+            } catch(IOException ex) {
+                LOGGER.error(String.format("Unable to remove %d expired entries, trying again in %d ms", batch.size(), retryMillis), ex);
+                batch.stream().forEach((dnsEntry) -> wheel.schedule(dnsEntry.getFqdn(), now + retryMillis));
+            }
+        }
+        if(removed > 0) {
+            meterRegistry.counter("dns.lease.expired").increment(removed);
+            LOGGER.info(String.format("Removed %d entries whose lease expired", removed));
+        }
+        return removed;
+    }
+}
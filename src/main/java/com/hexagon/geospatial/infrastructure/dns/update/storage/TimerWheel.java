@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hierarchical timing wheel. Scheduling, rescheduling and cancelling take
+ * constant time, and advancing only visits the slots the clock passes, so
+ * the cost of expiry follows the number of timers that fire rather than the
+ * number held.
+ * 
+ * Level 0 has a slot per tick and each level above spans 64 times the one
+ * below. A timer waits in the lowest level that reaches its deadline and is
+ * cascaded down a level each time the clock reaches its slot.
+ * 
+ * Not thread safe.
+ *
+ * @author Chris
+ */
+public class TimerWheel<K> {
+    
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int SLOT_MASK = SLOTS - 1;
+    static final int LEVELS = 6;
+    static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+    
+    static class Timer<K> {
+        final long deadlineTick;
+        Set<K> slot;
+        
+        Timer(long deadlineTick) {
+            this.deadlineTick = deadlineTick;
+        }
+    }
+    
+    final long tickMillis;
+    final List<List<Set<K>>> levels;
+    final Map<K, Timer<K>> timers;
+    final Set<K> overdue;
+    long currentTick;
+    
+    public TimerWheel(long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.levels = new ArrayList<>(LEVELS);
+        for(int level = 0; level < LEVELS; level++) {
+            List<Set<K>> slots = new ArrayList<>(SLOTS);
+            for(int slot = 0; slot < SLOTS; slot++) {
+                slots.add(new LinkedHashSet<>());
+            }
+            levels.add(slots);
+        }
+        this.timers = new HashMap<>();
+        this.overdue = new LinkedHashSet<>();
+        this.currentTick = now / tickMillis;
+    }
+    
+    /**
+     * Sets the key to fire at the first tick at or after {@code deadline},
+     * replacing any deadline it had.
+     */
+    public void schedule(K key, long deadline) {
+        cancel(key);
+        Timer<K> timer = new Timer<>((deadline + tickMillis - 1) / tickMillis);
+        timers.put(key, timer);
+        if(timer.deadlineTick <= currentTick) {
+            timer.slot = overdue;
+            overdue.add(key);
+        } else {
+            place(key, timer);
+        }
+    }
+    
+    /**
+     * @return true if the key was scheduled
+     */
+    public boolean cancel(K key) {
+        Timer<K> timer = timers.remove(key);
+        if(timer == null) {
+            return false;
+        }
+        timer.slot.remove(key);
+        return true;
+    }
+    
+    public boolean contains(K key) {
+        return timers.containsKey(key);
+    }
+    
+    public int size() {
+        return timers.size();
+    }
+    
+    void place(K key, Timer<K> timer) {
+        // beyond the top level's span a timer waits in its furthest slot and
+        // is placed again when that slot is cascaded
+        long tick = Math.min(timer.deadlineTick, currentTick + SPAN - 1);
+        long delta = tick - currentTick;
+        int level = 0;
+        while(level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        timer.slot = levels.get(level).get((int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+        timer.slot.add(key);
+    }
+    
+    /**
+     * Moves the clock to {@code now}.
+     * 
+     * @return the keys whose deadline has passed, in deadline order. They are
+     * no longer scheduled.
+     */
+    public List<K> advance(long now) {
+        List<K> expired = new ArrayList<>(overdue);
+        overdue.clear();
+        expired.stream().forEach(timers::remove);
+        long targetTick = now / tickMillis;
+        if(timers.isEmpty()) {
+            currentTick = Math.max(currentTick, targetTick);
+            return expired;
+        }
+        while(currentTick < targetTick) {
+            currentTick++;
+            for(int level = LEVELS - 1; level > 0; level--) {
+                if((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            Set<K> slot = levels.get(0).get((int)(currentTick & SLOT_MASK));
+            slot.stream().forEach((key) -> {
+                timers.remove(key);
+                expired.add(key);
+            });
+            slot.clear();
+        }
+        return expired;
+    }
+    
+    void cascade(int level) {
+        Set<K> slot = levels.get(level).get((int)((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+        List<K> keys = new ArrayList<>(slot);
+        slot.clear();
+        keys.stream().forEach((key) -> place(key, timers.get(key)));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends records to a log file from a single writer thread. Records queued
+ * while a force is in progress are written and forced together, so many
+ * concurrent appends share one fsync.
+ *
+ * @author Chris
+ */
+public class WriteAheadLog implements Closeable {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+    
+    static final byte[] CLOSE = new byte[0];
+    
+    /**
+     * Runs on the writer thread between group commits, when nothing is
+     * half-written. Returning true truncates the log.
+     */
+    public interface Compactor {
+        boolean compact(long logRecords) throws IOException;
+    }
+    
+    static class PendingRecord {
+        final byte[] data;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+        
+        PendingRecord(byte[] data) {
+            this.data = data;
+        }
+    }
+    
+    final FileChannel channel;
+    final BlockingQueue<PendingRecord> queue;
+    final int maxGroupSize;
+    final Compactor compactor;
+    final Thread writer;
+    long logRecords;
+    long groupCommits;
+    
+    public WriteAheadLog(Path logFile, long existingRecords, int maxGroupSize, Compactor compactor) throws IOException {
+        this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.queue = new LinkedBlockingQueue<>();
+        this.maxGroupSize = maxGroupSize;
+        this.compactor = compactor;
+        this.logRecords = existingRecords;
+        this.writer = new Thread(this::writeLoop, "write-ahead-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+    
+    public CompletableFuture<Void> append(byte[] record) {
+        PendingRecord pending = new PendingRecord(record);
+        queue.add(pending);
+        return pending.committed;
+    }
+    
+    public synchronized long getGroupCommits() {
+        return groupCommits;
+    }
+    
+    void writeLoop() {
+        List<PendingRecord> group = new ArrayList<>();
+        while(true) {
+            try {
+                group.add(queue.take());
+                queue.drainTo(group, maxGroupSize - 1);
+                boolean closing = group.removeIf((pending) -> pending.data == CLOSE);
+                commit(group);
+                group.clear();
+                if(closing) {
+                    return;
+                }
+            } catch(InterruptedException ex) {
+                return;
+            }
+        }
+    }
+    
+    void commit(List<PendingRecord> group) {
+        try {
+            if(!group.isEmpty()) {
+                ByteBuffer[] buffers = group.stream().map((pending) -> ByteBuffer.wrap(pending.data)).toArray(ByteBuffer[]::new);
+                while(buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(false);
+                synchronized(this) {
+                    logRecords += group.size();
+                    groupCommits++;
+                }
+            }
+            group.stream().forEach((pending) -> pending.committed.complete(null));
+        } catch(IOException ex) {
+            group.stream().forEach((pending) -> pending.committed.completeExceptionally(ex));
+            return;
+        }
+        try {
+            if(compactor.compact(logRecords)) {
+                channel.truncate(0);
+                channel.force(true);
+                synchronized(this) {
+                    logRecords = 0;
+                }
+            }
+        } catch(IOException ex) {
+            LOGGER.error("Compaction failed, the log will keep growing until the next attempt", ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        append(CLOSE);
+        try {
+            writer.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
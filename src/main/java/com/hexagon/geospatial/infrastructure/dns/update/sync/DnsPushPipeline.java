@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsBatchResult;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Splits a push into slices and applies them concurrently. At most
+ * {@code dns.push.max.in.flight} slices are outstanding per server;
+ * submitting more blocks the caller until one completes. Each slice must
+ * finish within {@code dns.push.timeout.millis} or all of its entries are
+ * reported as failed.
+ * 
+ * Servers never share threads or in-flight permits, so a slow server only
+ * holds up its own pushes.
+ *
+ * @author Chris
+ */
+@Component
+public class DnsPushPipeline {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(DnsPushPipeline.class);
+    
+    @Autowired
+    DnsClient dnsClient;
+    
+    @Value("${dns.push.threads:8}")
+    int threads;
+    
+    @Value("${dns.push.virtual.threads:true}")
+    boolean useVirtualThreads;
+    
+    @Value("${dns.push.slice.size:250}")
+    int sliceSize;
+    
+    @Value("${dns.push.max.in.flight:16}")
+    int maxInFlight;
+    
+    @Value("${dns.push.timeout.millis:60000}")
+    long timeoutMillis;
+    
+    ExecutorService virtualThreadExecutor;
+    ConcurrentMap<String, ExecutorService> executors;
+    ConcurrentMap<String, Semaphore> inFlight;
+    
+    @PostConstruct
+    public void postConstruct() {
+        executors = new ConcurrentHashMap<>();
+        inFlight = new ConcurrentHashMap<>();
+        virtualThreadExecutor = useVirtualThreads ? newVirtualThreadExecutor() : null;
+    }
+    
+    ExecutorService executorFor(String server) {
+        if(virtualThreadExecutor != null) {
+            return virtualThreadExecutor;
+        }
+        return executors.computeIfAbsent(server, (key) -> {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadFactory threadFactory = (runnable) -> {
+                Thread thread = new Thread(runnable, String.format("dns-push-%s-%d", key, threadNumber.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            };
+            return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, 
+                    new ArrayBlockingQueue<>(maxInFlight), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        });
+    }
+    
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOGGER.info("Pushing DNS updates on virtual threads");
+            return executor;
+        } catch(ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+    
+    @PreDestroy
+    public void preDestroy() {
+        if(virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdownNow();
+        }
+        executors.values().stream().forEach(ExecutorService::shutdownNow);
+    }
+    
+    public DnsBatchResult push(String server, List<DnsEntry> dnsEntries) {
+        return dispatch(server, dnsEntries, dnsClient::applyBatch);
+    }
+    
+    /**
+     * Deletes retired values from the server, sliced and bounded the same
+     * way as a push.
+     */
+    public DnsBatchResult delete(String server, List<DnsEntry> dnsEntries) {
+        return dispatch(server, dnsEntries, dnsClient::deleteBatch);
+    }
+    
+    DnsBatchResult dispatch(String server, List<DnsEntry> dnsEntries, BiFunction<String, List<DnsEntry>, DnsBatchResult> operation) {
+        ExecutorService executor = executorFor(server);
+        Semaphore serverInFlight = inFlight.computeIfAbsent(server, (key) -> new Semaphore(maxInFlight));
+        List<List<DnsEntry>> slices = new ArrayList<>();
+        List<Future<DnsBatchResult>> futures = new ArrayList<>();
+        List<Long> deadlines = new ArrayList<>();
+        DnsBatchResult result = new DnsBatchResult();
+        
+        for(int start = 0; start < dnsEntries.size(); start += sliceSize) {
+            List<DnsEntry> slice = dnsEntries.subList(start, Math.min(start + sliceSize, dnsEntries.size()));
+            try {
+                serverInFlight.acquire();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(slice, ex, result);
+                continue;
+            }
+            slices.add(slice);
+            deadlines.add(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            futures.add(executor.submit(() -> {
+                try {
+                    return operation.apply(server, slice);
+                } finally {
+                    serverInFlight.release();
+                }
+            }));
+        }
+        
+        for(int i = 0; i < futures.size(); i++) {
+            try {
+                long remaining = Math.max(0, deadlines.get(i) - System.nanoTime());
+                DnsBatchResult sliceResult = futures.get(i).get(remaining, TimeUnit.NANOSECONDS);
+                result.getSucceeded().addAll(sliceResult.getSucceeded());
+                result.getFailed().putAll(sliceResult.getFailed());
+            } catch(TimeoutException ex) {
+                LOGGER.error(String.format("Update of %d entries to %s did not finish within %d ms", slices.get(i).size(), server, timeoutMillis));
+                futures.get(i).cancel(true);
+                fail(slices.get(i), ex, result);
+            } catch(ExecutionException ex) {
+                fail(slices.get(i), ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex, result);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail(slices.get(i), ex, result);
+            }
+        }
+        return result;
+    }
+    
+    static void fail(List<DnsEntry> slice, Exception ex, DnsBatchResult result) {
+        slice.stream().forEach((dnsEntry) -> result.getFailed().put(dnsEntry, ex));
+    }
+}
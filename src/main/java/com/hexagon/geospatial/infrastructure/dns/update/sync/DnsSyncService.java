@@ -0,0 +1,321 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryStatus;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DriftReport;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.SyncStatistics;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Pushes only the entries that changed since the last successful push, to
+ * every authoritative server the {@link DnsClient} knows about. Each server
+ * is a {@link ServerSync} with its own cursor, pushed-state cache and
+ * {@link RetryQueue}, run on its own thread so a slow or unreachable server
+ * does not delay the others. Changes are pushed when the
+ * {@link SyncCoordinator} signals them, and everything is reconsidered once
+ * per {@code dns.update.millis}, but a value identical to the one last pushed
+ * is only sent again after {@code dns.push.reassert.millis}. With
+ * {@code dns.reconcile.transfer} the full sync instead transfers each zone
+ * and pushes only what differs, see {@link ZoneReconciler}, which needs a
+ * {@link DnsClient} that can transfer zones.
+ *
+ * @author Chris
+ */
+@Service
+public class DnsSyncService {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(DnsSyncService.class);
+    
+    @Autowired
+    DnsEntryStorage dnsEntriesStorage;
+    
+    @Autowired
+    DnsPushPipeline pushPipeline;
+    
+    @Autowired
+    DnsClient dnsClient;
+    
+    @Autowired
+    ZoneReconciler zoneReconciler;
+    
+    @Value("${dns.reconcile.transfer:false}")
+    boolean reconcileByTransfer;
+    
+    @Value("${dns.update.millis:600000}")
+    long dnsUpdatePeriod;
+    
+    @Value("${dns.push.reassert.millis:3600000}")
+    long dnsReassertPeriod;
+    
+    @Value("${dns.retry.initial.millis:5000}")
+    long retryInitialDelayMillis;
+    
+    @Value("${dns.retry.max.millis:600000}")
+    long retryMaxDelayMillis;
+    
+    @Value("${dns.retry.file:dnsRetries.json}")
+    File retryFile;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    Executor syncExecutor;
+    Map<String, ServerSync> serverSyncs;
+    
+    @PostConstruct
+    public void postConstruct() {
+        if(reconcileByTransfer && !dnsClient.supportsZoneTransfer()) {
+            throw new IllegalStateException(String.format("dns.reconcile.transfer needs a client that can transfer zones, such as dns.client=rfc2136, not %s", 
+                    dnsClient.getClass().getSimpleName()));
+        }
+        if(syncExecutor == null) {
+            syncExecutor = Executors.newCachedThreadPool((runnable) -> {
+                Thread thread = new Thread(runnable, "dns-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        List<String> servers = dnsClient.getServers();
+        serverSyncs = new LinkedHashMap<>();
+        for(String server : servers) {
+            RetryQueue retryQueue = new RetryQueue(retryInitialDelayMillis, retryMaxDelayMillis, 
+                    servers.size() == 1 ? retryFile : retryFileFor(retryFile, server));
+            retryQueue.load();
+            serverSyncs.put(server, new ServerSync(server, dnsEntriesStorage, pushPipeline, meterRegistry, 
+                    dnsUpdatePeriod, new PushedStateCache(dnsReassertPeriod), retryQueue, 
+                    reconcileByTransfer ? zoneReconciler : null));
+        }
+    }
+    
+    /**
+     * dnsRetries.json becomes dnsRetries-ns1.example.com.json, so each
+     * server's backoff survives a restart without mixing with the others.
+     */
+    static File retryFileFor(File retryFile, String server) {
+        if(retryFile == null) {
+            return null;
+        }
+        String name = retryFile.getName();
+        int extension = name.lastIndexOf('.');
+        String suffix = "-" + server.replaceAll("[^A-Za-z0-9._-]", "_");
+        name = extension > 0 ? name.substring(0, extension) + suffix + name.substring(extension) : name + suffix;
+        return new File(retryFile.getParentFile(), name);
+    }
+    
+    @PreDestroy
+    public void preDestroy() {
+        if(syncExecutor instanceof ExecutorService) {
+            ((ExecutorService)syncExecutor).shutdownNow();
+        }
+    }
+    
+    /**
+     * For an instance taking over from another: reloads each server's
+     * retries so the next {@link #sync()} starts where that instance left
+     * off.
+     */
+    public void reload() {
+        serverSyncs.values().stream().forEach(ServerSync::reload);
+    }
+    
+    public Collection<ServerSync> getServerSyncs() {
+        return serverSyncs.values();
+    }
+    
+    /**
+     * Reconciles every server: pushes what changed, and everything once a
+     * full sync is due. A server still busy with the previous sync is
+     * skipped, it is reconciled on the next run.
+     */
+    public void sync() {
+        pruneRetiredEntries();
+        serverSyncs.values().stream().forEach((serverSync) -> 
+                dispatch(serverSync, serverSync.syncQueued, null, () -> serverSync.sync(true)));
+    }
+    
+    /**
+     * Pushes what changed to every server. A server still busy with the
+     * previous sync runs again as soon as it finishes, so no change waits for
+     * the next reconciliation.
+     */
+    public void syncChanges() {
+        pruneRetiredEntries();
+        serverSyncs.values().stream().forEach((serverSync) -> 
+                dispatch(serverSync, serverSync.syncQueued, serverSync.syncRequested, () -> serverSync.sync(false)));
+    }
+    
+    /**
+     * Retired values every server has caught up with need not be kept any
+     * longer.
+     */
+    void pruneRetiredEntries() {
+        serverSyncs.values().stream()
+                .mapToLong(ServerSync::getLastPushedGeneration)
+                .min()
+                .ifPresent(dnsEntriesStorage::pruneRetiredUpTo);
+    }
+    
+    /**
+     * Pushes each server's failed entries whose backoff has expired,
+     * independently of the sync schedule.
+     */
+    public void retry() {
+        serverSyncs.values().stream().forEach((serverSync) -> 
+                dispatch(serverSync, serverSync.retryQueued, null, serverSync::retry));
+    }
+    
+    interface SyncTask {
+        void run() throws IOException;
+    }
+    
+    /**
+     * Runs the task on the server's thread unless it is already queued or
+     * running. Then, with {@code requested}, the task runs once more after
+     * it; without, it is skipped.
+     */
+    void dispatch(ServerSync serverSync, AtomicBoolean queued, AtomicBoolean requested, SyncTask task) {
+        if(!queued.compareAndSet(false, true)) {
+            if(requested != null) {
+                requested.set(true);
+            }
+            return;
+        }
+        syncExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch(IOException | RuntimeException ex) {
+                LOGGER.error(String.format("Sync to %s failed", serverSync.getServer()), ex);
+            } finally {
+                queued.set(false);
+                if(requested != null && requested.getAndSet(false)) {
+                    dispatch(serverSync, queued, requested, task);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Compares every server's zones with the stored entries without pushing
+     * anything.
+     */
+    public List<DriftReport> reportDrift() throws IOException {
+        List<DnsEntry> dnsEntries = dnsEntriesStorage.listAllDnsEnrties();
+        List<DriftReport> reports = new ArrayList<>();
+        serverSyncs.keySet().stream().forEach((server) -> reports.add(zoneReconciler.reconcile(server, dnsEntries)));
+        return reports;
+    }
+    
+    public SyncStatistics getStatistics() {
+        SyncStatistics total = new SyncStatistics();
+        Map<String, SyncStatistics> servers = new LinkedHashMap<>();
+        long lastSuccessfulSyncTime = Long.MAX_VALUE;
+        for(ServerSync serverSync : serverSyncs.values()) {
+            SyncStatistics statistics = serverSync.getStatistics();
+            servers.put(serverSync.getServer(), statistics);
+            if(statistics.getLastSyncTime() >= total.getLastSyncTime()) {
+                total.setLastSyncTime(statistics.getLastSyncTime());
+                total.setLastSyncFull(statistics.isLastSyncFull());
+                total.setLastSyncDurationMillis(statistics.getLastSyncDurationMillis());
+            }
+            total.setLastDirtySetSize(Math.max(total.getLastDirtySetSize(), statistics.getLastDirtySetSize()));
+            total.setLastFailedCount(total.getLastFailedCount() + statistics.getLastFailedCount());
+            total.setLastSkippedCount(total.getLastSkippedCount() + statistics.getLastSkippedCount());
+            total.setLastFullSyncTime(Math.max(total.getLastFullSyncTime(), statistics.getLastFullSyncTime()));
+            lastSuccessfulSyncTime = Math.min(lastSuccessfulSyncTime, serverSync.getLastSuccessfulSyncTime());
+            total.setTotalSyncs(total.getTotalSyncs() + statistics.getTotalSyncs());
+            total.setTotalFullSyncs(total.getTotalFullSyncs() + statistics.getTotalFullSyncs());
+            total.setTotalRetryRuns(total.getTotalRetryRuns() + statistics.getTotalRetryRuns());
+            total.setTotalEntriesPushed(total.getTotalEntriesPushed() + statistics.getTotalEntriesPushed());
+            total.setTotalEntriesDeleted(total.getTotalEntriesDeleted() + statistics.getTotalEntriesDeleted());
+            total.setTotalEntriesSkipped(total.getTotalEntriesSkipped() + statistics.getTotalEntriesSkipped());
+            total.setTotalFailures(total.getTotalFailures() + statistics.getTotalFailures());
+            total.setPendingRetries(total.getPendingRetries() + statistics.getPendingRetries());
+            total.setPushedStateCacheSize(total.getPushedStateCacheSize() + statistics.getPushedStateCacheSize());
+        }
+        // the generation every server has caught up to
+        total.setLastPushedGeneration(servers.values().stream()
+                .mapToLong(SyncStatistics::getLastPushedGeneration).min().orElse(0));
+        total.setLastSuccessfulSyncTime(serverSyncs.isEmpty() ? 0 : lastSuccessfulSyncTime);
+        total.setServers(servers);
+        return total;
+    }
+    
+    public DnsEntryStatus getStatus(DnsEntry stored) {
+        DnsEntryStatus status = new DnsEntryStatus();
+        status.setFqdn(stored.getFqdn());
+        status.setDnsEntry(stored);
+        List<DnsEntryStatus.ServerStatus> servers = new ArrayList<>();
+        serverSyncs.values().stream().forEach((serverSync) -> servers.add(serverSync.getStatus(stored)));
+        status.setServers(servers);
+        
+        status.setState(DnsEntryStatus.State.PUSHED);
+        long lastPushedTime = 0;
+        for(DnsEntryStatus.ServerStatus server : servers) {
+            if(server.getState() == DnsEntryStatus.State.RETRYING) {
+                if(status.getRetry() == null || server.getRetry().getAttempts() > status.getRetry().getAttempts()) {
+                    status.setRetry(server.getRetry());
+                }
+                status.setState(DnsEntryStatus.State.RETRYING);
+            } else if(server.getState() == DnsEntryStatus.State.PENDING && status.getState() == DnsEntryStatus.State.PUSHED) {
+                status.setState(DnsEntryStatus.State.PENDING);
+            }
+            lastPushedTime = Math.max(lastPushedTime, server.getLastPushedTime());
+        }
+        status.setLastPushedTime(status.getState() == DnsEntryStatus.State.PUSHED ? lastPushedTime : 0);
+        return status;
+    }
+    
+    /**
+     * @return when every server was last fully caught up
+     */
+    public long getLastSuccessfulSyncTime() {
+        return serverSyncs.values().stream().mapToLong(ServerSync::getLastSuccessfulSyncTime).min().orElse(0);
+    }
+    
+    /**
+     * @return the backlog of the server furthest behind
+     */
+    public long getBacklog() throws IOException {
+        long backlog = 0;
+        for(ServerSync serverSync : serverSyncs.values()) {
+            backlog = Math.max(backlog, serverSync.getBacklog());
+        }
+        return backlog;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, per FQDN, the last value the DNS server accepted and when, so
+ * an identical update can be skipped instead of deleting and re-adding the
+ * same records (and bumping the zone serial) every cycle. Values are
+ * compared by what they put into DNS, so a value whose lease alone changed
+ * counts as pushed already.
+ *
+ * @author Chris
+ */
+public class PushedStateCache {
+    
+    static class PushedState {
+        final DnsEntry dnsEntry;
+        final long pushedAt;
+        
+        PushedState(DnsEntry dnsEntry, long pushedAt) {
+            this.dnsEntry = dnsEntry;
+            this.pushedAt = pushedAt;
+        }
+    }
+    
+    final Map<String, PushedState> pushedStates;
+    final long reassertPeriod;
+    
+    /**
+     * @param reassertPeriod how long a pushed value is trusted before it is
+     * sent again anyway, in case the server lost it
+     */
+    public PushedStateCache(long reassertPeriod) {
+        this.pushedStates = new ConcurrentHashMap<>();
+        this.reassertPeriod = reassertPeriod;
+    }
+    
+    /**
+     * @return true if exactly this value was pushed less than the re-assert
+     * period before {@code now}
+     */
+    public boolean isCurrent(DnsEntry dnsEntry, long now) {
+        PushedState pushedState = pushedStates.get(dnsEntry.getFqdn());
+        return pushedState != null 
+                && DnsEntries.sameUpdate(pushedState.dnsEntry, dnsEntry) 
+                && now < pushedState.pushedAt + reassertPeriod;
+    }
+    
+    /**
+     * @return when this exact value was last pushed, or 0 if it has not been
+     */
+    public long getPushedAt(DnsEntry dnsEntry) {
+        PushedState pushedState = pushedStates.get(dnsEntry.getFqdn());
+        return pushedState != null && DnsEntries.sameUpdate(pushedState.dnsEntry, dnsEntry) ? pushedState.pushedAt : 0;
+    }
+    
+    public void recordPushed(DnsEntry dnsEntry, long now) {
+        pushedStates.put(dnsEntry.getFqdn(), new PushedState(dnsEntry, now));
+    }
+    
+    /**
+     * After a failed push the server state is unknown, so the next push of
+     * this FQDN must not be skipped.
+     */
+    public void forget(DnsEntry dnsEntry) {
+        pushedStates.remove(dnsEntry.getFqdn());
+    }
+    
+    /**
+     * Forgets the FQDN only if this exact value is the one pushed.
+     */
+    public void forgetValue(DnsEntry dnsEntry) {
+        pushedStates.computeIfPresent(dnsEntry.getFqdn(), 
+                (fqdn, pushedState) -> DnsEntries.sameUpdate(pushedState.dnsEntry, dnsEntry) ? null : pushedState);
+    }
+    
+    public int size() {
+        return pushedStates.size();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsRetryState;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entries whose push failed, ordered by when they are next due. Each failure
+ * doubles the entry's delay from {@code dns.retry.initial.millis} up to
+ * {@code dns.retry.max.millis}, with jitter so entries that failed together
+ * do not all retry together.
+ * 
+ * A name's push and the deletes of its retired values are queued apart,
+ * so a failed push never takes the place of a failed delete or the other
+ * way round. Each server has its own queue, written to its own file so
+ * attempt counts and backoff survive a restart.
+ *
+ * @author Chris
+ */
+public class RetryQueue {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(RetryQueue.class);
+    
+    long initialDelayMillis;
+    long maxDelayMillis;
+    File retryFile;
+    
+    final Map<String, DnsRetryState> pushesByFqdn;
+    final Map<DnsEntry, DnsRetryState> deletesByEntry;
+    final PriorityQueue<DnsRetryState> due;
+    final ObjectMapper mapper;
+    boolean changed;
+    
+    /**
+     * @param retryFile where the queue is kept, or null to keep it in memory
+     */
+    public RetryQueue(long initialDelayMillis, long maxDelayMillis, File retryFile) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryFile = retryFile;
+        pushesByFqdn = new HashMap<>();
+        deletesByEntry = new HashMap<>();
+        due = new PriorityQueue<>(Comparator.comparingLong(DnsRetryState::getNextAttemptTime));
+        mapper = new ObjectMapper();
+        mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+    }
+    
+    /**
+     * Replaces what is queued with what was last persisted.
+     */
+    public synchronized void load() {
+        pushesByFqdn.clear();
+        deletesByEntry.clear();
+        due.clear();
+        if(retryFile == null || !retryFile.exists()) {
+            return;
+        }
+        try {
+            List<DnsRetryState> retries = mapper.readValue(retryFile, JsonRetryQueueEntity.class).getRetries();
+            retries.stream().forEach((retry) -> {
+                if(retry.isDelete()) {
+                    deletesByEntry.put(retry.getDnsEntry(), retry);
+                } else {
+                    pushesByFqdn.put(retry.getDnsEntry().getFqdn(), retry);
+                }
+                due.add(retry);
+            });
+            LOGGER.info(String.format("Loaded %d pending retries from %s", retries.size(), retryFile));
+        } catch(IOException ex) {
+            LOGGER.warn(String.format("Unable to read %s, starting with no pending retries", retryFile), ex);
+        }
+    }
+    
+    long backoff(int attempts) {
+        long delay = initialDelayMillis << Math.min(attempts - 1, 30);
+        if(delay < 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+    
+    public synchronized void recordFailure(DnsEntry dnsEntry, Exception failure, long now) {
+        recordFailure(dnsEntry, failure, now, false);
+    }
+    
+    /**
+     * A push is queued by name, so it retries with whatever value is stored
+     * by then. A delete is queued by value, since one name can have several
+     * retired values waiting to be deleted.
+     * 
+     * @param delete true if the failure was deleting a removed entry rather
+     * than pushing a stored one
+     */
+    public synchronized void recordFailure(DnsEntry dnsEntry, Exception failure, long now, boolean delete) {
+        DnsRetryState retry = delete ? deletesByEntry.get(dnsEntry) : pushesByFqdn.get(dnsEntry.getFqdn());
+        if(retry == null) {
+            retry = new DnsRetryState();
+            retry.setFirstFailureTime(now);
+            if(delete) {
+                deletesByEntry.put(dnsEntry, retry);
+            } else {
+                pushesByFqdn.put(dnsEntry.getFqdn(), retry);
+            }
+        } else {
+            due.remove(retry);
+        }
+        retry.setDnsEntry(dnsEntry);
+        retry.setDelete(delete);
+        retry.setAttempts(retry.getAttempts() + 1);
+        retry.setLastError(failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName());
+        retry.setLastAttemptTime(now);
+        retry.setNextAttemptTime(now + backoff(retry.getAttempts()));
+        due.add(retry);
+        changed = true;
+    }
+    
+    /**
+     * Removes the name's pending push.
+     */
+    public synchronized void remove(String fqdn) {
+        dequeue(pushesByFqdn.remove(fqdn));
+    }
+    
+    /**
+     * Removes the pending delete of this retired value.
+     */
+    public synchronized void removeDelete(DnsEntry dnsEntry) {
+        dequeue(deletesByEntry.remove(dnsEntry));
+    }
+    
+    void dequeue(DnsRetryState retry) {
+        if(retry != null) {
+            due.remove(retry);
+            changed = true;
+        }
+    }
+    
+    /**
+     * @return the entries whose push is due for another attempt at
+     * {@code now}. They stay queued until their outcome is recorded.
+     */
+    public synchronized List<DnsEntry> listDue(long now) {
+        return listDue(now, false);
+    }
+    
+    /**
+     * @return the retired values whose delete is due for another attempt at
+     * {@code now}. They stay queued until their outcome is recorded.
+     */
+    public synchronized List<DnsEntry> listDueDeletes(long now) {
+        return listDue(now, true);
+    }
+    
+    List<DnsEntry> listDue(long now, boolean delete) {
+        List<DnsEntry> dueEntries = new ArrayList<>();
+        List<DnsRetryState> polled = new ArrayList<>();
+        while(!due.isEmpty() && due.peek().getNextAttemptTime() <= now) {
+            DnsRetryState retry = due.poll();
+            polled.add(retry);
+            if(retry.isDelete() == delete) {
+                dueEntries.add(retry.getDnsEntry());
+            }
+        }
+        due.addAll(polled);
+        return dueEntries;
+    }
+    
+    /**
+     * @return true if this value, whatever its lease, failed and is not yet due again
+     */
+    public synchronized boolean isBackingOff(DnsEntry dnsEntry, long now) {
+        DnsRetryState retry = pushesByFqdn.get(dnsEntry.getFqdn());
+        return retry != null && DnsEntries.sameUpdate(retry.getDnsEntry(), dnsEntry) && now < retry.getNextAttemptTime();
+    }
+    
+    /**
+     * @return true if deleting this retired value is queued
+     */
+    public synchronized boolean isPendingDelete(DnsEntry dnsEntry) {
+        return deletesByEntry.containsKey(dnsEntry);
+    }
+    
+    /**
+     * @return a copy of the name's push retry state, or null if its push is
+     * not queued
+     */
+    public synchronized DnsRetryState get(String fqdn) {
+        DnsRetryState retry = pushesByFqdn.get(fqdn);
+        if(retry == null) {
+            return null;
+        }
+        DnsRetryState copy = new DnsRetryState();
+        copy.setDnsEntry(retry.getDnsEntry());
+        copy.setDelete(retry.isDelete());
+        copy.setAttempts(retry.getAttempts());
+        copy.setLastError(retry.getLastError());
+        copy.setFirstFailureTime(retry.getFirstFailureTime());
+        copy.setLastAttemptTime(retry.getLastAttemptTime());
+        copy.setNextAttemptTime(retry.getNextAttemptTime());
+        return copy;
+    }
+    
+    public synchronized int size() {
+        return pushesByFqdn.size() + deletesByEntry.size();
+    }
+    
+    /**
+     * Writes the queue out if it changed since the last write.
+     */
+    public synchronized void persist() {
+        if(!changed || retryFile == null) {
+            return;
+        }
+        JsonRetryQueueEntity entity = new JsonRetryQueueEntity();
+        List<DnsRetryState> retries = new ArrayList<>(pushesByFqdn.values());
+        retries.addAll(deletesByEntry.values());
+        entity.setRetries(retries);
+        File temporary = new File(retryFile.getAbsoluteFile().getParentFile(), retryFile.getName() + ".tmp");
+        try {
+            try(FileOutputStream out = new FileOutputStream(temporary)) {
+                out.write(mapper.writeValueAsBytes(entity));
+                out.getFD().sync();
+            }
+            Files.move(temporary.toPath(), retryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } catch(IOException ex) {
+            LOGGER.warn(String.format("Unable to write %s, retry state will be lost on restart", retryFile), ex);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsBatchResult;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntries;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryStatus;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DriftReport;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.SyncStatistics;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.CnameGraph;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The sync state of one authoritative server: its own cursor into the
+ * storage change log, the values it is known to have and its retry queue.
+ * Servers are synced independently so one that falls behind does not hold
+ * back the others.
+ *
+ * @author Chris
+ */
+public class ServerSync {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(ServerSync.class);
+    
+    final String server;
+    final DnsEntryStorage dnsEntriesStorage;
+    final DnsPushPipeline pushPipeline;
+    final MeterRegistry meterRegistry;
+    final long dnsUpdatePeriod;
+    final PushedStateCache pushedStateCache;
+    final RetryQueue retryQueue;
+    final ZoneReconciler zoneReconciler;
+    final AtomicBoolean syncQueued;
+    final AtomicBoolean syncRequested;
+    final AtomicBoolean retryQueued;
+    
+    volatile long lastPushedGeneration;
+    volatile long lastSuccessfulSyncTime;
+    long lastFullSyncTime;
+    volatile SyncStatistics statistics;
+    
+    public ServerSync(String server, DnsEntryStorage dnsEntriesStorage, DnsPushPipeline pushPipeline, MeterRegistry meterRegistry, 
+            long dnsUpdatePeriod, PushedStateCache pushedStateCache, RetryQueue retryQueue, ZoneReconciler zoneReconciler) {
+        this.server = server;
+        this.dnsEntriesStorage = dnsEntriesStorage;
+        this.pushPipeline = pushPipeline;
+        this.meterRegistry = meterRegistry;
+        this.dnsUpdatePeriod = dnsUpdatePeriod;
+        this.pushedStateCache = pushedStateCache;
+        this.retryQueue = retryQueue;
+        this.zoneReconciler = zoneReconciler;
+        this.syncQueued = new AtomicBoolean();
+        this.syncRequested = new AtomicBoolean();
+        this.retryQueued = new AtomicBoolean();
+        this.lastPushedGeneration = 0;
+        this.lastFullSyncTime = Instant.now().toEpochMilli() - dnsUpdatePeriod;
+        this.statistics = new SyncStatistics();
+        this.statistics.setServer(server);
+    }
+    
+    public String getServer() {
+        return server;
+    }
+    
+    /**
+     * Picks up the retries another instance left behind and makes a full
+     * sync due, as on a restart.
+     */
+    public synchronized void reload() {
+        retryQueue.load();
+        lastFullSyncTime = Instant.now().toEpochMilli() - dnsUpdatePeriod;
+    }
+    
+    /**
+     * Pushes what changed since the last sync, or with {@code reconcile}
+     * everything once {@code dns.update.millis} has passed since the last
+     * full sync. With a {@link ZoneReconciler} a full sync pushes only what
+     * the server's zones show to be missing or wrong, plus the entries in
+     * zones it could not transfer.
+     */
+    public synchronized void sync(boolean reconcile) throws IOException {
+        long start = Instant.now().toEpochMilli();
+        boolean full = reconcile && start >= lastFullSyncTime + dnsUpdatePeriod;
+        
+        long generation = dnsEntriesStorage.getGeneration();
+        if(!full && generation == lastPushedGeneration) {
+            if(retryQueue.size() == 0) {
+                lastSuccessfulSyncTime = start;
+            }
+            return;
+        }
+        
+        DriftReport report = full && zoneReconciler != null 
+                ? zoneReconciler.reconcile(server, dnsEntriesStorage.listAllDnsEnrties()) 
+                : null;
+        Set<DnsEntry> drifted = report == null 
+                ? Collections.emptySet() 
+                : report.getDrifted().stream().map(DriftReport.EntryDrift::getDnsEntry).collect(Collectors.toCollection(LinkedHashSet::new));
+        List<DnsEntry> dirtyDnsEntries;
+        if(report != null) {
+            dirtyDnsEntries = new ArrayList<>(drifted);
+            dirtyDnsEntries.addAll(report.getUnverified());
+        } else {
+            dirtyDnsEntries = full 
+                    ? dnsEntriesStorage.listAllDnsEnrties() 
+                    : dnsEntriesStorage.listDnsEntriesChangedSince(lastPushedGeneration);
+        }
+        List<DnsEntry> retiredDnsEntries = dnsEntriesStorage.listDnsEntriesRetiredSince(lastPushedGeneration);
+        
+        // a failed value waiting on its backoff is left to retry(); a newly
+        // registered value for the same name goes out straight away. A
+        // transferred zone is more to be trusted than what was last pushed
+        List<DnsEntry> toPush = new ArrayList<>();
+        dirtyDnsEntries.stream()
+                .filter((dnsEntry) -> drifted.contains(dnsEntry) || !pushedStateCache.isCurrent(dnsEntry, start))
+                .filter((dnsEntry) -> !retryQueue.isBackingOff(dnsEntry, start))
+                .forEach(toPush::add);
+        int skipped = dirtyDnsEntries.size() - toPush.size();
+        int failed = push(toPush);
+        int deleteFailed = delete(retiredDnsEntries);
+        
+        lastPushedGeneration = generation;
+        if(full) {
+            lastFullSyncTime = start;
+        }
+        if(retryQueue.size() == 0) {
+            lastSuccessfulSyncTime = start;
+        }
+        recordStatistics(start, full ? "full" : "incremental", dirtyDnsEntries.size(), skipped, failed, 
+                retiredDnsEntries.size() - deleteFailed, deleteFailed);
+    }
+    
+    /**
+     * Pushes the failed entries whose backoff has expired, independently of
+     * the sync schedule. An entry that has since changed is pushed with its
+     * current value; one that is no longer stored is dropped. A failed
+     * delete is tried again unless the name holds that record once more.
+     */
+    public synchronized void retry() throws IOException {
+        long start = Instant.now().toEpochMilli();
+        List<DnsEntry> duePushes = retryQueue.listDue(start);
+        List<DnsEntry> dueDeletes = retryQueue.listDueDeletes(start);
+        if(duePushes.isEmpty() && dueDeletes.isEmpty()) {
+            return;
+        }
+        
+        List<DnsEntry> toPush = new ArrayList<>();
+        for(DnsEntry dnsEntry : duePushes) {
+            DnsEntry current = dnsEntriesStorage.getDnsEntry(dnsEntry.getFqdn());
+            if(current != null) {
+                toPush.add(current);
+            } else {
+                retryQueue.remove(dnsEntry.getFqdn());
+            }
+        }
+        List<DnsEntry> toDelete = new ArrayList<>();
+        for(DnsEntry dnsEntry : dueDeletes) {
+            DnsEntry current = dnsEntriesStorage.getDnsEntry(dnsEntry.getFqdn());
+            if(current == null || !DnsEntries.sameRecord(current, dnsEntry)) {
+                toDelete.add(dnsEntry);
+            } else {
+                retryQueue.removeDelete(dnsEntry);
+            }
+        }
+        int failed = push(toPush);
+        int deleteFailed = delete(toDelete);
+        
+        if(retryQueue.size() == 0) {
+            lastSuccessfulSyncTime = start;
+        }
+        recordStatistics(start, "retry", toPush.size(), 0, failed, toDelete.size() - deleteFailed, deleteFailed);
+    }
+    
+    /**
+     * Pushes in CNAME dependency order, so a server never gets a CNAME
+     * before the entry it points at when both are in the push.
+     * 
+     * @return the number of entries that failed
+     */
+    int push(List<DnsEntry> toPush) {
+        if(toPush.isEmpty()) {
+            retryQueue.persist();
+            return 0;
+        }
+        DnsBatchResult result = inOrder(CnameGraph.dependencyLevels(toPush), pushPipeline::push);
+        long pushedAt = Instant.now().toEpochMilli();
+        result.getSucceeded().stream().forEach((dnsEntry) -> {
+            pushedStateCache.recordPushed(dnsEntry, pushedAt);
+            retryQueue.remove(dnsEntry.getFqdn());
+        });
+        result.getFailed().entrySet().stream().forEach((failure) -> {
+            DnsEntry dnsEntry = failure.getKey();
+            LOGGER.error(String.format("Failed to register %s on %s with %s", dnsEntry.getFqdn(), server, dnsEntry.toString()), failure.getValue());
+            pushedStateCache.forget(dnsEntry);
+            retryQueue.recordFailure(dnsEntry, failure.getValue(), pushedAt);
+        });
+        retryQueue.persist();
+        return result.getFailed().size();
+    }
+    
+    /**
+     * Deletes retired values from the server. They are no longer stored, so
+     * a failed delete is retried from the queue, which is persisted.
+     * 
+     * @return the number of entries that failed
+     */
+    int delete(List<DnsEntry> toDelete) {
+        if(toDelete.isEmpty()) {
+            return 0;
+        }
+        // a name registered again with the same value must be pushed again
+        toDelete.stream().forEach(pushedStateCache::forgetValue);
+        // a CNAME goes before the entry it points at
+        List<List<DnsEntry>> levels = new ArrayList<>(CnameGraph.dependencyLevels(toDelete));
+        Collections.reverse(levels);
+        DnsBatchResult result = inOrder(levels, pushPipeline::delete);
+        long deletedAt = Instant.now().toEpochMilli();
+        result.getSucceeded().stream().forEach(retryQueue::removeDelete);
+        result.getFailed().entrySet().stream().forEach((failure) -> {
+            DnsEntry dnsEntry = failure.getKey();
+            LOGGER.error(String.format("Failed to delete %s from %s", dnsEntry.getFqdn(), server), failure.getValue());
+            retryQueue.recordFailure(dnsEntry, failure.getValue(), deletedAt, true);
+        });
+        retryQueue.persist();
+        return result.getFailed().size();
+    }
+    
+    /**
+     * Sends one level after another, each through the pipeline, whose slices
+     * of a level go concurrently. Once the server is unavailable the later
+     * levels fail without being sent.
+     */
+    DnsBatchResult inOrder(List<List<DnsEntry>> levels, BiFunction<String, List<DnsEntry>, DnsBatchResult> send) {
+        if(levels.size() == 1) {
+            return send.apply(server, levels.get(0));
+        }
+        DnsBatchResult result = new DnsBatchResult();
+        for(List<DnsEntry> level : levels) {
+            if(result.getUnavailable() != null) {
+                level.stream().forEach((dnsEntry) -> result.getFailed().put(dnsEntry, result.getUnavailable()));
+                continue;
+            }
+            DnsBatchResult levelResult = send.apply(server, level);
+            result.getSucceeded().addAll(levelResult.getSucceeded());
+            result.getFailed().putAll(levelResult.getFailed());
+            result.setUnavailable(levelResult.getUnavailable());
+        }
+        return result;
+    }
+    
+    void recordStatistics(long start, String mode, int dirtySetSize, int skipped, int failed, int deleted, int deleteFailed) {
+        int pushed = dirtySetSize - skipped - failed;
+        failed = failed + deleteFailed;
+        long end = Instant.now().toEpochMilli();
+        meterRegistry.timer("dns.sync", "server", server, "mode", mode, 
+                "outcome", failed == 0 ? "success" : "failure").record(Duration.ofMillis(end - start));
+        SyncStatistics previous = statistics;
+        SyncStatistics current = new SyncStatistics();
+        current.setServer(server);
+        current.setLastSyncTime(end);
+        current.setLastSyncFull("full".equals(mode));
+        current.setLastDirtySetSize(dirtySetSize);
+        current.setLastFailedCount(failed);
+        current.setLastSkippedCount(skipped);
+        current.setLastSyncDurationMillis(end - start);
+        current.setLastPushedGeneration(lastPushedGeneration);
+        current.setLastFullSyncTime(lastFullSyncTime);
+        current.setLastSuccessfulSyncTime(lastSuccessfulSyncTime);
+        current.setTotalSyncs(previous.getTotalSyncs() + 1);
+        current.setTotalFullSyncs(previous.getTotalFullSyncs() + ("full".equals(mode) ? 1 : 0));
+        current.setTotalRetryRuns(previous.getTotalRetryRuns() + ("retry".equals(mode) ? 1 : 0));
+        current.setTotalEntriesPushed(previous.getTotalEntriesPushed() + pushed);
+        current.setTotalEntriesDeleted(previous.getTotalEntriesDeleted() + deleted);
+        current.setTotalEntriesSkipped(previous.getTotalEntriesSkipped() + skipped);
+        current.setTotalFailures(previous.getTotalFailures() + failed);
+        current.setPendingRetries(retryQueue.size());
+        current.setPushedStateCacheSize(pushedStateCache.size());
+        statistics = current;
+        LOGGER.info(String.format("%s sync to %s pushed %d entries and deleted %d (%d failed, %d unchanged skipped, %d awaiting retry) in %d ms", 
+                Character.toUpperCase(mode.charAt(0)) + mode.substring(1), server, pushed, deleted, failed, skipped, retryQueue.size(), end - start));
+    }
+    
+    public SyncStatistics getStatistics() {
+        return statistics;
+    }
+    
+    public DnsEntryStatus.ServerStatus getStatus(DnsEntry stored) {
+        DnsEntryStatus.ServerStatus status = new DnsEntryStatus.ServerStatus();
+        status.setServer(server);
+        status.setLastPushedTime(pushedStateCache.getPushedAt(stored));
+        status.setRetry(retryQueue.get(stored.getFqdn()));
+        if(status.getRetry() != null) {
+            status.setState(DnsEntryStatus.State.RETRYING);
+        } else if(status.getLastPushedTime() != 0) {
+            status.setState(DnsEntryStatus.State.PUSHED);
+        } else {
+            status.setState(DnsEntryStatus.State.PENDING);
+        }
+        return status;
+    }
+    
+    public long getLastPushedGeneration() {
+        return lastPushedGeneration;
+    }
+    
+    public long getLastSuccessfulSyncTime() {
+        return lastSuccessfulSyncTime;
+    }
+    
+    /**
+     * An upper bound on the entries waiting to be pushed: every generation
+     * not yet pushed is at most one changed entry, plus the pending retries.
+     */
+    public long getBacklog() throws IOException {
+        return Math.max(0, dnsEntriesStorage.getGeneration() - lastPushedGeneration) + retryQueue.size();
+    }
+}
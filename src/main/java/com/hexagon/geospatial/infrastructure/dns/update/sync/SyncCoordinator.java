@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Starts a sync when registrations change rather than on a timer. A burst
+ * of changes is pushed together once {@code dns.sync.debounce.millis} pass
+ * without another, but never more than {@code dns.sync.max.delay.millis}
+ * after the first. Each sync started is counted as {@code dns.sync.triggered}
+ * and each change signalled as {@code dns.sync.signals}.
+ *
+ * @author Chris
+ */
+@Component
+public class SyncCoordinator {
+    
+    @Autowired
+    DnsSyncService dnsSyncService;
+    
+    @Value("${dns.sync.debounce.millis:200}")
+    long debounceMillis;
+    
+    @Value("${dns.sync.max.delay.millis:2000}")
+    long maxDelayMillis;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    ScheduledExecutorService scheduler;
+    
+    boolean pending;
+    long firstSignalNanos;
+    long lastSignalNanos;
+    
+    @PostConstruct
+    public void postConstruct() {
+        if(scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "dns-sync-trigger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    @PreDestroy
+    public void preDestroy() {
+        scheduler.shutdownNow();
+    }
+    
+    /**
+     * Registrations changed, a sync will follow.
+     */
+    public void signal() {
+        signal(System.nanoTime());
+    }
+    
+    synchronized void signal(long nowNanos) {
+        meterRegistry.counter("dns.sync.signals").increment();
+        lastSignalNanos = nowNanos;
+        if(!pending) {
+            pending = true;
+            firstSignalNanos = nowNanos;
+            schedule(TimeUnit.MILLISECONDS.toNanos(debounceMillis));
+        }
+    }
+    
+    void schedule(long delayNanos) {
+        scheduler.schedule(() -> fire(System.nanoTime()), delayNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * @return how long after {@code nowNanos} the pending sync is due, 0 if
+     * it is due now
+     */
+    synchronized long remaining(long nowNanos) {
+        long due = Math.min(lastSignalNanos + TimeUnit.MILLISECONDS.toNanos(debounceMillis), 
+                firstSignalNanos + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis));
+        return Math.max(0, due - nowNanos);
+    }
+    
+    /**
+     * Starts the pending sync if it is due, otherwise waits for it again, so
+     * a signal only moves the deadline rather than rescheduling.
+     */
+    void fire(long nowNanos) {
+        synchronized(this) {
+            if(!pending) {
+                return;
+            }
+            long wait = remaining(nowNanos);
+            if(wait > 0) {
+                schedule(wait);
+                return;
+            }
+            pending = false;
+        }
+        meterRegistry.counter("dns.sync.triggered").increment();
+        dnsSyncService.syncChanges();
+    }
+    
+    public synchronized boolean isPending() {
+        return pending;
+    }
+}
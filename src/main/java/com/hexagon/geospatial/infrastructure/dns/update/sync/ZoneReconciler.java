@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsUpdate;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsUpdatePlanner;
+import com.hexagon.geospatial.infrastructure.dns.update.client.ZoneContents;
+import com.hexagon.geospatial.infrastructure.dns.update.client.ZoneTransfer;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DriftReport;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compares what a server actually holds with what the stored entries say it
+ * should. Each zone the entries live in is transferred, incrementally from
+ * the last transfer where the server allows, and every entry is checked for
+ * records that are missing, carry the wrong TTL, or sit in a record set the
+ * entry's update would replace. Only those entries need pushing.
+ * 
+ * Transfers are counted as {@code dns.reconcile.transfers} by kind, and
+ * entries found to differ as {@code dns.reconcile.drifted}.
+ *
+ * @author Chris
+ */
+@Component
+public class ZoneReconciler {
+    
+    public static final Logger LOGGER = LoggerFactory.getLogger(ZoneReconciler.class);
+    
+    static final Set<Integer> MANAGED_TYPES = new HashSet<>(Arrays.asList(DnsType.A, DnsType.AAAA, DnsType.CNAME, DnsType.TXT, DnsType.PTR));
+    
+    @Autowired
+    DnsClient dnsClient;
+    
+    @Autowired
+    DnsUpdatePlanner planner;
+    
+    @Autowired
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+    
+    /** The zone as last transferred, by server and zone */
+    final Map<String, ZoneContents> transferred = new ConcurrentHashMap<>();
+    
+    public DriftReport reconcile(String server, Collection<DnsEntry> dnsEntries) {
+        Map<String, List<DnsUpdate>> updatesByZone = new TreeMap<>();
+        for(DnsEntry dnsEntry : dnsEntries) {
+            try {
+                planner.plan(dnsEntry).stream().forEach((update) -> 
+                        updatesByZone.computeIfAbsent(update.getZone(), (zone) -> new ArrayList<>()).add(update));
+            } catch(RuntimeException ex) {
+                // cannot be pushed either, the push reports it
+            }
+        }
+        
+        DriftReport report = new DriftReport();
+        report.setServer(server);
+        report.setTime(Instant.now().toEpochMilli());
+        Map<DnsEntry, DriftReport.EntryDrift> drifted = new LinkedHashMap<>();
+        Set<DnsEntry> unverified = new LinkedHashSet<>();
+        for(Map.Entry<String, List<DnsUpdate>> zoneUpdates : updatesByZone.entrySet()) {
+            DriftReport.ZoneDrift zoneDrift = new DriftReport.ZoneDrift();
+            zoneDrift.setZone(zoneUpdates.getKey());
+            report.getZones().add(zoneDrift);
+            ZoneContents contents = transfer(server, zoneUpdates.getKey(), zoneDrift);
+            if(contents == null) {
+                zoneUpdates.getValue().stream().forEach((update) -> unverified.add(update.getDnsEntry()));
+                continue;
+            }
+            
+            Set<String> managedNames = new HashSet<>();
+            for(DnsUpdate update : zoneUpdates.getValue()) {
+                update.getRecords().stream().forEach((record) -> managedNames.add(ZoneContents.keyOf(record).getName()));
+                List<String> problems = compare(update, contents);
+                if(!problems.isEmpty()) {
+                    drifted.computeIfAbsent(update.getDnsEntry(), (dnsEntry) -> {
+                        DriftReport.EntryDrift entryDrift = new DriftReport.EntryDrift();
+                        entryDrift.setDnsEntry(dnsEntry);
+                        return entryDrift;
+                    }).getProblems().addAll(problems);
+                }
+            }
+            zoneDrift.setUnmanagedRecords((int)contents.getRecordsByName().entrySet().stream()
+                    .filter((atName) -> !managedNames.contains(atName.getKey()))
+                    .flatMap((atName) -> atName.getValue().keySet().stream())
+                    .filter((record) -> MANAGED_TYPES.contains(record.getType()))
+                    .count());
+        }
+        // a value may be both drifted and unverified when its reverse zone failed
+        unverified.removeAll(drifted.keySet());
+        report.getDrifted().addAll(drifted.values());
+        report.getUnverified().addAll(unverified);
+        meterRegistry.counter("dns.reconcile.drifted", "server", server).increment(drifted.size());
+        LOGGER.info(String.format("%d of %d entries differ on %s, %d could not be checked", 
+                drifted.size(), dnsEntries.size(), server, unverified.size()));
+        return report;
+    }
+    
+    /**
+     * @return the zone's contents, or null if it could not be transferred
+     */
+    ZoneContents transfer(String server, String zone, DriftReport.ZoneDrift zoneDrift) {
+        String key = server + " " + zone;
+        try {
+            ZoneTransfer transfer = dnsClient.transferZone(server, zone, transferred.get(key));
+            ZoneContents contents = transfer.getContents();
+            transferred.put(key, contents);
+            zoneDrift.setTransfer(transfer.getKind().name());
+            zoneDrift.setSerial(contents.getSerial());
+            zoneDrift.setRecords(contents.size());
+            meterRegistry.counter("dns.reconcile.transfers", "server", server, "kind", transfer.getKind().name()).increment();
+            return contents;
+        } catch(IOException | RuntimeException ex) {
+            LOGGER.warn(String.format("Unable to transfer zone %s from %s: %s", zone, server, ex.getMessage()));
+            // start again from a full transfer next time
+            transferred.remove(key);
+            zoneDrift.setError(ex.getMessage());
+            meterRegistry.counter("dns.reconcile.transfers", "server", server, "kind", "failed").increment();
+            return null;
+        }
+    }
+    
+    /**
+     * @return what is wrong with the update's records in the zone, nothing if
+     * pushing it would change nothing
+     */
+    static List<String> compare(DnsUpdate update, ZoneContents contents) {
+        List<String> problems = new ArrayList<>();
+        Set<DnsRecord> expected = update.getRecords().stream()
+                .filter((record) -> record.getDnsClass() == DnsType.CLASS_IN)
+                .map(ZoneContents::keyOf)
+                .collect(Collectors.toSet());
+        for(DnsRecord record : update.getRecords()) {
+            if(record.getDnsClass() == DnsType.CLASS_IN) {
+                Long ttl = contents.ttlOf(record);
+                if(ttl == null) {
+                    problems.add("missing " + describe(record));
+                } else if(ttl != record.getTtl()) {
+                    problems.add(String.format("TTL %d instead of %d on %s", ttl, record.getTtl(), describe(record)));
+                }
+            } else if(record.getDnsClass() == DnsType.CLASS_ANY) {
+                // a record set the update replaces, so anything else in it is in the way
+                contents.recordsAt(record.getName()).keySet().stream()
+                        .filter((held) -> record.getType() == DnsType.ANY 
+                                ? held.getType() != DnsType.SOA && held.getType() != DnsType.NS 
+                                : held.getType() == record.getType())
+                        .filter((held) -> !expected.contains(held))
+                        .forEach((held) -> problems.add("unexpected " + describe(held)));
+            }
+        }
+        return problems;
+    }
+    
+    static String describe(DnsRecord record) {
+        return String.format("%s %s %s", record.getName(), DnsType.typeName(record.getType()), describeRdata(record));
+    }
+    
+    static String describeRdata(DnsRecord record) {
+        byte[] rdata = record.getRdata();
+        switch(record.getType()) {
+            case DnsType.A:
+            case DnsType.AAAA:
+                try {
+                    return InetAddress.getByAddress(rdata).getHostAddress();
+                } catch(UnknownHostException ex) {
+                    break;
+                }
+            case DnsType.CNAME:
+            case DnsType.PTR:
+            case DnsType.NS:
+                return DnsWireFormat.decodeName(rdata);
+            case DnsType.TXT:
+                return DnsWireFormat.decodeCharacterStrings(rdata).stream()
+                        .map((text) -> "\"" + text + "\"")
+                        .collect(Collectors.joining(" "));
+            default:
+                break;
+        }
+        return String.format("(%d bytes)", rdata == null ? 0 : rdata.length);
+    }
+}
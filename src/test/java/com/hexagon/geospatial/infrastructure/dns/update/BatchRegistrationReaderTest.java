@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.BatchRegistrationResult;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class BatchRegistrationReaderTest {
+    
+    static BatchRegistrationReader read(String body) throws IOException {
+        BatchRegistrationReader reader = new BatchRegistrationReader(new ObjectMapper());
+        reader.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        return reader;
+    }
+    
+    @Test
+    public void jsonArrayIsRead() throws IOException {
+        BatchRegistrationReader reader = read("[" 
+                + "{\"type\":\"A\",\"fqdn\":\"host.example.com\",\"ipAddress\":\"10.0.0.1\"},"
+                + "{\"type\":\"CNAME\",\"fqdn\":\"alias.example.com\",\"destinationFqdn\":\"host.example.com\"}"
+                + "]");
+        
+        assertEquals(Arrays.asList(
+                new DnsEntryARecord("host.example.com", "10.0.0.1"),
+                new DnsEntryCname("alias.example.com", "host.example.com")), reader.getDnsEntries());
+        assertEquals(2, reader.getResults().size());
+    }
+    
+    @Test
+    public void newlineDelimitedJsonIsRead() throws IOException {
+        BatchRegistrationReader reader = read(
+                "{\"type\":\"A\",\"fqdn\":\"one.example.com\",\"ipAddress\":\"10.0.0.1\"}\n"
+                + "{\"type\":\"A\",\"fqdn\":\"two.example.com\",\"ipAddress\":\"10.0.0.2\"}\n");
+        
+        assertEquals(2, reader.getDnsEntries().size());
+    }
+    
+    @Test
+    public void incompleteEntriesAreRejectedIndividually() throws IOException {
+        BatchRegistrationReader reader = read("[" 
+                + "{\"type\":\"A\",\"fqdn\":\"host.example.com\"},"
+                + "{\"type\":\"A\",\"fqdn\":\"other.example.com\",\"ipAddress\":\"10.0.0.2\"}"
+                + "]");
+        
+        assertEquals(1, reader.getDnsEntries().size());
+        assertEquals(BatchRegistrationResult.Status.REJECTED, reader.getResults().get(0).getStatus());
+        assertEquals(BatchRegistrationResult.Status.REGISTERED, reader.getResults().get(1).getStatus());
+        assertEquals(1, reader.getResults().get(1).getIndex());
+    }
+    
+    @Test
+    public void aaaaAndTxtWithTtlAreRead() throws IOException {
+        BatchRegistrationReader reader = read("[" 
+                + "{\"type\":\"AAAA\",\"fqdn\":\"host.example.com\",\"ipAddress\":\"2001:db8::1\",\"ttl\":300},"
+                + "{\"type\":\"TXT\",\"fqdn\":\"host.example.com\",\"text\":\"owner=ops\"},"
+                + "{\"type\":\"A\",\"fqdn\":\"bad.example.com\",\"ipAddress\":\"2001:db8::1\"}"
+                + "]");
+        
+        assertEquals(Arrays.asList(
+                new DnsEntryAAAARecord("host.example.com", "2001:db8::1", 300),
+                new DnsEntryTxt("host.example.com", "owner=ops")), reader.getDnsEntries());
+        assertEquals(BatchRegistrationResult.Status.REJECTED, reader.getResults().get(2).getStatus());
+    }
+    
+    @Test
+    public void acceptedEntriesCanBeRejectedAfterReading() throws IOException {
+        BatchRegistrationReader reader = read("[" 
+                + "{\"type\":\"A\",\"fqdn\":\"host.example.com\"},"
+                + "{\"type\":\"CNAME\",\"fqdn\":\"loop.example.com\",\"destinationFqdn\":\"loop.example.com\"},"
+                + "{\"type\":\"CNAME\",\"fqdn\":\"alias.example.com\",\"destinationFqdn\":\"host.example.com\"}"
+                + "]");
+        
+        reader.reject(Arrays.asList("would make a loop", null));
+        
+        assertEquals(Arrays.asList(new DnsEntryCname("alias.example.com", "host.example.com")), reader.getDnsEntries());
+        assertEquals(BatchRegistrationResult.Status.REJECTED, reader.getResults().get(1).getStatus());
+        assertEquals("would make a loop", reader.getResults().get(1).getMessage());
+        assertEquals(BatchRegistrationResult.Status.REGISTERED, reader.getResults().get(2).getStatus());
+    }
+    
+    @Test(expected = IOException.class)
+    public void unterminatedArrayIsAnError() throws IOException {
+        read("[{\"type\":\"A\",\"fqdn\":\"host.example.com\",\"ipAddress\":\"10.0.0.1\"}");
+    }
+}
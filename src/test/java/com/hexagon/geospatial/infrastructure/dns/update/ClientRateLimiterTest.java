@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class ClientRateLimiterTest {
+    
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    
+    ClientRateLimiter rateLimiter;
+    
+    @Before
+    public void setUp() {
+        rateLimiter = new ClientRateLimiter();
+        rateLimiter.enabled = true;
+        rateLimiter.permitsPerSecond = 2;
+        rateLimiter.burst = 4;
+        rateLimiter.meterRegistry = new SimpleMeterRegistry();
+    }
+    
+    @Test
+    public void burstIsAllowedThenTheRate() {
+        for(int i = 0; i < 4; i++) {
+            assertEquals(0, rateLimiter.tryAcquire("10.0.0.1", 0));
+        }
+        assertEquals(SECOND / 2, rateLimiter.tryAcquire("10.0.0.1", 0));
+        assertEquals(0, rateLimiter.tryAcquire("10.0.0.2", 0));
+        
+        assertEquals(0, rateLimiter.tryAcquire("10.0.0.1", SECOND / 2));
+        assertTrue(rateLimiter.tryAcquire("10.0.0.1", SECOND / 2) > 0);
+        assertEquals(2, rateLimiter.meterRegistry.counter("dns.register.rate.limited").count(), 0);
+    }
+    
+    @Test
+    public void refilledBucketsAreEvicted() {
+        rateLimiter.tryAcquire("10.0.0.1", 0);
+        rateLimiter.tryAcquire("10.0.0.2", SECOND);
+        
+        rateLimiter.evictIdle(SECOND);
+        assertEquals(1, rateLimiter.size());
+        rateLimiter.evictIdle(2 * SECOND);
+        assertEquals(0, rateLimiter.size());
+    }
+}
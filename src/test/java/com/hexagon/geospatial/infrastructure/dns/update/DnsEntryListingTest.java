@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class DnsEntryListingTest {
+    
+    ObjectMapper mapper = new ObjectMapper();
+    NavigableMap<String, DnsEntry> dnsEntries;
+    
+    @Before
+    public void setUp() {
+        dnsEntries = new ConcurrentSkipListMap<>();
+        put(new DnsEntryARecord("a.example.com", "10.0.0.1"));
+        put(new DnsEntryARecord("b.example.com", "10.0.0.2"));
+        put(new DnsEntryCname("c.example.com", "a.example.com"));
+        put(new DnsEntryARecord("d.example.org", "10.0.0.4"));
+        put(new DnsEntryARecord("notexample.com", "10.0.0.5"));
+    }
+    
+    void put(DnsEntry dnsEntry) {
+        dnsEntries.put(dnsEntry.getFqdn(), dnsEntry);
+    }
+    
+    JsonNode write(DnsEntryListing listing) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        listing.writeTo(outputStream, mapper);
+        return mapper.readTree(outputStream.toByteArray());
+    }
+    
+    @Test
+    public void testListsEverythingWithoutLimit() throws IOException {
+        DnsEntryListing listing = new DnsEntryListing(dnsEntries.values(), null, null, 0);
+        assertNull(listing.findNextCursor());
+        JsonNode page = write(listing);
+        assertEquals(5, page.size());
+        assertEquals("a.example.com", page.get(0).get("fqdn").asText());
+        assertEquals("10.0.0.1", page.get(0).get("ipAddress").asText());
+        assertEquals("a.example.com", page.get(2).get("destinationFqdn").asText());
+    }
+    
+    @Test
+    public void testAfterSkipsUpToTheCursor() {
+        List<DnsEntry> all = new ArrayList<>(dnsEntries.values());
+        assertSame(all, DnsEntryListing.after(all, null));
+        assertEquals(new ArrayList<>(dnsEntries.tailMap("b.example.com", false).values()), DnsEntryListing.after(all, "b.example.com"));
+    }
+    
+    @Test
+    public void testPagesWithCursor() throws IOException {
+        DnsEntryListing first = new DnsEntryListing(dnsEntries.values(), null, null, 2);
+        String cursor = first.findNextCursor();
+        assertEquals("b.example.com", cursor);
+        assertEquals(2, write(first).size());
+        
+        DnsEntryListing second = new DnsEntryListing(dnsEntries.tailMap(cursor, false).values(), null, null, 2);
+        cursor = second.findNextCursor();
+        assertEquals("d.example.org", cursor);
+        JsonNode page = write(second);
+        assertEquals("c.example.com", page.get(0).get("fqdn").asText());
+        
+        DnsEntryListing last = new DnsEntryListing(dnsEntries.tailMap(cursor, false).values(), null, null, 2);
+        assertNull(last.findNextCursor());
+        assertEquals(1, write(last).size());
+    }
+    
+    @Test
+    public void testPageEndsAtCursorDespiteConcurrentInsert() throws IOException {
+        DnsEntryListing listing = new DnsEntryListing(dnsEntries.values(), null, null, 2);
+        assertEquals("b.example.com", listing.findNextCursor());
+        put(new DnsEntryARecord("aa.example.com", "10.0.0.9"));
+        JsonNode page = write(listing);
+        assertEquals(2, page.size());
+        assertEquals("a.example.com", page.get(0).get("fqdn").asText());
+        assertEquals("b.example.com", page.get(1).get("fqdn").asText());
+    }
+    
+    @Test
+    public void testFiltersByTypeAndSuffix() throws IOException {
+        JsonNode cnames = write(new DnsEntryListing(dnsEntries.values(), DnsEntryType.CNAME, null, 0));
+        assertEquals(1, cnames.size());
+        assertEquals("c.example.com", cnames.get(0).get("fqdn").asText());
+        
+        JsonNode underExample = write(new DnsEntryListing(dnsEntries.values(), DnsEntryType.A, ".Example.com.", 0));
+        assertEquals(2, underExample.size());
+        assertEquals("b.example.com", underExample.get(1).get("fqdn").asText());
+    }
+    
+    @Test
+    public void testMatchesETag() {
+        assertTrue(DnsUpdateController.matchesETag("\"1-2\"", "\"1-2\""));
+        assertTrue(DnsUpdateController.matchesETag("\"x\", W/\"1-2\"", "\"1-2\""));
+        assertTrue(DnsUpdateController.matchesETag("*", "\"1-2\""));
+        assertFalse(DnsUpdateController.matchesETag("\"1-1\"", "\"1-2\""));
+        assertFalse(DnsUpdateController.matchesETag(null, "\"1-2\""));
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsMessage;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.TsigSigner;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsServerHealth;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.IpAddresses;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class Rfc2136DnsClientTest {
+    
+    static final String SECRET = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes());
+    
+    StubDnsServer server;
+    Rfc2136DnsClient client;
+    
+    @Before
+    public void setUp() throws Exception {
+        server = new StubDnsServer();
+        client = new Rfc2136DnsClient();
+        client.authServer = "127.0.0.1";
+        client.authServerPort = server.getPort();
+        client.timeoutMillis = 2000;
+        client.socketPoolSize = 2;
+        client.tsigKeyName = "";
+        client.tsigAlgorithm = "hmac-sha256";
+        client.tsigSecret = "";
+        client.planner = new DnsUpdatePlanner(new ZoneResolver("example.com, 10.in-addr.arpa"));
+        client.maxBatchBytes = 16384;
+        client.concurrencyLimiter = new ServerConcurrencyLimiter(4);
+        client.healthTracker = new ServerHealthTracker(2, 60000);
+        client.postConstruct();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        client.preDestroy();
+        server.close();
+    }
+    
+    @Test
+    public void aRecordSendsForwardAndReverseUpdates() throws Exception {
+        client.UpdateARecordEntry(new DnsEntryARecord("host.example.com", "10.1.2.3"));
+        
+        assertEquals(2, server.getReceived().size());
+        DnsMessage forward = server.getReceived().get(0);
+        assertEquals(DnsMessage.OPCODE_UPDATE, forward.getOpcode());
+        assertEquals("example.com", forward.getQuestion().get(0).getName());
+        assertEquals(DnsType.SOA, forward.getQuestion().get(0).getType());
+        assertEquals(4, forward.getAuthority().size());
+        assertEquals(DnsType.CLASS_ANY, forward.getAuthority().get(0).getDnsClass());
+        DnsRecord add = forward.getAuthority().get(3);
+        assertEquals(DnsType.A, add.getType());
+        assertEquals(86400, add.getTtl());
+        assertArrayEquals(new byte[] {10, 1, 2, 3}, add.getRdata());
+        
+        DnsMessage reverse = server.getReceived().get(1);
+        assertEquals("10.in-addr.arpa", reverse.getQuestion().get(0).getName());
+        assertEquals(DnsType.CLASS_ANY, reverse.getAuthority().get(0).getDnsClass());
+        DnsRecord ptr = reverse.getAuthority().get(1);
+        assertEquals("3.2.1.10.in-addr.arpa", ptr.getName());
+        assertEquals("host.example.com", DnsWireFormat.decodeName(ptr.getRdata()));
+    }
+    
+    @Test
+    public void zoneIsTransferredOverTcpThenIncrementally() throws Exception {
+        server.setTransfer((request) -> request.getQuestion().get(0).getType() == DnsType.AXFR 
+                ? Arrays.asList(ZoneTransferTest.response(ZoneTransferTest.soa(1), ZoneTransferTest.a("host.example.com", 1, 300)), 
+                        ZoneTransferTest.response(ZoneTransferTest.soa(1)))
+                : Collections.singletonList(ZoneTransferTest.response(ZoneTransferTest.soa(2), 
+                        ZoneTransferTest.soa(1), ZoneTransferTest.soa(2), ZoneTransferTest.a("other.example.com", 2, 300), 
+                        ZoneTransferTest.soa(2))));
+        
+        assertTrue(client.supportsZoneTransfer());
+        ZoneTransfer axfr = client.transferZone("127.0.0.1", "example.com", null);
+        assertEquals(ZoneTransfer.Kind.AXFR, axfr.getKind());
+        assertEquals(1, axfr.getContents().size());
+        
+        ZoneTransfer ixfr = client.transferZone("127.0.0.1", "example.com", axfr.getContents());
+        assertEquals(ZoneTransfer.Kind.IXFR, ixfr.getKind());
+        assertEquals(2, ixfr.getContents().getSerial());
+        assertEquals(2, ixfr.getContents().size());
+        assertEquals(DnsType.IXFR, server.getReceived().get(1).getQuestion().get(0).getType());
+    }
+    
+    @Test
+    public void cnameSendsSingleUpdate() throws Exception {
+        client.UpdateCnameRecordEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+        
+        assertEquals(1, server.getReceived().size());
+        assertEquals(DnsType.ANY, server.getReceived().get(0).getAuthority().get(0).getType());
+        DnsRecord add = server.getReceived().get(0).getAuthority().get(1);
+        assertEquals(DnsType.CNAME, add.getType());
+        assertEquals("host.example.com", DnsWireFormat.decodeName(add.getRdata()));
+    }
+    
+    @Test
+    public void aaaaRecordSendsIp6ArpaPtr() throws Exception {
+        client.planner = new DnsUpdatePlanner(new ZoneResolver("example.com, 8.b.d.0.1.0.0.2.ip6.arpa"));
+        client.UpdateAAAARecordEntry(new DnsEntryAAAARecord("host.example.com", "2001:db8::42", 300));
+        
+        assertEquals(2, server.getReceived().size());
+        DnsRecord add = server.getReceived().get(0).getAuthority().get(3);
+        assertEquals(DnsType.AAAA, add.getType());
+        assertEquals(300, add.getTtl());
+        assertArrayEquals(IpAddresses.parseIpv6("2001:db8::42"), add.getRdata());
+        
+        DnsMessage reverse = server.getReceived().get(1);
+        assertEquals("8.b.d.0.1.0.0.2.ip6.arpa", reverse.getQuestion().get(0).getName());
+        DnsRecord ptr = reverse.getAuthority().get(1);
+        assertEquals("2.4.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.0.8.b.d.0.1.0.0.2.ip6.arpa", ptr.getName());
+        assertEquals(300, ptr.getTtl());
+        assertEquals("host.example.com", DnsWireFormat.decodeName(ptr.getRdata()));
+    }
+    
+    @Test
+    public void reassignedAddressReplacesThePtrOfItsPreviousName() throws Exception {
+        client.UpdateARecordEntry(new DnsEntryARecord("hosta.example.com", "10.0.0.1"));
+        client.UpdateARecordEntry(new DnsEntryARecord("hostb.example.com", "10.0.0.1"));
+        
+        assertEquals(4, server.getReceived().size());
+        DnsMessage reverse = server.getReceived().get(3);
+        assertEquals(2, reverse.getAuthority().size());
+        DnsRecord delete = reverse.getAuthority().get(0);
+        assertEquals("1.0.0.10.in-addr.arpa", delete.getName());
+        assertEquals(DnsType.PTR, delete.getType());
+        assertEquals(DnsType.CLASS_ANY, delete.getDnsClass());
+        DnsRecord ptr = reverse.getAuthority().get(1);
+        assertEquals("1.0.0.10.in-addr.arpa", ptr.getName());
+        assertEquals("hostb.example.com", DnsWireFormat.decodeName(ptr.getRdata()));
+    }
+    
+    @Test
+    public void deleteRemovesOnlyTheRetiredAddressAndItsOwnPtr() throws Exception {
+        DnsEntryARecord host = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        DnsBatchResult result = client.deleteBatch(client.getServers().get(0), Collections.singletonList(host));
+        
+        assertTrue(result.isSuccessful());
+        assertEquals(2, server.getReceived().size());
+        DnsRecord forward = server.getReceived().get(0).getAuthority().get(0);
+        assertEquals(DnsType.A, forward.getType());
+        assertEquals(DnsType.CLASS_NONE, forward.getDnsClass());
+        assertArrayEquals(host.getAddress(), forward.getRdata());
+        DnsRecord ptr = server.getReceived().get(1).getAuthority().get(0);
+        assertEquals("1.0.0.10.in-addr.arpa", ptr.getName());
+        assertEquals(DnsType.CLASS_NONE, ptr.getDnsClass());
+        assertEquals("host.example.com", DnsWireFormat.decodeName(ptr.getRdata()));
+    }
+    
+    @Test
+    public void txtIsSplitIntoCharacterStrings() throws Exception {
+        StringBuilder text = new StringBuilder("v=spf1 ");
+        while(text.length() < 300) {
+            text.append("include:example.net ");
+        }
+        client.UpdateTxtRecordEntry(new DnsEntryTxt("example.com", text.toString()));
+        
+        DnsRecord add = server.getReceived().get(0).getAuthority().get(2);
+        assertEquals(DnsType.TXT, add.getType());
+        assertEquals(DnsUpdatePlanner.DEFAULT_TTL, add.getTtl());
+        List<String> strings = DnsWireFormat.decodeCharacterStrings(add.getRdata());
+        assertEquals(2, strings.size());
+        assertEquals(255, strings.get(0).length());
+        assertEquals(text.toString(), strings.get(0) + strings.get(1));
+    }
+    
+    @Test
+    public void rejectedUpdateThrows() throws Exception {
+        server.setRcode((message) -> 5);
+        try {
+            client.UpdateCnameRecordEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+            fail("REFUSED should have been reported");
+        } catch(IllegalStateException ex) {
+            assertTrue(ex.getMessage().contains("REFUSED"));
+        }
+    }
+    
+    @Test
+    public void updatesAreSignedWithTsig() throws Exception {
+        client.tsigKeyName = "update-key";
+        client.tsigSecret = SECRET;
+        client.postConstruct();
+        client.UpdateCnameRecordEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+        
+        DnsMessage update = server.getReceived().get(0);
+        assertEquals(1, update.getAdditional().size());
+        DnsRecord tsig = update.getAdditional().get(0);
+        assertEquals(DnsType.TSIG, tsig.getType());
+        assertEquals("update-key", tsig.getName());
+        
+        ByteBuffer rdata = ByteBuffer.wrap(tsig.getRdata());
+        assertEquals("hmac-sha256", DnsWireFormat.readName(rdata));
+        long timeSigned = ((long)(rdata.getShort() & 0xFFFF) << 32) | (rdata.getInt() & 0xFFFFFFFFL);
+        int fudge = rdata.getShort() & 0xFFFF;
+        byte[] mac = new byte[rdata.getShort() & 0xFFFF];
+        rdata.get(mac);
+        
+        byte[] raw = server.getReceivedRaw().get(0);
+        byte[] unsigned = Arrays.copyOf(raw, raw.length - DnsWireFormat.encodedRecordLength(tsig));
+        unsigned[11] = 0;
+        TsigSigner verifier = new TsigSigner("update-key", "hmac-sha256", Base64.getDecoder().decode(SECRET));
+        assertArrayEquals(verifier.computeMac(unsigned, timeSigned, fudge), mac);
+    }
+    
+    @Test
+    public void batchIsPackedIntoOneUpdatePerZone() throws Exception {
+        List<DnsEntry> dnsEntries = Arrays.asList(
+                new DnsEntryARecord("one.example.com", "10.0.0.1"),
+                new DnsEntryARecord("two.example.com", "10.0.0.2"),
+                new DnsEntryCname("alias.example.com", "one.example.com"));
+        DnsBatchResult result = client.applyBatch(dnsEntries);
+        
+        assertTrue(result.isSuccessful());
+        assertEquals(dnsEntries, result.getSucceeded());
+        assertEquals(2, server.getReceived().size());
+        assertEquals("example.com", server.getReceived().get(0).getQuestion().get(0).getName());
+        assertEquals(10, server.getReceived().get(0).getAuthority().size());
+        assertEquals("10.in-addr.arpa", server.getReceived().get(1).getQuestion().get(0).getName());
+        assertEquals(4, server.getReceived().get(1).getAuthority().size());
+    }
+    
+    @Test
+    public void batchesAreSplitToTheConfiguredSize() throws Exception {
+        client.maxBatchBytes = 100;
+        client.applyBatch(Arrays.asList(
+                new DnsEntryCname("a.example.com", "target.example.com"),
+                new DnsEntryCname("b.example.com", "target.example.com"),
+                new DnsEntryCname("c.example.com", "target.example.com")));
+        
+        assertEquals(3, server.getReceived().size());
+    }
+    
+    @Test
+    public void rejectedBatchIsSplitUntilTheBadEntryIsIsolated() throws Exception {
+        server.setRcode((message) -> message.getAuthority().stream()
+                .anyMatch((record) -> record.getName().startsWith("bad.")) ? 5 : 0);
+        DnsEntryCname bad = new DnsEntryCname("bad.example.com", "target.example.com");
+        DnsBatchResult result = client.applyBatch(Arrays.asList(
+                new DnsEntryCname("a.example.com", "target.example.com"),
+                bad,
+                new DnsEntryCname("c.example.com", "target.example.com"),
+                new DnsEntryCname("d.example.com", "target.example.com")));
+        
+        assertEquals(3, result.getSucceeded().size());
+        assertEquals(1, result.getFailed().size());
+        assertTrue(result.getFailed().containsKey(bad));
+    }
+    
+    @Test
+    public void updatesAreTimedAndCountedByType() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        client.meterRegistry = registry;
+        server.setRcode((message) -> message.getAuthority().stream().anyMatch((record) -> record.getName().startsWith("bad")) ? 5 : 0);
+        client.applyBatch(Arrays.asList(
+                new DnsEntryARecord("host.example.com", "10.1.2.3"),
+                new DnsEntryCname("bad.example.com", "host.example.com")));
+        
+        assertEquals(1, registry.get("dns.client.entries").tag("type", "A").tag("outcome", "success").counter().count(), 0);
+        assertEquals(1, registry.get("dns.client.entries").tag("type", "CNAME").tag("outcome", "failure").counter().count(), 0);
+        assertEquals(1, registry.get("dns.client.update").tag("type", "mixed").tag("outcome", "failure").timer().count());
+        assertEquals(1, registry.get("dns.client.update").tag("type", "CNAME").tag("outcome", "failure").timer().count());
+    }
+    
+    @Test
+    public void batchIsSentToEveryServer() throws Exception {
+        try(StubDnsServer second = new StubDnsServer()) {
+            client.preDestroy();
+            client.authServer = String.format("127.0.0.1:%d, 127.0.0.1:%d", server.getPort(), second.getPort());
+            client.postConstruct();
+            DnsBatchResult result = client.applyBatch(Arrays.asList(new DnsEntryCname("alias.example.com", "host.example.com")));
+            
+            assertTrue(result.isSuccessful());
+            assertEquals(1, server.getReceived().size());
+            assertEquals(1, second.getReceived().size());
+        }
+    }
+    
+    @Test
+    public void unreachableServerOpensItsCircuit() throws Exception {
+        StubDnsServer gone = new StubDnsServer();
+        int gonePort = gone.getPort();
+        gone.close();
+        client.preDestroy();
+        client.authServer = String.format("127.0.0.1:%d, 127.0.0.1:%d", server.getPort(), gonePort);
+        client.timeoutMillis = 200;
+        client.postConstruct();
+        String unreachable = client.getServers().get(1);
+        List<DnsEntry> dnsEntries = Arrays.asList(
+                new DnsEntryCname("a.example.com", "target.example.com"),
+                new DnsEntryCname("b.example.com", "target.example.com"));
+        
+        DnsBatchResult result = client.applyBatch(unreachable, dnsEntries);
+        assertEquals(2, result.getFailed().size());
+        assertTrue(result.getUnavailable() != null);
+        client.applyBatch(unreachable, dnsEntries);
+        assertEquals(DnsServerHealth.State.OPEN, client.healthTracker.getHealth(unreachable).getState());
+        
+        long start = System.currentTimeMillis();
+        result = client.applyBatch(dnsEntries);
+        assertTrue(System.currentTimeMillis() - start < 200);
+        assertEquals(2, result.getFailed().size());
+        assertTrue(result.getFailed().get(dnsEntries.get(0)).getMessage().contains("open"));
+        assertEquals(1, server.getReceived().size());
+        assertEquals(DnsServerHealth.State.CLOSED, client.healthTracker.getHealth(client.getServers().get(0)).getState());
+    }
+}
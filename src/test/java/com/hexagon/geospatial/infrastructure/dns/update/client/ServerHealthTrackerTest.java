@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsServerHealth;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class ServerHealthTrackerTest {
+    
+    ServerHealthTracker tracker = new ServerHealthTracker(3, 1000);
+    
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        tracker.recordFailure("ns1", new IOException("timed out"), 0);
+        tracker.recordFailure("ns1", new IOException("timed out"), 1);
+        tracker.recordSuccess("ns1", 2);
+        tracker.recordFailure("ns1", new IOException("timed out"), 3);
+        tracker.recordFailure("ns1", new IOException("timed out"), 4);
+        assertTrue(tracker.allowRequest("ns1", 5));
+        
+        tracker.recordFailure("ns1", new IOException("timed out"), 5);
+        DnsServerHealth health = tracker.getHealth("ns1");
+        assertEquals(DnsServerHealth.State.OPEN, health.getState());
+        assertEquals(5, health.getTotalFailures());
+        assertEquals("timed out", health.getLastError());
+        assertFalse(tracker.allowRequest("ns1", 6));
+        assertTrue(tracker.allowRequest("ns2", 6));
+    }
+    
+    @Test
+    public void oneProbeIsAllowedAfterTheOpenPeriod() {
+        for(int i = 0; i < 3; i++) {
+            tracker.recordFailure("ns1", new IOException("timed out"), 0);
+        }
+        assertFalse(tracker.allowRequest("ns1", 999));
+        assertTrue(tracker.allowRequest("ns1", 1000));
+        assertFalse(tracker.allowRequest("ns1", 1001));
+        
+        tracker.recordFailure("ns1", new IOException("timed out"), 1002);
+        assertEquals(DnsServerHealth.State.OPEN, tracker.getHealth("ns1").getState());
+        assertFalse(tracker.allowRequest("ns1", 1500));
+        
+        assertTrue(tracker.allowRequest("ns1", 2002));
+        tracker.recordSuccess("ns1", 2003);
+        assertEquals(DnsServerHealth.State.CLOSED, tracker.getHealth("ns1").getState());
+        assertTrue(tracker.allowRequest("ns1", 2004));
+    }
+    
+    @Test
+    public void probeWithNoOutcomeExpires() {
+        for(int i = 0; i < 3; i++) {
+            tracker.recordFailure("ns1", new IOException("timed out"), 0);
+        }
+        assertTrue(tracker.allowRequest("ns1", 1000));
+        assertFalse(tracker.allowRequest("ns1", 1999));
+        
+        assertTrue(tracker.allowRequest("ns1", 2000));
+        assertEquals(DnsServerHealth.State.HALF_OPEN, tracker.getHealth("ns1").getState());
+        assertEquals(2000, tracker.getHealth("ns1").getProbeTime());
+        assertFalse(tracker.allowRequest("ns1", 2001));
+        
+        tracker.recordSuccess("ns1", 2002);
+        assertEquals(DnsServerHealth.State.CLOSED, tracker.getHealth("ns1").getState());
+    }
+}
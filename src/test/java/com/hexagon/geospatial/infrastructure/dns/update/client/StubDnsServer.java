@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsMessage;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsTransport;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * In-process UDP DNS server that decodes every message it receives and
+ * answers with an empty response carrying the rcode chosen by the test.
+ * Zone transfers are served over TCP on the same port with the messages the
+ * test chooses.
+ *
+ * @author Chris
+ */
+public class StubDnsServer implements Closeable {
+    
+    final DatagramSocket socket;
+    final ServerSocket tcpSocket;
+    final Thread thread;
+    final Thread tcpThread;
+    final List<DnsMessage> received = new CopyOnWriteArrayList<>();
+    final List<byte[]> receivedRaw = new CopyOnWriteArrayList<>();
+    volatile Function<DnsMessage, Integer> rcode = (message) -> 0;
+    volatile Function<DnsMessage, List<DnsMessage>> transfer = (message) -> Collections.emptyList();
+    
+    public StubDnsServer() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        thread = new Thread(this::serve, "stub-dns-server");
+        thread.setDaemon(true);
+        thread.start();
+        tcpSocket = new ServerSocket(socket.getLocalPort(), 4, InetAddress.getLoopbackAddress());
+        tcpThread = new Thread(this::serveTcp, "stub-dns-server-tcp");
+        tcpThread.setDaemon(true);
+        tcpThread.start();
+    }
+    
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+    
+    public List<DnsMessage> getReceived() {
+        return received;
+    }
+    
+    public List<byte[]> getReceivedRaw() {
+        return receivedRaw;
+    }
+    
+    public void setRcode(Function<DnsMessage, Integer> rcode) {
+        this.rcode = rcode;
+    }
+    
+    /**
+     * @param transfer the response messages to a transfer request, their ids
+     * are set to the request's
+     */
+    public void setTransfer(Function<DnsMessage, List<DnsMessage>> transfer) {
+        this.transfer = transfer;
+    }
+    
+    void serveTcp() {
+        while(!tcpSocket.isClosed()) {
+            try(Socket connection = tcpSocket.accept()) {
+                DataInputStream in = new DataInputStream(connection.getInputStream());
+                DnsMessage request = DnsWireFormat.decode(DnsTransport.readTcpMessage(in));
+                received.add(request);
+                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+                for(DnsMessage response : transfer.apply(request)) {
+                    response.setId(request.getId());
+                    byte[] encoded = DnsWireFormat.encode(response);
+                    out.writeShort(encoded.length);
+                    out.write(encoded);
+                }
+                out.flush();
+            } catch(SocketException ex) {
+                return;
+            } catch(IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+    
+    void serve() {
+        byte[] buffer = new byte[65535];
+        while(!socket.isClosed()) {
+            try {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                byte[] raw = new byte[packet.getLength()];
+                System.arraycopy(packet.getData(), packet.getOffset(), raw, 0, raw.length);
+                DnsMessage request = DnsWireFormat.decode(raw);
+                receivedRaw.add(raw);
+                received.add(request);
+                
+                DnsMessage response = new DnsMessage();
+                response.setId(request.getId());
+                response.setFlags(request.getFlags() | DnsMessage.FLAG_QR | rcode.apply(request));
+                response.getQuestion().addAll(request.getQuestion());
+                byte[] encoded = DnsWireFormat.encode(response);
+                socket.send(new DatagramPacket(encoded, encoded.length, packet.getSocketAddress()));
+            } catch(SocketException ex) {
+                return;
+            } catch(IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        tcpSocket.close();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsMessage;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class ZoneTransferTest {
+    
+    static DnsRecord soa(long serial) {
+        return new DnsRecord("example.com", DnsType.SOA, DnsType.CLASS_IN, 3600, ZoneTransfer.soa(serial));
+    }
+    
+    static DnsRecord a(String name, int lastOctet, long ttl) {
+        return new DnsRecord(name, DnsType.A, DnsType.CLASS_IN, ttl, new byte[] {10, 0, 0, (byte)lastOctet});
+    }
+    
+    static DnsMessage response(DnsRecord... answers) {
+        DnsMessage response = new DnsMessage();
+        response.setFlags(DnsMessage.FLAG_QR);
+        response.getAnswer().addAll(Arrays.asList(answers));
+        return response;
+    }
+    
+    static ZoneContents axfr(DnsRecord... records) {
+        ZoneTransfer transfer = new ZoneTransfer("example.com", null);
+        assertTrue(transfer.accept(response(records)));
+        return transfer.getContents();
+    }
+    
+    @Test
+    public void axfrMaySpanSeveralMessages() {
+        ZoneTransfer transfer = new ZoneTransfer("example.com", null);
+        DnsMessage request = transfer.request(7);
+        assertEquals(DnsType.AXFR, request.getQuestion().get(0).getType());
+        assertTrue(request.getAuthority().isEmpty());
+        
+        assertFalse(transfer.accept(response(soa(10), a("one.example.com", 1, 300))));
+        assertFalse(transfer.accept(response(a("Two.Example.com", 2, 300))));
+        assertTrue(transfer.accept(response(soa(10))));
+        
+        ZoneContents contents = transfer.getContents();
+        assertEquals(ZoneTransfer.Kind.AXFR, transfer.getKind());
+        assertEquals(10, contents.getSerial());
+        assertEquals(2, contents.size());
+        assertEquals(Long.valueOf(300), contents.ttlOf(a("two.example.com", 2, 0)));
+        assertNull(contents.ttlOf(a("two.example.com", 3, 0)));
+    }
+    
+    @Test
+    public void ixfrAppliesEachDifferenceInTurn() {
+        ZoneContents previous = axfr(soa(10), a("one.example.com", 1, 300), a("two.example.com", 2, 300), soa(10));
+        ZoneTransfer transfer = new ZoneTransfer("example.com", previous);
+        DnsMessage request = DnsWireFormat.decode(DnsWireFormat.encode(transfer.request(7)));
+        assertEquals(DnsType.IXFR, request.getQuestion().get(0).getType());
+        assertEquals(10, ZoneTransfer.serialOf(request.getAuthority().get(0).getRdata()));
+        
+        assertTrue(transfer.accept(response(soa(12), 
+                soa(10), a("two.example.com", 2, 300), soa(11), a("two.example.com", 3, 300), 
+                soa(11), a("one.example.com", 1, 300), soa(12), a("three.example.com", 4, 60), 
+                soa(12))));
+        
+        ZoneContents contents = transfer.getContents();
+        assertEquals(ZoneTransfer.Kind.IXFR, transfer.getKind());
+        assertEquals(12, contents.getSerial());
+        assertEquals(2, contents.size());
+        assertNotNull(contents.ttlOf(a("two.example.com", 3, 0)));
+        assertNotNull(contents.ttlOf(a("three.example.com", 4, 0)));
+        assertNull(contents.ttlOf(a("one.example.com", 1, 0)));
+        // the contents transferred before are left as they were
+        assertEquals(2, previous.size());
+        assertNotNull(previous.ttlOf(a("one.example.com", 1, 0)));
+    }
+    
+    @Test
+    public void loneSoaMeansNothingChanged() {
+        ZoneContents previous = axfr(soa(10), a("one.example.com", 1, 300), soa(10));
+        ZoneTransfer transfer = new ZoneTransfer("example.com", previous);
+        
+        assertTrue(transfer.accept(response(soa(10))));
+        assertEquals(ZoneTransfer.Kind.UP_TO_DATE, transfer.getKind());
+        assertSame(previous, transfer.getContents());
+    }
+    
+    @Test
+    public void ixfrMayBeAnsweredWithTheWholeZone() {
+        ZoneContents previous = axfr(soa(10), a("one.example.com", 1, 300), soa(10));
+        ZoneTransfer transfer = new ZoneTransfer("example.com", previous);
+        
+        assertTrue(transfer.accept(response(soa(15), a("two.example.com", 2, 300), soa(15))));
+        assertEquals(ZoneTransfer.Kind.AXFR, transfer.getKind());
+        assertEquals(1, transfer.getContents().size());
+        assertNull(transfer.getContents().ttlOf(a("one.example.com", 1, 0)));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void refusedTransferThrows() {
+        DnsMessage refused = response();
+        refused.setFlags(DnsMessage.FLAG_QR | 5);
+        new ZoneTransfer("example.com", null).accept(refused);
+    }
+}
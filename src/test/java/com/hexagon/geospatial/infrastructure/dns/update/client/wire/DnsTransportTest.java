@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.client.wire;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class DnsTransportTest {
+    
+    interface Responder {
+        /**
+         * @return false to close the connection instead of answering
+         */
+        boolean respond(int connection, DnsMessage request, DataOutputStream out) throws IOException;
+    }
+    
+    ServerSocket serverSocket;
+    DnsTransport transport;
+    final AtomicInteger connections = new AtomicInteger();
+    final List<DnsMessage> received = new CopyOnWriteArrayList<>();
+    final Semaphore closed = new Semaphore(0);
+    
+    void serve(Responder responder) throws IOException {
+        serverSocket = new ServerSocket(0, 4, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while(!serverSocket.isClosed()) {
+                try {
+                    Socket connection = serverSocket.accept();
+                    int number = connections.getAndIncrement();
+                    Thread handler = new Thread(() -> handle(number, connection, responder));
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch(IOException ex) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        transport = new DnsTransport(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()), 300, 2);
+    }
+    
+    void handle(int number, Socket connection, Responder responder) {
+        try(Socket socket = connection) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            while(true) {
+                DnsMessage request = DnsWireFormat.decode(DnsTransport.readTcpMessage(in));
+                received.add(request);
+                if(!responder.respond(number, request, out)) {
+                    return;
+                }
+                out.flush();
+            }
+        } catch(IOException ex) {
+            // the client went away
+        } finally {
+            closed.release();
+        }
+    }
+    
+    static void answer(DataOutputStream out, int id) throws IOException {
+        DnsMessage response = new DnsMessage();
+        response.setId(id);
+        response.setFlags(DnsMessage.FLAG_QR);
+        byte[] encoded = DnsWireFormat.encode(response);
+        out.writeShort(encoded.length);
+        out.write(encoded);
+    }
+    
+    static byte[] request(int id) {
+        return DnsWireFormat.encode(DnsMessage.update(id, "example.com"));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        serverSocket.close();
+    }
+    
+    @Test
+    public void responseToAnotherRequestIsSkipped() throws IOException {
+        serve((connection, request, out) -> {
+            answer(out, request.getId() + 1);
+            answer(out, request.getId());
+            return true;
+        });
+    
+        assertEquals(42, transport.exchangeTcp(request(42)).getId());
+    }
+    
+    @Test
+    public void connectionClosedInThePoolIsReplaced() throws Exception {
+        serve((connection, request, out) -> {
+            answer(out, request.getId());
+            out.flush();
+            // close after the first answer, as a server dropping an idle connection does
+            return false;
+        });
+        transport.exchangeTcp(request(1));
+        assertTrue(closed.tryAcquire(5, TimeUnit.SECONDS));
+    
+        assertEquals(2, transport.exchangeTcp(request(2)).getId());
+        assertEquals(2, connections.get());
+        assertEquals(2, received.size());
+    }
+    
+    @Test
+    public void connectionEndingBeforeAnyResponseIsRetriedOnAFreshOne() throws Exception {
+        serve((connection, request, out) -> {
+            if(connection == 0 && request.getId() == 2) {
+                // closed once it read the request, before answering
+                return false;
+            }
+            answer(out, request.getId());
+            return true;
+        });
+        transport.exchangeTcp(request(1));
+    
+        assertEquals(2, transport.exchangeTcp(request(2)).getId());
+        assertEquals(2, connections.get());
+        assertEquals(3, received.size());
+    }
+    
+    @Test
+    public void timeoutAfterTheRequestWasWrittenIsNotRetried() throws IOException {
+        serve((connection, request, out) -> {
+            if(request.getId() == 1) {
+                answer(out, request.getId());
+            }
+            return true;
+        });
+        transport.exchangeTcp(request(1));
+    
+        try {
+            transport.exchangeTcp(request(2));
+            fail("A request the server may have applied must not be sent again");
+        } catch(SocketTimeoutException ex) {
+            // expected
+        }
+        assertEquals(1, connections.get());
+        assertEquals(2, received.size());
+    }
+}
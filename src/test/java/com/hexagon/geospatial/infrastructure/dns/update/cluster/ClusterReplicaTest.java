@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class ClusterReplicaTest {
+    
+    HttpServer leader;
+    List<DnsEntry> leaderEntries;
+    String leaderETag;
+    int snapshots;
+    ClusterReplica replica;
+    
+    @Before
+    public void setUp() throws IOException {
+        leaderEntries = new ArrayList<>();
+        leaderETag = "\"1-1\"";
+        leader = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        leader.createContext(ClusterReplica.SNAPSHOT_PATH, this::answer);
+        leader.start();
+        
+        LeaderElection leaderElection = mock(LeaderElection.class);
+        when(leaderElection.getLeaderUrl()).thenReturn(String.format("http://127.0.0.1:%d", leader.getAddress().getPort()));
+        replica = new ClusterReplica();
+        replica.leaderElection = leaderElection;
+        replica.timeoutMillis = 5000;
+    }
+    
+    @After
+    public void tearDown() {
+        leader.stop(0);
+    }
+    
+    void answer(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("ETag", leaderETag);
+        if(leaderETag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        snapshots++;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ClusterReplica.writeSnapshot(leaderEntries, body, new ObjectMapper());
+        exchange.sendResponseHeaders(200, body.size());
+        try(OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+    
+    static DnsEntry leased(DnsEntry dnsEntry, long lease) {
+        dnsEntry.setLease(lease);
+        return dnsEntry;
+    }
+    
+    static List<DnsEntry> list(Iterable<DnsEntry> dnsEntries) {
+        List<DnsEntry> listed = new ArrayList<>();
+        dnsEntries.forEach(listed::add);
+        return listed;
+    }
+    
+    @Test
+    public void replicaCopiesEveryKindOfEntry() throws IOException {
+        leaderEntries.addAll(Arrays.asList(
+                new DnsEntryCname("alias.example.com", "host.example.com", 60),
+                leased(new DnsEntryARecord("host.example.com", "10.0.0.1", 300), 90),
+                new DnsEntryAAAARecord("host6.example.com", "2001:db8::1"),
+                new DnsEntryTxt("txt.example.com", "owner=ops")));
+        
+        assertTrue(replica.refresh());
+        
+        assertEquals(leaderEntries, list(replica.iterateDnsEntriesAfter(null)));
+        assertEquals(leaderEntries.subList(2, 4), list(replica.iterateDnsEntriesAfter("host.example.com")));
+        assertEquals("\"1-1\"", replica.getETag());
+        assertEquals(4, replica.size());
+    }
+    
+    @Test
+    public void snapshotIsOnlyFetchedAgainOnceItChanged() throws IOException {
+        leaderEntries.add(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        assertTrue(replica.refresh());
+        assertFalse(replica.refresh());
+        assertEquals(1, snapshots);
+        
+        leaderEntries.add(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+        leaderETag = "\"1-2\"";
+        assertTrue(replica.refresh());
+        assertEquals(2, snapshots);
+        assertEquals(2, replica.size());
+        assertEquals("\"1-2\"", replica.getETag());
+    }
+    
+    @Test
+    public void nothingIsFetchedWithoutALeader() throws IOException {
+        when(replica.leaderElection.getLeaderUrl()).thenReturn(null);
+        
+        assertFalse(replica.refresh());
+        assertEquals(0, snapshots);
+        assertNull(replica.getETag());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.cluster;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class LeaderElectionTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    File leaseFile;
+    long now;
+    
+    @Before
+    public void setUp() {
+        leaseFile = new File(folder.getRoot(), "dnsUpdate.leader");
+        now = Instant.now().toEpochMilli();
+    }
+    
+    LeaderElection node(String url) {
+        LeaderElection leaderElection = new LeaderElection();
+        leaderElection.enabled = true;
+        leaderElection.leaseFile = leaseFile;
+        leaderElection.leaseMillis = 60000;
+        leaderElection.leaseMarginMillis = 5000;
+        leaderElection.nodeUrl = url;
+        leaderElection.meterRegistry = new SimpleMeterRegistry();
+        return leaderElection;
+    }
+    
+    @Test
+    public void firstInstanceLeadsAndOthersWait() {
+        LeaderElection first = node("http://first:8080");
+        LeaderElection second = node("http://second:8080");
+        
+        assertTrue(first.heartbeat(now));
+        assertFalse(second.heartbeat(now));
+        assertTrue(first.isLeader(now));
+        assertFalse(second.isLeader(now));
+        assertEquals("http://first:8080", second.getLeaderUrl());
+        
+        assertFalse("renewing is not a new election", first.heartbeat(now + 1000));
+        assertTrue(first.isLeader(now + 30000));
+        assertFalse(second.heartbeat(now + 30000));
+    }
+    
+    @Test
+    public void standbyTakesOverALeaseThatRanOut() {
+        LeaderElection first = node("http://first:8080");
+        LeaderElection second = node("http://second:8080");
+        first.heartbeat(now);
+        second.heartbeat(now);
+        
+        assertFalse(first.isLeader(now + 60000));
+        assertTrue(second.heartbeat(now + 60000));
+        assertFalse(first.heartbeat(now + 60001));
+        assertFalse(first.isLeader(now + 60001));
+        assertEquals("http://second:8080", first.lease.getUrl());
+    }
+    
+    @Test
+    public void leaderStepsDownBeforeAStandbyCanTakeOver() {
+        LeaderElection first = node("http://first:8080");
+        LeaderElection second = node("http://second:8080");
+        first.heartbeat(now);
+        second.heartbeat(now);
+        
+        // the leader stalls and cannot renew
+        assertTrue(first.isLeader(now + 54999));
+        assertFalse(first.isLeader(now + 55000));
+        assertFalse(second.heartbeat(now + 59999));
+        assertTrue(second.heartbeat(now + 60000));
+        assertFalse(first.isLeader(now + 60000));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void marginMustBeShorterThanTheLease() throws IOException {
+        LeaderElection leaderElection = node("http://first:8080");
+        leaderElection.leaseMarginMillis = 60000;
+        leaderElection.postConstruct();
+    }
+    
+    @Test
+    public void clusterKeyIsSharedAndOutlivesTheLeader() {
+        LeaderElection first = node("http://first:8080");
+        LeaderElection second = node("http://second:8080");
+        first.heartbeat(now);
+        second.heartbeat(now);
+        String clusterKey = first.getClusterKey();
+        
+        assertNotNull(clusterKey);
+        assertTrue(second.isClusterKey(clusterKey));
+        assertFalse(second.isClusterKey("guessed"));
+        assertFalse(second.isClusterKey(null));
+        
+        first.preDestroy();
+        second.heartbeat(now + 1000);
+        assertTrue(second.isLeader(now + 1000));
+        assertEquals(clusterKey, second.getClusterKey());
+    }
+    
+    @Test
+    public void releasedLeaseIsTakenStraightAway() {
+        LeaderElection first = node("http://first:8080");
+        LeaderElection second = node("http://second:8080");
+        first.heartbeat(now);
+        second.heartbeat(now);
+        
+        first.preDestroy();
+        assertFalse(first.isLeader());
+        assertTrue(second.heartbeat(now + 1000));
+    }
+    
+    @Test
+    public void unreadableLeaseIsHeldByNoOne() throws IOException {
+        Files.write(leaseFile.toPath(), "{\"nodeId\":\"4f".getBytes(StandardCharsets.UTF_8));
+        assertTrue(node("http://first:8080").heartbeat(now));
+    }
+    
+    @Test
+    public void everyInstanceLeadsWhenDisabled() {
+        LeaderElection leaderElection = node("http://first:8080");
+        leaderElection.enabled = false;
+        
+        assertFalse(leaderElection.heartbeat(now));
+        assertTrue(leaderElection.isLeader());
+        assertNull(leaderElection.getLeaderUrl());
+        assertFalse(leaseFile.exists());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.cluster;
+
+import com.hexagon.geospatial.infrastructure.dns.update.DnsUpdateController;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ServletException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+/**
+ *
+ * @author Chris
+ */
+public class LeaderForwardingFilterTest {
+    
+    HttpServer leader;
+    List<String> received;
+    LeaderElection leaderElection;
+    LeaderForwardingFilter filter;
+    
+    @Before
+    public void setUp() throws IOException {
+        received = new ArrayList<>();
+        leader = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        leader.createContext("/", this::answer);
+        leader.start();
+        
+        leaderElection = mock(LeaderElection.class);
+        when(leaderElection.isEnabled()).thenReturn(true);
+        when(leaderElection.getClusterKey()).thenReturn("cluster-key");
+        when(leaderElection.getLeaderUrl()).thenReturn(String.format("http://127.0.0.1:%d", leader.getAddress().getPort()));
+        filter = new LeaderForwardingFilter();
+        filter.leaderElection = leaderElection;
+        filter.meterRegistry = new SimpleMeterRegistry();
+        filter.timeoutMillis = 5000;
+    }
+    
+    @After
+    public void tearDown() {
+        leader.stop(0);
+    }
+    
+    void answer(HttpExchange exchange) throws IOException {
+        String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+        received.add(String.format("%s %s %s %s %s", exchange.getRequestMethod(), exchange.getRequestURI(), body,
+                exchange.getRequestHeaders().getFirst(LeaderForwardingFilter.FORWARDED_FOR_HEADER),
+                exchange.getRequestHeaders().getFirst(LeaderForwardingFilter.FORWARDED_BY_HEADER)));
+        byte[] response = "{\"fqdn\":\"host.example.com\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.getResponseHeaders().add(DnsUpdateController.NEXT_CURSOR_HEADER, "host.example.com");
+        exchange.getResponseHeaders().add("Set-Cookie", "leader=1");
+        exchange.sendResponseHeaders(exchange.getRequestURI().getPath().startsWith("/status/") ? 404 : 200, response.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+    
+    MockHttpServletResponse filter(MockHttpServletRequest request, MockFilterChain filterChain) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, filterChain);
+        return response;
+    }
+    
+    @Test
+    public void standbyForwardsToTheLeader() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/register/batch");
+        request.setQueryString("dryRun=false");
+        request.setContentType("application/json");
+        request.setContent("[]".getBytes(StandardCharsets.UTF_8));
+        request.setRemoteAddr("10.1.1.1");
+        MockFilterChain filterChain = new MockFilterChain();
+        
+        MockHttpServletResponse response = filter(request, filterChain);
+        
+        assertNull("the standby must not handle it itself", filterChain.getRequest());
+        assertEquals(200, response.getStatus());
+        assertEquals("{\"fqdn\":\"host.example.com\"}", response.getContentAsString());
+        assertEquals("application/json;charset=UTF-8", response.getContentType());
+        assertEquals("host.example.com", response.getHeader(DnsUpdateController.NEXT_CURSOR_HEADER));
+        assertNull(response.getHeader("Set-Cookie"));
+        assertEquals("POST /register/batch?dryRun=false [] 10.1.1.1 cluster-key", received.get(0));
+    }
+    
+    @Test
+    public void leaderErrorsAreReturnedAsTheyAre() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/status/missing.example.com");
+        request.addHeader(LeaderForwardingFilter.FORWARDED_FOR_HEADER, "192.0.2.1");
+        request.setRemoteAddr("10.1.1.1");
+        
+        MockHttpServletResponse response = filter(request, new MockFilterChain());
+        
+        assertEquals(404, response.getStatus());
+        assertEquals("{\"fqdn\":\"host.example.com\"}", response.getContentAsString());
+        assertEquals("GET /status/missing.example.com  192.0.2.1, 10.1.1.1 cluster-key", received.get(0));
+    }
+    
+    @Test
+    public void leaderLimitsAForwardedRequestAsTheStandbysClient() throws Exception {
+        when(leaderElection.isClusterKey("cluster-key")).thenReturn(true);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/register/host.example.com/10.0.0.1");
+        request.addHeader(LeaderForwardingFilter.FORWARDED_FOR_HEADER, "192.0.2.1, 10.1.1.1");
+        request.addHeader(LeaderForwardingFilter.FORWARDED_BY_HEADER, "cluster-key");
+        request.setRemoteAddr("10.9.9.9");
+        
+        assertEquals("10.1.1.1", LeaderForwardingFilter.forwardedClient(request, leaderElection));
+    }
+    
+    @Test
+    public void forwardedClientIsOnlyTrustedFromTheCluster() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/register/host.example.com/10.0.0.1");
+        request.addHeader(LeaderForwardingFilter.FORWARDED_FOR_HEADER, "10.1.1.1");
+        assertNull(LeaderForwardingFilter.forwardedClient(request, leaderElection));
+        
+        request.addHeader(LeaderForwardingFilter.FORWARDED_BY_HEADER, "guessed");
+        assertNull(LeaderForwardingFilter.forwardedClient(request, leaderElection));
+    }
+    
+    @Test
+    public void leaderHandlesItsOwnRequests() throws Exception {
+        when(leaderElection.isLeader()).thenReturn(true);
+        MockFilterChain filterChain = new MockFilterChain();
+        
+        filter(new MockHttpServletRequest("GET", "/register/host.example.com/10.0.0.1"), filterChain);
+        
+        assertNotNull(filterChain.getRequest());
+        assertTrue(received.isEmpty());
+    }
+    
+    @Test
+    public void listingIsServedByTheStandby() throws Exception {
+        MockFilterChain filterChain = new MockFilterChain();
+        
+        filter(new MockHttpServletRequest("GET", "/list"), filterChain);
+        
+        assertNotNull(filterChain.getRequest());
+        assertTrue(received.isEmpty());
+    }
+    
+    @Test
+    public void retryLaterWithoutALeader() throws Exception {
+        when(leaderElection.getLeaderUrl()).thenReturn(null);
+        
+        MockHttpServletResponse response = filter(new MockHttpServletRequest("GET", "/register/host.example.com/10.0.0.1"), new MockFilterChain());
+        
+        assertEquals(503, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+    }
+    
+    @Test
+    public void retryLaterWhenTheLeaderCannotBeReached() throws Exception {
+        leader.stop(0);
+        
+        MockHttpServletResponse response = filter(new MockHttpServletRequest("GET", "/register/host.example.com/10.0.0.1"), new MockFilterChain());
+        
+        assertEquals(503, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+    }
+    
+    @Test
+    public void forwardedRequestIsNotForwardedAgain() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/register/host.example.com/10.0.0.1");
+        request.addHeader(LeaderForwardingFilter.FORWARDED_BY_HEADER, "other");
+        
+        MockHttpServletResponse response = filter(request, new MockFilterChain());
+        
+        assertEquals(503, response.getStatus());
+        assertTrue(received.isEmpty());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class IpAddressesTest {
+    
+    @Test
+    public void ipv4RoundTrips() {
+        assertArrayEquals(new byte[] {10, 0, (byte)255, 1}, IpAddresses.parseIpv4("10.0.255.1"));
+        assertEquals("10.0.255.1", IpAddresses.format(IpAddresses.parseIpv4("10.0.255.1")));
+    }
+    
+    @Test
+    public void invalidIpv4IsRejected() {
+        for(String invalid : new String[] {"10.0.0", "10.0.0.256", "10..0.1", "10.0.0.1.", "host.example.com", ""}) {
+            try {
+                IpAddresses.parseIpv4(invalid);
+                fail(invalid + " should have been rejected");
+            } catch(IllegalArgumentException ex) {
+            }
+        }
+    }
+    
+    @Test
+    public void ipv6IsFormattedCompressed() {
+        assertEquals("2001:db8::1", IpAddresses.format(IpAddresses.parseIpv6("2001:0db8:0000:0000:0000:0000:0000:0001")));
+        assertEquals("::", IpAddresses.format(new byte[16]));
+        assertEquals("2001:db8:0:1:1:1:1:1", IpAddresses.format(IpAddresses.parseIpv6("2001:db8:0:1:1:1:1:1")));
+        assertEquals("2001:0:0:1::1", IpAddresses.format(IpAddresses.parseIpv6("2001:0:0:1:0:0:0:1")));
+        assertEquals("::ffff:a00:1", IpAddresses.format(IpAddresses.parseIpv6("::ffff:10.0.0.1")));
+    }
+    
+    @Test
+    public void ipv6RejectsHostNames() {
+        try {
+            IpAddresses.parseIpv6("host.example.com");
+            fail("a host name should have been rejected");
+        } catch(IllegalArgumentException ex) {
+        }
+    }
+    
+    @Test
+    public void ipv6FormsAreParsed() {
+        assertArrayEquals(new byte[16], IpAddresses.parseIpv6("::"));
+        assertEquals("::1", IpAddresses.format(IpAddresses.parseIpv6("::1")));
+        assertEquals("1::", IpAddresses.format(IpAddresses.parseIpv6("1::")));
+        assertEquals("1:2:3:4:5:6:7:0", IpAddresses.format(IpAddresses.parseIpv6("1:2:3:4:5:6:7::")));
+        assertEquals("0:1:2:3:4:5:6:7", IpAddresses.format(IpAddresses.parseIpv6("::1:2:3:4:5:6:7")));
+        assertEquals("2001:db8::abcd", IpAddresses.format(IpAddresses.parseIpv6("2001:DB8::ABCD")));
+        assertEquals("::a00:1", IpAddresses.format(IpAddresses.parseIpv6("::10.0.0.1")));
+        assertEquals("1:2:3:4:5:6:a00:1", IpAddresses.format(IpAddresses.parseIpv6("1:2:3:4:5:6:10.0.0.1")));
+    }
+    
+    @Test
+    public void anythingButAnIpv6LiteralIsRejectedWithoutALookup() {
+        for(String invalid : new String[] {"zz::1", "host:80", "host.example.com:80", "[::1]", "fe80::1%eth0", 
+                "1::2::3", ":::", ":1", "1:", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7:8::", "::1:2:3:4:5:6:7:8", "12345::", 
+                "1:2:3:4:5:6:7", "::10.0.0", "::10.0.0.1:1", "1:2:3:4:5:6:7:10.0.0.1", "\uff11::1", ""}) {
+            try {
+                IpAddresses.parseIpv6(invalid);
+                fail(invalid + " should have been rejected");
+            } catch(IllegalArgumentException ex) {
+            }
+        }
+    }
+    
+    @Test
+    public void addressIsSerialisedAsText() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        DnsEntryAAAARecord dnsEntry = new DnsEntryAAAARecord("host.example.com", "2001:db8::1", 60);
+        String json = mapper.writeValueAsString(dnsEntry);
+        
+        assertTrue(json.contains("\"ipAddress\":\"2001:db8::1\""));
+        assertFalse(json.contains("\"address\""));
+        assertEquals(dnsEntry, mapper.readValue(json, DnsEntryAAAARecord.class));
+    }
+}
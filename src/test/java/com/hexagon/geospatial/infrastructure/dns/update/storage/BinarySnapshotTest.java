@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class BinarySnapshotTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    static DnsEntry leased(DnsEntry dnsEntry, long lease) {
+        dnsEntry.setLease(lease);
+        return dnsEntry;
+    }
+    
+    static List<DnsEntry> entries() {
+        return Arrays.asList(
+                new DnsEntryARecord("host.example.com", "10.0.0.1"),
+                leased(new DnsEntryARecord("leased.example.com", "192.168.255.254", 300), 90),
+                new DnsEntryAAAARecord("host6.example.com", "2001:db8::1", 86400),
+                new DnsEntryCname("alias.example.com", "host.example.com", 60),
+                new DnsEntryCname("external.example.com", "host.example.org."),
+                new DnsEntryTxt("txt.example.com", "owner=ops; région=é \"quoted\""),
+                new DnsEntryTxt("empty.example.com", ""),
+                new DnsEntryARecord("Mixed.Example.COM", "10.0.0.2"));
+    }
+    
+    static void assertInvalid(byte[] snapshot) {
+        try {
+            BinarySnapshot.decode(ByteBuffer.wrap(snapshot));
+            fail("Expected the snapshot to be rejected");
+        } catch(IOException ex) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void everyKindOfEntryRoundTrips() throws IOException {
+        List<DnsEntry> dnsEntries = entries();
+        
+        assertEquals(dnsEntries, BinarySnapshot.decode(ByteBuffer.wrap(BinarySnapshot.encode(dnsEntries))));
+    }
+    
+    @Test
+    public void fileIsReadThroughAMapping() throws IOException {
+        File file = folder.newFile("dnsEntries.snapshot.bin");
+        Files.write(file.toPath(), BinarySnapshot.encode(entries()));
+        
+        assertEquals(entries(), BinarySnapshot.read(file));
+    }
+    
+    @Test
+    public void emptySnapshotRoundTrips() throws IOException {
+        assertTrue(BinarySnapshot.decode(ByteBuffer.wrap(BinarySnapshot.encode(new ArrayList<>()))).isEmpty());
+    }
+    
+    @Test
+    public void sharedLabelsAreStoredOnce() throws IOException {
+        List<DnsEntry> dnsEntries = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            dnsEntries.add(new DnsEntryARecord(String.format("host%d.a-rather-long-subdomain.example.com", i), "10.0.0.1"));
+        }
+        byte[] snapshot = BinarySnapshot.encode(dnsEntries);
+        
+        // per entry: type, 4 label indexes of up to 2 bytes, ttl, lease and
+        // the address with its length
+        assertTrue(snapshot.length < 1000 * 16 + 1000 * 9 + 64);
+        assertEquals(dnsEntries, BinarySnapshot.decode(ByteBuffer.wrap(snapshot)));
+    }
+    
+    @Test
+    public void corruptionIsDetected() {
+        byte[] snapshot = BinarySnapshot.encode(entries());
+        snapshot[snapshot.length / 2] ^= 0x10;
+        
+        assertInvalid(snapshot);
+    }
+    
+    @Test
+    public void truncationIsDetected() {
+        byte[] snapshot = BinarySnapshot.encode(entries());
+        
+        assertInvalid(Arrays.copyOf(snapshot, snapshot.length - 9));
+        assertInvalid(Arrays.copyOf(snapshot, 3));
+    }
+    
+    @Test
+    public void jsonIsNotMistakenForASnapshot() {
+        assertInvalid("{\"dnsEntries\":[]}".getBytes());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class CnameGraphTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    JsonFileDnsEntryStorage newStorage() {
+        JsonFileDnsEntryStorage storage = new JsonFileDnsEntryStorage();
+        storage.jsonStorageFile = new File(folder.getRoot(), "dnsEntries.json");
+        storage.postConstruct();
+        return storage;
+    }
+    
+    static DnsEntry cname(String fqdn, String destinationFqdn) {
+        return new DnsEntryCname(fqdn, destinationFqdn);
+    }
+    
+    @Test
+    public void danglingCnamesFollowTheirDestination() throws IOException {
+        JsonFileDnsEntryStorage storage = newStorage();
+        DnsEntry alias = cname("alias.example.com", "host.example.com");
+        DnsEntry host = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        storage.addDnsEntry(alias);
+        assertEquals(Arrays.asList(alias), storage.listDanglingCnames());
+        assertEquals(1, storage.getStatistics().getDanglingCnameCount());
+        
+        storage.addDnsEntry(host);
+        assertTrue(storage.listDanglingCnames().isEmpty());
+        
+        storage.removeDnsEntries(Arrays.asList(host));
+        assertEquals(Arrays.asList(alias), storage.listDanglingCnames());
+        
+        DnsEntry moved = cname("alias.example.com", "other.example.com");
+        storage.addDnsEntries(Arrays.asList(new DnsEntryARecord("other.example.com", "10.0.0.2"), moved));
+        assertTrue(storage.listDanglingCnames().isEmpty());
+        
+        storage.removeDnsEntries(Arrays.asList(moved));
+        storage.replaceDnsEntries(Arrays.asList(cname("www.example.com", "gone.example.com")));
+        assertEquals(Arrays.asList(cname("www.example.com", "gone.example.com")), storage.listDanglingCnames());
+    }
+    
+    @Test
+    public void loopsAreFoundWhicheverWayTheyClose() throws IOException {
+        JsonFileDnsEntryStorage storage = newStorage();
+        storage.addDnsEntries(Arrays.asList(cname("a.example.com", "b.example.com"), cname("b.example.com", "c.example.com")));
+        
+        List<String> problems = storage.checkCnameChains(Arrays.asList(
+                cname("self.example.com", "self.example.com"),
+                cname("c.example.com", "a.example.com"),
+                cname("d.example.com", "a.example.com")), 8);
+        
+        assertTrue(problems.get(0).contains("loop"));
+        assertTrue(problems.get(1).contains("loop"));
+        assertNull(problems.get(2));
+    }
+    
+    @Test
+    public void earlierEntriesOfABatchAreCheckedAgainst() throws IOException {
+        JsonFileDnsEntryStorage storage = newStorage();
+        storage.addDnsEntry(cname("a.example.com", "b.example.com"));
+        
+        List<String> problems = storage.checkCnameChains(Arrays.asList(
+                cname("b.example.com", "c.example.com"),
+                cname("c.example.com", "a.example.com"),
+                new DnsEntryARecord("b.example.com", "10.0.0.1"),
+                cname("c.example.com", "a.example.com")), 8);
+        
+        assertNull(problems.get(0));
+        assertTrue(problems.get(1).contains("loop"));
+        // b stops being a CNAME, which breaks the loop
+        assertNull(problems.get(2));
+        assertNull(problems.get(3));
+    }
+    
+    @Test
+    public void chainsAreCountedBothWays() throws IOException {
+        JsonFileDnsEntryStorage storage = newStorage();
+        // c1 -> c2 -> c3, and c5 -> c6 -> host
+        storage.addDnsEntries(Arrays.asList(
+                cname("c1.example.com", "c2.example.com"), cname("c2.example.com", "c3.example.com"),
+                cname("c5.example.com", "c6.example.com"), cname("c6.example.com", "host.example.com"),
+                new DnsEntryARecord("host.example.com", "10.0.0.1")));
+        
+        // joining them through c3 -> c4 -> c5 makes a chain of 6
+        storage.addDnsEntry(cname("c4.example.com", "c5.example.com"));
+        assertEquals(Collections.singletonList(null), storage.checkCnameChains(Arrays.asList(cname("c3.example.com", "c4.example.com")), 6));
+        String problem = storage.checkCnameChains(Arrays.asList(cname("c3.example.com", "c4.example.com")), 5).get(0);
+        assertTrue(problem, problem.contains("chain of at least 6"));
+        assertTrue(storage.checkCnameChains(Arrays.asList(cname("c0.example.com", "c1.example.com")), 2).get(0).contains("limit of 2"));
+    }
+    
+    @Test
+    public void entriesWithoutDependenciesStayInOneLevel() {
+        List<DnsEntry> dnsEntries = Arrays.asList(
+                new DnsEntryARecord("host.example.com", "10.0.0.1"), cname("alias.example.com", "elsewhere.example.com"));
+        
+        assertSame(dnsEntries, CnameGraph.dependencyLevels(dnsEntries).get(0));
+        assertEquals(1, CnameGraph.dependencyLevels(dnsEntries).size());
+    }
+    
+    @Test
+    public void cnamesComeAfterWhatTheyPointAt() {
+        DnsEntry www = cname("www.example.com", "alias.example.com");
+        DnsEntry alias = cname("alias.example.com", "host.example.com");
+        DnsEntry host = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        DnsEntry other = new DnsEntryARecord("other.example.com", "10.0.0.2");
+        DnsEntry api = cname("api.example.com", "other.example.com");
+        DnsEntry loop1 = cname("loop1.example.com", "loop2.example.com");
+        DnsEntry loop2 = cname("loop2.example.com", "loop1.example.com");
+        // a loop is cut where it was found
+        
+        List<List<DnsEntry>> levels = CnameGraph.dependencyLevels(Arrays.asList(www, alias, api, loop1, host, loop2, other));
+        
+        assertEquals(Arrays.asList(
+                Arrays.asList(host, loop2, other),
+                Arrays.asList(alias, api, loop1),
+                Arrays.asList(www)), levels);
+    }
+}
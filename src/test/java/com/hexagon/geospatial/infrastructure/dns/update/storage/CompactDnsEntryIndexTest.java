@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.IpAddresses;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class CompactDnsEntryIndexTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    static List<DnsEntry> list(Iterable<DnsEntry> dnsEntries) {
+        List<DnsEntry> list = new ArrayList<>();
+        dnsEntries.forEach(list::add);
+        return list;
+    }
+    
+    @Test
+    public void readsBackEveryType() {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex();
+        List<DnsEntry> dnsEntries = new ArrayList<>(BinarySnapshotTest.entries());
+        dnsEntries.add(new DnsEntryARecord("localhost", "127.0.0.1"));
+        dnsEntries.add(new DnsEntryARecord("trailing.example.com.", "10.0.0.3"));
+        dnsEntries.add(new DnsEntryCname("κόμβος.example.com", null));
+        dnsEntries.add(new DnsEntryTxt("none.example.com", null));
+        DnsEntryARecord unaddressed = new DnsEntryARecord();
+        unaddressed.setFqdn("unaddressed.example.com");
+        dnsEntries.add(unaddressed);
+        
+        dnsEntries.stream().forEach((dnsEntry) -> assertNull(index.put(dnsEntry)));
+        
+        assertEquals(dnsEntries.size(), index.size());
+        for(DnsEntry dnsEntry : dnsEntries) {
+            assertEquals(dnsEntry, index.get(dnsEntry.getFqdn()));
+            assertTrue(index.containsKey(dnsEntry.getFqdn()));
+        }
+        assertNull(index.get("missing.example.com"));
+        assertTrue(index.getOffHeapBytes() > 0);
+    }
+    
+    @Test
+    public void storesEachDomainOnce() {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex();
+        for(int i = 0; i < 1000; i++) {
+            index.put(new DnsEntryARecord(String.format("host%d.example.com", i), "10.0.0.1"));
+        }
+        index.put(new DnsEntryCname("alias.example.org", "host1.example.com"));
+        
+        assertEquals(2, index.domainIds.size());
+    }
+    
+    @Test
+    public void replacesAndRemoves() {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex();
+        DnsEntry first = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        DnsEntry second = new DnsEntryCname("host.example.com", "other.example.com");
+        index.put(first);
+        
+        assertEquals(first, index.put(second));
+        assertEquals(second, index.put(second));
+        assertEquals(1, index.size());
+        assertTrue(index.listWithAddress(IpAddresses.parse("10.0.0.1")).isEmpty());
+        assertEquals(second, index.listCnamesTo("other.example.com").get(0));
+        
+        assertFalse(index.remove("host.example.com", first));
+        assertTrue(index.remove("host.example.com", second));
+        assertNull(index.remove("host.example.com"));
+        assertEquals(0, index.size());
+        assertTrue(list(index.iterateAfter(null)).isEmpty());
+    }
+    
+    /**
+     * Random changes, through several merges and with a buffer small enough
+     * to be moved many times, checked against a sorted map.
+     */
+    @Test
+    public void matchesSortedMap() {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex(256);
+        TreeMap<String, DnsEntry> expected = new TreeMap<>();
+        Random random = new Random(23);
+        for(int i = 0; i < 20000; i++) {
+            String fqdn = String.format("host%d.zone%d.example.com", random.nextInt(3000), random.nextInt(3));
+            int operation = random.nextInt(10);
+            if(operation < 6) {
+                DnsEntry dnsEntry = random.nextBoolean()
+                        ? new DnsEntryARecord(fqdn, String.format("10.0.%d.%d", random.nextInt(4), random.nextInt(256)))
+                        : new DnsEntryCname(fqdn, String.format("target%d.example.com", random.nextInt(20)));
+                assertEquals(expected.put(fqdn, dnsEntry), index.put(dnsEntry));
+            } else if(operation < 8) {
+                assertEquals(expected.remove(fqdn), index.remove(fqdn));
+            } else {
+                DnsEntry current = expected.get(fqdn);
+                if(current != null && index.remove(fqdn, current)) {
+                    expected.remove(fqdn);
+                }
+            }
+        }
+        
+        assertEquals(expected.size(), index.size());
+        assertEquals(new ArrayList<>(expected.values()), list(index.iterateAfter(null)));
+        String middle = expected.keySet().toArray(new String[0])[expected.size() / 2];
+        assertEquals(new ArrayList<>(expected.tailMap(middle, false).values()), list(index.iterateAfter(middle)));
+        assertEquals(new ArrayList<>(expected.tailMap("host5", false).values()), list(index.iterateAfter("host5")));
+        
+        for(int i = 0; i < 4; i++) {
+            byte[] address = IpAddresses.parse(String.format("10.0.%d.7", i));
+            assertEquals(expected.values().stream()
+                    .filter((dnsEntry) -> dnsEntry instanceof DnsEntryARecord)
+                    .filter((dnsEntry) -> Arrays.equals(address, ((DnsEntryARecord)dnsEntry).getAddress()))
+                    .collect(Collectors.toSet()), 
+                    new HashSet<>(index.listWithAddress(address)));
+        }
+        assertEquals(expected.values().stream()
+                .filter((dnsEntry) -> dnsEntry instanceof DnsEntryCname)
+                .filter((dnsEntry) -> "target3.example.com".equals(((DnsEntryCname)dnsEntry).getDestinationFqdn()))
+                .collect(Collectors.toSet()), 
+                new HashSet<>(index.listCnamesTo("target3.example.com")));
+    }
+    
+    @Test
+    public void iteratorSeesChangesAheadOfIt() {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex();
+        index.put(new DnsEntryARecord("a.example.com", "10.0.0.1"));
+        index.put(new DnsEntryARecord("c.example.com", "10.0.0.3"));
+        index.put(new DnsEntryARecord("e.example.com", "10.0.0.5"));
+        
+        Iterator<DnsEntry> iterator = index.iterateAfter(null).iterator();
+        assertEquals("a.example.com", iterator.next().getFqdn());
+        index.remove("c.example.com");
+        index.put(new DnsEntryARecord("0.example.com", "10.0.0.0"));
+        index.put(new DnsEntryARecord("d.example.com", "10.0.0.4"));
+        // merged into the order by a new iteration
+        index.iterateAfter(null).iterator();
+        
+        assertEquals("d.example.com", iterator.next().getFqdn());
+        assertEquals("e.example.com", iterator.next().getFqdn());
+        assertFalse(iterator.hasNext());
+    }
+    
+    @Test
+    public void readersNeverSeeHalfWrittenEntries() throws Exception {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex(128);
+        Map<String, DnsEntry> values = new TreeMap<>();
+        for(int i = 0; i < 100; i++) {
+            String fqdn = String.format("host%d.example.com", i);
+            values.put(fqdn, new DnsEntryTxt(fqdn, fqdn));
+            index.put(new DnsEntryTxt(fqdn, fqdn));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            Future<?> writer = executor.submit(() -> {
+                Random random = new Random(7);
+                for(int i = 0; i < 20000; i++) {
+                    String fqdn = String.format("host%d.example.com", random.nextInt(100));
+                    index.put(new DnsEntryTxt(fqdn, i % 2 == 0 ? fqdn : fqdn + fqdn));
+                }
+                writing.set(false);
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for(int reader = 0; reader < 2; reader++) {
+                readers.add(executor.submit(() -> {
+                    while(writing.get()) {
+                        for(DnsEntry dnsEntry : index.iterateAfter(null)) {
+                            String text = ((DnsEntryTxt)dnsEntry).getText();
+                            assertTrue(text.equals(dnsEntry.getFqdn()) || text.equals(dnsEntry.getFqdn() + dnsEntry.getFqdn()));
+                        }
+                        DnsEntry dnsEntry = index.get("host42.example.com");
+                        assertTrue(((DnsEntryTxt)dnsEntry).getText().startsWith("host42.example.com"));
+                    }
+                    return null;
+                }));
+            }
+            writer.get();
+            for(Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(values.keySet(), new TreeSet<>(list(index.iterateAfter(null)).stream().map(DnsEntry::getFqdn).collect(Collectors.toList())));
+    }
+    
+    @Test
+    public void storageUsesTheConfiguredIndex() throws Exception {
+        JsonFileDnsEntryStorage storage = new JsonFileDnsEntryStorage();
+        storage.jsonStorageFile = new File(folder.getRoot(), "dnsEntries.json");
+        storage.setIndex(DnsEntryIndex.Type.COMPACT);
+        storage.postConstruct();
+        storage.addDnsEntries(BinarySnapshotTest.entries());
+        
+        assertTrue(storage.dnsEntries instanceof CompactDnsEntryIndex);
+        assertEquals(new HashSet<>(BinarySnapshotTest.entries()), new HashSet<>(storage.getDnsEnrtiesAsList()));
+        assertEquals(1, storage.listDnsEntriesWithAddress("10.0.0.1").size());
+        assertEquals(1, storage.listCnamesTo("host.example.com").size());
+        assertTrue(storage.getStatistics().getIndexOffHeapBytes() > 0);
+    }
+    
+    @Test
+    public void addressesAreMatchedByValue() {
+        CompactDnsEntryIndex index = new CompactDnsEntryIndex();
+        index.put(new DnsEntryAAAARecord("host6.example.com", "2001:db8::1"));
+        index.put(new DnsEntryARecord("host4.example.com", "10.0.0.1"));
+        
+        assertEquals(1, index.listWithAddress(IpAddresses.parse("2001:db8:0::1")).size());
+        assertTrue(index.listWithAddress(IpAddresses.parse("2001:db8::2")).isEmpty());
+        assertTrue(index.listWithAddress(null).isEmpty());
+    }
+}
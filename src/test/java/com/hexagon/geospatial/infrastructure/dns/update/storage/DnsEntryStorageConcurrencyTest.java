@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Registers from many threads at once while other threads read, then checks
+ * that nothing was lost either in memory or on disk.
+ *
+ * @author Chris
+ */
+public class DnsEntryStorageConcurrencyTest {
+    
+    static final int WRITERS = 8;
+    static final int ENTRIES_PER_WRITER = 250;
+    static final int READERS = 4;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    static Set<DnsEntry> expectedEntries() {
+        Set<DnsEntry> expected = new HashSet<>();
+        for(int writer = 0; writer < WRITERS; writer++) {
+            for(int i = 0; i < ENTRIES_PER_WRITER; i++) {
+                expected.add(new DnsEntryARecord(String.format("host%d-%d.example.com", writer, i), 
+                        String.format("10.%d.%d.%d", writer, i / 256, i % 256)));
+            }
+        }
+        return expected;
+    }
+    
+    static void registerConcurrently(DnsEntryStorage storage) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+        List<Future<?>> readers = new ArrayList<>();
+        try {
+            for(int writer = 0; writer < WRITERS; writer++) {
+                int writerNumber = writer;
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for(int i = 0; i < ENTRIES_PER_WRITER; i++) {
+                        storage.addDnsEntry(new DnsEntryARecord(String.format("host%d-%d.example.com", writerNumber, i), 
+                                String.format("10.%d.%d.%d", writerNumber, i / 256, i % 256)));
+                    }
+                    return null;
+                }));
+            }
+            for(int reader = 0; reader < READERS; reader++) {
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    long lastGeneration = 0;
+                    while(writing.get()) {
+                        long generation = storage.getGeneration();
+                        assertTrue(generation >= lastGeneration);
+                        storage.listDnsEntriesChangedSince(lastGeneration);
+                        storage.listAllDnsEnrties();
+                        lastGeneration = generation;
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for(Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            for(Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void jsonFileStorageLosesNoRegistrations() throws Exception {
+        File file = new File(folder.getRoot(), "dnsEntries.json");
+        JsonFileDnsEntryStorage storage = new JsonFileDnsEntryStorage();
+        storage.jsonStorageFile = file;
+        storage.watchStorageFile = true;
+        storage.postConstruct();
+        try {
+            registerConcurrently(storage);
+            
+            assertEquals(expectedEntries(), new HashSet<>(storage.listAllDnsEnrties()));
+            assertEquals(WRITERS * ENTRIES_PER_WRITER, storage.listDnsEntriesChangedSince(0).size());
+            assertTrue(storage.getStatistics().getWrites() < WRITERS * ENTRIES_PER_WRITER);
+        } finally {
+            storage.preDestroy();
+        }
+        
+        JsonFileDnsEntryStorage reloaded = new JsonFileDnsEntryStorage();
+        reloaded.jsonStorageFile = file;
+        assertEquals(expectedEntries(), new HashSet<>(reloaded.listAllDnsEnrties()));
+    }
+    
+    @Test
+    public void journalStorageLosesNoRegistrations() throws Exception {
+        JournalDnsEntryStorage storage = openJournal();
+        registerConcurrently(storage);
+        
+        assertEquals(expectedEntries(), new HashSet<>(storage.listAllDnsEnrties()));
+        assertTrue(storage.log.getGroupCommits() < WRITERS * ENTRIES_PER_WRITER);
+        storage.preDestroy();
+        
+        JournalDnsEntryStorage recovered = openJournal();
+        assertEquals(expectedEntries(), new HashSet<>(recovered.listAllDnsEnrties()));
+        recovered.preDestroy();
+    }
+    
+    @Test
+    public void journalStorageWithCompactIndexLosesNoRegistrations() throws Exception {
+        JournalDnsEntryStorage storage = openJournal(DnsEntryIndex.Type.COMPACT);
+        registerConcurrently(storage);
+        
+        assertEquals(expectedEntries(), new HashSet<>(storage.listAllDnsEnrties()));
+        assertEquals(WRITERS * ENTRIES_PER_WRITER, storage.listDnsEntriesChangedSince(0).size());
+        storage.preDestroy();
+        
+        JournalDnsEntryStorage recovered = openJournal(DnsEntryIndex.Type.COMPACT);
+        assertEquals(expectedEntries(), new HashSet<>(recovered.listAllDnsEnrties()));
+        recovered.preDestroy();
+    }
+    
+    JournalDnsEntryStorage openJournal() throws IOException {
+        return openJournal(DnsEntryIndex.Type.HEAP);
+    }
+    
+    JournalDnsEntryStorage openJournal(DnsEntryIndex.Type index) throws IOException {
+        JournalDnsEntryStorage storage = new JournalDnsEntryStorage();
+        storage.setIndex(index);
+        storage.snapshotFile = new File(folder.getRoot(), "dnsEntries.snapshot.json");
+        storage.logFile = new File(folder.getRoot(), "dnsEntries.journal");
+        storage.legacyJsonFile = new File(folder.getRoot(), "dnsEntries.json");
+        storage.compactAfterRecords = 500;
+        storage.maxGroupSize = 512;
+        storage.postConstruct();
+        return storage;
+    }
+}
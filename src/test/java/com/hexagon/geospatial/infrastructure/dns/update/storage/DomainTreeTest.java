@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class DomainTreeTest {
+    
+    static DomainTree tree(String... names) {
+        DomainTree tree = new DomainTree();
+        Arrays.stream(names).forEach((name) -> tree.add(name, name));
+        return tree;
+    }
+    
+    @Test
+    public void splitsLabelsFromTheTop() {
+        assertEquals(Arrays.asList("com", "example", "host"), DomainTree.labels("Host.Example.COM."));
+        assertEquals(Arrays.asList("com", "example"), DomainTree.labels(".example.com"));
+        assertTrue(DomainTree.labels("").isEmpty());
+    }
+    
+    @Test
+    public void listsAndCountsABranch() {
+        DomainTree tree = tree("a.cluster7.prod.example.com", "b.cluster7.prod.example.com", 
+                "cluster7.prod.example.com", "c.cluster8.prod.example.com", "prod.example.org");
+        
+        assertEquals(new HashSet<>(Arrays.asList("a.cluster7.prod.example.com", "b.cluster7.prod.example.com", "cluster7.prod.example.com")), 
+                new HashSet<>(tree.list("cluster7.prod.example.com")));
+        assertEquals(3, tree.count("CLUSTER7.prod.example.com."));
+        assertEquals(4, tree.count("prod.example.com"));
+        assertEquals(5, tree.count(""));
+        assertEquals(1, tree.count("a.cluster7.prod.example.com"));
+        assertEquals(0, tree.count("cluster9.prod.example.com"));
+        assertTrue(tree.list("example.net").isEmpty());
+        // a label is matched whole, never as part of one
+        assertEquals(0, tree.count("od.example.com"));
+    }
+    
+    @Test
+    public void holdsSeveralValuesUnderOneName() {
+        DomainTree tree = new DomainTree();
+        assertTrue(tree.add("host.example.com", "alias1.example.com"));
+        assertTrue(tree.add("HOST.example.com", "alias2.example.com"));
+        assertFalse(tree.add("host.example.com", "alias1.example.com"));
+        assertEquals(2, tree.count("example.com"));
+        
+        assertTrue(tree.remove("host.example.com", "alias1.example.com"));
+        assertFalse(tree.remove("host.example.com", "alias1.example.com"));
+        assertEquals(Arrays.asList("alias2.example.com"), tree.list("host.example.com"));
+    }
+    
+    @Test
+    public void removingTheLastValuePrunesTheBranch() {
+        DomainTree tree = tree("a.b.example.com", "example.com");
+        
+        assertTrue(tree.remove("a.b.example.com", "a.b.example.com"));
+        assertFalse(tree.remove("x.example.com", "x.example.com"));
+        
+        assertEquals(1, tree.count("example.com"));
+        assertNull(tree.find("b.example.com"));
+        List<String> remaining = tree.list("com");
+        assertEquals(Arrays.asList("example.com"), remaining);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryAAAARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryTxt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class JournalDnsEntryStorageTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    File snapshotFile;
+    File binarySnapshotFile;
+    JournalDnsEntryStorage.SnapshotFormat snapshotFormat;
+    File logFile;
+    File legacyJsonFile;
+    
+    @Before
+    public void setUp() {
+        snapshotFile = new File(folder.getRoot(), "dnsEntries.snapshot.json");
+        binarySnapshotFile = new File(folder.getRoot(), "dnsEntries.snapshot.bin");
+        snapshotFormat = JournalDnsEntryStorage.SnapshotFormat.JSON;
+        logFile = new File(folder.getRoot(), "dnsEntries.journal");
+        legacyJsonFile = new File(folder.getRoot(), "dnsEntries.json");
+    }
+    
+    JournalDnsEntryStorage open(long compactAfterRecords) throws IOException {
+        return open(compactAfterRecords, false);
+    }
+    
+    JournalDnsEntryStorage open(long compactAfterRecords, boolean clustered) throws IOException {
+        JournalDnsEntryStorage storage = new JournalDnsEntryStorage();
+        storage.clustered = clustered;
+        storage.snapshotFile = snapshotFile;
+        storage.binarySnapshotFile = binarySnapshotFile;
+        storage.snapshotFormat = snapshotFormat;
+        storage.logFile = logFile;
+        storage.legacyJsonFile = legacyJsonFile;
+        storage.compactAfterRecords = compactAfterRecords;
+        storage.maxGroupSize = 512;
+        storage.postConstruct();
+        return storage;
+    }
+    
+    static Set<DnsEntry> contents(DnsEntryStorage storage) throws IOException {
+        return new HashSet<>(storage.listAllDnsEnrties());
+    }
+    
+    @Test
+    public void entriesAreRecoveredFromTheLog() throws IOException {
+        JournalDnsEntryStorage storage = open(10000);
+        storage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        storage.addDnsEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+        storage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.2"));
+        storage.addDnsEntry(new DnsEntryAAAARecord("host6.example.com", "2001:db8::2", 300));
+        storage.addDnsEntry(new DnsEntryTxt("txt.example.com", "owner=ops", 60));
+        Set<DnsEntry> expected = contents(storage);
+        storage.preDestroy();
+        
+        assertFalse(snapshotFile.exists());
+        JournalDnsEntryStorage recovered = open(10000);
+        assertEquals(expected, contents(recovered));
+        assertEquals(5, recovered.recoveredRecords);
+        recovered.preDestroy();
+    }
+    
+    @Test
+    public void logIsCompactedIntoSnapshot() throws IOException {
+        JournalDnsEntryStorage storage = open(5);
+        for(int i = 0; i < 12; i++) {
+            storage.addDnsEntry(new DnsEntryARecord(String.format("host%d.example.com", i), String.format("10.0.0.%d", i)));
+        }
+        Set<DnsEntry> expected = contents(storage);
+        storage.preDestroy();
+        
+        assertTrue(snapshotFile.exists());
+        assertTrue(storage.getStatistics().getCompactions() >= 2);
+        JournalDnsEntryStorage recovered = open(5);
+        assertEquals(expected, contents(recovered));
+        assertTrue(recovered.recoveredRecords < 5);
+        recovered.preDestroy();
+    }
+    
+    @Test
+    public void logIsCompactedIntoBinarySnapshot() throws IOException {
+        snapshotFormat = JournalDnsEntryStorage.SnapshotFormat.BINARY;
+        JournalDnsEntryStorage storage = open(5);
+        for(int i = 0; i < 12; i++) {
+            storage.addDnsEntry(new DnsEntryARecord(String.format("host%d.example.com", i), String.format("10.0.0.%d", i)));
+        }
+        storage.addDnsEntry(new DnsEntryTxt("txt.example.com", "owner=ops", 60));
+        Set<DnsEntry> expected = contents(storage);
+        storage.preDestroy();
+        
+        assertTrue(binarySnapshotFile.exists());
+        assertFalse(snapshotFile.exists());
+        JournalDnsEntryStorage recovered = open(5);
+        assertEquals(expected, contents(recovered));
+        recovered.preDestroy();
+    }
+    
+    @Test
+    public void snapshotIsConvertedWhenTheFormatChanges() throws IOException {
+        JournalDnsEntryStorage storage = open(5);
+        for(int i = 0; i < 7; i++) {
+            storage.addDnsEntry(new DnsEntryAAAARecord(String.format("host%d.example.com", i), String.format("2001:db8::%d", i)));
+        }
+        Set<DnsEntry> expected = contents(storage);
+        storage.preDestroy();
+        assertTrue(snapshotFile.exists());
+        
+        snapshotFormat = JournalDnsEntryStorage.SnapshotFormat.BINARY;
+        JournalDnsEntryStorage binary = open(5);
+        assertEquals(expected, contents(binary));
+        binary.preDestroy();
+        assertTrue(binarySnapshotFile.exists());
+        assertFalse(snapshotFile.exists());
+        assertTrue(binarySnapshotFile.length() * 3 < storage.mapper.writeValueAsBytes(expected).length);
+        
+        snapshotFormat = JournalDnsEntryStorage.SnapshotFormat.JSON;
+        JournalDnsEntryStorage json = open(5);
+        assertEquals(expected, contents(json));
+        json.preDestroy();
+        assertTrue(snapshotFile.exists());
+        assertFalse(binarySnapshotFile.exists());
+    }
+    
+    @Test
+    public void incompleteLastRecordIsDiscarded() throws IOException {
+        JournalDnsEntryStorage storage = open(10000);
+        storage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        storage.preDestroy();
+        try(FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write("{\"operation\":\"PUT\",\"dnsEn".getBytes(StandardCharsets.UTF_8));
+        }
+        long tornLength = logFile.length();
+        
+        JournalDnsEntryStorage recovered = open(10000);
+        assertEquals(1, contents(recovered).size());
+        assertTrue(logFile.length() < tornLength);
+        recovered.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+        recovered.preDestroy();
+        
+        assertEquals(2, contents(open(10000)).size());
+    }
+    
+    @Test
+    public void standbyReadsTheLogWithoutWritingItUntilReloaded() throws IOException {
+        JournalDnsEntryStorage leader = open(10000);
+        leader.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        try(FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write("{\"operation\":\"PUT\",\"dnsEn".getBytes(StandardCharsets.UTF_8));
+        }
+        long writingLength = logFile.length();
+        
+        JournalDnsEntryStorage standby = open(10000, true);
+        assertEquals(1, contents(standby).size());
+        assertEquals(writingLength, logFile.length());
+        try {
+            standby.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+            fail("A standby must not write the log");
+        } catch(IOException ex) {
+            // expected
+        }
+        
+        leader.preDestroy();
+        long generation = standby.getGeneration();
+        assertEquals(1, standby.getStatistics().getReloads());
+        standby.reload();
+        assertEquals(2, standby.getStatistics().getReloads());
+        assertTrue(logFile.length() < writingLength);
+        assertEquals(generation, standby.getGeneration());
+        standby.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+        standby.preDestroy();
+        
+        assertEquals(2, contents(open(10000)).size());
+    }
+    
+    @Test
+    public void detachedStorageStopsWritingUntilReloaded() throws IOException {
+        JournalDnsEntryStorage storage = open(1);
+        storage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        storage.detach();
+        long logLength = logFile.length();
+        long snapshotModified = snapshotFile.lastModified();
+        try {
+            storage.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+            fail("A detached instance must not write the log");
+        } catch(IOException ex) {
+            // expected
+        }
+        assertFalse(storage.compact(Long.MAX_VALUE));
+        assertEquals(logLength, logFile.length());
+        assertEquals(snapshotModified, snapshotFile.lastModified());
+        
+        storage.reload();
+        storage.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+        storage.preDestroy();
+        
+        assertEquals(2, contents(open(10000)).size());
+    }
+    
+    @Test
+    public void existingJsonFileIsImportedOnFirstStart() throws IOException {
+        JsonFileDnsEntryStorage legacy = new JsonFileDnsEntryStorage();
+        legacy.jsonStorageFile = legacyJsonFile;
+        legacy.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        legacy.addDnsEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+        
+        JournalDnsEntryStorage storage = open(10000);
+        assertEquals(contents(legacy), contents(storage));
+        assertTrue(snapshotFile.exists());
+        storage.preDestroy();
+    }
+    
+    @Test
+    public void batchIsRecoveredFromASingleRecord() throws IOException {
+        JournalDnsEntryStorage storage = open(10000);
+        storage.addDnsEntries(Arrays.asList(
+                new DnsEntryARecord("host.example.com", "10.0.0.1"),
+                new DnsEntryCname("alias.example.com", "host.example.com")));
+        storage.preDestroy();
+        
+        JournalDnsEntryStorage recovered = open(10000);
+        assertEquals(2, contents(recovered).size());
+        assertEquals(1, recovered.recoveredRecords);
+        recovered.preDestroy();
+    }
+    
+    @Test
+    public void removalIsRecoveredAndOnlyTakesTheExpectedValue() throws IOException {
+        JournalDnsEntryStorage storage = open(10000);
+        DnsEntry host = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        DnsEntry alias = new DnsEntryCname("alias.example.com", "host.example.com");
+        storage.addDnsEntries(Arrays.asList(host, alias));
+        long generation = storage.getGeneration();
+        
+        assertEquals(Arrays.asList(host), storage.removeDnsEntries(Arrays.asList(host, 
+                new DnsEntryCname("alias.example.com", "other.example.com"))));
+        assertNull(storage.getDnsEntry("host.example.com"));
+        assertEquals(Arrays.asList(host), storage.listDnsEntriesRetiredSince(generation));
+        assertTrue(storage.listDnsEntriesChangedSince(generation).isEmpty());
+        storage.pruneRetiredUpTo(storage.getGeneration());
+        assertTrue(storage.listDnsEntriesRetiredSince(generation).isEmpty());
+        storage.preDestroy();
+        
+        JournalDnsEntryStorage recovered = open(10000);
+        assertEquals(new HashSet<>(Arrays.asList(alias)), contents(recovered));
+        recovered.preDestroy();
+    }
+}
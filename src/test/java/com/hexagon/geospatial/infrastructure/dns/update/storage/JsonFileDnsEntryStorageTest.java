@@ -15,10 +15,17 @@
  */
 package com.hexagon.geospatial.infrastructure.dns.update.storage;
 
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -40,6 +47,9 @@ public class JsonFileDnsEntryStorageTest {
     @Spy
     JsonFileDnsEntryStorage storageSpy;
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
@@ -50,4 +60,163 @@ public class JsonFileDnsEntryStorageTest {
     public void multipleFqdnsAreNotDuplicated() {
         
     }
+    
+    JsonFileDnsEntryStorage newStorage(File file, boolean watch) {
+        JsonFileDnsEntryStorage fileStorage = new JsonFileDnsEntryStorage();
+        fileStorage.jsonStorageFile = file;
+        fileStorage.watchStorageFile = watch;
+        fileStorage.postConstruct();
+        return fileStorage;
+    }
+    
+    @Test
+    public void readsAreServedFromMemory() throws IOException {
+        JsonFileDnsEntryStorage fileStorage = newStorage(new File(folder.getRoot(), "dnsEntries.json"), false);
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        for(int i = 0; i < 10; i++) {
+            assertEquals(1, fileStorage.listAllDnsEnrties().size());
+        }
+        
+        assertEquals(1, fileStorage.getStatistics().getReloads());
+        assertEquals(10, fileStorage.getStatistics().getCacheHits());
+        assertEquals(1, fileStorage.getStatistics().getWrites());
+    }
+    
+    @Test
+    public void externalEditIsDetectedBySizeAndModificationTime() throws IOException {
+        File file = new File(folder.getRoot(), "dnsEntries.json");
+        JsonFileDnsEntryStorage fileStorage = newStorage(file, false);
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        
+        JsonFileDnsEntryStorage otherWriter = newStorage(file, false);
+        otherWriter.addDnsEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+        
+        assertEquals(2, fileStorage.listAllDnsEnrties().size());
+        assertEquals(2, fileStorage.getStatistics().getReloads());
+    }
+    
+    @Test
+    public void externalEditIsDetectedByWatchService() throws Exception {
+        File file = new File(folder.getRoot(), "dnsEntries.json");
+        JsonFileDnsEntryStorage fileStorage = newStorage(file, true);
+        try {
+            fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+            assertEquals(1, fileStorage.listAllDnsEnrties().size());
+            
+            JsonFileDnsEntryStorage otherWriter = newStorage(file, false);
+            otherWriter.addDnsEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+            
+            long deadline = System.currentTimeMillis() + 15000;
+            while(!fileStorage.externallyModified && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, fileStorage.listAllDnsEnrties().size());
+        } finally {
+            fileStorage.preDestroy();
+        }
+    }
+    
+    @Test
+    public void removedEntryIsWrittenOutAndReRegistrationClearsIt() throws IOException {
+        File file = new File(folder.getRoot(), "dnsEntries.json");
+        JsonFileDnsEntryStorage fileStorage = newStorage(file, false);
+        DnsEntry host = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        fileStorage.addDnsEntry(host);
+        fileStorage.addDnsEntry(new DnsEntryCname("alias.example.com", "host.example.com"));
+        long generation = fileStorage.getGeneration();
+        
+        assertEquals(1, fileStorage.removeDnsEntries(Arrays.asList(host)).size());
+        assertEquals(1, newStorage(file, false).listAllDnsEnrties().size());
+        assertEquals(Arrays.asList(host), fileStorage.listDnsEntriesRetiredSince(generation));
+        
+        fileStorage.addDnsEntry(host);
+        assertTrue(fileStorage.listDnsEntriesRetiredSince(generation).isEmpty());
+        assertEquals(Arrays.asList(host), fileStorage.listDnsEntriesChangedSince(generation));
+    }
+    
+    @Test
+    public void addressMoveRetiresTheOldValueAndUpdatesTheIndex() throws IOException {
+        JsonFileDnsEntryStorage fileStorage = newStorage(new File(folder.getRoot(), "dnsEntries.json"), false);
+        DnsEntry before = new DnsEntryARecord("host.example.com", "10.0.0.1");
+        DnsEntry after = new DnsEntryARecord("host.example.com", "10.0.0.2");
+        DnsEntry alias = new DnsEntryCname("alias.example.com", "host.example.com");
+        fileStorage.addDnsEntries(Arrays.asList(before, alias));
+        long generation = fileStorage.getGeneration();
+        
+        fileStorage.addDnsEntry(after);
+        assertEquals(Arrays.asList(before), fileStorage.listDnsEntriesRetiredSince(generation));
+        assertTrue(fileStorage.listDnsEntriesWithAddress("10.0.0.1").isEmpty());
+        assertEquals(Arrays.asList(after), fileStorage.listDnsEntriesWithAddress("10.0.0.2"));
+        assertEquals(Arrays.asList(alias), fileStorage.listCnamesTo("host.example.com"));
+        
+        // only the TTL changes, so the record already in DNS must stay
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.2", 300));
+        assertEquals(Arrays.asList(before), fileStorage.listDnsEntriesRetiredSince(generation));
+        
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        assertEquals(Arrays.asList(new DnsEntryARecord("host.example.com", "10.0.0.2", 300)), 
+                fileStorage.listDnsEntriesRetiredSince(generation));
+        
+        fileStorage.removeDnsEntries(Arrays.asList(alias));
+        assertTrue(fileStorage.listCnamesTo("host.example.com").isEmpty());
+    }
+    
+    @Test
+    public void subdomainsAreListedFromTheDomainIndex() throws IOException {
+        JsonFileDnsEntryStorage fileStorage = newStorage(new File(folder.getRoot(), "dnsEntries.json"), false);
+        DnsEntry first = new DnsEntryARecord("b.cluster7.prod.example.com", "10.0.0.1");
+        DnsEntry second = new DnsEntryARecord("a.cluster7.prod.example.com", "10.0.0.2");
+        DnsEntry other = new DnsEntryARecord("a.cluster8.prod.example.com", "10.0.0.3");
+        DnsEntry alias = new DnsEntryCname("www.example.com", "a.cluster7.prod.example.com");
+        fileStorage.addDnsEntries(Arrays.asList(first, second, other, alias));
+        
+        assertEquals(Arrays.asList(second, first), fileStorage.listDnsEntriesUnder("cluster7.prod.example.com"));
+        assertEquals(4, fileStorage.countDnsEntriesUnder("example.com"));
+        assertEquals(Arrays.asList(alias), fileStorage.listCnamesInto("prod.example.com"));
+        assertEquals(1, fileStorage.countCnamesInto("cluster7.prod.example.com"));
+        
+        DnsEntry moved = new DnsEntryCname("www.example.com", "a.cluster8.prod.example.com");
+        fileStorage.addDnsEntry(moved);
+        fileStorage.removeDnsEntries(Arrays.asList(second));
+        assertEquals(Arrays.asList(first), fileStorage.listDnsEntriesUnder("cluster7.prod.example.com"));
+        assertEquals(0, fileStorage.countCnamesInto("cluster7.prod.example.com"));
+        assertEquals(Arrays.asList(moved), fileStorage.listCnamesInto("cluster8.prod.example.com"));
+        
+        fileStorage.replaceDnsEntries(Arrays.asList(other));
+        assertEquals(1, fileStorage.countDnsEntriesUnder("example.com"));
+        assertTrue(fileStorage.listCnamesInto("example.com").isEmpty());
+    }
+    
+    @Test
+    public void detachedStorageStopsWritingUntilReloaded() throws IOException {
+        File file = new File(folder.getRoot(), "dnsEntries.json");
+        JsonFileDnsEntryStorage fileStorage = newStorage(file, false);
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        fileStorage.detach();
+        long length = file.length();
+        try {
+            fileStorage.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+            fail("A detached instance must not write the storage file");
+        } catch(IOException ex) {
+            // expected
+        }
+        assertEquals(length, file.length());
+        
+        fileStorage.reload();
+        fileStorage.addDnsEntry(new DnsEntryARecord("other.example.com", "10.0.0.2"));
+        assertEquals(2, newStorage(file, false).listAllDnsEnrties().size());
+    }
+    
+    @Test
+    public void unchangedEntryIsNotWrittenAgain() throws IOException {
+        JsonFileDnsEntryStorage fileStorage = newStorage(new File(folder.getRoot(), "dnsEntries.json"), false);
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        long writes = fileStorage.getStatistics().getWrites();
+        long generation = fileStorage.getGeneration();
+        
+        fileStorage.addDnsEntry(new DnsEntryARecord("host.example.com", "10.0.0.1"));
+        fileStorage.addDnsEntries(Arrays.asList(new DnsEntryARecord("host.example.com", "10.0.0.1")));
+        assertEquals(writes, fileStorage.getStatistics().getWrites());
+        assertEquals(generation, fileStorage.getGeneration());
+    }
 }
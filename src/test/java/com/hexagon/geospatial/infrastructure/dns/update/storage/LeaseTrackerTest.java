@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Chris
+ */
+public class LeaseTrackerTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    JsonFileDnsEntryStorage storage;
+    LeaseTracker leaseTracker;
+    
+    @Before
+    public void setUp() throws IOException {
+        storage = new JsonFileDnsEntryStorage();
+        storage.jsonStorageFile = new File(folder.getRoot(), "dnsEntries.json");
+        storage.postConstruct();
+        leaseTracker = new LeaseTracker();
+        leaseTracker.dnsEntriesStorage = storage;
+        leaseTracker.tickMillis = 1000;
+        leaseTracker.batchSize = 1;
+        leaseTracker.retryMillis = 30000;
+        leaseTracker.wheel = new TimerWheel<>(1000, 0);
+    }
+    
+    static DnsEntry leased(DnsEntry dnsEntry, long lease) {
+        dnsEntry.setLease(lease);
+        return dnsEntry;
+    }
+    
+    void register(DnsEntry dnsEntry, long now) throws IOException {
+        leaseTracker.renew(dnsEntry, now);
+        storage.addDnsEntry(dnsEntry);
+    }
+    
+    @Test
+    public void expiredEntriesAreRemovedAndRenewedOnesKept() throws IOException {
+        register(leased(new DnsEntryARecord("a.example.com", "10.0.0.1"), 60), 0);
+        register(leased(new DnsEntryARecord("b.example.com", "10.0.0.2"), 60), 0);
+        register(leased(new DnsEntryCname("c.example.com", "a.example.com"), 60), 0);
+        register(new DnsEntryARecord("permanent.example.com", "10.0.0.3"), 0);
+        long generation = storage.getGeneration();
+        
+        register(leased(new DnsEntryARecord("b.example.com", "10.0.0.2"), 60), 30000);
+        assertEquals(0, leaseTracker.expire(59000));
+        assertEquals(2, leaseTracker.expire(60000));
+        
+        assertNull(storage.getDnsEntry("a.example.com"));
+        assertNull(storage.getDnsEntry("c.example.com"));
+        assertNotNull(storage.getDnsEntry("permanent.example.com"));
+        assertEquals(2, storage.listDnsEntriesRetiredSince(generation).size());
+        assertEquals(1, leaseTracker.size());
+        assertEquals(1, leaseTracker.expire(90000));
+        assertEquals(1, storage.listAllDnsEnrties().size());
+    }
+    
+    @Test
+    public void reRegisteringWithoutALeaseKeepsTheEntry() throws IOException {
+        register(leased(new DnsEntryARecord("a.example.com", "10.0.0.1"), 60), 0);
+        register(new DnsEntryARecord("a.example.com", "10.0.0.1"), 10000);
+        
+        assertEquals(0, leaseTracker.expire(120000));
+        assertEquals(Arrays.asList(new DnsEntryARecord("a.example.com", "10.0.0.1")), storage.listAllDnsEnrties());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class TimerWheelTest {
+    
+    @Test
+    public void timersFireInDeadlineOrderOnceTheirTickPasses() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, 0);
+        wheel.schedule("late", 5000);
+        wheel.schedule("early", 2500);
+        
+        assertTrue(wheel.advance(2000).isEmpty());
+        assertEquals(Arrays.asList("early"), wheel.advance(3000));
+        assertEquals(Arrays.asList("late"), wheel.advance(10000));
+        assertEquals(0, wheel.size());
+    }
+    
+    @Test
+    public void distantTimersAreCascadedDown() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, 0);
+        long deadline = 86400L * 1000 * 3 + 17000;
+        wheel.schedule("three-days", deadline);
+        wheel.schedule("hour", 3600L * 1000);
+        
+        assertEquals(Arrays.asList("hour"), wheel.advance(3600L * 1000));
+        assertTrue(wheel.advance(deadline - 1000).isEmpty());
+        assertEquals(Arrays.asList("three-days"), wheel.advance(deadline));
+    }
+    
+    @Test
+    public void reschedulingReplacesTheDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, 0);
+        wheel.schedule("host", 5000);
+        wheel.schedule("host", 70000);
+        wheel.schedule("cancelled", 3000);
+        assertTrue(wheel.cancel("cancelled"));
+        
+        assertTrue(wheel.advance(60000).isEmpty());
+        assertTrue(wheel.contains("host"));
+        assertEquals(Collections.singletonList("host"), wheel.advance(70000));
+    }
+    
+    @Test
+    public void pastDeadlineFiresOnTheNextAdvance() {
+        TimerWheel<String> wheel = new TimerWheel<>(1000, 50000);
+        wheel.schedule("overdue", 1000);
+        assertEquals(Arrays.asList("overdue"), wheel.advance(50000));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsBatchResult;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class DnsPushPipelineTest {
+    
+    DnsPushPipeline pipeline;
+    
+    @Before
+    public void setUp() {
+        pipeline = new DnsPushPipeline();
+        pipeline.dnsClient = mock(DnsClient.class);
+        pipeline.threads = 4;
+        pipeline.useVirtualThreads = false;
+        pipeline.sliceSize = 10;
+        pipeline.maxInFlight = 4;
+        pipeline.timeoutMillis = 5000;
+        pipeline.postConstruct();
+    }
+    
+    @After
+    public void tearDown() {
+        pipeline.preDestroy();
+    }
+    
+    static List<DnsEntry> entries(int count) {
+        List<DnsEntry> dnsEntries = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            dnsEntries.add(new DnsEntryARecord(String.format("host%d.example.com", i), String.format("10.0.0.%d", i)));
+        }
+        return dnsEntries;
+    }
+    
+    static DnsBatchResult succeedAfter(List<DnsEntry> slice, long millis) throws InterruptedException {
+        Thread.sleep(millis);
+        DnsBatchResult result = new DnsBatchResult();
+        result.getSucceeded().addAll(slice);
+        return result;
+    }
+    
+    @Test
+    public void slicesArePushedConcurrently() {
+        when(pipeline.dnsClient.applyBatch(eq("ns1"), any())).thenAnswer((invocation) -> succeedAfter(invocation.getArgument(1), 300));
+        
+        long start = System.currentTimeMillis();
+        DnsBatchResult result = pipeline.push("ns1", entries(40));
+        long elapsed = System.currentTimeMillis() - start;
+        
+        assertEquals(40, result.getSucceeded().size());
+        verify(pipeline.dnsClient, times(4)).applyBatch(eq("ns1"), any());
+        assertTrue(String.format("took %d ms", elapsed), elapsed < 1000);
+    }
+    
+    @Test
+    public void slowSliceTimesOutWithoutBlockingTheOthers() {
+        pipeline.timeoutMillis = 500;
+        List<DnsEntry> dnsEntries = entries(20);
+        when(pipeline.dnsClient.applyBatch(eq("ns1"), any())).thenAnswer((invocation) -> {
+            List<DnsEntry> slice = invocation.getArgument(1);
+            return succeedAfter(slice, slice.contains(dnsEntries.get(0)) ? 10000 : 10);
+        });
+        
+        DnsBatchResult result = pipeline.push("ns1", dnsEntries);
+        
+        assertEquals(10, result.getSucceeded().size());
+        assertEquals(10, result.getFailed().size());
+        assertTrue(result.getFailed().get(dnsEntries.get(0)) instanceof TimeoutException);
+    }
+}
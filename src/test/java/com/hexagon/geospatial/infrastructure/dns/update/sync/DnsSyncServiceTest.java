@@ -0,0 +1,455 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsBatchResult;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsServerUnavailableException;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntry;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryStatus;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DriftReport;
+import com.hexagon.geospatial.infrastructure.dns.update.storage.DnsEntryStorage;
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import static org.mockito.Mockito.*;
+import org.mockito.MockitoAnnotations;
+
+/**
+ *
+ * @author Chris
+ */
+public class DnsSyncServiceTest {
+    
+    @Mock
+    DnsEntryStorage dnsEntriesStorage;
+    
+    @Mock
+    DnsPushPipeline pushPipeline;
+    
+    @Mock
+    DnsClient dnsClient;
+    
+    @Mock
+    ZoneReconciler zoneReconciler;
+    
+    @InjectMocks
+    DnsSyncService dnsSyncService;
+    
+    DnsEntryARecord first = new DnsEntryARecord("first.example.com", "10.0.0.1");
+    DnsEntryARecord second = new DnsEntryARecord("second.example.com", "10.0.0.2");
+    
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        dnsSyncService.dnsUpdatePeriod = 600000;
+        dnsSyncService.retryInitialDelayMillis = 60000;
+        dnsSyncService.retryMaxDelayMillis = 600000;
+        dnsSyncService.syncExecutor = Runnable::run;
+        when(dnsClient.getServers()).thenReturn(Collections.singletonList("ns1"));
+        postConstruct();
+        when(pushPipeline.push(eq("ns1"), any())).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+    }
+    
+    void postConstruct() {
+        dnsSyncService.postConstruct();
+        dnsSyncService.getServerSyncs().stream().forEach((serverSync) -> serverSync.lastFullSyncTime = Instant.now().toEpochMilli());
+    }
+    
+    ServerSync ns1() {
+        return dnsSyncService.serverSyncs.get("ns1");
+    }
+    
+    static DnsBatchResult succeed(List<DnsEntry> dnsEntries) {
+        DnsBatchResult result = new DnsBatchResult();
+        result.getSucceeded().addAll(dnsEntries);
+        return result;
+    }
+    
+    @Test
+    public void onlyChangedEntriesArePushed() throws Exception {
+        when(dnsEntriesStorage.getGeneration()).thenReturn(2L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Arrays.asList(first, second));
+        dnsSyncService.sync();
+        
+        when(dnsEntriesStorage.getGeneration()).thenReturn(3L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(2L)).thenReturn(Collections.singletonList(second));
+        dnsSyncService.sync();
+        
+        verify(pushPipeline).push("ns1", Arrays.asList(first, second));
+        verify(pushPipeline).push("ns1", Collections.singletonList(second));
+        verify(dnsEntriesStorage, never()).listAllDnsEnrties();
+        assertEquals(1, dnsSyncService.getStatistics().getLastDirtySetSize());
+    }
+    
+    @Test
+    public void cnamesArePushedAfterWhatTheyPointAtAndDeletedBefore() throws Exception {
+        DnsEntry alias = new DnsEntryCname("alias.example.com", "first.example.com");
+        DnsEntry www = new DnsEntryCname("www.example.com", "alias.example.com");
+        DnsEntry old = new DnsEntryARecord("old.example.com", "10.0.0.3");
+        DnsEntry oldAlias = new DnsEntryCname("oldalias.example.com", "old.example.com");
+        when(dnsEntriesStorage.getGeneration()).thenReturn(6L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Arrays.asList(www, alias, first, second));
+        when(dnsEntriesStorage.listDnsEntriesRetiredSince(0L)).thenReturn(Arrays.asList(old, oldAlias));
+        when(pushPipeline.delete(eq("ns1"), any())).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+        dnsSyncService.sync();
+        
+        InOrder pushes = inOrder(pushPipeline);
+        pushes.verify(pushPipeline).push("ns1", Arrays.asList(first, second));
+        pushes.verify(pushPipeline).push("ns1", Collections.singletonList(alias));
+        pushes.verify(pushPipeline).push("ns1", Collections.singletonList(www));
+        InOrder deletes = inOrder(pushPipeline);
+        deletes.verify(pushPipeline).delete("ns1", Collections.singletonList(oldAlias));
+        deletes.verify(pushPipeline).delete("ns1", Collections.singletonList(old));
+        assertEquals(0, dnsSyncService.getStatistics().getPendingRetries());
+    }
+    
+    @Test
+    public void laterLevelsAreNotSentOnceTheServerIsUnavailable() throws Exception {
+        DnsEntry alias = new DnsEntryCname("alias.example.com", "first.example.com");
+        DnsBatchResult unavailable = refused(first);
+        unavailable.setUnavailable(new DnsServerUnavailableException("No response from ns1"));
+        when(pushPipeline.push("ns1", Collections.singletonList(first))).thenReturn(unavailable);
+        when(dnsEntriesStorage.getGeneration()).thenReturn(2L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Arrays.asList(alias, first));
+        dnsSyncService.sync();
+        
+        verify(pushPipeline, never()).push("ns1", Collections.singletonList(alias));
+        assertEquals(2, dnsSyncService.getStatistics().getPendingRetries());
+    }
+    
+    @Test
+    public void signalledSyncsLeaveTheFullSyncToReconciliation() throws Exception {
+        ns1().lastFullSyncTime = 0;
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(first));
+        dnsSyncService.syncChanges();
+        verify(dnsEntriesStorage, never()).listAllDnsEnrties();
+        
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Arrays.asList(first, second));
+        dnsSyncService.sync();
+        assertTrue(dnsSyncService.getStatistics().isLastSyncFull());
+    }
+    
+    @Test
+    public void changesSignalledDuringASyncAreSyncedRightAfterIt() throws Exception {
+        Deque<Runnable> tasks = new ArrayDeque<>();
+        dnsSyncService.syncExecutor = tasks::add;
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(first));
+        dnsSyncService.syncChanges();
+        
+        // signalled while the first sync is still queued
+        dnsSyncService.syncChanges();
+        dnsSyncService.syncChanges();
+        assertEquals(1, tasks.size());
+        
+        tasks.poll().run();
+        when(dnsEntriesStorage.getGeneration()).thenReturn(2L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(1L)).thenReturn(Collections.singletonList(second));
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        assertTrue(tasks.isEmpty());
+        
+        verify(pushPipeline).push("ns1", Collections.singletonList(first));
+        verify(pushPipeline).push("ns1", Collections.singletonList(second));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void reconcilingByTransferNeedsAClientThatCanTransfer() {
+        dnsSyncService.reconcileByTransfer = true;
+        dnsSyncService.postConstruct();
+    }
+    
+    @Test
+    public void reconcilingByTransferPushesOnlyWhatTheZoneLacks() throws Exception {
+        dnsSyncService.reconcileByTransfer = true;
+        when(dnsClient.supportsZoneTransfer()).thenReturn(true);
+        postConstruct();
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Arrays.asList(first, second));
+        dnsSyncService.syncChanges();
+        
+        ns1().lastFullSyncTime = 0;
+        DriftReport report = new DriftReport();
+        DriftReport.EntryDrift drift = new DriftReport.EntryDrift();
+        drift.setDnsEntry(second);
+        report.getDrifted().add(drift);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Arrays.asList(first, second));
+        when(zoneReconciler.reconcile("ns1", Arrays.asList(first, second))).thenReturn(report);
+        dnsSyncService.sync();
+        
+        // pushed a moment ago, but the zone says otherwise
+        verify(pushPipeline).push("ns1", Collections.singletonList(second));
+        assertTrue(dnsSyncService.getStatistics().isLastSyncFull());
+        assertEquals(1, dnsSyncService.getStatistics().getLastDirtySetSize());
+    }
+    
+    @Test
+    public void nothingIsPushedWhenGenerationIsUnchanged() throws Exception {
+        when(dnsEntriesStorage.getGeneration()).thenReturn(0L);
+        dnsSyncService.sync();
+        
+        verify(dnsEntriesStorage, never()).listDnsEntriesChangedSince(anyLong());
+        verifyZeroInteractions(pushPipeline);
+    }
+    
+    @Test
+    public void failedEntryWaitsForItsBackoff() throws Exception {
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(first));
+        when(dnsEntriesStorage.getDnsEntry(first.getFqdn())).thenReturn(first);
+        when(pushPipeline.push("ns1", Collections.singletonList(first))).thenReturn(refused(first));
+        dnsSyncService.sync();
+        assertEquals(1, dnsSyncService.getStatistics().getPendingRetries());
+        
+        dnsSyncService.sync();
+        dnsSyncService.retry();
+        verify(pushPipeline, times(1)).push("ns1", Collections.singletonList(first));
+        
+        DnsEntryStatus status = dnsSyncService.getStatus(first);
+        assertEquals(DnsEntryStatus.State.RETRYING, status.getState());
+        assertEquals(1, status.getRetry().getAttempts());
+        assertEquals("refused", status.getRetry().getLastError());
+        assertTrue(status.getRetry().getNextAttemptTime() >= status.getRetry().getLastAttemptTime() + 30000);
+    }
+    
+    @Test
+    public void dueEntryIsRetriedWithoutWaitingForSync() throws Exception {
+        ns1().retryQueue.initialDelayMillis = 0;
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(first));
+        when(dnsEntriesStorage.getDnsEntry(first.getFqdn())).thenReturn(first);
+        when(pushPipeline.push("ns1", Collections.singletonList(first))).thenReturn(refused(first)).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+        dnsSyncService.sync();
+        
+        dnsSyncService.retry();
+        
+        verify(pushPipeline, times(2)).push("ns1", Collections.singletonList(first));
+        verify(dnsEntriesStorage, times(1)).listDnsEntriesChangedSince(anyLong());
+        assertEquals(0, dnsSyncService.getStatistics().getPendingRetries());
+        assertEquals(1, dnsSyncService.getStatistics().getTotalRetryRuns());
+        assertEquals(DnsEntryStatus.State.PUSHED, dnsSyncService.getStatus(first).getState());
+    }
+    
+    @Test
+    public void newValueIsPushedDespiteBackoff() throws Exception {
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(first));
+        when(pushPipeline.push("ns1", Collections.singletonList(first))).thenReturn(refused(first));
+        dnsSyncService.sync();
+        
+        DnsEntryARecord moved = new DnsEntryARecord("first.example.com", "10.0.0.9");
+        when(dnsEntriesStorage.getGeneration()).thenReturn(2L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(1L)).thenReturn(Collections.singletonList(moved));
+        dnsSyncService.sync();
+        
+        verify(pushPipeline).push("ns1", Collections.singletonList(moved));
+        assertEquals(0, dnsSyncService.getStatistics().getPendingRetries());
+    }
+    
+    @Test
+    public void retryDropsEntriesNoLongerStored() throws Exception {
+        ns1().retryQueue.recordFailure(first, new IllegalStateException("refused"), 0);
+        dnsSyncService.retry();
+        
+        verifyZeroInteractions(pushPipeline);
+        assertNull(ns1().retryQueue.get(first.getFqdn()));
+    }
+    
+    @Test
+    public void removedEntryIsDeletedAndAFailedDeleteRetried() throws Exception {
+        ns1().retryQueue.initialDelayMillis = 0;
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesRetiredSince(0L)).thenReturn(Collections.singletonList(first));
+        when(pushPipeline.delete("ns1", Collections.singletonList(first))).thenReturn(refused(first)).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+        dnsSyncService.sync();
+        assertTrue(ns1().retryQueue.isPendingDelete(first));
+        
+        dnsSyncService.retry();
+        
+        verify(pushPipeline, times(2)).delete("ns1", Collections.singletonList(first));
+        verify(pushPipeline, never()).push(eq("ns1"), any());
+        assertEquals(0, dnsSyncService.getStatistics().getPendingRetries());
+        assertEquals(1, dnsSyncService.getStatistics().getTotalEntriesDeleted());
+        
+        dnsSyncService.sync();
+        verify(dnsEntriesStorage).pruneRetiredUpTo(1L);
+    }
+    
+    @Test
+    public void retiredAddressIsDeletedEvenThoughTheNameIsStillStored() throws Exception {
+        ns1().retryQueue.initialDelayMillis = 0;
+        DnsEntryARecord moved = new DnsEntryARecord("first.example.com", "10.0.0.9");
+        when(dnsEntriesStorage.getGeneration()).thenReturn(2L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(moved));
+        when(dnsEntriesStorage.listDnsEntriesRetiredSince(0L)).thenReturn(Collections.singletonList(first));
+        when(dnsEntriesStorage.getDnsEntry(first.getFqdn())).thenReturn(moved);
+        when(pushPipeline.delete("ns1", Collections.singletonList(first))).thenReturn(refused(first)).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+        dnsSyncService.sync();
+        assertEquals(DnsEntryStatus.State.PUSHED, dnsSyncService.getStatus(moved).getState());
+        
+        dnsSyncService.retry();
+        
+        verify(pushPipeline, times(2)).delete("ns1", Collections.singletonList(first));
+        verify(pushPipeline, times(1)).push("ns1", Collections.singletonList(moved));
+        assertEquals(0, dnsSyncService.getStatistics().getPendingRetries());
+    }
+    
+    @Test
+    public void failedPushAndFailedDeleteOfOneNameAreBothRetried() throws Exception {
+        ns1().retryQueue.initialDelayMillis = 0;
+        DnsEntryARecord moved = new DnsEntryARecord("first.example.com", "10.0.0.9");
+        when(dnsEntriesStorage.getGeneration()).thenReturn(2L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(moved));
+        when(dnsEntriesStorage.listDnsEntriesRetiredSince(0L)).thenReturn(Collections.singletonList(first));
+        when(dnsEntriesStorage.getDnsEntry(first.getFqdn())).thenReturn(moved);
+        when(pushPipeline.push("ns1", Collections.singletonList(moved))).thenReturn(refused(moved)).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+        when(pushPipeline.delete("ns1", Collections.singletonList(first))).thenReturn(refused(first)).thenAnswer((invocation) -> succeed(invocation.getArgument(1)));
+        dnsSyncService.sync();
+        assertEquals(2, dnsSyncService.getStatistics().getPendingRetries());
+        assertTrue(ns1().retryQueue.isPendingDelete(first));
+        assertEquals(moved, ns1().retryQueue.get(moved.getFqdn()).getDnsEntry());
+
+        dnsSyncService.retry();
+
+        verify(pushPipeline, times(2)).push("ns1", Collections.singletonList(moved));
+        verify(pushPipeline, times(2)).delete("ns1", Collections.singletonList(first));
+        assertEquals(0, dnsSyncService.getStatistics().getPendingRetries());
+    }
+
+    static DnsBatchResult refused(DnsEntry dnsEntry) {
+        DnsBatchResult refused = new DnsBatchResult();
+        refused.getFailed().put(dnsEntry, new IllegalStateException("refused"));
+        return refused;
+    }
+    
+    @Test
+    public void fullSyncPushesEverythingOncePerPeriod() throws Exception {
+        ns1().lastFullSyncTime = Instant.now().toEpochMilli() - dnsSyncService.dnsUpdatePeriod;
+        when(dnsEntriesStorage.getGeneration()).thenReturn(0L);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Arrays.asList(first, second));
+        dnsSyncService.sync();
+        dnsSyncService.sync();
+        
+        verify(dnsEntriesStorage, times(1)).listAllDnsEnrties();
+        assertTrue(dnsSyncService.getStatistics().isLastSyncFull());
+    }
+    
+    @Test
+    public void unchangedEntriesAreSkippedUntilReassertPeriod() throws Exception {
+        dnsSyncService.dnsReassertPeriod = 3600000;
+        dnsSyncService.postConstruct();
+        when(dnsEntriesStorage.getGeneration()).thenReturn(0L);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Arrays.asList(first, second));
+        dnsSyncService.sync();
+        verify(pushPipeline).push("ns1", Arrays.asList(first, second));
+        
+        DnsEntryARecord moved = new DnsEntryARecord("second.example.com", "10.0.0.3");
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Arrays.asList(first, moved));
+        ns1().lastFullSyncTime -= dnsSyncService.dnsUpdatePeriod;
+        dnsSyncService.sync();
+        verify(pushPipeline).push("ns1", Collections.singletonList(moved));
+        assertEquals(1, dnsSyncService.getStatistics().getLastSkippedCount());
+        assertEquals(3, dnsSyncService.getStatistics().getTotalEntriesPushed());
+        
+        ns1().pushedStateCache.recordPushed(first, Instant.now().toEpochMilli() - dnsSyncService.dnsReassertPeriod);
+        ns1().lastFullSyncTime -= dnsSyncService.dnsUpdatePeriod;
+        dnsSyncService.sync();
+        verify(pushPipeline).push("ns1", Collections.singletonList(first));
+        assertEquals(2, dnsSyncService.getStatistics().getTotalEntriesSkipped());
+    }
+    
+    @Test
+    public void renewedLeaseIsNotPushedAgain() throws Exception {
+        dnsSyncService.dnsReassertPeriod = 3600000;
+        dnsSyncService.postConstruct();
+        when(dnsEntriesStorage.getGeneration()).thenReturn(0L);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Collections.singletonList(first));
+        dnsSyncService.sync();
+        verify(pushPipeline).push("ns1", Collections.singletonList(first));
+        
+        DnsEntryARecord renewed = new DnsEntryARecord("first.example.com", "10.0.0.1");
+        renewed.setLease(600);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Collections.singletonList(renewed));
+        ns1().lastFullSyncTime -= dnsSyncService.dnsUpdatePeriod;
+        dnsSyncService.sync();
+        verify(pushPipeline, times(1)).push(eq("ns1"), any());
+        assertEquals(1, dnsSyncService.getStatistics().getLastSkippedCount());
+        
+        DnsEntryARecord longerTtl = new DnsEntryARecord("first.example.com", "10.0.0.1", 300);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Collections.singletonList(longerTtl));
+        ns1().lastFullSyncTime -= dnsSyncService.dnsUpdatePeriod;
+        dnsSyncService.sync();
+        verify(pushPipeline).push("ns1", Collections.singletonList(longerTtl));
+    }
+    
+    @Test
+    public void failedEntryIsNotSkipped() throws Exception {
+        dnsSyncService.dnsReassertPeriod = 3600000;
+        dnsSyncService.postConstruct();
+        ns1().pushedStateCache.recordPushed(first, Instant.now().toEpochMilli());
+        when(dnsEntriesStorage.getGeneration()).thenReturn(0L);
+        when(dnsEntriesStorage.listAllDnsEnrties()).thenReturn(Collections.singletonList(first));
+        dnsSyncService.sync();
+        verifyZeroInteractions(pushPipeline);
+        
+        ns1().pushedStateCache.forget(first);
+        ns1().lastFullSyncTime -= dnsSyncService.dnsUpdatePeriod;
+        dnsSyncService.sync();
+        verify(pushPipeline).push("ns1", Collections.singletonList(first));
+    }
+    
+    @Test
+    public void serversAreSyncedIndependently() throws Exception {
+        when(dnsClient.getServers()).thenReturn(Arrays.asList("ns1", "ns2"));
+        postConstruct();
+        when(pushPipeline.push(eq("ns2"), any())).thenAnswer((invocation) -> refused(first));
+        when(dnsEntriesStorage.getGeneration()).thenReturn(1L);
+        when(dnsEntriesStorage.listDnsEntriesChangedSince(0L)).thenReturn(Collections.singletonList(first));
+        dnsSyncService.sync();
+        
+        assertEquals(0, dnsSyncService.getStatistics().getServers().get("ns1").getPendingRetries());
+        assertEquals(1, dnsSyncService.getStatistics().getServers().get("ns2").getPendingRetries());
+        assertEquals(1, dnsSyncService.getStatistics().getPendingRetries());
+        assertEquals(1, dnsSyncService.getBacklog());
+        
+        DnsEntryStatus status = dnsSyncService.getStatus(first);
+        assertEquals(DnsEntryStatus.State.RETRYING, status.getState());
+        assertEquals(DnsEntryStatus.State.PUSHED, status.getServers().get(0).getState());
+        assertEquals(DnsEntryStatus.State.RETRYING, status.getServers().get(1).getState());
+        assertEquals(0, status.getLastPushedTime());
+    }
+    
+    @Test
+    public void retryFileIsNamedAfterTheServer() {
+        assertEquals(new File("data", "dnsRetries-ns1.example.com.json"), 
+                DnsSyncService.retryFileFor(new File("data", "dnsRetries.json"), "ns1.example.com"));
+        assertEquals(new File("dnsRetries-10.0.0.1_53"), DnsSyncService.retryFileFor(new File("dnsRetries"), "10.0.0.1:53"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsRetryState;
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Chris
+ */
+public class RetryQueueTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    DnsEntryARecord first = new DnsEntryARecord("first.example.com", "10.0.0.1");
+    DnsEntryCname second = new DnsEntryCname("second.example.com", "first.example.com");
+    
+    RetryQueue newRetryQueue(File file) {
+        RetryQueue retryQueue = new RetryQueue(1000, 8000, file);
+        retryQueue.load();
+        return retryQueue;
+    }
+    
+    @Test
+    public void backoffDoublesWithJitterUpToMaximum() {
+        RetryQueue retryQueue = newRetryQueue(null);
+        for(int i = 0; i < 100; i++) {
+            long first = retryQueue.backoff(1);
+            assertTrue(first >= 500 && first <= 1000);
+            long third = retryQueue.backoff(3);
+            assertTrue(third >= 2000 && third <= 4000);
+            long capped = retryQueue.backoff(40);
+            assertTrue(capped >= 4000 && capped <= 8000);
+        }
+    }
+    
+    @Test
+    public void entriesComeDueInOrder() {
+        RetryQueue retryQueue = newRetryQueue(null);
+        retryQueue.recordFailure(second, new IllegalStateException("refused"), 0);
+        retryQueue.recordFailure(first, new IllegalStateException("refused"), 0);
+        retryQueue.recordFailure(first, new IllegalStateException("refused"), 0);
+        retryQueue.recordFailure(first, new IllegalStateException("refused"), 0);
+        
+        assertTrue(retryQueue.listDue(0).isEmpty());
+        assertEquals(Arrays.asList(second), retryQueue.listDue(1000));
+        assertEquals(Arrays.asList(second, first), retryQueue.listDue(4000));
+        assertEquals(3, retryQueue.get(first.getFqdn()).getAttempts());
+        
+        retryQueue.remove(second.getFqdn());
+        assertEquals(Arrays.asList(first), retryQueue.listDue(4000));
+    }
+    
+    @Test
+    public void pushAndDeleteOfOneNameAreQueuedApart() {
+        File file = new File(folder.getRoot(), "dnsRetries.json");
+        RetryQueue retryQueue = newRetryQueue(file);
+        DnsEntryARecord moved = new DnsEntryARecord("first.example.com", "10.0.0.9");
+        DnsEntryARecord older = new DnsEntryARecord("first.example.com", "10.0.0.8");
+        retryQueue.recordFailure(first, new IllegalStateException("refused"), 0, true);
+        retryQueue.recordFailure(older, new IllegalStateException("refused"), 0, true);
+        retryQueue.recordFailure(moved, new IllegalStateException("refused"), 0);
+        retryQueue.persist();
+
+        RetryQueue restarted = newRetryQueue(file);
+        assertEquals(3, restarted.size());
+        assertEquals(Arrays.asList(moved), restarted.listDue(Long.MAX_VALUE));
+        assertEquals(2, restarted.listDueDeletes(Long.MAX_VALUE).size());
+        assertEquals(moved, restarted.get(first.getFqdn()).getDnsEntry());
+
+        restarted.remove(moved.getFqdn());
+        assertTrue(restarted.isPendingDelete(first));
+        restarted.removeDelete(first);
+        assertTrue(restarted.isPendingDelete(older));
+        assertEquals(1, restarted.size());
+    }
+
+    @Test
+    public void stateSurvivesRestart() {
+        File file = new File(folder.getRoot(), "dnsRetries.json");
+        RetryQueue retryQueue = newRetryQueue(file);
+        retryQueue.recordFailure(first, new IllegalStateException("refused"), 100);
+        retryQueue.recordFailure(second, new IllegalStateException("timed out"), 200);
+        retryQueue.persist();
+        
+        RetryQueue restarted = newRetryQueue(file);
+        assertEquals(2, restarted.size());
+        DnsRetryState retry = restarted.get(second.getFqdn());
+        assertEquals(second, retry.getDnsEntry());
+        assertEquals("timed out", retry.getLastError());
+        assertEquals(200, retry.getFirstFailureTime());
+        assertEquals(2, restarted.listDue(Long.MAX_VALUE).size());
+    }
+}
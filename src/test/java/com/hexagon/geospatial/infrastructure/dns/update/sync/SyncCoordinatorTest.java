@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import static org.mockito.Mockito.*;
+import org.mockito.MockitoAnnotations;
+
+/**
+ *
+ * @author Chris
+ */
+public class SyncCoordinatorTest {
+    
+    static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    @Mock
+    DnsSyncService dnsSyncService;
+    
+    @Mock
+    ScheduledExecutorService scheduler;
+    
+    @InjectMocks
+    SyncCoordinator syncCoordinator;
+    
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        syncCoordinator.debounceMillis = 200;
+        syncCoordinator.maxDelayMillis = 1000;
+        syncCoordinator.meterRegistry = new SimpleMeterRegistry();
+    }
+    
+    @Test
+    public void burstIsSyncedOnceAfterItQuietens() {
+        syncCoordinator.signal(0);
+        syncCoordinator.signal(100 * MILLI);
+        syncCoordinator.signal(150 * MILLI);
+        verify(scheduler).schedule(any(Runnable.class), eq(200 * MILLI), eq(TimeUnit.NANOSECONDS));
+        
+        syncCoordinator.fire(200 * MILLI);
+        verify(scheduler).schedule(any(Runnable.class), eq(150 * MILLI), eq(TimeUnit.NANOSECONDS));
+        verify(dnsSyncService, never()).syncChanges();
+        
+        syncCoordinator.fire(350 * MILLI);
+        verify(dnsSyncService).syncChanges();
+        assertFalse(syncCoordinator.isPending());
+        assertEquals(3, syncCoordinator.meterRegistry.counter("dns.sync.signals").count(), 0);
+        assertEquals(1, syncCoordinator.meterRegistry.counter("dns.sync.triggered").count(), 0);
+    }
+    
+    @Test
+    public void steadySignalsAreSyncedByTheMaximumDelay() {
+        for(long now = 0; now < 1000 * MILLI; now += 100 * MILLI) {
+            syncCoordinator.signal(now);
+        }
+        assertEquals(100 * MILLI, syncCoordinator.remaining(900 * MILLI));
+        
+        syncCoordinator.fire(1000 * MILLI);
+        verify(dnsSyncService).syncChanges();
+    }
+    
+    @Test
+    public void signalAfterASyncStartsANewWindow() {
+        syncCoordinator.signal(0);
+        syncCoordinator.fire(200 * MILLI);
+        syncCoordinator.fire(200 * MILLI);
+        verify(dnsSyncService, times(1)).syncChanges();
+        
+        syncCoordinator.signal(5000 * MILLI);
+        assertTrue(syncCoordinator.isPending());
+        assertEquals(200 * MILLI, syncCoordinator.remaining(5000 * MILLI));
+    }
+}
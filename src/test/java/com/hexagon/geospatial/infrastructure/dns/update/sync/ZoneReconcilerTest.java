@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 Chris.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hexagon.geospatial.infrastructure.dns.update.sync;
+
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsClient;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsServerUnavailableException;
+import com.hexagon.geospatial.infrastructure.dns.update.client.DnsUpdatePlanner;
+import com.hexagon.geospatial.infrastructure.dns.update.client.ZoneResolver;
+import com.hexagon.geospatial.infrastructure.dns.update.client.ZoneTransfer;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsMessage;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsRecord;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsType;
+import com.hexagon.geospatial.infrastructure.dns.update.client.wire.DnsWireFormat;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryARecord;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DnsEntryCname;
+import com.hexagon.geospatial.infrastructure.dns.update.entity.DriftReport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.Mock;
+import static org.mockito.Mockito.*;
+import org.mockito.MockitoAnnotations;
+
+/**
+ *
+ * @author Chris
+ */
+public class ZoneReconcilerTest {
+    
+    @Mock
+    DnsClient dnsClient;
+    
+    ZoneReconciler zoneReconciler;
+    
+    DnsEntryARecord host = new DnsEntryARecord("host.example.com", "10.0.0.1");
+    DnsEntryCname alias = new DnsEntryCname("alias.example.com", "host.example.com");
+    
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        zoneReconciler = new ZoneReconciler();
+        zoneReconciler.dnsClient = dnsClient;
+        zoneReconciler.planner = new DnsUpdatePlanner(new ZoneResolver("example.com, 10.in-addr.arpa"));
+        zoneReconciler.meterRegistry = new SimpleMeterRegistry();
+    }
+    
+    static DnsRecord record(String name, int type, long ttl, byte[] rdata) {
+        return new DnsRecord(name, type, DnsType.CLASS_IN, ttl, rdata);
+    }
+    
+    static ZoneTransfer axfr(String zone, DnsRecord... records) {
+        DnsRecord soa = record(zone, DnsType.SOA, 3600, ZoneTransfer.soa(1));
+        DnsMessage response = new DnsMessage();
+        response.setFlags(DnsMessage.FLAG_QR);
+        response.getAnswer().add(soa);
+        response.getAnswer().addAll(Arrays.asList(records));
+        response.getAnswer().add(soa);
+        ZoneTransfer transfer = new ZoneTransfer(zone, null);
+        transfer.accept(response);
+        return transfer;
+    }
+    
+    @Test
+    public void onlyEntriesTheZoneDisagreesWithAreReported() throws Exception {
+        when(dnsClient.transferZone(eq("ns1"), eq("example.com"), any())).thenReturn(axfr("example.com", 
+                record("HOST.example.com", DnsType.A, 86400, new byte[] {10, 0, 0, 1}), 
+                record("alias.example.com", DnsType.CNAME, 300, DnsWireFormat.encodeName("host.example.com")), 
+                record("manual.example.com", DnsType.A, 300, new byte[] {10, 0, 0, 9})));
+        when(dnsClient.transferZone(eq("ns1"), eq("10.in-addr.arpa"), any())).thenReturn(axfr("10.in-addr.arpa", 
+                record("1.0.0.10.in-addr.arpa", DnsType.PTR, 86400, DnsWireFormat.encodeName("host.example.com"))));
+        
+        DriftReport report = zoneReconciler.reconcile("ns1", Arrays.asList(host, alias));
+        
+        assertEquals(1, report.getDrifted().size());
+        assertEquals(alias, report.getDrifted().get(0).getDnsEntry());
+        assertEquals(Arrays.asList("TTL 300 instead of 86400 on alias.example.com CNAME host.example.com"), 
+                report.getDrifted().get(0).getProblems());
+        assertEquals(0, report.getUnverifiedCount());
+        assertEquals(2, report.getZones().size());
+        assertEquals(1, report.getZones().get(1).getUnmanagedRecords());
+    }
+    
+    @Test
+    public void recordsInTheWayAndMissingRecordsAreDrift() throws Exception {
+        when(dnsClient.transferZone(eq("ns1"), eq("example.com"), any())).thenReturn(axfr("example.com", 
+                record("host.example.com", DnsType.A, 86400, new byte[] {10, 0, 0, 2}), 
+                record("host.example.com", DnsType.A, 86400, new byte[] {10, 0, 0, 1})));
+        when(dnsClient.transferZone(eq("ns1"), eq("10.in-addr.arpa"), any())).thenReturn(axfr("10.in-addr.arpa"));
+        
+        DriftReport report = zoneReconciler.reconcile("ns1", Arrays.asList(host));
+        
+        assertEquals(Arrays.asList("missing 1.0.0.10.in-addr.arpa PTR host.example.com", "unexpected host.example.com A 10.0.0.2"), 
+                report.getDrifted().get(0).getProblems());
+    }
+    
+    @Test
+    public void entriesInZonesThatCannotBeTransferredAreUnverified() throws Exception {
+        ZoneTransfer transfer = axfr("example.com", record("alias.example.com", DnsType.CNAME, 86400, DnsWireFormat.encodeName("host.example.com")));
+        when(dnsClient.transferZone(eq("ns1"), eq("example.com"), any())).thenReturn(transfer);
+        when(dnsClient.transferZone(eq("ns1"), eq("10.in-addr.arpa"), any())).thenThrow(new DnsServerUnavailableException("refused"));
+        
+        DriftReport report = zoneReconciler.reconcile("ns1", Arrays.asList(host, alias));
+        
+        assertEquals(1, report.getDrifted().size());
+        assertEquals(host, report.getDrifted().get(0).getDnsEntry());
+        assertTrue(report.getUnverified().isEmpty());
+        assertEquals("refused", report.getZones().get(0).getError());
+        
+        // the next transfer carries on from the last one
+        zoneReconciler.reconcile("ns1", Arrays.asList(alias));
+        verify(dnsClient).transferZone("ns1", "example.com", transfer.getContents());
+    }
+}